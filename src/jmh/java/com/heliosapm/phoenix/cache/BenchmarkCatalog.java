@@ -0,0 +1,237 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.opentsdb.uid.UniqueId;
+
+/**
+ * <p>Title: BenchmarkCatalog</p>
+ * <p>Description: Builds a private in-memory H2 SQL catalog of generated UIDs for the benchmarks, points
+ * {@link CacheImpl#jdbcUrl()} at it and hands out fresh cache files, so the benchmarks run anywhere without the production catalog.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.BenchmarkCatalog</code></p>
+ */
+
+public class BenchmarkCatalog {
+	/** Catalog serial number factory */
+	private static final AtomicInteger serial = new AtomicInteger(0);
+	/** The UID tables keyed by UID type */
+	static final Map<UniqueId.UniqueIdType, String> TABLES = new EnumMap<UniqueId.UniqueIdType, String>(UniqueId.UniqueIdType.class);
+	/** The name stems keyed by UID type */
+	static final Map<UniqueId.UniqueIdType, String[]> STEMS = new EnumMap<UniqueId.UniqueIdType, String[]>(UniqueId.UniqueIdType.class);
+
+	static {
+		TABLES.put(UniqueId.UniqueIdType.TAGK, "TSD_TAGK");
+		TABLES.put(UniqueId.UniqueIdType.TAGV, "TSD_TAGV");
+		TABLES.put(UniqueId.UniqueIdType.METRIC, "TSD_METRIC");
+		STEMS.put(UniqueId.UniqueIdType.TAGK, new String[]{"host", "dc", "app", "service", "instance", "cpu", "disk", "iface"});
+		STEMS.put(UniqueId.UniqueIdType.TAGV, new String[]{"web-%06d.east.prod.example.com", "db-%06d.west.prod.example.com", "cache-%06d.east.stage.example.com", "%d"});
+		STEMS.put(UniqueId.UniqueIdType.METRIC, new String[]{"sys.cpu.%d.user", "sys.mem.%d.free", "jvm.gc.%d.collections", "app.requests.%d.latency"});
+	}
+
+	/** The JDBC URL of the catalog */
+	final String jdbcUrl;
+	/** The open connection which keeps the in-memory catalog alive */
+	final Connection conn;
+	/** The uid hexes keyed by UID type */
+	final Map<UniqueId.UniqueIdType, String[]> uidHexes = new EnumMap<UniqueId.UniqueIdType, String[]>(UniqueId.UniqueIdType.class);
+	/** The UID names keyed by UID type */
+	final Map<UniqueId.UniqueIdType, String[]> names = new EnumMap<UniqueId.UniqueIdType, String[]>(UniqueId.UniqueIdType.class);
+
+	/**
+	 * Creates a new BenchmarkCatalog with the passed number of UIDs of each type and makes it the cache's SQL catalog
+	 * @param uidsPerType The number of UIDs to generate per UID type
+	 */
+	public BenchmarkCatalog(final int uidsPerType) {
+		if(uidsPerType < 1) throw new IllegalArgumentException("Invalid uid count [" + uidsPerType + "]");
+		jdbcUrl = "jdbc:h2:mem:bench" + serial.incrementAndGet() + ";DB_CLOSE_DELAY=-1";
+		try {
+			Class.forName(CacheImpl.JDBC_DRIVER);
+			conn = DriverManager.getConnection(jdbcUrl, "sa", "");
+			conn.setAutoCommit(false);
+			for(Map.Entry<UniqueId.UniqueIdType, String> entry: TABLES.entrySet()) {
+				generate(entry.getKey(), entry.getValue(), uidsPerType);
+			}
+			conn.commit();
+		} catch (Exception ex) {
+			throw new RuntimeException("Failed to generate benchmark catalog", ex);
+		}
+		System.setProperty(CacheImpl.JDBC_URL_PROP, jdbcUrl);
+	}
+
+	/**
+	 * Creates and fills the UID table for the passed type
+	 * @param type The UID type
+	 * @param table The table name
+	 * @param count The number of UIDs to generate
+	 * @throws SQLException thrown on any SQL error
+	 */
+	private void generate(final UniqueId.UniqueIdType type, final String table, final int count) throws SQLException {
+		final Statement st = conn.createStatement();
+		try {
+			st.execute("CREATE TABLE " + table + "(XUID CHAR(6) PRIMARY KEY, NAME VARCHAR(200))");
+		} finally {
+			st.close();
+		}
+		final String[] hexes = new String[count];
+		final String[] n = new String[count];
+		final PreparedStatement ps = conn.prepareStatement("INSERT INTO " + table + " VALUES(?, ?)");
+		try {
+			for(int i = 0; i < count; i++) {
+				hexes[i] = String.format("%06X", i + 1);
+				n[i] = name(type, i);
+				ps.setString(1, hexes[i]);
+				ps.setString(2, n[i]);
+				ps.addBatch();
+				if(i % 1000==999) ps.executeBatch();
+			}
+			ps.executeBatch();
+		} finally {
+			ps.close();
+		}
+		uidHexes.put(type, hexes);
+		names.put(type, n);
+	}
+
+	/**
+	 * Returns the generated name of the passed ordinal
+	 * @param type The UID type
+	 * @param ordinal The UID ordinal
+	 * @return the name
+	 */
+	public static String name(final UniqueId.UniqueIdType type, final int ordinal) {
+		final String[] stems = STEMS.get(type);
+		final String stem = stems[ordinal % stems.length];
+		if(stem.indexOf('%')!=-1) return String.format(stem, ordinal);
+		return ordinal < stems.length ? stem : stem + "." + ordinal;
+	}
+
+	/**
+	 * Generates UIDMetas with the same uids and names as a catalog, without creating one
+	 * @param type The UID type
+	 * @param count The number of UIDMetas to generate
+	 * @return the UIDMetas
+	 */
+	public static CachedUIDMeta[] uidMetas(final UniqueId.UniqueIdType type, final int count) {
+		final CachedUIDMeta[] metas = new CachedUIDMeta[count];
+		for(int i = 0; i < count; i++) {
+			metas[i] = new CachedUIDMeta(name(type, i), UniqueId.stringToUid(String.format("%06X", i + 1)), type);
+		}
+		return metas;
+	}
+
+	/**
+	 * Generates TSMetas with one metric and the passed number of tags, drawn from the same names as a catalog
+	 * @param count The number of TSMetas to generate
+	 * @param tagCount The number of tags per TSMeta
+	 * @param uidsPerType The number of UIDs per type the tsuids are drawn from
+	 * @return the TSMetas
+	 */
+	public static CachedTSMeta[] tsMetas(final int count, final int tagCount, final int uidsPerType) {
+		final CachedTSMeta[] metas = new CachedTSMeta[count];
+		final int tagks = Math.min(tagCount, STEMS.get(UniqueId.UniqueIdType.TAGK).length);
+		for(int i = 0; i < count; i++) {
+			final int metric = i % uidsPerType;
+			final StringBuilder tsuid = new StringBuilder(String.format("%06X", metric + 1));
+			final Map<String, String> tags = new TreeMap<String, String>();
+			for(int t = 0; t < tagks; t++) {
+				final int tagv = (i / (t + 1) + t) % uidsPerType;
+				tags.put(name(UniqueId.UniqueIdType.TAGK, t), name(UniqueId.UniqueIdType.TAGV, tagv));
+				tsuid.append(String.format("%06X%06X", t + 1, tagv + 1));
+			}
+			metas[i] = new CachedTSMeta(name(UniqueId.UniqueIdType.METRIC, metric), tags, UniqueId.stringToUid(tsuid.toString()));
+		}
+		return metas;
+	}
+
+	/**
+	 * Returns a new, non-existent cache file name in the temp directory
+	 * @param prefix The file name prefix
+	 * @return the file name
+	 */
+	public static String newCacheFile(final String prefix) {
+		try {
+			final File f = File.createTempFile(prefix, ".db");
+			f.delete();
+			f.deleteOnExit();
+			return f.getAbsolutePath();
+		} catch (IOException iex) {
+			throw new RuntimeException("Failed to create cache file name", iex);
+		}
+	}
+
+	/**
+	 * Deletes the passed cache file and its MapDB side files
+	 * @param fileName The cache file name
+	 */
+	public static void deleteCacheFile(final String fileName) {
+		final File f = new File(fileName);
+		final File dir = f.getAbsoluteFile().getParentFile();
+		final File[] files = dir.listFiles();
+		if(files==null) return;
+		for(File file: files) {
+			if(file.getName().startsWith(f.getName())) file.delete();
+		}
+	}
+
+	/**
+	 * Returns the generated uid hexes for the passed type
+	 * @param type The UID type
+	 * @return the uid hexes
+	 */
+	public String[] getUidHexes(final UniqueId.UniqueIdType type) {
+		return uidHexes.get(type);
+	}
+
+	/**
+	 * Returns the generated names for the passed type
+	 * @param type The UID type
+	 * @return the names
+	 */
+	public String[] getNames(final UniqueId.UniqueIdType type) {
+		return names.get(type);
+	}
+
+	/**
+	 * Drops the catalog
+	 */
+	public void close() {
+		try {
+			final Statement st = conn.createStatement();
+			st.execute("DROP ALL OBJECTS");
+			st.close();
+			conn.close();
+		} catch (Exception ex) {
+			/* No Op */
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.concurrent.TimeUnit;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Title: CacheImplBenchmark</p>
+ * <p>Description: Measures the {@link CacheImpl} UID operations against a cache preloaded from a generated {@link BenchmarkCatalog}.
+ * Run at increasing thread counts with <b><code>-t</code></b> or through {@link ScalingRunner} to see how the operations scale.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.CacheImplBenchmark</code></p>
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class CacheImplBenchmark {
+	/** The number of UIDs generated per UID type */
+	@Param({"100000"})
+	public int uids;
+	/** The UID type looked up */
+	@Param({"TAGV"})
+	public String uidType;
+
+	/** The generated catalog */
+	BenchmarkCatalog catalog;
+	/** The cache file name */
+	String fileName;
+	/** The cache under test */
+	CacheImpl cache;
+	/** The UID type looked up */
+	UniqueId.UniqueIdType type;
+	/** The generated uid hexes */
+	String[] hexes;
+	/** The generated names */
+	String[] names;
+	/** The uid hexes which are not in the catalog */
+	String[] missHexes;
+	/** The UIDMetas rewritten by the put benchmark */
+	CachedUIDMeta[] metas;
+
+	/**
+	 * Generates the catalog and preloads a new cache from it
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		catalog = new BenchmarkCatalog(uids);
+		type = UniqueId.UniqueIdType.valueOf(uidType);
+		hexes = catalog.getUidHexes(type);
+		names = catalog.getNames(type);
+		metas = new CachedUIDMeta[hexes.length];
+		missHexes = new String[hexes.length];
+		for(int i = 0; i < hexes.length; i++) {
+			missHexes[i] = String.format("%06X", 0x800000 + i);
+			metas[i] = new CachedUIDMeta(names[i], UniqueId.stringToUid(hexes[i]), type);
+		}
+		fileName = BenchmarkCatalog.newCacheFile("benchcache");
+		cache = CacheImpl.getInstance(fileName);
+	}
+
+	/**
+	 * Closes the cache and drops the catalog
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		cache.close();
+		BenchmarkCatalog.deleteCacheFile(fileName);
+		catalog.close();
+	}
+
+	/**
+	 * <p>Title: Cursor</p>
+	 * <p>Description: A per-thread xorshift generator of random key indexes, so threads do not contend on a shared random</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.CacheImplBenchmark.Cursor</code></p>
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		/** The generator state */
+		long seed = System.nanoTime() | 1L;
+
+		/**
+		 * Returns the next random index
+		 * @param bound The exclusive upper bound
+		 * @return the next index
+		 */
+		public int next(final int bound) {
+			long x = seed;
+			x ^= x << 13;
+			x ^= x >>> 7;
+			x ^= x << 17;
+			seed = x;
+			return (int)((x >>> 1) % bound);
+		}
+	}
+
+	/**
+	 * Looks up a cached UIDMeta by uid hex
+	 * @param c The thread's key cursor
+	 * @return the UIDMeta
+	 */
+	@Benchmark
+	public CachedUIDMeta getCachedUIDMeta(final Cursor c) {
+		return cache.getCachedUIDMeta(type, hexes[c.next(hexes.length)]);
+	}
+
+	/**
+	 * Looks up a uid hex which is not cached, which the UID filter should reject
+	 * @param c The thread's key cursor
+	 * @return null
+	 */
+	@Benchmark
+	public CachedUIDMeta getCachedUIDMetaMiss(final Cursor c) {
+		return cache.getCachedUIDMeta(type, missHexes[c.next(missHexes.length)]);
+	}
+
+	/**
+	 * Tests for a cached uid hex
+	 * @param c The thread's key cursor
+	 * @return true
+	 */
+	@Benchmark
+	public boolean containsUIDKey(final Cursor c) {
+		return cache.containsUIDKey(type, hexes[c.next(hexes.length)]);
+	}
+
+	/**
+	 * Looks up a cached UIDMeta by name
+	 * @param c The thread's key cursor
+	 * @return the UIDMeta
+	 */
+	@Benchmark
+	public CachedUIDMeta getUid(final Cursor c) {
+		return cache.getUid(type, names[c.next(hexes.length)]);
+	}
+
+	/**
+	 * Rewrites a cached UIDMeta
+	 * @param c The thread's key cursor
+	 */
+	@Benchmark
+	public void putCachedUIDMeta(final Cursor c) {
+		cache.putCachedUIDMeta(type, metas[c.next(hexes.length)]);
+	}
+
+	/**
+	 * Reloads the whole UID type from the catalog
+	 * @return the number of cached UIDs
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations=2, batchSize=1)
+	@Measurement(iterations=5, batchSize=1)
+	public long preLoad() {
+		return cache.preLoad(type);
+	}
+}
@@ -0,0 +1,127 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Title: ScalingRunner</p>
+ * <p>Description: Runs the selected benchmarks at 1, 2, 4 ... N threads and prints, for each benchmark and parameter
+ * combination, the score at each thread count with the speedup over one thread and the per-thread efficiency.</p>
+ * <p>Usage: <b><code>ScalingRunner [include regex] [max threads]</code></b>, which defaults to all cache benchmarks
+ * up to the number of available processors.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.ScalingRunner</code></p>
+ */
+
+public class ScalingRunner {
+	/** The default benchmark include pattern */
+	public static final String DEFAULT_INCLUDE = "com\\.heliosapm\\.phoenix\\.cache\\..*Benchmark.*";
+
+	/**
+	 * Runs the scaling sweep
+	 * @param args The optional include regex and max thread count
+	 * @throws RunnerException thrown if a benchmark fails
+	 */
+	public static void main(final String[] args) throws RunnerException {
+		final String include = args.length > 0 ? args[0] : DEFAULT_INCLUDE;
+		final int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		final List<Integer> threadCounts = threadCounts(maxThreads);
+		// benchmark + params --> scores by thread count index
+		final Map<String, double[]> scores = new LinkedHashMap<String, double[]>();
+		final Map<String, String> units = new LinkedHashMap<String, String>();
+		for(int t = 0; t < threadCounts.size(); t++) {
+			final Collection<RunResult> results = new Runner(new OptionsBuilder()
+				.include(include)
+				.threads(threadCounts.get(t))
+				.build()).run();
+			for(RunResult result: results) {
+				final String key = key(result.getParams());
+				double[] s = scores.get(key);
+				if(s==null) {
+					s = new double[threadCounts.size()];
+					scores.put(key, s);
+					units.put(key, result.getPrimaryResult().getScoreUnit());
+				}
+				s[t] = result.getPrimaryResult().getScore();
+			}
+		}
+		System.out.println("\n==================== Thread Scaling ====================");
+		for(Map.Entry<String, double[]> entry: scores.entrySet()) {
+			final String unit = units.get(entry.getKey());
+			// time per op units improve downwards, throughput units upwards
+			final boolean perOp = unit.endsWith("/op");
+			final double[] s = entry.getValue();
+			System.out.println("\n" + entry.getKey() + "  (" + unit + ")");
+			System.out.println(String.format("  %8s %16s %10s %12s", "threads", "score", "speedup", "efficiency"));
+			for(int t = 0; t < threadCounts.size(); t++) {
+				final int threads = threadCounts.get(t);
+				double speedup = s[0]==0 || s[t]==0 ? 0 : (perOp ? s[0] / s[t] : s[t] / s[0]);
+				// with time per op every thread does the measured work, so total speedup is per-thread speedup x threads
+				if(perOp) speedup *= threads;
+				System.out.println(String.format("  %8d %16.3f %9.2fx %11.1f%%", threads, s[t], speedup, speedup * 100D / threads));
+			}
+		}
+	}
+
+	/**
+	 * Returns the thread counts to run: the powers of 2 up to, and always including, the passed maximum
+	 * @param maxThreads The maximum thread count
+	 * @return the thread counts
+	 */
+	static List<Integer> threadCounts(final int maxThreads) {
+		if(maxThreads < 1) throw new IllegalArgumentException("Invalid max threads [" + maxThreads + "]");
+		final List<Integer> counts = new ArrayList<Integer>();
+		for(int t = 1; t < maxThreads; t <<= 1) {
+			counts.add(t);
+		}
+		counts.add(maxThreads);
+		return counts;
+	}
+
+	/**
+	 * Builds the result key for a benchmark and its parameters
+	 * @param params The benchmark parameters
+	 * @return the key
+	 */
+	static String key(final BenchmarkParams params) {
+		final StringBuilder b = new StringBuilder(params.getBenchmark());
+		final Collection<String> keys = params.getParamsKeys();
+		if(!keys.isEmpty()) {
+			b.append(" [");
+			for(String k: keys) {
+				b.append(k).append('=').append(params.getParam(k)).append(", ");
+			}
+			b.setLength(b.length() - 2);
+			b.append(']');
+		}
+		return b.toString();
+	}
+}
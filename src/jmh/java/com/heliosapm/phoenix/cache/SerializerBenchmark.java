@@ -0,0 +1,165 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.mapdb.DataIO;
+import org.mapdb.Serializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.heliosapm.phoenix.cache.CacheImplBenchmark.Cursor;
+import com.heliosapm.phoenix.cache.CachedTSMeta.CachedTSMetaSerializer;
+import com.heliosapm.phoenix.cache.CachedUIDMeta.CachedUIDMetaSerializer;
+
+/**
+ * <p>Title: SerializerBenchmark</p>
+ * <p>Description: Measures serialize / deserialize round trips of the cache value serializers, with and without
+ * the compression wrapper the {@link CacheImpl} maps use. The setup prints the average serialized size of each
+ * configuration so the CPU cost can be weighed against the bytes saved.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.SerializerBenchmark</code></p>
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class SerializerBenchmark {
+	/** Indicates if values are wrapped in the compression wrapper */
+	@Param({"true", "false"})
+	public boolean compressed;
+	/** The number of tags per TSMeta */
+	@Param({"2", "6"})
+	public int tags;
+
+	/** The number of sample values */
+	static final int SAMPLES = 4096;
+
+	/** The UIDMeta serializer */
+	Serializer<CachedUIDMeta> uidSerializer;
+	/** The TSMeta serializer */
+	Serializer<CachedTSMeta> tsMetaSerializer;
+	/** The sample UIDMetas */
+	CachedUIDMeta[] uidMetas;
+	/** The sample TSMetas */
+	CachedTSMeta[] tsMetas;
+	/** The serialized sample UIDMetas */
+	byte[][] uidBytes;
+	/** The serialized sample TSMetas */
+	byte[][] tsMetaBytes;
+
+	/**
+	 * Generates and pre-serializes the samples
+	 * @throws IOException will not be thrown
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		uidSerializer = compressed ? new Serializer.CompressionWrapper<CachedUIDMeta>(CachedUIDMetaSerializer.INSTANCE) : CachedUIDMetaSerializer.INSTANCE;
+		tsMetaSerializer = compressed ? new Serializer.CompressionWrapper<CachedTSMeta>(CachedTSMetaSerializer.INSTANCE) : CachedTSMetaSerializer.INSTANCE;
+		uidMetas = BenchmarkCatalog.uidMetas(UniqueId.UniqueIdType.TAGV, SAMPLES);
+		tsMetas = BenchmarkCatalog.tsMetas(SAMPLES, tags, SAMPLES);
+		uidBytes = new byte[SAMPLES][];
+		tsMetaBytes = new byte[SAMPLES][];
+		long uidTotal = 0, tsMetaTotal = 0;
+		for(int i = 0; i < SAMPLES; i++) {
+			uidBytes[i] = serialize(uidSerializer, uidMetas[i]);
+			tsMetaBytes[i] = serialize(tsMetaSerializer, tsMetas[i]);
+			uidTotal += uidBytes[i].length;
+			tsMetaTotal += tsMetaBytes[i].length;
+		}
+		System.out.println("\nSerialized sizes [compressed=" + compressed + ", tags=" + tags + "]: UIDMeta avg [" + (uidTotal / SAMPLES) + "] bytes, TSMeta avg [" + (tsMetaTotal / SAMPLES) + "] bytes");
+	}
+
+	/**
+	 * Serializes the passed value
+	 * @param ser The serializer
+	 * @param value The value
+	 * @return the serialized bytes
+	 * @throws IOException will not be thrown
+	 */
+	static <T> byte[] serialize(final Serializer<T> ser, final T value) throws IOException {
+		final DataIO.DataOutputByteArray out = new DataIO.DataOutputByteArray();
+		ser.serialize(out, value);
+		return out.copyBytes();
+	}
+
+	/**
+	 * Serializes a UIDMeta
+	 * @param c The thread's key cursor
+	 * @return the serialized bytes
+	 * @throws IOException will not be thrown
+	 */
+	@Benchmark
+	public byte[] serializeUIDMeta(final Cursor c) throws IOException {
+		return serialize(uidSerializer, uidMetas[c.next(SAMPLES)]);
+	}
+
+	/**
+	 * Deserializes a UIDMeta
+	 * @param c The thread's key cursor
+	 * @return the UIDMeta
+	 * @throws IOException will not be thrown
+	 */
+	@Benchmark
+	public CachedUIDMeta deserializeUIDMeta(final Cursor c) throws IOException {
+		final byte[] bytes = uidBytes[c.next(SAMPLES)];
+		return uidSerializer.deserialize(new DataIO.DataInputByteArray(bytes), bytes.length);
+	}
+
+	/**
+	 * Serializes a TSMeta
+	 * @param c The thread's key cursor
+	 * @return the serialized bytes
+	 * @throws IOException will not be thrown
+	 */
+	@Benchmark
+	public byte[] serializeTSMeta(final Cursor c) throws IOException {
+		return serialize(tsMetaSerializer, tsMetas[c.next(SAMPLES)]);
+	}
+
+	/**
+	 * Deserializes a TSMeta
+	 * @param c The thread's key cursor
+	 * @return the TSMeta
+	 * @throws IOException will not be thrown
+	 */
+	@Benchmark
+	public CachedTSMeta deserializeTSMeta(final Cursor c) throws IOException {
+		final byte[] bytes = tsMetaBytes[c.next(SAMPLES)];
+		return tsMetaSerializer.deserialize(new DataIO.DataInputByteArray(bytes), bytes.length);
+	}
+}
@@ -0,0 +1,180 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.heliosapm.phoenix.cache.CacheImplBenchmark.Cursor;
+import com.heliosapm.phoenix.cache.CachedTSMeta.CachedTSMetaSerializer;
+import com.heliosapm.phoenix.cache.CachedUIDMeta.CachedUIDMetaSerializer;
+
+/**
+ * <p>Title: StoreModeBenchmark</p>
+ * <p>Description: Measures UIDMeta and TSMeta gets and puts on MapDB maps laid out like the {@link CacheImpl} maps,
+ * across the store modes the cache could use (memory mapped file, plain file, off-heap and on-heap memory) with and
+ * without the compression wrapper. {@link CacheImpl} fixes its store mode when it is created, so the modes are compared
+ * on stores created here with the cache's serializers.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.StoreModeBenchmark</code></p>
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class StoreModeBenchmark {
+	/** The store mode: <b><code>mmap</code></b>, <b><code>file</code></b>, <b><code>direct</code></b> or <b><code>memory</code></b> */
+	@Param({"mmap", "file", "direct", "memory"})
+	public String mode;
+	/** Indicates if values are wrapped in the compression wrapper */
+	@Param({"true", "false"})
+	public boolean compressed;
+	/** The number of entries per map */
+	@Param({"100000"})
+	public int entries;
+
+	/** The store file, null for memory modes */
+	File file;
+	/** The store */
+	DB db;
+	/** The UIDMeta map */
+	HTreeMap<String, CachedUIDMeta> uidMap;
+	/** The TSMeta map */
+	BTreeMap<byte[], CachedTSMeta> tsMetaMap;
+	/** The generated UIDMetas */
+	CachedUIDMeta[] uidMetas;
+	/** The generated TSMetas */
+	CachedTSMeta[] tsMetas;
+	/** The UIDMeta keys */
+	String[] uidKeys;
+	/** The TSMeta keys */
+	byte[][] tsMetaKeys;
+
+	/**
+	 * Creates the store and fills the maps
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		DBMaker.Maker maker;
+		if("mmap".equals(mode) || "file".equals(mode)) {
+			file = new File(BenchmarkCatalog.newCacheFile("benchstore"));
+			maker = DBMaker.fileDB(file);
+			if("mmap".equals(mode)) maker = maker.fileMmapEnableIfSupported();
+		} else if("direct".equals(mode)) {
+			maker = DBMaker.memoryDirectDB();
+		} else if("memory".equals(mode)) {
+			maker = DBMaker.memoryDB();
+		} else {
+			throw new IllegalArgumentException("Unknown store mode [" + mode + "]");
+		}
+		db = maker.transactionDisable().make();
+		uidMap = db.hashMapCreate(CacheImpl.TAGV_NAME)
+			.keySerializer(Serializer.STRING)
+			.valueSerializer(compressed ? new Serializer.CompressionWrapper<CachedUIDMeta>(CachedUIDMetaSerializer.INSTANCE) : CachedUIDMetaSerializer.INSTANCE)
+			.make();
+		tsMetaMap = CacheImpl.createTSMetaMap(db, CacheImpl.TSMETA_NAME, compressed ? new Serializer.CompressionWrapper<CachedTSMeta>(CachedTSMetaSerializer.INSTANCE) : CachedTSMetaSerializer.INSTANCE);
+		uidMetas = BenchmarkCatalog.uidMetas(UniqueId.UniqueIdType.TAGV, entries);
+		tsMetas = BenchmarkCatalog.tsMetas(entries, 4, entries);
+		uidKeys = new String[entries];
+		tsMetaKeys = new byte[entries][];
+		for(int i = 0; i < entries; i++) {
+			uidKeys[i] = uidMetas[i].getUidHex();
+			tsMetaKeys[i] = tsMetas[i].getTsuid();
+			uidMap.put(uidKeys[i], uidMetas[i]);
+			tsMetaMap.put(tsMetaKeys[i], tsMetas[i]);
+		}
+		db.commit();
+	}
+
+	/**
+	 * Closes and deletes the store
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		db.close();
+		if(file!=null) BenchmarkCatalog.deleteCacheFile(file.getAbsolutePath());
+	}
+
+	/**
+	 * Gets a UIDMeta
+	 * @param c The thread's key cursor
+	 * @return the UIDMeta
+	 */
+	@Benchmark
+	public CachedUIDMeta getUIDMeta(final Cursor c) {
+		return uidMap.get(uidKeys[c.next(entries)]);
+	}
+
+	/**
+	 * Puts a UIDMeta
+	 * @param c The thread's key cursor
+	 * @return the replaced UIDMeta
+	 */
+	@Benchmark
+	public CachedUIDMeta putUIDMeta(final Cursor c) {
+		final int i = c.next(entries);
+		return uidMap.put(uidKeys[i], uidMetas[i]);
+	}
+
+	/**
+	 * Gets a TSMeta
+	 * @param c The thread's key cursor
+	 * @return the TSMeta
+	 */
+	@Benchmark
+	public CachedTSMeta getTSMeta(final Cursor c) {
+		return tsMetaMap.get(tsMetaKeys[c.next(entries)]);
+	}
+
+	/**
+	 * Puts a TSMeta
+	 * @param c The thread's key cursor
+	 * @return the replaced TSMeta
+	 */
+	@Benchmark
+	public CachedTSMeta putTSMeta(final Cursor c) {
+		final int i = c.next(entries);
+		return tsMetaMap.put(tsMetaKeys[i], tsMetas[i]);
+	}
+}
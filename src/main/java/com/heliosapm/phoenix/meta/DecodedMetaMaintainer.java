@@ -0,0 +1,595 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.meta;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.heliosapm.phoenix.udf.OpenTSDBFunctions;
+
+/**
+ * <p>Title: DecodedMetaMaintainer</p>
+ * <p>Description: Creates and maintains decoded copies of the OpenTSDB meta data in Phoenix: a UID dictionary table per
+ * UID type (<b><code>TSD_TAGK</code></b>, <b><code>TSD_TAGV</code></b>, <b><code>TSD_METRIC</code></b>), the TSMetas
+ * (<b><code>TSD_TSMETA</code></b>) and their tag pairs (<b><code>TSD_TSMETA_TAG</code></b>), with secondary indexes on
+ * the name and tag columns so meta data queries hit an index instead of scanning <b><code>tsdb-uid</code></b>.</p>
+ * <p>Each run upserts only the <b><code>tsdb-uid</code></b> and <b><code>tsdb-meta</code></b> cells written since the
+ * last run, selected by the cell timestamp returned by the <b><code>TS</code></b> UDF ({@link OpenTSDBFunctions.CellTimestamp}),
+ * which must be registered. The timestamp filter is a UDF predicate evaluated on every row, not a scan time range
+ * (Phoenix can cap a scan's time range with <b><code>CurrentSCN</code></b> but cannot start it at a mark), so each run
+ * still fully scans both source tables: only the writes are incremental. The high water mark of each source is kept in
+ * <b><code>TSD_SYNC</code></b>, and each run re-reads a short overlap before it since upserts are idempotent.
+ * The first run is the bulk build. Deleted UIDs and TSMetas are only dropped by a {@link #rebuild()}.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.meta.DecodedMetaMaintainer</code></p>
+ */
+
+public class DecodedMetaMaintainer implements Runnable, Closeable {
+	private static final Logger log = LoggerFactory.getLogger(DecodedMetaMaintainer.class);
+	/** The default number of rows upserted per commit */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	/** The default time in ms re-read before each source's high water mark */
+	public static final long DEFAULT_OVERLAP_MS = 60000;
+	/** The maximum number of UID names kept for decoding TSMetas */
+	public static final int NAME_CACHE_SIZE = 100000;
+	/** The high water mark table */
+	public static final String SYNC_TABLE = "TSD_SYNC";
+	/** The decoded TSMeta table */
+	public static final String TSMETA_TABLE = "TSD_TSMETA";
+	/** The decoded TSMeta tag pair table */
+	public static final String TSMETA_TAG_TABLE = "TSD_TSMETA_TAG";
+	/** The source name of the TSMeta high water mark */
+	public static final String TSMETA_SOURCE = "tsdb-meta";
+
+	/** The DDL creating the source views and decoded tables */
+	static final String[] DDL = {
+		"CREATE VIEW IF NOT EXISTS \"tsdb-uid\" (PK VARBINARY PRIMARY KEY" +
+			", \"name\".\"tagv\" VARCHAR, \"id\".\"tagv\" VARBINARY, \"name\".\"tagv_meta\" VARCHAR" +
+			", \"name\".\"tagk\" VARCHAR, \"id\".\"tagk\" VARBINARY, \"name\".\"tagk_meta\" VARCHAR" +
+			", \"name\".\"metrics\" VARCHAR, \"id\".\"metrics\" VARBINARY, \"name\".\"metrics_meta\" VARCHAR) default_column_family='id'",
+		"CREATE VIEW IF NOT EXISTS \"tsdb-meta\" (PK VARBINARY PRIMARY KEY, \"name\".\"ts_meta\" VARCHAR)",
+		"CREATE TABLE IF NOT EXISTS TSD_SYNC (SOURCE VARCHAR NOT NULL PRIMARY KEY, LAST_TS TIMESTAMP)",
+		"CREATE TABLE IF NOT EXISTS TSD_TAGK (XUID CHAR(6) NOT NULL PRIMARY KEY, NAME VARCHAR, CREATED TIMESTAMP)",
+		"CREATE TABLE IF NOT EXISTS TSD_TAGV (XUID CHAR(6) NOT NULL PRIMARY KEY, NAME VARCHAR, CREATED TIMESTAMP)",
+		"CREATE TABLE IF NOT EXISTS TSD_METRIC (XUID CHAR(6) NOT NULL PRIMARY KEY, NAME VARCHAR, CREATED TIMESTAMP)",
+		"CREATE TABLE IF NOT EXISTS TSD_TSMETA (TSUID VARCHAR NOT NULL PRIMARY KEY, METRIC_UID CHAR(6), METRIC VARCHAR, FQN VARCHAR, CREATED TIMESTAMP)",
+		"CREATE TABLE IF NOT EXISTS TSD_TSMETA_TAG (TSUID VARCHAR NOT NULL, PORDER SMALLINT NOT NULL, TAGK_UID CHAR(6), TAGV_UID CHAR(6), TAGK VARCHAR, TAGV VARCHAR CONSTRAINT PK PRIMARY KEY (TSUID, PORDER))",
+		"CREATE INDEX IF NOT EXISTS TSD_TAGK_NAME ON TSD_TAGK (NAME)",
+		"CREATE INDEX IF NOT EXISTS TSD_TAGV_NAME ON TSD_TAGV (NAME)",
+		"CREATE INDEX IF NOT EXISTS TSD_METRIC_NAME ON TSD_METRIC (NAME)",
+		"CREATE INDEX IF NOT EXISTS TSD_TSMETA_METRIC ON TSD_TSMETA (METRIC) INCLUDE (FQN)",
+		"CREATE INDEX IF NOT EXISTS TSD_TSMETA_TAG_KV ON TSD_TSMETA_TAG (TAGK, TAGV)"
+	};
+
+	/** The decoded table for each UID type */
+	static final Map<UniqueId.UniqueIdType, String> UID_TABLES = new EnumMap<UniqueId.UniqueIdType, String>(UniqueId.UniqueIdType.class);
+	/** The <b><code>tsdb-uid</code></b> column qualifier of each UID type */
+	static final Map<UniqueId.UniqueIdType, String> UID_QUALIFIERS = new EnumMap<UniqueId.UniqueIdType, String>(UniqueId.UniqueIdType.class);
+
+	static {
+		UID_TABLES.put(UniqueId.UniqueIdType.TAGK, "TSD_TAGK");
+		UID_TABLES.put(UniqueId.UniqueIdType.TAGV, "TSD_TAGV");
+		UID_TABLES.put(UniqueId.UniqueIdType.METRIC, "TSD_METRIC");
+		UID_QUALIFIERS.put(UniqueId.UniqueIdType.TAGK, "tagk");
+		UID_QUALIFIERS.put(UniqueId.UniqueIdType.TAGV, "tagv");
+		UID_QUALIFIERS.put(UniqueId.UniqueIdType.METRIC, "metrics");
+	}
+
+	/** The Phoenix JDBC URL */
+	final String jdbcUrl;
+	/** The number of rows upserted per commit */
+	final int batchSize;
+	/** The time in ms re-read before each source's high water mark */
+	final long overlapMs;
+	/** Recently resolved UID names keyed by UID hex, per UID type */
+	final Map<UniqueId.UniqueIdType, Map<String, String>> names = new EnumMap<UniqueId.UniqueIdType, Map<String, String>>(UniqueId.UniqueIdType.class);
+	/** Set while a run is in progress */
+	final AtomicBoolean running = new AtomicBoolean(false);
+	/** Indicates if the schema has been created */
+	volatile boolean schemaCreated = false;
+	/** The scheduler for periodic runs */
+	ScheduledExecutorService scheduler = null;
+	/** The handle of the periodic run */
+	ScheduledFuture<?> handle = null;
+
+	/**
+	 * Creates a new DecodedMetaMaintainer
+	 * @param jdbcUrl The Phoenix JDBC URL
+	 * @param batchSize The number of rows upserted per commit
+	 * @param overlapMs The time in ms re-read before each source's high water mark
+	 */
+	public DecodedMetaMaintainer(final String jdbcUrl, final int batchSize, final long overlapMs) {
+		if(jdbcUrl==null || jdbcUrl.trim().isEmpty()) throw new IllegalArgumentException("The passed JDBC URL was null or empty");
+		if(batchSize < 1) throw new IllegalArgumentException("Invalid batch size [" + batchSize + "]");
+		if(overlapMs < 0) throw new IllegalArgumentException("Invalid overlap [" + overlapMs + "]");
+		this.jdbcUrl = jdbcUrl.trim();
+		this.batchSize = batchSize;
+		this.overlapMs = overlapMs;
+		for(UniqueId.UniqueIdType type: UniqueId.UniqueIdType.values()) {
+			names.put(type, new LinkedHashMap<String, String>(1024, 0.75f, true) {
+				private static final long serialVersionUID = -2771537911203561045L;
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+					return size() > NAME_CACHE_SIZE;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Creates a new DecodedMetaMaintainer with the default batch size and overlap
+	 * @param jdbcUrl The Phoenix JDBC URL
+	 */
+	public DecodedMetaMaintainer(final String jdbcUrl) {
+		this(jdbcUrl, DEFAULT_BATCH_SIZE, DEFAULT_OVERLAP_MS);
+	}
+
+	/**
+	 * Runs the maintainer every <b><code>period</code></b> seconds against the passed Phoenix JDBC URL
+	 * @param args The Phoenix JDBC URL and optionally the period in seconds (default 60)
+	 */
+	public static void main(final String[] args) {
+		if(args.length < 1) {
+			System.err.println("Usage: java " + DecodedMetaMaintainer.class.getName() + " <phoenix jdbc url> [period secs]");
+			System.exit(-1);
+		}
+		final DecodedMetaMaintainer maintainer = new DecodedMetaMaintainer(args[0]);
+		maintainer.start(args.length > 1 ? Long.parseLong(args[1]) : 60L, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Applies the deltas since the last run, creating the schema and bulk building the tables on the first run.
+	 * Runs are skipped while another is in progress.
+	 * {@inheritDoc}
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		if(!running.compareAndSet(false, true)) return;
+		Connection conn = null;
+		try {
+			final long start = System.currentTimeMillis();
+			conn = DriverManager.getConnection(jdbcUrl);
+			conn.setAutoCommit(false);
+			if(!schemaCreated) {
+				createSchema(conn);
+				schemaCreated = true;
+			}
+			long uids = 0;
+			for(UniqueId.UniqueIdType type: UniqueId.UniqueIdType.values()) {
+				uids += syncUIDs(conn, type);
+			}
+			final long tsMetas = syncTSMetas(conn);
+			log.info("Applied [{}] UID and [{}] TSMeta changes in [{}] ms", uids, tsMetas, System.currentTimeMillis() - start);
+		} catch (Exception ex) {
+			log.warn("Decoded meta data maintenance run failed", ex);
+		} finally {
+			if(conn!=null) try { conn.close(); } catch (Exception x) {/* No Op */}
+			running.set(false);
+		}
+	}
+
+	/**
+	 * Deletes the decoded tables' contents and high water marks and bulk builds them again, dropping deleted UIDs and TSMetas
+	 */
+	public void rebuild() {
+		Connection conn = null;
+		Statement st = null;
+		try {
+			conn = DriverManager.getConnection(jdbcUrl);
+			conn.setAutoCommit(false);
+			createSchema(conn);
+			schemaCreated = true;
+			st = conn.createStatement();
+			for(String table: UID_TABLES.values()) {
+				st.executeUpdate("DELETE FROM " + table);
+			}
+			st.executeUpdate("DELETE FROM " + TSMETA_TAG_TABLE);
+			st.executeUpdate("DELETE FROM " + TSMETA_TABLE);
+			st.executeUpdate("DELETE FROM " + SYNC_TABLE);
+			conn.commit();
+		} catch (SQLException ex) {
+			throw new RuntimeException("Failed to clear the decoded meta data tables", ex);
+		} finally {
+			if(st!=null) try { st.close(); } catch (Exception x) {/* No Op */}
+			if(conn!=null) try { conn.close(); } catch (Exception x) {/* No Op */}
+		}
+		for(Map<String, String> cache: names.values()) {
+			synchronized(cache) {
+				cache.clear();
+			}
+		}
+		run();
+	}
+
+	/**
+	 * Starts running the maintainer periodically
+	 * @param period The period between the end of one run and the start of the next
+	 * @param unit The unit of the period
+	 */
+	public synchronized void start(final long period, final TimeUnit unit) {
+		stop();
+		if(scheduler==null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread t = new Thread(r, "DecodedMetaMaintainer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		handle = scheduler.scheduleWithFixedDelay(this, 0, period, unit);
+	}
+
+	/**
+	 * Stops running the maintainer periodically
+	 */
+	public synchronized void stop() {
+		if(handle!=null) {
+			handle.cancel(false);
+			handle = null;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public synchronized void close() {
+		stop();
+		if(scheduler!=null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Creates the source views, decoded tables and indexes if they do not exist
+	 * @param conn The Phoenix connection
+	 * @throws SQLException thrown on any SQL error
+	 */
+	static void createSchema(final Connection conn) throws SQLException {
+		final Statement st = conn.createStatement();
+		try {
+			for(String ddl: DDL) {
+				st.execute(ddl);
+			}
+			conn.commit();
+		} finally {
+			try { st.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Upserts the UIDs of the passed type written since the type's high water mark into its decoded table
+	 * @param conn The Phoenix connection
+	 * @param type The UID type
+	 * @return the number of upserted UIDs
+	 * @throws SQLException thrown on any SQL error
+	 */
+	long syncUIDs(final Connection conn, final UniqueId.UniqueIdType type) throws SQLException {
+		final String source = "tsdb-uid." + UID_QUALIFIERS.get(type);
+		final String column = "\"name\".\"" + UID_QUALIFIERS.get(type) + "\"";
+		final long from = Math.max(0L, highWaterMark(conn, source) - overlapMs);
+		final Map<String, String> cache = names.get(type);
+		PreparedStatement select = null;
+		PreparedStatement upsert = null;
+		ResultSet rset = null;
+		long count = 0;
+		long maxTs = from;
+		try {
+			select = conn.prepareStatement("SELECT PK, " + column + ", TS(" + column + ") FROM \"tsdb-uid\" WHERE " + column + " IS NOT NULL AND TS(" + column + ") > ?");
+			upsert = conn.prepareStatement("UPSERT INTO " + UID_TABLES.get(type) + " (XUID, NAME, CREATED) VALUES (?,?,?)");
+			select.setTimestamp(1, new Timestamp(from));
+			rset = select.executeQuery();
+			while(rset.next()) {
+				final String xuid = OpenTSDBFunctions.printHexBinary(rset.getBytes(1));
+				final String name = rset.getString(2);
+				final Timestamp ts = rset.getTimestamp(3);
+				upsert.setString(1, xuid);
+				upsert.setString(2, name);
+				upsert.setTimestamp(3, ts);
+				upsert.executeUpdate();
+				synchronized(cache) {
+					cache.put(xuid, name);
+				}
+				if(ts!=null && ts.getTime() > maxTs) maxTs = ts.getTime();
+				if(++count % batchSize==0) conn.commit();
+			}
+			conn.commit();
+			final long mark = nextHighWaterMark(from, maxTs, Long.MAX_VALUE);
+			if(mark!=-1L) setHighWaterMark(conn, source, mark);
+			return count;
+		} finally {
+			if(rset!=null) try { rset.close(); } catch (Exception x) {/* No Op */}
+			if(select!=null) try { select.close(); } catch (Exception x) {/* No Op */}
+			if(upsert!=null) try { upsert.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Decodes and upserts the TSMetas written since the TSMeta high water mark. The mark is not advanced past a
+	 * TSMeta whose UIDs could not all be resolved, so it is retried on the next run.
+	 * @param conn The Phoenix connection
+	 * @return the number of upserted TSMetas
+	 * @throws SQLException thrown on any SQL error
+	 */
+	long syncTSMetas(final Connection conn) throws SQLException {
+		final long from = Math.max(0L, highWaterMark(conn, TSMETA_SOURCE) - overlapMs);
+		PreparedStatement select = null;
+		PreparedStatement upsertMeta = null;
+		PreparedStatement upsertTag = null;
+		ResultSet rset = null;
+		long count = 0;
+		long maxTs = from;
+		long retryFrom = Long.MAX_VALUE;
+		try {
+			select = conn.prepareStatement("SELECT PK, TS(\"name\".\"ts_meta\") FROM \"tsdb-meta\" WHERE \"name\".\"ts_meta\" IS NOT NULL AND TS(\"name\".\"ts_meta\") > ?");
+			upsertMeta = conn.prepareStatement("UPSERT INTO " + TSMETA_TABLE + " (TSUID, METRIC_UID, METRIC, FQN, CREATED) VALUES (?,?,?,?,?)");
+			upsertTag = conn.prepareStatement("UPSERT INTO " + TSMETA_TAG_TABLE + " (TSUID, PORDER, TAGK_UID, TAGV_UID, TAGK, TAGV) VALUES (?,?,?,?,?,?)");
+			select.setTimestamp(1, new Timestamp(from));
+			rset = select.executeQuery();
+			final List<byte[]> tsuids = new ArrayList<byte[]>(batchSize);
+			final List<Timestamp> stamps = new ArrayList<Timestamp>(batchSize);
+			boolean more = true;
+			while(more) {
+				more = rset.next();
+				if(more) {
+					tsuids.add(rset.getBytes(1));
+					stamps.add(rset.getTimestamp(2));
+					if(tsuids.size() < batchSize) continue;
+				}
+				if(tsuids.isEmpty()) break;
+				resolve(conn, tsuids);
+				for(int i = 0; i < tsuids.size(); i++) {
+					final Timestamp ts = stamps.get(i);
+					final long time = ts==null ? from : ts.getTime();
+					if(upsert(upsertMeta, upsertTag, tsuids.get(i), ts)) {
+						count++;
+						if(time > maxTs) maxTs = time;
+					} else if(time < retryFrom) {
+						retryFrom = time;
+					}
+				}
+				conn.commit();
+				tsuids.clear();
+				stamps.clear();
+			}
+			if(retryFrom!=Long.MAX_VALUE) {
+				log.info("TSMetas from [{}] reference UIDs not yet decoded and will be retried", new Timestamp(retryFrom));
+			}
+			final long mark = nextHighWaterMark(from, maxTs, retryFrom);
+			if(mark!=-1L) setHighWaterMark(conn, TSMETA_SOURCE, mark);
+			return count;
+		} finally {
+			if(rset!=null) try { rset.close(); } catch (Exception x) {/* No Op */}
+			if(select!=null) try { select.close(); } catch (Exception x) {/* No Op */}
+			if(upsertMeta!=null) try { upsertMeta.close(); } catch (Exception x) {/* No Op */}
+			if(upsertTag!=null) try { upsertTag.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Computes a source's high water mark after a run. The mark stays below the earliest cell to be retried,
+	 * and only moves if it passes the time the run read from.
+	 * @param from The time the run read from
+	 * @param maxApplied The latest cell timestamp applied by the run, or <b><code>from</code></b> if none was
+	 * @param retryFrom The earliest cell timestamp to be retried, or {@link Long#MAX_VALUE} if none is
+	 * @return the new high water mark, or -1 if the mark does not move
+	 */
+	static long nextHighWaterMark(final long from, final long maxApplied, final long retryFrom) {
+		final long mark = retryFrom==Long.MAX_VALUE ? maxApplied : Math.min(maxApplied, retryFrom - 1);
+		return mark > from ? mark : -1L;
+	}
+
+	/**
+	 * Decodes and upserts one TSMeta and its tag pairs
+	 * @param upsertMeta The TSMeta upsert
+	 * @param upsertTag The tag pair upsert
+	 * @param tsuid The raw tsuid
+	 * @param ts The TSMeta cell timestamp
+	 * @return true if the TSMeta was upserted or skipped as malformed, false if any of its UIDs could not be resolved
+	 * @throws SQLException thrown on any SQL error
+	 */
+	boolean upsert(final PreparedStatement upsertMeta, final PreparedStatement upsertTag, final byte[] tsuid, final Timestamp ts) throws SQLException {
+		final int pairWidth = OpenTSDBFunctions.TAGK_WIDTH + OpenTSDBFunctions.TAGV_WIDTH;
+		if(tsuid.length < OpenTSDBFunctions.METRIC_WIDTH || (tsuid.length - OpenTSDBFunctions.METRIC_WIDTH) % pairWidth!=0) {
+			log.warn("Skipping malformed tsuid [{}]", OpenTSDBFunctions.printHexBinary(tsuid));
+			return true;
+		}
+		final String tsuidHex = OpenTSDBFunctions.printHexBinary(tsuid);
+		final String metricUid = tsuidHex.substring(0, OpenTSDBFunctions.METRIC_WIDTH * 2);
+		final String metric = name(UniqueId.UniqueIdType.METRIC, metricUid);
+		if(metric==null) return false;
+		final int pairs = (tsuid.length - OpenTSDBFunctions.METRIC_WIDTH) / pairWidth;
+		final String[][] tags = new String[pairs][4];
+		final StringBuilder fqn = new StringBuilder(metric).append(':');
+		for(int p = 0; p < pairs; p++) {
+			final int offset = (OpenTSDBFunctions.METRIC_WIDTH + p * pairWidth) * 2;
+			tags[p][0] = tsuidHex.substring(offset, offset + OpenTSDBFunctions.TAGK_WIDTH * 2);
+			tags[p][1] = tsuidHex.substring(offset + OpenTSDBFunctions.TAGK_WIDTH * 2, offset + pairWidth * 2);
+			tags[p][2] = name(UniqueId.UniqueIdType.TAGK, tags[p][0]);
+			tags[p][3] = name(UniqueId.UniqueIdType.TAGV, tags[p][1]);
+			if(tags[p][2]==null || tags[p][3]==null) return false;
+			if(p > 0) fqn.append(',');
+			fqn.append(tags[p][2]).append('=').append(tags[p][3]);
+		}
+		upsertMeta.setString(1, tsuidHex);
+		upsertMeta.setString(2, metricUid);
+		upsertMeta.setString(3, metric);
+		upsertMeta.setString(4, fqn.toString());
+		upsertMeta.setTimestamp(5, ts);
+		upsertMeta.executeUpdate();
+		for(int p = 0; p < pairs; p++) {
+			upsertTag.setString(1, tsuidHex);
+			upsertTag.setShort(2, (short)p);
+			upsertTag.setString(3, tags[p][0]);
+			upsertTag.setString(4, tags[p][1]);
+			upsertTag.setString(5, tags[p][2]);
+			upsertTag.setString(6, tags[p][3]);
+			upsertTag.executeUpdate();
+		}
+		return true;
+	}
+
+	/**
+	 * Loads the names of the UIDs in the passed tsuids that are not already cached from the decoded UID tables
+	 * @param conn The Phoenix connection
+	 * @param tsuids The raw tsuids
+	 * @throws SQLException thrown on any SQL error
+	 */
+	void resolve(final Connection conn, final List<byte[]> tsuids) throws SQLException {
+		final Map<UniqueId.UniqueIdType, Set<String>> missing = new EnumMap<UniqueId.UniqueIdType, Set<String>>(UniqueId.UniqueIdType.class);
+		for(UniqueId.UniqueIdType type: UniqueId.UniqueIdType.values()) {
+			missing.put(type, new HashSet<String>());
+		}
+		final int pairWidth = OpenTSDBFunctions.TAGK_WIDTH + OpenTSDBFunctions.TAGV_WIDTH;
+		for(byte[] tsuid: tsuids) {
+			final String hex = OpenTSDBFunctions.printHexBinary(tsuid);
+			addMissing(missing.get(UniqueId.UniqueIdType.METRIC), UniqueId.UniqueIdType.METRIC, hex, 0, OpenTSDBFunctions.METRIC_WIDTH);
+			for(int offset = OpenTSDBFunctions.METRIC_WIDTH; offset + pairWidth <= tsuid.length; offset += pairWidth) {
+				addMissing(missing.get(UniqueId.UniqueIdType.TAGK), UniqueId.UniqueIdType.TAGK, hex, offset, OpenTSDBFunctions.TAGK_WIDTH);
+				addMissing(missing.get(UniqueId.UniqueIdType.TAGV), UniqueId.UniqueIdType.TAGV, hex, offset + OpenTSDBFunctions.TAGK_WIDTH, OpenTSDBFunctions.TAGV_WIDTH);
+			}
+		}
+		for(Map.Entry<UniqueId.UniqueIdType, Set<String>> entry: missing.entrySet()) {
+			if(entry.getValue().isEmpty()) continue;
+			final List<String> xuids = new ArrayList<String>(entry.getValue());
+			final StringBuilder sql = new StringBuilder("SELECT XUID, NAME FROM ").append(UID_TABLES.get(entry.getKey())).append(" WHERE XUID IN (");
+			for(int i = 0; i < xuids.size(); i++) {
+				sql.append(i==0 ? "?" : ",?");
+			}
+			sql.append(')');
+			PreparedStatement ps = null;
+			ResultSet rset = null;
+			try {
+				ps = conn.prepareStatement(sql.toString());
+				for(int i = 0; i < xuids.size(); i++) {
+					ps.setString(i + 1, xuids.get(i));
+				}
+				rset = ps.executeQuery();
+				final Map<String, String> cache = names.get(entry.getKey());
+				synchronized(cache) {
+					while(rset.next()) {
+						cache.put(rset.getString(1), rset.getString(2));
+					}
+				}
+			} finally {
+				if(rset!=null) try { rset.close(); } catch (Exception x) {/* No Op */}
+				if(ps!=null) try { ps.close(); } catch (Exception x) {/* No Op */}
+			}
+		}
+	}
+
+	/**
+	 * Adds the UID at the passed byte offset of a tsuid hex to the missing set if its name is not cached
+	 * @param missing The missing UIDs of the type
+	 * @param type The UID type
+	 * @param tsuidHex The tsuid hex
+	 * @param offset The byte offset of the UID
+	 * @param width The byte width of the UID
+	 */
+	private void addMissing(final Set<String> missing, final UniqueId.UniqueIdType type, final String tsuidHex, final int offset, final int width) {
+		final String xuid = tsuidHex.substring(offset * 2, (offset + width) * 2);
+		if(name(type, xuid)==null) missing.add(xuid);
+	}
+
+	/**
+	 * Returns the cached name of the passed UID
+	 * @param type The UID type
+	 * @param xuid The UID hex
+	 * @return the name or null if not cached
+	 */
+	String name(final UniqueId.UniqueIdType type, final String xuid) {
+		final Map<String, String> cache = names.get(type);
+		synchronized(cache) {
+			return cache.get(xuid);
+		}
+	}
+
+	/**
+	 * Returns the high water mark of the passed source
+	 * @param conn The Phoenix connection
+	 * @param source The source name
+	 * @return the latest applied cell timestamp, or 0 if the source has not been read
+	 * @throws SQLException thrown on any SQL error
+	 */
+	static long highWaterMark(final Connection conn, final String source) throws SQLException {
+		PreparedStatement ps = null;
+		ResultSet rset = null;
+		try {
+			ps = conn.prepareStatement("SELECT LAST_TS FROM " + SYNC_TABLE + " WHERE SOURCE = ?");
+			ps.setString(1, source);
+			rset = ps.executeQuery();
+			if(!rset.next()) return 0L;
+			final Timestamp ts = rset.getTimestamp(1);
+			return ts==null ? 0L : ts.getTime();
+		} finally {
+			if(rset!=null) try { rset.close(); } catch (Exception x) {/* No Op */}
+			if(ps!=null) try { ps.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Sets and commits the high water mark of the passed source
+	 * @param conn The Phoenix connection
+	 * @param source The source name
+	 * @param time The latest applied cell timestamp
+	 * @throws SQLException thrown on any SQL error
+	 */
+	static void setHighWaterMark(final Connection conn, final String source, final long time) throws SQLException {
+		PreparedStatement ps = null;
+		try {
+			ps = conn.prepareStatement("UPSERT INTO " + SYNC_TABLE + " (SOURCE, LAST_TS) VALUES (?,?)");
+			ps.setString(1, source);
+			ps.setTimestamp(2, new Timestamp(time));
+			ps.executeUpdate();
+			conn.commit();
+		} finally {
+			if(ps!=null) try { ps.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+}
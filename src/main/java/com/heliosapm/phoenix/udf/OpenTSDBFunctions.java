@@ -56,6 +56,10 @@ public class OpenTSDBFunctions {
   private static final char[] hexCode = "0123456789ABCDEF".toCharArray();
   private static final byte[] EMPTY_STR = "".getBytes(UTF8); 
   public static final short METRIC_WIDTH = 3;
+  /** The width of a tag key UID */
+  public static final short TAGK_WIDTH = 3;
+  /** The width of a tag value UID */
+  public static final short TAGV_WIDTH = 3;
   public static final short TIMESTAMP_BYTES = 4;
   public static final short MTWIDTH = METRIC_WIDTH + TIMESTAMP_BYTES;
   
@@ -0,0 +1,605 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mapdb.DataIO;
+import org.mapdb.Serializer;
+
+/**
+ * <p>Title: AdaptiveCompressionSerializer</p>
+ * <p>Description: A value serializer wrapper which stores small values raw and compresses larger ones against a preset
+ * dictionary trained on a sample of the names or FQNs the map will hold, so that substrings repeated across records,
+ * such as host names and metric prefixes, compress even in short records. A value is only stored compressed if that makes it
+ * smaller. Each value is prefixed with one packed header holding its raw length and a compressed flag, so raw values cost
+ * one byte over the wrapped serializer, against the two or more of {@link Serializer.CompressionWrapper}.</p>
+ * <p>Compression is a greedy LZ77 over the dictionary followed by the value: a value is encoded as a series of literal runs,
+ * each followed by a copy of at least {@link #MIN_MATCH} bytes from the dictionary or from earlier in the value. The dictionary's
+ * hash index is built once per serializer, so unlike a <code>Deflater</code> with a preset dictionary, no per value work is spent
+ * re-reading the dictionary or clearing a large window.</p>
+ * <p>The dictionary is a field of the serializer, so it is stored with the map's serializer in the store catalog
+ * and travels with the store. The byte savings and CPU cost are accumulated per serializer in {@link CompressionStats},
+ * so each store's maps keep their own stats.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.AdaptiveCompressionSerializer</code></p>
+ * @param <T> The type of the serialized values
+ */
+
+public class AdaptiveCompressionSerializer<T> extends Serializer<T> implements Serializable {
+	private static final long serialVersionUID = 3320785518815360213L;
+	/** The default serialized size below which values are stored raw */
+	public static final int DEFAULT_RAW_THRESHOLD = 16;
+	/** The default maximum dictionary size */
+	public static final int DEFAULT_DICTIONARY_SIZE = 4096;
+	/** The minimum number of occurrences for a dictionary candidate */
+	public static final int MIN_CANDIDATE_COUNT = 2;
+	/** The characters that end a dictionary token */
+	public static final String TOKEN_DELIMITERS = ".-_:,=/ ";
+	/** The minimum match length */
+	public static final int MIN_MATCH = 4;
+	/** The number of bits in the dictionary hash index */
+	static final int DICTIONARY_HASH_BITS = 14;
+	/** The number of bits in the per value hash index */
+	static final int VALUE_HASH_BITS = 8;
+	/** UTF-8 */
+	public static final Charset UTF8 = Charset.forName("UTF8");
+
+	/** The per thread codecs */
+	private static final ThreadLocal<Codec> codecs = new ThreadLocal<Codec>() {
+		@Override
+		protected Codec initialValue() {
+			return new Codec();
+		}
+	};
+
+	/** The wrapped serializer */
+	final Serializer<T> serializer;
+	/** The preset dictionary */
+	final byte[] dictionary;
+	/** The serialized size below which values are stored raw */
+	final int rawThreshold;
+	/** The name of the map the serializer is for */
+	final String mapName;
+	/** The compression stats of this serializer, created on first use */
+	private transient volatile CompressionStats stats = null;
+	/** The positions + 1 of the last occurrence of each hashed 4 byte sequence in the dictionary, built on first use */
+	private transient volatile int[] dictionaryIndex = null;
+
+	/**
+	 * <p>Title: Codec</p>
+	 * <p>Description: A thread's compression buffers and value hash index</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.AdaptiveCompressionSerializer.Codec</code></p>
+	 */
+	static class Codec {
+		/** The buffer values are serialized into */
+		final DataIO.DataOutputByteArray out = new DataIO.DataOutputByteArray();
+		/** The buffer values are compressed into */
+		final DataIO.DataOutputByteArray compressed = new DataIO.DataOutputByteArray();
+		/** The positions of the last occurrence of each hashed 4 byte sequence in the value being compressed */
+		final int[] valueIndex = new int[1 << VALUE_HASH_BITS];
+		/** The stamps of the value index entries, which are only valid if they match the current stamp */
+		final int[] valueStamps = new int[1 << VALUE_HASH_BITS];
+		/** The current stamp */
+		int stamp = 0;
+	}
+
+	/**
+	 * <p>Title: CompressionStats</p>
+	 * <p>Description: The byte savings and CPU cost of the adaptive compression of one map's values</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.AdaptiveCompressionSerializer.CompressionStats</code></p>
+	 */
+	public static class CompressionStats {
+		/** Values stored raw */
+		final StripedCounter rawValues = new StripedCounter();
+		/** Values stored compressed */
+		final StripedCounter compressedValues = new StripedCounter();
+		/** The serialized bytes of the stored values */
+		final StripedCounter serializedBytes = new StripedCounter();
+		/** The stored bytes of the stored values, including headers */
+		final StripedCounter storedBytes = new StripedCounter();
+		/** The nanos spent compressing */
+		final StripedCounter compressNanos = new StripedCounter();
+		/** Values decompressed */
+		final StripedCounter decompressions = new StripedCounter();
+		/** The nanos spent decompressing */
+		final StripedCounter decompressNanos = new StripedCounter();
+
+		/**
+		 * Returns the number of values stored raw
+		 * @return the number of raw values
+		 */
+		public long getRawValues() {
+			return rawValues.get();
+		}
+
+		/**
+		 * Returns the number of values stored compressed
+		 * @return the number of compressed values
+		 */
+		public long getCompressedValues() {
+			return compressedValues.get();
+		}
+
+		/**
+		 * Returns the serialized size of the stored values
+		 * @return the serialized bytes
+		 */
+		public long getSerializedBytes() {
+			return serializedBytes.get();
+		}
+
+		/**
+		 * Returns the stored size of the stored values
+		 * @return the stored bytes
+		 */
+		public long getStoredBytes() {
+			return storedBytes.get();
+		}
+
+		/**
+		 * Returns the ratio of stored to serialized bytes
+		 * @return the stored byte ratio, 1 if nothing has been stored
+		 */
+		public double getStoredRatio() {
+			final long serialized = serializedBytes.get();
+			return serialized==0 ? 1D : (double)storedBytes.get() / serialized;
+		}
+
+		/**
+		 * Returns the mean time spent compressing a value that was offered for compression
+		 * @return the mean compression time in nanos
+		 */
+		public long getCompressMeanNanos() {
+			final long n = compressedValues.get() + rawValues.get();
+			return n==0 ? 0 : compressNanos.get() / n;
+		}
+
+		/**
+		 * Returns the mean time spent decompressing a value
+		 * @return the mean decompression time in nanos
+		 */
+		public long getDecompressMeanNanos() {
+			final long n = decompressions.get();
+			return n==0 ? 0 : decompressNanos.get() / n;
+		}
+
+		/**
+		 * Resets the stats
+		 */
+		public void reset() {
+			rawValues.reset();
+			compressedValues.reset();
+			serializedBytes.reset();
+			storedBytes.reset();
+			compressNanos.reset();
+			decompressions.reset();
+			decompressNanos.reset();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return new StringBuilder("[raw=").append(getRawValues())
+				.append(", compressed=").append(getCompressedValues())
+				.append(", serialized bytes=").append(getSerializedBytes())
+				.append(", stored bytes=").append(getStoredBytes())
+				.append(String.format(", stored ratio=%.3f", getStoredRatio()))
+				.append(", compress ns=").append(getCompressMeanNanos())
+				.append(", decompress ns=").append(getDecompressMeanNanos())
+				.append("]").toString();
+		}
+	}
+
+	/**
+	 * Creates a new AdaptiveCompressionSerializer
+	 * @param serializer The serializer to wrap
+	 * @param dictionary The preset dictionary, which may be empty
+	 * @param rawThreshold The serialized size below which values are stored raw
+	 * @param mapName The name of the map the serializer is for
+	 */
+	public AdaptiveCompressionSerializer(final Serializer<T> serializer, final byte[] dictionary, final int rawThreshold, final String mapName) {
+		if(serializer==null) throw new IllegalArgumentException("The passed serializer was null");
+		if(mapName==null) throw new IllegalArgumentException("The passed map name was null");
+		if(rawThreshold < 0) throw new IllegalArgumentException("Invalid raw threshold [" + rawThreshold + "]");
+		this.serializer = serializer;
+		this.dictionary = dictionary==null ? new byte[0] : dictionary.clone();
+		this.rawThreshold = rawThreshold;
+		this.mapName = mapName;
+	}
+
+	/**
+	 * Returns the compression stats of this serializer
+	 * @return the stats
+	 */
+	public CompressionStats stats() {
+		CompressionStats cs = stats;
+		if(cs==null) {
+			synchronized(this) {
+				cs = stats;
+				if(cs==null) {
+					cs = new CompressionStats();
+					stats = cs;
+				}
+			}
+		}
+		return cs;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.mapdb.Serializer#serialize(java.io.DataOutput, java.lang.Object)
+	 */
+	@Override
+	public void serialize(final DataOutput out, final T value) throws IOException {
+		final Codec codec = codecs.get();
+		final DataIO.DataOutputByteArray raw = codec.out;
+		raw.pos = 0;
+		serializer.serialize(raw, value);
+		final int length = raw.pos;
+		final CompressionStats cs = stats();
+		cs.serializedBytes.add(length);
+		if(length < rawThreshold) {
+			writeRaw(out, raw.buf, length);
+			cs.rawValues.increment();
+			cs.storedBytes.add(length + packedSize(length << 1));
+			return;
+		}
+		final long start = System.nanoTime();
+		final DataIO.DataOutputByteArray compressed = codec.compressed;
+		compressed.pos = 0;
+		// the output is only useful if it is smaller than the input, so give up once it is not
+		final boolean smaller = compress(codec, raw.buf, length, compressed, length);
+		cs.compressNanos.add(System.nanoTime() - start);
+		final int header = (length << 1) | 1;
+		if(!smaller || packedSize(header) + compressed.pos >= packedSize(length << 1) + length) {
+			writeRaw(out, raw.buf, length);
+			cs.rawValues.increment();
+			cs.storedBytes.add(length + packedSize(length << 1));
+			return;
+		}
+		packInt(out, header);
+		out.write(compressed.buf, 0, compressed.pos);
+		cs.compressedValues.increment();
+		cs.storedBytes.add(packedSize(header) + compressed.pos);
+	}
+
+	/**
+	 * Returns the dictionary hash index, building it on first use
+	 * @return the dictionary index
+	 */
+	private int[] dictionaryIndex() {
+		int[] index = dictionaryIndex;
+		if(index==null) {
+			index = new int[1 << DICTIONARY_HASH_BITS];
+			for(int p = 0; p + MIN_MATCH <= dictionary.length; p++) {
+				index[hash(dictionary, p) >>> (32 - DICTIONARY_HASH_BITS)] = p + 1;
+			}
+			dictionaryIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * Hashes the 4 bytes at the passed offset. The top bits of the hash are the best mixed, so indexes are taken from those.
+	 * @param bytes The bytes
+	 * @param offset The offset
+	 * @return the hash
+	 */
+	private static int hash(final byte[] bytes, final int offset) {
+		final int v = (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24;
+		return v * 0x9E3779B1;
+	}
+
+	/**
+	 * Compresses a serialized value as literal runs, each followed by a <b><code>[length - MIN_MATCH][distance]</code></b> copy
+	 * where the distance counts back from the current position through the value and then into the end of the dictionary
+	 * @param codec The calling thread's codec
+	 * @param in The serialized value
+	 * @param length The serialized length
+	 * @param out The buffer to compress into
+	 * @param limit The compressed size at which to give up
+	 * @return true if the value compressed to less than the limit, false otherwise
+	 * @throws IOException will not be thrown
+	 */
+	private boolean compress(final Codec codec, final byte[] in, final int length, final DataIO.DataOutputByteArray out, final int limit) throws IOException {
+		final int[] dictIndex = dictionaryIndex();
+		final int[] valueIndex = codec.valueIndex;
+		final int[] valueStamps = codec.valueStamps;
+		final int stamp = ++codec.stamp;
+		final int dictLength = dictionary.length;
+		int anchor = 0;
+		int i = 0;
+		while(i + MIN_MATCH <= length) {
+			int bestLength = 0, bestDistance = 0;
+			final int h = hash(in, i);
+			// candidate from earlier in the value
+			final int vh = h >>> (32 - VALUE_HASH_BITS);
+			if(valueStamps[vh]==stamp) {
+				final int p = valueIndex[vh];
+				int n = 0;
+				while(i + n < length && in[p + n]==in[i + n]) n++;
+				if(n >= MIN_MATCH) {
+					bestLength = n;
+					bestDistance = i - p;
+				}
+			}
+			valueStamps[vh] = stamp;
+			valueIndex[vh] = i;
+			// candidate from the dictionary, which may run on into the value
+			if(dictLength > 0) {
+				final int dp = dictIndex[h >>> (32 - DICTIONARY_HASH_BITS)] - 1;
+				if(dp >= 0) {
+					int n = 0;
+					while(i + n < length) {
+						final int s = dp + n;
+						final byte b = s < dictLength ? dictionary[s] : in[s - dictLength];
+						if(b!=in[i + n]) break;
+						n++;
+					}
+					if(n >= MIN_MATCH && n > bestLength) {
+						bestLength = n;
+						bestDistance = i + dictLength - dp;
+					}
+				}
+			}
+			if(bestLength==0) {
+				i++;
+				continue;
+			}
+			packInt(out, i - anchor);
+			out.write(in, anchor, i - anchor);
+			packInt(out, bestLength - MIN_MATCH);
+			packInt(out, bestDistance);
+			if(out.pos >= limit) return false;
+			i += bestLength;
+			anchor = i;
+		}
+		packInt(out, length - anchor);
+		out.write(in, anchor, length - anchor);
+		return out.pos < limit;
+	}
+
+	/**
+	 * Writes a raw value
+	 * @param out The output to write to
+	 * @param bytes The serialized value
+	 * @param length The serialized length
+	 * @throws IOException thrown on any IO error
+	 */
+	private static void writeRaw(final DataOutput out, final byte[] bytes, final int length) throws IOException {
+		packInt(out, length << 1);
+		out.write(bytes, 0, length);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.mapdb.Serializer#deserialize(java.io.DataInput, int)
+	 */
+	@Override
+	public T deserialize(final DataInput in, final int available) throws IOException {
+		if(available==0) return null;
+		final int header = unpackInt(in);
+		final int length = header >>> 1;
+		final byte[] bytes = new byte[length];
+		if((header & 1)==0) {
+			in.readFully(bytes);
+		} else {
+			final long start = System.nanoTime();
+			final int dictLength = dictionary.length;
+			int produced = 0;
+			while(true) {
+				final int literals = unpackInt(in);
+				in.readFully(bytes, produced, literals);
+				produced += literals;
+				if(produced >= length) break;
+				final int matchLength = unpackInt(in) + MIN_MATCH;
+				final int distance = unpackInt(in);
+				if(distance < 1 || distance > produced + dictLength || produced + matchLength > length) {
+					throw new IOException("Corrupt compressed value: copy of [" + matchLength + "] bytes from [" + distance + "] back at [" + produced + "] of [" + length + "]");
+				}
+				int s = produced - distance;
+				for(int n = 0; n < matchLength; n++, s++) {
+					bytes[produced++] = s < 0 ? dictionary[dictLength + s] : bytes[s];
+				}
+			}
+			final CompressionStats cs = stats();
+			cs.decompressions.increment();
+			cs.decompressNanos.add(System.nanoTime() - start);
+		}
+		return serializer.deserialize(new DataIO.DataInputByteArray(bytes), length);
+	}
+
+	/**
+	 * Writes an unsigned int in 7 bit groups
+	 * @param out The output to write to
+	 * @param value The value
+	 * @throws IOException thrown on any IO error
+	 */
+	static void packInt(final DataOutput out, final int value) throws IOException {
+		int v = value;
+		while((v & ~0x7F)!=0) {
+			out.write((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	}
+
+	/**
+	 * Reads an unsigned int written by {@link #packInt(DataOutput, int)}
+	 * @param in The input to read from
+	 * @return the value
+	 * @throws IOException thrown on any IO error
+	 */
+	static int unpackInt(final DataInput in) throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < 32; shift += 7) {
+			final int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80)==0) return value;
+		}
+		throw new IOException("Malformed packed int");
+	}
+
+	/**
+	 * Returns the number of bytes {@link #packInt(DataOutput, int)} writes for the passed value
+	 * @param value The value
+	 * @return the packed size
+	 */
+	static int packedSize(final int value) {
+		int size = 1;
+		int v = value >>> 7;
+		while(v!=0) {
+			size++;
+			v >>>= 7;
+		}
+		return size;
+	}
+
+	/**
+	 * Trains a preset dictionary on a sample of names or FQNs. The sample is split into tokens ending at one of the
+	 * {@link #TOKEN_DELIMITERS}, and tokens and adjacent token pairs are scored by their number of occurrences times their length.
+	 * The best scoring candidates that occur at least {@link #MIN_CANDIDATE_COUNT} times are packed into the dictionary,
+	 * skipping any already contained in it, with the best at the end, where they win hash collisions in the dictionary index
+	 * and are reached with the shortest distances.
+	 * @param samples The sample strings
+	 * @param maxSize The maximum dictionary size in bytes
+	 * @return the dictionary, empty if the sample has no repeated substrings
+	 */
+	public static byte[] train(final Collection<String> samples, final int maxSize) {
+		final Map<String, int[]> counts = new HashMap<String, int[]>();
+		final List<String> tokens = new ArrayList<String>();
+		for(String sample: samples) {
+			if(sample==null) continue;
+			tokens.clear();
+			int start = 0;
+			for(int i = 0; i < sample.length(); i++) {
+				if(TOKEN_DELIMITERS.indexOf(sample.charAt(i))!=-1) {
+					tokens.add(sample.substring(start, i + 1));
+					start = i + 1;
+				}
+			}
+			if(start < sample.length()) tokens.add(sample.substring(start));
+			for(int i = 0; i < tokens.size(); i++) {
+				count(counts, tokens.get(i));
+				if(i > 0) count(counts, tokens.get(i - 1) + tokens.get(i));
+			}
+		}
+		final List<Map.Entry<String, int[]>> candidates = new ArrayList<Map.Entry<String, int[]>>();
+		for(Map.Entry<String, int[]> entry: counts.entrySet()) {
+			if(entry.getValue()[0] >= MIN_CANDIDATE_COUNT && entry.getKey().length() > 2) candidates.add(entry);
+		}
+		Collections.sort(candidates, new Comparator<Map.Entry<String, int[]>>() {
+			@Override
+			public int compare(final Map.Entry<String, int[]> a, final Map.Entry<String, int[]> b) {
+				final long sa = (long)a.getValue()[0] * a.getKey().length();
+				final long sb = (long)b.getValue()[0] * b.getKey().length();
+				return sa > sb ? -1 : (sa==sb ? a.getKey().compareTo(b.getKey()) : 1);
+			}
+		});
+		final List<String> chosen = new ArrayList<String>();
+		final StringBuilder contained = new StringBuilder();
+		int size = 0;
+		for(Map.Entry<String, int[]> candidate: candidates) {
+			final String s = candidate.getKey();
+			final int bytes = s.getBytes(UTF8).length;
+			if(size + bytes > maxSize) continue;
+			if(contained.indexOf(s)!=-1) continue;
+			chosen.add(s);
+			contained.append(s).append('\u0000');
+			size += bytes;
+			if(size >= maxSize - 2) break;
+		}
+		final StringBuilder dict = new StringBuilder(size);
+		for(int i = chosen.size() - 1; i >= 0; i--) {
+			dict.append(chosen.get(i));
+		}
+		return dict.toString().getBytes(UTF8);
+	}
+
+	/**
+	 * Increments the count of the passed candidate
+	 * @param counts The counts
+	 * @param candidate The candidate
+	 */
+	private static void count(final Map<String, int[]> counts, final String candidate) {
+		final int[] count = counts.get(candidate);
+		if(count==null) counts.put(candidate, new int[]{1});
+		else count[0]++;
+	}
+
+	/**
+	 * Returns the preset dictionary
+	 * @return a copy of the dictionary
+	 */
+	public byte[] getDictionary() {
+		return dictionary.clone();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.mapdb.Serializer#isTrusted()
+	 */
+	@Override
+	public boolean isTrusted() {
+		return serializer.isTrusted();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return serializer.hashCode() * 31 + Arrays.hashCode(dictionary);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if(this==obj) return true;
+		if(obj==null || getClass()!=obj.getClass()) return false;
+		final AdaptiveCompressionSerializer<?> other = (AdaptiveCompressionSerializer<?>)obj;
+		return rawThreshold==other.rawThreshold && mapName.equals(other.mapName)
+			&& serializer.equals(other.serializer) && Arrays.equals(dictionary, other.dictionary);
+	}
+}
@@ -0,0 +1,198 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.mapdb.DataIO;
+import org.mapdb.Serializer;
+
+/**
+ * <p>Title: AdaptiveCompressionSerializerTest</p>
+ * <p>Description: Round trip tests of the {@link AdaptiveCompressionSerializer} codec, the stored format of the cache's values</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.AdaptiveCompressionSerializerTest</code></p>
+ */
+
+public class AdaptiveCompressionSerializerTest {
+
+	/**
+	 * Creates a serializer of raw byte arrays
+	 * @param dictionary The preset dictionary
+	 * @return the serializer
+	 */
+	static AdaptiveCompressionSerializer<byte[]> serializer(final String dictionary) {
+		return new AdaptiveCompressionSerializer<byte[]>(Serializer.BYTE_ARRAY_NOSIZE, dictionary==null ? null : bytes(dictionary), AdaptiveCompressionSerializer.DEFAULT_RAW_THRESHOLD, "test");
+	}
+
+	/**
+	 * Returns the UTF-8 bytes of the passed string
+	 * @param s The string
+	 * @return the bytes
+	 */
+	static byte[] bytes(final String s) {
+		return s.getBytes(AdaptiveCompressionSerializer.UTF8);
+	}
+
+	/**
+	 * Serializes the passed value
+	 * @param ser The serializer
+	 * @param value The value
+	 * @return the stored bytes
+	 * @throws IOException thrown on any IO error
+	 */
+	static byte[] store(final AdaptiveCompressionSerializer<byte[]> ser, final byte[] value) throws IOException {
+		final DataIO.DataOutputByteArray out = new DataIO.DataOutputByteArray();
+		ser.serialize(out, value);
+		return Arrays.copyOf(out.buf, out.pos);
+	}
+
+	/**
+	 * Deserializes the passed stored bytes
+	 * @param ser The serializer
+	 * @param stored The stored bytes
+	 * @return the value
+	 * @throws IOException thrown on any IO error
+	 */
+	static byte[] load(final AdaptiveCompressionSerializer<byte[]> ser, final byte[] stored) throws IOException {
+		return ser.deserialize(new DataIO.DataInputByteArray(stored), stored.length);
+	}
+
+	/**
+	 * Asserts the passed value round trips and returns its stored form
+	 * @param ser The serializer
+	 * @param value The value
+	 * @return the stored bytes
+	 * @throws IOException thrown on any IO error
+	 */
+	static byte[] assertRoundTrip(final AdaptiveCompressionSerializer<byte[]> ser, final byte[] value) throws IOException {
+		final byte[] stored = store(ser, value);
+		assertArrayEquals(value, load(ser, stored));
+		return stored;
+	}
+
+	/**
+	 * Determines if the passed stored bytes hold a compressed value
+	 * @param stored The stored bytes
+	 * @return true if compressed, false if raw
+	 */
+	static boolean compressed(final byte[] stored) {
+		return (stored[0] & 1)==1;
+	}
+
+	@Test
+	public void testRawBelowThreshold() throws Exception {
+		final AdaptiveCompressionSerializer<byte[]> ser = serializer("aaaaaaaaaaaaaaaa");
+		final byte[] stored = assertRoundTrip(ser, bytes("aaaaaaaaaaaa"));
+		assertTrue(!compressed(stored));
+		assertEquals(1 + 12, stored.length);
+		assertEquals(1, ser.stats().getRawValues());
+		assertEquals(0, ser.stats().getCompressedValues());
+		// the empty value is raw too
+		assertEquals(1, assertRoundTrip(ser, new byte[0]).length);
+	}
+
+	@Test
+	public void testDictionaryMatchRunsIntoValue() throws Exception {
+		final AdaptiveCompressionSerializer<byte[]> ser = serializer("xxxxxxxxhost=web");
+		// the copy starting in the dictionary continues into the value itself
+		final byte[] value = bytes("host=webhost=webhost=webhost=web01");
+		final byte[] stored = assertRoundTrip(ser, value);
+		assertTrue(compressed(stored));
+		assertTrue(stored.length < 12);
+	}
+
+	@Test
+	public void testOverlappingSelfCopy() throws Exception {
+		final AdaptiveCompressionSerializer<byte[]> ser = serializer(null);
+		final StringBuilder b = new StringBuilder();
+		for(int i = 0; i < 40; i++) b.append("abc");
+		// a copy from 3 back whose length overlaps the bytes it produces
+		final byte[] stored = assertRoundTrip(ser, bytes(b.toString()));
+		assertTrue(compressed(stored));
+		assertTrue(stored.length < 12);
+	}
+
+	@Test
+	public void testEmptyDictionary() throws Exception {
+		final AdaptiveCompressionSerializer<byte[]> ser = serializer("");
+		assertTrue(compressed(assertRoundTrip(ser, bytes("sys.cpu.user:host=web01,sys.cpu.user:host=web02"))));
+		// nothing repeats, so it is stored raw
+		final byte[] random = new byte[64];
+		new Random(1).nextBytes(random);
+		assertTrue(!compressed(assertRoundTrip(ser, random)));
+	}
+
+	@Test
+	public void testTrainedRoundTrips() throws Exception {
+		final Random random = new Random(7);
+		final String[] hosts = {"web", "db", "cache", "queue"};
+		final List<String> samples = new ArrayList<String>();
+		for(int i = 0; i < 2000; i++) {
+			samples.add("sys.cpu.percent:cpu=" + random.nextInt(32) + ",dc=dc-east-" + random.nextInt(3) + ",host=" + hosts[random.nextInt(hosts.length)] + "-" + random.nextInt(500) + ".example.com");
+		}
+		final AdaptiveCompressionSerializer<byte[]> ser = new AdaptiveCompressionSerializer<byte[]>(Serializer.BYTE_ARRAY_NOSIZE,
+			AdaptiveCompressionSerializer.train(samples.subList(0, 1000), AdaptiveCompressionSerializer.DEFAULT_DICTIONARY_SIZE),
+			AdaptiveCompressionSerializer.DEFAULT_RAW_THRESHOLD, "test");
+		long stored = 0, serialized = 0;
+		for(String sample: samples) {
+			final byte[] value = bytes(sample);
+			stored += assertRoundTrip(ser, value).length;
+			serialized += value.length;
+		}
+		assertTrue(stored < serialized * 3 / 4);
+		// random strings of few symbols exercise every literal and match boundary
+		for(int i = 0; i < 1000; i++) {
+			final byte[] value = new byte[random.nextInt(200)];
+			for(int j = 0; j < value.length; j++) {
+				value[j] = (byte)"abc.=-".charAt(random.nextInt(6));
+			}
+			assertRoundTrip(ser, value);
+		}
+	}
+
+	@Test
+	public void testCorruptDistance() throws Exception {
+		final AdaptiveCompressionSerializer<byte[]> ser = serializer("abcd");
+		final DataIO.DataOutputByteArray out = new DataIO.DataOutputByteArray();
+		// 10 bytes: 2 literals, then a 4 byte copy from further back than the dictionary reaches
+		AdaptiveCompressionSerializer.packInt(out, (10 << 1) | 1);
+		AdaptiveCompressionSerializer.packInt(out, 2);
+		out.write(bytes("ab"));
+		AdaptiveCompressionSerializer.packInt(out, 0);
+		AdaptiveCompressionSerializer.packInt(out, 50);
+		try {
+			load(ser, Arrays.copyOf(out.buf, out.pos));
+			fail("A copy from beyond the dictionary should be rejected");
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage().startsWith("Corrupt compressed value"));
+		}
+	}
+}
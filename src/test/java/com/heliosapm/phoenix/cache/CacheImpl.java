@@ -18,21 +18,44 @@ under the License.
  */
 package com.heliosapm.phoenix.cache;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
+import net.opentsdb.stats.StatsCollector;
 import net.opentsdb.uid.UniqueId;
 
 import org.mapdb.BTreeKeySerializer;
+import org.mapdb.BTreeMap;
 import org.mapdb.HTreeMap;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
@@ -43,6 +66,7 @@ import org.mapdb.TxMaker;
 import org.mapdb.TxRollbackException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import com.stumbleupon.async.Deferred;
 
 import com.google.common.primitives.SignedBytes;
 import com.heliosapm.phoenix.cache.CachedTSMeta.CachedTSMetaSerializer;
@@ -63,8 +87,16 @@ public class CacheImpl implements Closeable {
 	public static final String JDBC_DRIVER = "org.h2.Driver";
 public static final String JDBC_URL = "jdbc:h2:tcp://10.5.202.22:8083//var/opt/opentsdb/sqlcatalog/tsdb/tsdb";
 //	public static final String JDBC_URL = "jdbc:h2:tcp://127.0.0.1:9092/tsdb";
+	/** The system property overriding the SQL catalog JDBC URL */
+	public static final String JDBC_URL_PROP = "tsdbmeta.jdbc.url";
+	/** The system property naming a directory to journal mutations to from startup, including the UID preloads */
+	public static final String JOURNAL_DIR_PROP = "tsdbmeta.journal.dir";
+	/** The system property overriding the number of deserialized records held in the MapDB record cache */
+	public static final String RECORD_CACHE_PROP = "tsdbmeta.cache.records";
+	/** The default number of deserialized records held in the MapDB record cache */
+	public static final int DEFAULT_RECORD_CACHE_SIZE = 100000;
 
-	/** The name of the CacheTSMeta map */
+	/** The name of the CacheTSMeta map, a tree map keyed by raw tsuid */
 	public static final String TSMETA_NAME = "tsmeta";
 	/** The name of the TagK map */
 	public static final String TAGK_NAME = "tagk";
@@ -72,14 +104,99 @@ public static final String JDBC_URL = "jdbc:h2:tcp://10.5.202.22:8083//var/opt/o
 	public static final String TAGV_NAME = "tagv";
 	/** The name of the Metric map */
 	public static final String METRIC_NAME = "metric";
+	/** The suffix of the name to UID map name for each UID type */
+	public static final String NAMES_SUFFIX = ".names";
+	/** The default maximum number of times a conflicting write transaction is retried */
+	public static final int DEFAULT_MAX_TX_RETRIES = 64;
+	/** The initial backoff after a write transaction conflict */
+	public static final long MIN_TX_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	/** The maximum backoff after a write transaction conflict */
+	public static final long MAX_TX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+	/** The number of write lock stripes, a power of 2 */
+	public static final int WRITE_STRIPES = 64;
+	/** The minimum number of keys a UID Bloom filter is sized for */
+	public static final long MIN_UID_FILTER_SIZE = 100000;
+	/** The target false positive probability of the UID Bloom filters */
+	public static final double UID_FILTER_FPP = 0.01;
+	/** The name of the atomic long holding the sequence number of the last applied journal record */
+	public static final String JOURNAL_CHECKPOINT_NAME = "journal.checkpoint";
+	/** The number of published generations kept, including the latest */
+	public static final int RETAINED_GENERATIONS = 3;
+	/** The number of names or FQNs sampled to train each compression dictionary */
+	public static final int DICTIONARY_SAMPLE_SIZE = 10000;
+	/** The catalog type of a MapDB hash map */
+	static final String HASH_MAP_TYPE = "HashMap";
 	
 	final File dbFile;
 	final DBMaker.Maker dbMaker;
 	final TxMaker txMaker;
 	final boolean arch64bit;
+	/** The number of deserialized records held in the MapDB record cache */
+	final int recordCacheSize;
 	final Map<UniqueId.UniqueIdType, String> uidMapNames = new EnumMap(UniqueId.UniqueIdType.class);
 	final Map<UniqueId.UniqueIdType, String> uidTableNames = new EnumMap(UniqueId.UniqueIdType.class);
+	/** The name to UID map names keyed by UID type */
+	final Map<UniqueId.UniqueIdType, String> uidNameMapNames = new EnumMap<UniqueId.UniqueIdType, String>(UniqueId.UniqueIdType.class);
+	/** The Bloom filters over the cached uid hexes keyed by UID type */
+	final Map<UniqueId.UniqueIdType, AtomicReference<StringBloomFilter>> uidFilters = new EnumMap<UniqueId.UniqueIdType, AtomicReference<StringBloomFilter>>(UniqueId.UniqueIdType.class);
+	/** The Bloom filters being rebuilt keyed by UID type, which puts are also added to until they replace the current filters */
+	final Map<UniqueId.UniqueIdType, AtomicReference<StringBloomFilter>> uidFiltersBuilding = new EnumMap<UniqueId.UniqueIdType, AtomicReference<StringBloomFilter>>(UniqueId.UniqueIdType.class);
+	/** Flags set while a Bloom filter rebuild is queued on the scheduler, keyed by UID type */
+	final Map<UniqueId.UniqueIdType, AtomicBoolean> uidFilterRebuildsQueued = new EnumMap<UniqueId.UniqueIdType, AtomicBoolean>(UniqueId.UniqueIdType.class);
+	/** The in-flight uid writers, from their Bloom filter adds until their commits, which a filter rebuild waits out before its snapshot */
+	final WriterPhaser uidWriters = new WriterPhaser();
+	/** The compression stats of the value serializers in this cache's store keyed by map name */
+	final ConcurrentHashMap<String, AdaptiveCompressionSerializer.CompressionStats> compressionStats = new ConcurrentHashMap<String, AdaptiveCompressionSerializer.CompressionStats>();
+	/** The caches of uid hexes not found in the source keyed by UID type */
+	final Map<UniqueId.UniqueIdType, NegativeCache> negativeCaches = new EnumMap<UniqueId.UniqueIdType, NegativeCache>(UniqueId.UniqueIdType.class);
+	/** The inverted index over the cached TSMetas */
+	final SeriesIndex seriesIndex = new SeriesIndex();
+	/** The cardinality sketches of the cached TSMetas */
+	final CardinalityTracker cardinality = new CardinalityTracker();
+	/** The first-seen and last-seen times of the indexed series */
+	final SeriesActivity activity = new SeriesActivity();
+	/** The write lock stripes */
+	final ReentrantLock[] writeStripes = new ReentrantLock[WRITE_STRIPES];
+	/** The maximum number of times a conflicting write transaction is retried */
+	volatile int maxTxRetries = DEFAULT_MAX_TX_RETRIES;
+	/** The write-behind buffer, null when puts are written through */
+	volatile WriteBehindBuffer writeBehind = null;
+	/** The write-behind buffer being drained while write-behind is disabled, consulted by lookups until it is closed */
+	volatile WriteBehindBuffer draining = null;
+	/** The tsmeta evictor, null when the tsmeta map is unbounded */
+	volatile TSMetaEvictor evictor = null;
+	/** The scheduled evictor handle */
+	ScheduledFuture<?> evictorHandle = null;
+	/** The stale series pruner, null when stale series are kept */
+	volatile SeriesPruner pruner = null;
+	/** The scheduled pruner handle */
+	ScheduledFuture<?> prunerHandle = null;
+	/** The memory accountant, null when memory is not accounted */
+	volatile MemoryAccountant accountant = null;
+	/** The scheduled accountant handle */
+	ScheduledFuture<?> accountantHandle = null;
+	/** The scheduler for background tasks, created on first use */
+	ScheduledExecutorService scheduler = null;
+	/** The change journal, null when mutations are not journaled */
+	volatile ChangeJournal journal = null;
+	/** The scheduled journal follower handle */
+	ScheduledFuture<?> followerHandle = null;
+	/** The async UID loader, created on first use */
+	UIDLoader loader = null;
+	/** The cache instrumentation */
+	final CacheMetrics metrics = new CacheMetrics(this, TSMETA_NAME, TAGK_NAME, TAGV_NAME, METRIC_NAME);
 	public static CacheImpl getInstance(final String fileName) {
+		return getInstance(fileName, true);
+	}
+	
+	/**
+	 * Returns the cache for the passed file, creating it if necessary
+	 * @param fileName The cache file name
+	 * @param preload true to preload the UIDs from the SQL catalog when the cache is created, false for a cache
+	 * fed some other way, such as a {@link JournalFollower}
+	 * @return the cache
+	 */
+	public static CacheImpl getInstance(final String fileName, final boolean preload) {
 		if(fileName==null || fileName.trim().isEmpty()) throw new IllegalArgumentException("The passed file name was null or empty");
 		final File f = new File(fileName.trim());
 		final String key = f.getAbsolutePath();
@@ -88,7 +205,7 @@ public static final String JDBC_URL = "jdbc:h2:tcp://10.5.202.22:8083//var/opt/o
 			synchronized(dbs) {
 				ci = dbs.get(key);
 				if(ci==null) {
-					ci = new CacheImpl(f);
+					ci = new CacheImpl(f, preload);
 					dbs.put(key, ci);
 				}
 			}
@@ -110,8 +227,9 @@ public static final String JDBC_URL = "jdbc:h2:tcp://10.5.202.22:8083//var/opt/o
 	 * Creates a new CacheImpl
 	 * @param dbFile The file where the cache will be persisted
 	 */
-	private CacheImpl(final File dbFile) {
+	private CacheImpl(final File dbFile, final boolean preload) {
 		this.dbFile = dbFile;
+		for(int i = 0; i < WRITE_STRIPES; i++) writeStripes[i] = new ReentrantLock();
 		final String arch = System.getProperty("os.arch","noarch");
 		final String os = System.getProperty("os.name","").toLowerCase();
 		final boolean isWin = os.contains("windows");
@@ -121,70 +239,219 @@ public static final String JDBC_URL = "jdbc:h2:tcp://10.5.202.22:8083//var/opt/o
 				.fileDB(this.dbFile);
 //		if(!isWin) 
 			dbMaker = dbMaker.fileMmapEnableIfSupported();
-		dbMaker = dbMaker.cacheLRUEnable().cacheSize(100000).cacheExecutorEnable();
+		recordCacheSize = Integer.getInteger(RECORD_CACHE_PROP, DEFAULT_RECORD_CACHE_SIZE);
+		dbMaker = dbMaker.cacheLRUEnable().cacheSize(recordCacheSize).cacheExecutorEnable();
 		
 		
 		
 		txMaker = dbMaker
 				.transactionDisable()
 				.makeTxMaker();
-		final DB db = txMaker.makeTx();		
-//		final DB db = dbMaker.make();
-		db.hashMapCreate(TSMETA_NAME)
-//			.comparator(STRING_COMPARATOR)			
-//			.keySerializer(BTreeKeySerializer.STRING)
-			.keySerializer(Serializer.STRING)
-//			.valueSerializer(CachedTSMetaSerializer.INSTANCE)	
-			.valueSerializer(new Serializer.CompressionWrapper<CachedTSMeta>(CachedTSMetaSerializer.INSTANCE))
-			.makeOrGet();	
-		db.hashMapCreate(TAGK_NAME)
-//			.comparator(STRING_COMPARATOR)			
-//			.keySerializer(BTreeKeySerializer.STRING)
-			.keySerializer(Serializer.STRING)
-//			.valueSerializer(CachedUIDMetaSerializer.INSTANCE)
-			.valueSerializer(new Serializer.CompressionWrapper<CachedUIDMeta>(CachedUIDMetaSerializer.INSTANCE))
-			.makeOrGet();	
-		db.hashMapCreate(TAGV_NAME)
-//			.comparator(STRING_COMPARATOR)			
-//			.keySerializer(BTreeKeySerializer.STRING)
-			.keySerializer(Serializer.STRING)
-//			.valueSerializer(CachedUIDMetaSerializer.INSTANCE)			
-			.valueSerializer(new Serializer.CompressionWrapper<CachedUIDMeta>(CachedUIDMetaSerializer.INSTANCE))
-			.makeOrGet();	
-		db.hashMapCreate(METRIC_NAME)
-//			.comparator(STRING_COMPARATOR)			
-//			.keySerializer(BTreeKeySerializer.STRING)
-			.keySerializer(Serializer.STRING)
-//			.valueSerializer(CachedUIDMetaSerializer.INSTANCE)			
-			.valueSerializer(new Serializer.CompressionWrapper<CachedUIDMeta>(CachedUIDMetaSerializer.INSTANCE))
-			.makeOrGet();	
 		uidMapNames.put(UniqueId.UniqueIdType.TAGK, TAGK_NAME);
 		uidMapNames.put(UniqueId.UniqueIdType.TAGV, TAGV_NAME);
 		uidMapNames.put(UniqueId.UniqueIdType.METRIC, METRIC_NAME);
+		for(Map.Entry<UniqueId.UniqueIdType, String> entry: uidMapNames.entrySet()) {
+			uidNameMapNames.put(entry.getKey(), entry.getValue() + NAMES_SUFFIX);
+		}
 		
 		uidTableNames.put(UniqueId.UniqueIdType.TAGK, "TSD_TAGK");
 		uidTableNames.put(UniqueId.UniqueIdType.TAGV, "TSD_TAGV");
 		uidTableNames.put(UniqueId.UniqueIdType.METRIC, "TSD_METRIC");
+		final DB db = txMaker.makeTx();		
+//		final DB db = dbMaker.make();
+		// existing maps keep the serializers stored in their catalog, so only a new store is trained, and only from 
+		// the SQL catalog it preloads from: a store fed some other way may have no catalog to reach
+		createMaps(db, db.exists(TSMETA_NAME) || !preload ? null : trainValueSerializers());
+		for(UniqueId.UniqueIdType type: UniqueId.UniqueIdType.values()) {
+			uidFilters.put(type, new AtomicReference<StringBloomFilter>(new StringBloomFilter(MIN_UID_FILTER_SIZE, UID_FILTER_FPP)));
+			uidFiltersBuilding.put(type, new AtomicReference<StringBloomFilter>());
+			uidFilterRebuildsQueued.put(type, new AtomicBoolean(false));
+			negativeCaches.put(type, new NegativeCache(NegativeCache.DEFAULT_TTL_MS, TimeUnit.MILLISECONDS, NegativeCache.DEFAULT_MAX_SIZE));
+		}
 
 		db.commit();
 		db.close();
 
+		final String journalDir = System.getProperty(JOURNAL_DIR_PROP);
+		if(journalDir!=null && !journalDir.trim().isEmpty()) {
+			journal = recoverJournal(new ChangeJournal(new File(journalDir.trim())));
+		}
 		long start = System.currentTimeMillis();
-		long sz = preLoad(UniqueId.UniqueIdType.TAGK);
-		log.info("Loaded [{}] TAGK cache items in [{}] ms", sz, System.currentTimeMillis() - start);
-		start = System.currentTimeMillis();
-		sz = preLoad(UniqueId.UniqueIdType.TAGV);
-		log.info("Loaded [{}] TAGV cache items in [{}] ms", sz, System.currentTimeMillis() - start);
+		long sz;
+		if(preload) {
+			sz = preLoad(UniqueId.UniqueIdType.TAGK);
+			log.info("Loaded [{}] TAGK cache items in [{}] ms", sz, System.currentTimeMillis() - start);
+			start = System.currentTimeMillis();
+			sz = preLoad(UniqueId.UniqueIdType.TAGV);
+			log.info("Loaded [{}] TAGV cache items in [{}] ms", sz, System.currentTimeMillis() - start);
+			start = System.currentTimeMillis();
+			sz = preLoad(UniqueId.UniqueIdType.METRIC);
+			log.info("Loaded [{}] METRIC cache items in [{}] ms", sz, System.currentTimeMillis() - start);
+		} else {
+			for(UniqueId.UniqueIdType type: UniqueId.UniqueIdType.values()) {
+				rebuildUIDFilter(type);
+			}
+		}
 		start = System.currentTimeMillis();
-		sz = preLoad(UniqueId.UniqueIdType.METRIC);
-		log.info("Loaded [{}] METRIC cache items in [{}] ms", sz, System.currentTimeMillis() - start);
+		sz = rebuildSeriesIndex();
+		log.info("Indexed [{}] TSMetas in [{}] ms", sz, System.currentTimeMillis() - start);
 		
 		
 		//txMaker.close();
 		this.dbMaker = dbMaker;
+		metrics.register();
 		
 	}
 
+	/**
+	 * Creates the cache maps in the passed DB if they do not exist
+	 * @param db The DB to create the maps in
+	 * @param valueSerializers The value serializers keyed by map name. Maps without one get an
+	 * {@link AdaptiveCompressionSerializer} with no dictionary. May be null.
+	 */
+	@SuppressWarnings("unchecked")
+	static void createMaps(final DB db, final Map<String, Serializer<?>> valueSerializers) {
+		final Map<String, Serializer<?>> sers = valueSerializers==null ? Collections.<String, Serializer<?>>emptyMap() : valueSerializers;
+		// existing maps are left alone: opening one with a serializer other than its own would override the stored one
+		if(!db.exists(TSMETA_NAME)) {
+			createTSMetaMap(db, TSMETA_NAME, sers.containsKey(TSMETA_NAME) ? (Serializer<CachedTSMeta>)sers.get(TSMETA_NAME) : valueSerializer(TSMETA_NAME, null));
+		} else if(HASH_MAP_TYPE.equals(db.getCatalog().get(TSMETA_NAME + ".type"))) {
+			migrateTSMetaMap(db);
+		}
+		for(String uidMapName: new String[]{TAGK_NAME, TAGV_NAME, METRIC_NAME}) {
+			if(db.exists(uidMapName)) continue;
+			db.hashMapCreate(uidMapName)
+//				.comparator(STRING_COMPARATOR)			
+//				.keySerializer(BTreeKeySerializer.STRING)
+				.keySerializer(Serializer.STRING)
+//				.valueSerializer(new Serializer.CompressionWrapper<CachedUIDMeta>(CachedUIDMetaSerializer.INSTANCE))
+				.valueSerializer(sers.containsKey(uidMapName) ? (Serializer<CachedUIDMeta>)sers.get(uidMapName) : valueSerializer(uidMapName, null))
+				.make();
+		}
+		for(String uidMapName: new String[]{TAGK_NAME, TAGV_NAME, METRIC_NAME}) {
+			db.treeMapCreate(uidMapName + NAMES_SUFFIX)
+				.keySerializer(BTreeKeySerializer.STRING)
+				.valueSerializer(Serializer.STRING)
+				.makeOrGet();
+		}
+	}
+
+	/**
+	 * Creates an empty TSMeta tree map. Keys are raw tsuids, which sort metric first and then by tag pair, stored with
+	 * their common prefix compressed per node. Values are stored outside the nodes so a lookup decodes one value, not a node's worth.
+	 * @param db The DB to create the map in
+	 * @param name The map name
+	 * @param valueSerializer The value serializer
+	 * @return the created map
+	 */
+	static BTreeMap<byte[], CachedTSMeta> createTSMetaMap(final DB db, final String name, final Serializer<CachedTSMeta> valueSerializer) {
+		return db.treeMapCreate(name)
+			.keySerializer(BTreeKeySerializer.BYTE_ARRAY)
+			.valueSerializer(valueSerializer)
+			.valuesOutsideNodesEnable()
+			.counterEnable()
+			.make();
+	}
+	
+	/**
+	 * Converts a TSMeta hash map keyed by tsuid hex, as written by earlier versions, to the tree map keyed by raw tsuid.
+	 * The stored value serializer is kept.
+	 * @param db The DB holding the map
+	 */
+	@SuppressWarnings("unchecked")
+	static void migrateTSMetaMap(final DB db) {
+		final long start = System.currentTimeMillis();
+		final String tmpName = TSMETA_NAME + ".migrating";
+		if(db.exists(tmpName)) db.delete(tmpName);
+		final HTreeMap<String, CachedTSMeta> source = db.hashMap(TSMETA_NAME);
+		final BTreeMap<byte[], CachedTSMeta> target = createTSMetaMap(db, tmpName, (Serializer<CachedTSMeta>)db.getCatalog().get(TSMETA_NAME + ".valueSerializer"));
+		for(CachedTSMeta meta: source.values()) {
+			target.put(meta.getTsuid(), meta);
+		}
+		db.delete(TSMETA_NAME);
+		db.rename(tmpName, TSMETA_NAME);
+		log.info("Migrated [{}] TSMetas to a sorted map in [{}] ms", target.sizeLong(), System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Creates the value serializer for the named map
+	 * @param mapName The map name
+	 * @param dictionary The compression dictionary, or null for none
+	 * @return the value serializer
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	static Serializer valueSerializer(final String mapName, final byte[] dictionary) {
+		final Serializer inner = TSMETA_NAME.equals(mapName) ? CachedTSMetaSerializer.INSTANCE : CachedUIDMetaSerializer.INSTANCE;
+		return new AdaptiveCompressionSerializer(inner, dictionary, AdaptiveCompressionSerializer.DEFAULT_RAW_THRESHOLD, mapName);
+	}
+
+	/**
+	 * Returns the value serializers of the cache maps in the passed DB, as stored in its catalog
+	 * @param db The DB
+	 * @return the value serializers keyed by map name
+	 */
+	static Map<String, Serializer<?>> valueSerializers(final DB db) {
+		final Map<String, Serializer<?>> sers = new HashMap<String, Serializer<?>>();
+		for(String mapName: new String[]{TSMETA_NAME, TAGK_NAME, TAGV_NAME, METRIC_NAME}) {
+			final Object ser = db.getCatalog().get(mapName + ".valueSerializer");
+			if(ser instanceof Serializer) sers.put(mapName, (Serializer<?>)ser);
+		}
+		return sers;
+	}
+
+	/**
+	 * Trains value serializers with compression dictionaries on a sample of the names and FQNs in the SQL catalog.
+	 * Maps whose sample cannot be read are left out.
+	 * @return the value serializers keyed by map name
+	 */
+	Map<String, Serializer<?>> trainValueSerializers() {
+		final Map<String, Serializer<?>> sers = new HashMap<String, Serializer<?>>();
+		Connection conn = null;
+		try {
+			conn = DriverManager.getConnection(jdbcUrl(), "sa", "");
+			for(UniqueId.UniqueIdType type: UniqueId.UniqueIdType.values()) {
+				final List<String> sample = sample(conn, "SELECT NAME FROM " + uidTableNames.get(type) + " LIMIT " + DICTIONARY_SAMPLE_SIZE);
+				if(sample!=null) sers.put(uidMapNames.get(type), valueSerializer(uidMapNames.get(type), AdaptiveCompressionSerializer.train(sample, AdaptiveCompressionSerializer.DEFAULT_DICTIONARY_SIZE)));
+			}
+			final List<String> sample = sample(conn, "SELECT FQN FROM TSD_TSMETA LIMIT " + DICTIONARY_SAMPLE_SIZE);
+			if(sample!=null) sers.put(TSMETA_NAME, valueSerializer(TSMETA_NAME, AdaptiveCompressionSerializer.train(sample, AdaptiveCompressionSerializer.DEFAULT_DICTIONARY_SIZE)));
+		} catch (Exception ex) {
+			log.warn("Failed to sample the SQL catalog for compression dictionaries: {}", ex.toString());
+		} finally {
+			if(conn!=null) try { conn.close(); } catch (Exception x) {/* No Op */}
+		}
+		for(Map.Entry<String, Serializer<?>> entry: sers.entrySet()) {
+			log.info("Trained [{}] byte compression dictionary for map [{}]", ((AdaptiveCompressionSerializer<?>)entry.getValue()).dictionary.length, entry.getKey());
+		}
+		return sers;
+	}
+
+	/**
+	 * Reads the first column of the passed query
+	 * @param conn The SQL catalog connection
+	 * @param sql The query
+	 * @return the values, or null if the query failed
+	 */
+	private static List<String> sample(final Connection conn, final String sql) {
+		Statement st = null;
+		ResultSet rset = null;
+		try {
+			st = conn.createStatement();
+			rset = st.executeQuery(sql);
+			final List<String> sample = new ArrayList<String>(DICTIONARY_SAMPLE_SIZE);
+			while(rset.next()) {
+				sample.add(rset.getString(1));
+			}
+			return sample;
+		} catch (Exception ex) {
+			log.warn("Failed to sample [{}]: {}", sql, ex.toString());
+			return null;
+		} finally {
+			if(rset!=null) try { rset.close(); } catch (Exception x) {/* No Op */}
+			if(st!=null) try { st.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
 	/**
 	 * @param args
 	 */
@@ -196,7 +463,7 @@ public static final String JDBC_URL = "jdbc:h2:tcp://10.5.202.22:8083//var/opt/o
 	@SuppressWarnings("unchecked")
 	public <K, T, M extends ConcurrentNavigableMap<K, T> & Closeable> M  getTSMetaCache() {
 		final DB db =  dbMaker.makeTxMaker().makeTx();
-		return (M) db.hashMap(TSMETA_NAME);
+		return (M) tsMetaMap(db);
 	}
 
 	/**
@@ -223,8 +490,18 @@ public static final String JDBC_URL = "jdbc:h2:tcp://10.5.202.22:8083//var/opt/o
 	 */
 	@Override
 	public void close() {
-		try { txMaker.close(); } catch (Exception x) {/* No Op */}
-		dbs.remove(dbFile.getAbsolutePath());
+		try {
+			disableWriteBehind();
+		} finally {
+			synchronized(this) {
+				if(scheduler!=null) scheduler.shutdownNow();
+				if(loader!=null) loader.close();
+				if(journal!=null) journal.close();
+			}
+			metrics.unregister();
+			try { txMaker.close(); } catch (Exception x) {/* No Op */}
+			dbs.remove(dbFile.getAbsolutePath());
+		}
 	}
 
 	/**
@@ -243,28 +520,198 @@ public static final String JDBC_URL = "jdbc:h2:tcp://10.5.202.22:8083//var/opt/o
 		public T tx(DB db) throws TxRollbackException;
 	}
 	
+	/**
+	 * <p>Title: TxJournal</p>
+	 * <p>Description: Appends the journal records of a write transaction's mutations</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.CacheImpl.TxJournal</code></p>
+	 */
+	public interface TxJournal<T> {
+		/**
+		 * Appends the records of the transaction's mutations. Called holding the journal's lock, after the transaction's callable
+		 * and before its commit, which is then marked in the journal as committed or aborted.
+		 * @param journal The journal to append to
+		 * @param db The transaction, which must not be modified
+		 * @param result The transaction callable's return value
+		 */
+		public void journal(ChangeJournal journal, DB db, T result);
+	}
+	
+	/**
+	 * Executes the passed callable in a write transaction, retrying on {@link TxRollbackException} 
+	 * with exponential backoff up to {@link #getMaxTxRetries()} times.
+	 * @param txCall The callable to execute
+	 * @return the callable's return value
+	 * @throws TxRollbackException if the transaction still conflicts after the maximum number of retries
+	 */
 	public <T> T execute(final TxCallable<T> txCall) {
-		for(;;){
+		return execute(txCall, (TxJournal<T>)null);
+	}
+	
+	/**
+	 * Executes the passed callable in a write transaction as {@link #execute(TxCallable)} does, journaling its mutations if
+	 * a journal is enabled. The journal's lock is held from appending the records through the commit to appending the commit
+	 * (or, on a rollback or any failure journaling or committing, abort) marker, so the journal holds the transactions in commit order
+	 * and never applies a record of a transaction that did not commit.
+	 * @param txCall The callable to execute
+	 * @param txJournal The journaler of the transaction's mutations, or null if they are not journaled
+	 * @return the callable's return value
+	 * @throws TxRollbackException if the transaction still conflicts after the maximum number of retries
+	 */
+	public <T> T execute(final TxCallable<T> txCall, final TxJournal<? super T> txJournal) {
+		long backoff = MIN_TX_BACKOFF_NANOS;
+		for(int attempt = 0;; attempt++){
 			DB tx = makeTx();
 			try{
 				final T t = txCall.tx(tx);
-				if(!tx.isClosed()) {
-					try {
-						tx.commit();
-					} catch (Exception ex) {						
-						UnsafeAdapter.throwException(ex);
+				final ChangeJournal j = txJournal==null ? null : journal;
+				if(j==null) {
+					commit(tx);
+				} else {
+					synchronized(j) {
+						boolean committed = false;
+						try {
+							txJournal.journal(j, tx, t);
+							commit(tx);
+							committed = true;
+						} finally {
+							// the records appended so far must not be left for the next commit marker to cover
+							if(!committed) {
+								if(!tx.isClosed()) tx.close();
+								j.appendAbort();
+							}
+						}
+						j.appendCommit();
 					}
 				}
+				metrics.txCommits.increment();
 				return t;
 			}catch(TxRollbackException e){
-				//failed, so try again
+				//failed, so back off and try again
 				if(!tx.isClosed()) tx.close();
+				if(attempt >= maxTxRetries) {
+					metrics.txFailures.increment();
+					throw e;
+				}
+				metrics.txRetries.increment();
+				LockSupport.parkNanos(backoff + (System.nanoTime() & Long.MAX_VALUE) % backoff);
+				backoff = Math.min(backoff << 1, MAX_TX_BACKOFF_NANOS);
 			}
 		}
 	}
 	
+	/**
+	 * Commits the passed transaction if it is still open
+	 * @param tx The transaction
+	 * @throws TxRollbackException if the transaction conflicts
+	 */
+	private static void commit(final DB tx) throws TxRollbackException {
+		if(tx.isClosed()) return;
+		try {
+			tx.commit();
+		} catch (TxRollbackException trex) {
+			throw trex;
+		} catch (Exception ex) {
+			UnsafeAdapter.throwException(ex);
+		}
+	}
+	
+	/**
+	 * Executes the passed write callable while holding the lock stripe for the passed key, so in-process writers 
+	 * of the same key queue on a lock rather than conflicting and rolling back each other's transactions.
+	 * @param key The key being written
+	 * @param txCall The callable to execute
+	 * @return the callable's return value
+	 */
+	public <T> T execute(final Object key, final TxCallable<T> txCall) {
+		return execute(key, txCall, null);
+	}
+	
+	/**
+	 * Executes the passed write callable while holding the lock stripe for the passed key, journaling its mutations
+	 * as {@link #execute(TxCallable, TxJournal)} does.
+	 * @param key The key being written
+	 * @param txCall The callable to execute
+	 * @param txJournal The journaler of the transaction's mutations, or null if they are not journaled
+	 * @return the callable's return value
+	 */
+	public <T> T execute(final Object key, final TxCallable<T> txCall, final TxJournal<? super T> txJournal) {
+		final ReentrantLock lock = writeStripes[(key.hashCode() * 0x9E3779B9 >>> 16) & (writeStripes.length - 1)];
+		lock.lock();
+		try {
+			return execute(txCall, txJournal);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Executes a write callable which adds uids, registered as an in-flight uid writer from before its
+	 * Bloom filter adds until after its commit so a concurrent filter rebuild cannot snapshot the uid maps 
+	 * without the callable's uids and then miss them.
+	 * @param key The key being written, or null to take no lock stripe
+	 * @param txCall The callable to execute
+	 * @param txJournal The journaler of the transaction's mutations, or null if they are not journaled
+	 * @return the callable's return value
+	 */
+	<T> T executeUIDWrite(final Object key, final TxCallable<T> txCall, final TxJournal<? super T> txJournal) {
+		final int phase = uidWriters.enter();
+		try {
+			return key==null ? execute(txCall, txJournal) : execute(key, txCall, txJournal);
+		} finally {
+			uidWriters.exit(phase);
+		}
+	}
+	
+	/**
+	 * Executes the passed read-only callable against a transaction which is discarded rather than committed.
+	 * The transaction reads a consistent snapshot and, since it makes no modifications, never conflicts
+	 * with concurrent writers, so readers never retry or wait on writers. 
+	 * The callable must not modify the passed DB.
+	 * @param txCall The callable to execute
+	 * @return the callable's return value
+	 */
+	public <T> T executeRead(final TxCallable<T> txCall) {
+		final DB tx = makeTx();
+		try {
+			final T t = txCall.tx(tx);
+			metrics.txReads.increment();
+			return t;
+		} finally {
+			if(!tx.isClosed()) try { tx.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+	
+	/**
+	 * Returns the maximum number of times a conflicting write transaction is retried
+	 * @return the maximum number of retries
+	 */
+	public int getMaxTxRetries() {
+		return maxTxRetries;
+	}
+	
+	/**
+	 * Sets the maximum number of times a conflicting write transaction is retried
+	 * @param maxTxRetries the maximum number of retries
+	 */
+	public void setMaxTxRetries(final int maxTxRetries) {
+		if(maxTxRetries < 0) throw new IllegalArgumentException("Invalid max retries [" + maxTxRetries + "]");
+		this.maxTxRetries = maxTxRetries;
+	}
+	
 	public boolean containsUIDKey(final UniqueId.UniqueIdType type, final String name) {
-		return execute(new TxCallable<Boolean>() {
+		final WriteBehindBuffer wb = pendingWrites();
+		if(wb!=null && wb.getUid(type, name)!=null) {
+			metrics.map(uidMapNames.get(type)).lookup(true);
+			return true;
+		}
+		if(!uidFilters.get(type).get().mightContain(name)) {
+			metrics.uidFilterRejects.increment();
+			metrics.map(uidMapNames.get(type)).lookup(false);
+			return false;
+		}
+		final boolean contains = executeRead(new TxCallable<Boolean>() {
 			@Override
 			public Boolean tx(final DB db) throws TxRollbackException {
 				final HTreeMap<String, CachedUIDMeta> map = db.hashMap(uidMapNames.get(type));
@@ -275,12 +722,69 @@ public static final String JDBC_URL = "jdbc:h2:tcp://10.5.202.22:8083//var/opt/o
 				}
 			}
 		});
+		metrics.map(uidMapNames.get(type)).lookup(contains);
+		return contains;
+	}
+	
+	/**
+	 * Returns the passed uids which are not cached, checking the ones the Bloom filter does not reject in one transaction
+	 * @param type The UID type
+	 * @param uidHexes The uid hexes to check
+	 * @return the uncached uid hexes
+	 */
+	public Set<String> missingUIDKeys(final UniqueId.UniqueIdType type, final Collection<String> uidHexes) {
+		final Set<String> missing = new HashSet<String>();
+		final List<String> candidates = new ArrayList<String>(uidHexes.size());
+		final StringBloomFilter filter = uidFilters.get(type).get();
+		final WriteBehindBuffer wb = pendingWrites();
+		for(String uidHex: uidHexes) {
+			if(wb!=null && wb.getUid(type, uidHex)!=null) continue;
+			if(filter.mightContain(uidHex)) {
+				candidates.add(uidHex);
+			} else {
+				missing.add(uidHex);
+			}
+		}
+		metrics.uidFilterRejects.add(missing.size());
+		if(!candidates.isEmpty()) {
+			executeRead(new TxCallable<Void>() {
+				@Override
+				public Void tx(final DB db) throws TxRollbackException {
+					final HTreeMap<String, CachedUIDMeta> map = db.hashMap(uidMapNames.get(type));
+					try {
+						for(String uidHex: candidates) {
+							if(!map.containsKey(uidHex)) missing.add(uidHex);
+						}
+						return null;
+					} finally {
+						try { map.close(); } catch (Exception x) {/* No Op */}
+					}
+				}
+			});
+		}
+		final CacheMetrics.MapMetrics mm = metrics.map(uidMapNames.get(type));
+		mm.hits.add(uidHexes.size() - missing.size());
+		mm.misses.add(missing.size());
+		return missing;
 	}
 	
 
 
 	public CachedUIDMeta getCachedUIDMeta(final UniqueId.UniqueIdType type, final String name) {
-		return execute(new TxCallable<CachedUIDMeta>() {
+		final WriteBehindBuffer wb = pendingWrites();
+		if(wb!=null) {
+			final CachedUIDMeta pending = wb.getUid(type, name);
+			if(pending!=null) {
+				metrics.map(uidMapNames.get(type)).lookup(true);
+				return pending;
+			}
+		}
+		if(!uidFilters.get(type).get().mightContain(name)) {
+			metrics.uidFilterRejects.increment();
+			metrics.map(uidMapNames.get(type)).lookup(false);
+			return null;
+		}
+		final CachedUIDMeta meta = executeRead(new TxCallable<CachedUIDMeta>() {
 			@Override
 			public CachedUIDMeta tx(final DB db) throws TxRollbackException {
 				final HTreeMap<String, CachedUIDMeta> map = db.hashMap(uidMapNames.get(type));
@@ -291,44 +795,376 @@ public static final String JDBC_URL = "jdbc:h2:tcp://10.5.202.22:8083//var/opt/o
 				}
 			}
 		});
+		metrics.map(uidMapNames.get(type)).lookup(meta!=null);
+		return meta;
 	}
 
 	public void putCachedUIDMeta(final UniqueId.UniqueIdType type, final CachedUIDMeta meta) {
-		execute(new TxCallable<Void>() {
+		if(!metrics.map(uidMapNames.get(type)).admit(1)) return;
+		final WriteBehindBuffer wb = writeBehind;
+		if(wb!=null) {
+			wb.put(type, meta);
+			return;
+		}
+		awaitDrained();
+		executeUIDWrite(meta.getUidHex(), new TxCallable<Void>() {
 			@Override
 			public Void tx(final DB db) throws TxRollbackException {
 				final HTreeMap<String, CachedUIDMeta> map = db.hashMap(uidMapNames.get(type));
 				try {
-					map.putIfAbsent(meta.getUidHex(), meta);
+					putUID(type, map, uidNameMap(db, type), meta);
 					return null;
 				} finally {
 					try { map.close(); } catch (Exception x) {/* No Op */}
 				}
 			}
+		}, new TxJournal<Void>() {
+			@Override
+			public void journal(final ChangeJournal j, final DB db, final Void result) {
+				j.appendUID(meta);
+			}
+		});
+		metrics.map(uidMapNames.get(type)).puts.increment();
+	}
+	
+	/**
+	 * Caches the passed UIDMetas in one transaction
+	 * @param type The UID type
+	 * @param metas The UIDMetas to cache
+	 */
+	public void putCachedUIDMetas(final UniqueId.UniqueIdType type, final Collection<CachedUIDMeta> metas) {
+		if(metas==null || metas.isEmpty()) return;
+		if(!metrics.map(uidMapNames.get(type)).admit(metas.size())) return;
+		final WriteBehindBuffer wb = writeBehind;
+		if(wb!=null) {
+			for(CachedUIDMeta meta: metas) {
+				wb.put(type, meta);
+			}
+			return;
+		}
+		awaitDrained();
+		executeUIDWrite(null, new TxCallable<Void>() {
+			@Override
+			public Void tx(final DB db) throws TxRollbackException {
+				final HTreeMap<String, CachedUIDMeta> map = db.hashMap(uidMapNames.get(type));
+				final BTreeMap<String, String> names = uidNameMap(db, type);
+				for(CachedUIDMeta meta: metas) {
+					putUID(type, map, names, meta);
+				}
+				return null;
+			}
+		}, new TxJournal<Void>() {
+			@Override
+			public void journal(final ChangeJournal j, final DB db, final Void result) {
+				for(CachedUIDMeta meta: metas) {
+					j.appendUID(meta);
+				}
+			}
+		});
+		metrics.map(uidMapNames.get(type)).puts.add(metas.size());
+	}
+	
+	/**
+	 * Returns the UIDMeta for the passed uid, loading it from the SQL catalog if it is not cached.
+	 * Concurrent misses on the same uid share one load, and misses arriving together are fetched in one query.
+	 * @param type The UID type
+	 * @param uidHex The uid hex
+	 * @return a deferred UIDMeta, called back with null if the uid does not exist
+	 */
+	public Deferred<CachedUIDMeta> getCachedUIDMetaAsync(final UniqueId.UniqueIdType type, final String uidHex) {
+		return loader().get(type, uidHex);
+	}
+	
+	/**
+	 * Returns the UIDMetas for the passed uids, loading those not cached from the SQL catalog
+	 * @param type The UID type
+	 * @param uidHexes The uid hexes
+	 * @return a deferred list of UIDMetas in the order of the passed uids, with nulls for uids which do not exist
+	 */
+	public Deferred<ArrayList<CachedUIDMeta>> getCachedUIDMetasAsync(final UniqueId.UniqueIdType type, final List<String> uidHexes) {
+		return loader().get(type, uidHexes);
+	}
+	
+	/**
+	 * Returns the async UID loader, creating it with the default settings if necessary
+	 * @return the UID loader
+	 */
+	public synchronized UIDLoader loader() {
+		if(loader==null) {
+			loader = new UIDLoader(this, UIDLoader.DEFAULT_THREADS, UIDLoader.DEFAULT_MAX_BATCH, UIDLoader.DEFAULT_BATCH_WINDOW_MS, TimeUnit.MILLISECONDS);
+		}
+		return loader;
+	}
+	
+	/**
+	 * Returns the SQL catalog JDBC URL, {@link #JDBC_URL} unless overridden by the {@link #JDBC_URL_PROP} system property
+	 * @return the JDBC URL
+	 */
+	public static String jdbcUrl() {
+		return System.getProperty(JDBC_URL_PROP, JDBC_URL);
+	}
+	
+	/**
+	 * Adds the passed UIDMeta to the passed forward (uid to meta) and reverse (name to uid) maps if the uid is not already mapped,
+	 * adding the uid to the type's Bloom filter and removing it from the type's negative cache
+	 * @param type The UID type
+	 * @param map The uid hex to UIDMeta map
+	 * @param names The name to uid hex map
+	 * @param meta The UIDMeta to add
+	 * @return true if the UIDMeta was added, false if the uid was already mapped
+	 */
+	boolean putUID(final UniqueId.UniqueIdType type, final HTreeMap<String, CachedUIDMeta> map, final BTreeMap<String, String> names, final CachedUIDMeta meta) {
+		filterUID(type, meta.getUidHex());
+		negativeCaches.get(type).remove(meta.getUidHex());
+		if(map.putIfAbsent(meta.getUidHex(), meta)==null) {
+			names.put(meta.getName(), meta.getUidHex());
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Adds the passed uid to the type's Bloom filter, and to the filter being rebuilt if there is one.
+	 * Schedules a rebuild if the filter has taken more keys than it was sized for.
+	 * Must be called by a transaction run through {@link #executeUIDWrite(Object, TxCallable, TxJournal)}.
+	 * @param type The UID type
+	 * @param uidHex The uid hex
+	 */
+	void filterUID(final UniqueId.UniqueIdType type, final String uidHex) {
+		if(addToUIDFilters(type, uidHex) && uidFilterRebuildsQueued.get(type).compareAndSet(false, true)) {
+			scheduler().execute(new Runnable() {
+				@Override
+				public void run() {
+					uidFilterRebuildsQueued.get(type).set(false);
+					rebuildUIDFilter(type);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Adds the passed uid to the type's filter being rebuilt if there is one, and to the type's current filter.
+	 * The building filter is read first: a rebuild clears it only after installing it as the current filter,
+	 * so the uid always reaches the filter which survives the rebuild.
+	 * @param type The UID type
+	 * @param uidHex The uid hex
+	 * @return true if the current filter is saturated and no rebuild is in progress
+	 */
+	private boolean addToUIDFilters(final UniqueId.UniqueIdType type, final String uidHex) {
+		final StringBloomFilter building = uidFiltersBuilding.get(type).get();
+		if(building!=null) building.put(uidHex);
+		final StringBloomFilter filter = uidFilters.get(type).get();
+		if(filter!=building) filter.put(uidHex);
+		return building==null && filter.isSaturated();
+	}
+	
+	/**
+	 * Rebuilds the Bloom filter for the passed UID type from the cached uids, sized for twice the current number of uids
+	 * @param type The UID type
+	 * @return the number of uids in the new filter, or -1 if a rebuild was already in progress
+	 */
+	public long rebuildUIDFilter(final UniqueId.UniqueIdType type) {
+		final long size = mapSize(uidMapNames.get(type));
+		final StringBloomFilter filter = new StringBloomFilter(Math.max(MIN_UID_FILTER_SIZE, size * 2), UID_FILTER_FPP);
+		final AtomicReference<StringBloomFilter> building = uidFiltersBuilding.get(type);
+		if(!building.compareAndSet(null, filter)) return -1;
+		try {
+			// writers which added their uids before the building filter was published must commit before the snapshot
+			uidWriters.flip();
+			final long count = executeRead(new TxCallable<Long>() {
+				@Override
+				public Long tx(final DB db) throws TxRollbackException {
+					final HTreeMap<String, CachedUIDMeta> map = db.hashMap(uidMapNames.get(type));
+					long cnt = 0;
+					for(String uidHex: map.keySet()) {
+						filter.put(uidHex);
+						cnt++;
+					}
+					return cnt;
+				}
+			});
+			uidFilters.get(type).set(filter);
+			return count;
+		} finally {
+			building.set(null);
+		}
+	}
+	
+	/**
+	 * Returns the current Bloom filter over the cached uids of the passed type
+	 * @param type The UID type
+	 * @return the Bloom filter
+	 */
+	public StringBloomFilter getUIDFilter(final UniqueId.UniqueIdType type) {
+		return uidFilters.get(type).get();
+	}
+	
+	/**
+	 * Indicates if the passed uid was recently looked up in the source and not found
+	 * @param type The UID type
+	 * @param uidHex The uid hex
+	 * @return true if the uid is known to be absent from the source
+	 */
+	public boolean isKnownAbsent(final UniqueId.UniqueIdType type, final String uidHex) {
+		if(negativeCaches.get(type).contains(uidHex)) {
+			metrics.uidNegativeHits.increment();
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Records the passed uid as not found in the source, so lookups skip the source until the negative cache entry expires
+	 * @param type The UID type
+	 * @param uidHex The uid hex
+	 */
+	public void markAbsent(final UniqueId.UniqueIdType type, final String uidHex) {
+		negativeCaches.get(type).add(uidHex);
+	}
+	
+	/**
+	 * Returns the name to uid hex map for the passed UID type from the passed transaction
+	 * @param db The transaction
+	 * @param type The UID type
+	 * @return the name to uid hex map
+	 */
+	BTreeMap<String, String> uidNameMap(final DB db, final UniqueId.UniqueIdType type) {
+		return db.treeMap(uidNameMapNames.get(type));
+	}
+	
+	/**
+	 * Returns the UIDMeta for the passed name
+	 * @param type The UID type
+	 * @param name The UID name
+	 * @return the UIDMeta or null if the name is not mapped
+	 */
+	public CachedUIDMeta getUid(final UniqueId.UniqueIdType type, final String name) {
+		return getUids(type, Collections.singleton(name)).get(name);
+	}
+	
+	/**
+	 * Translates the passed names to UIDMetas in one transaction
+	 * @param type The UID type
+	 * @param names The UID names to translate
+	 * @return a map of the UIDMetas keyed by name, in the iteration order of the passed names. Unmapped names are omitted.
+	 */
+	public Map<String, CachedUIDMeta> getUids(final UniqueId.UniqueIdType type, final Collection<String> names) {
+		if(names==null || names.isEmpty()) return Collections.emptyMap();
+		final Map<String, CachedUIDMeta> uids = executeRead(new TxCallable<Map<String, CachedUIDMeta>>() {
+			@Override
+			public Map<String, CachedUIDMeta> tx(final DB db) throws TxRollbackException {
+				final BTreeMap<String, String> nameMap = uidNameMap(db, type);
+				final HTreeMap<String, CachedUIDMeta> map = db.hashMap(uidMapNames.get(type));
+				final Map<String, CachedUIDMeta> result = new LinkedHashMap<String, CachedUIDMeta>(names.size());
+				try {
+					for(String name: names) {
+						final String uidHex = nameMap.get(name);
+						if(uidHex==null) continue;
+						final CachedUIDMeta meta = map.get(uidHex);
+						if(meta!=null) result.put(name, meta);
+					}
+					return result;
+				} finally {
+					try { map.close(); } catch (Exception x) {/* No Op */}
+				}
+			}
+		});
+		final WriteBehindBuffer wb = pendingWrites();
+		if(wb!=null && uids.size() < names.size()) {
+			for(String name: names) {
+				if(uids.containsKey(name)) continue;
+				final CachedUIDMeta pending = wb.getUidByName(type, name);
+				if(pending!=null) uids.put(name, pending);
+			}
+		}
+		final CacheMetrics.MapMetrics mm = metrics.map(uidMapNames.get(type));
+		mm.hits.add(uids.size());
+		mm.misses.add(names.size() - uids.size());
+		return uids;
+	}
+	
+	/**
+	 * Returns the names of the passed UID type starting with the passed prefix
+	 * @param type The UID type
+	 * @param prefix The name prefix
+	 * @param limit The maximum number of names to return
+	 * @return the sorted matching names
+	 */
+	public List<String> suggest(final UniqueId.UniqueIdType type, final String prefix, final int limit) {
+		if(limit < 1) return Collections.emptyList();
+		return executeRead(new TxCallable<List<String>>() {
+			@Override
+			public List<String> tx(final DB db) throws TxRollbackException {
+				final String from = prefix==null ? "" : prefix;
+				final List<String> result = new ArrayList<String>(Math.min(limit, 128));
+				for(String name: uidNameMap(db, type).subMap(from, true, from + Character.MAX_VALUE, false).keySet()) {
+					result.add(name);
+					if(result.size()==limit) break;
+				}
+				return result;
+			}
 		});
 	}
 	
+	/**
+	 * Returns the names of the passed UID type starting with the passed prefix, limited to names used by the
+	 * cached series for the passed metric and/or tag key. e.g. <b><code>suggest(TAGV, "web", 10, "sys.cpu", "host")</code></b>
+	 * returns the values of <b><code>host</code></b> starting with <b><code>web</code></b> on <b><code>sys.cpu</code></b> series.
+	 * When no series are indexed, this is the same as {@link #suggest(net.opentsdb.uid.UniqueId.UniqueIdType, String, int)}.
+	 * @param type The UID type
+	 * @param prefix The name prefix
+	 * @param limit The maximum number of names to return
+	 * @param metric The metric to scope to, or null for any metric
+	 * @param tagKey The tag key to scope to, or null for any tag key. Required for TAGV suggestions.
+	 * @return the sorted matching names
+	 */
+	public List<String> suggest(final UniqueId.UniqueIdType type, final String prefix, final int limit, final String metric, final String tagKey) {
+		if(seriesIndex.size()==0) return suggest(type, prefix, limit);
+		switch(type) {
+		case METRIC:
+			return seriesIndex.suggestMetrics(prefix, tagKey==null ? null : seriesIndex.tagKey(tagKey), limit);
+		case TAGK:
+			return seriesIndex.suggestTagKeys(prefix, metric==null ? null : seriesIndex.metric(metric), limit);
+		case TAGV:
+			if(tagKey==null) throw new IllegalArgumentException("A tag key is required for scoped TAGV suggestions");
+			return seriesIndex.suggestTagValues(tagKey, prefix, metric==null ? null : seriesIndex.metric(metric), limit);
+		default:
+			throw new IllegalArgumentException("Unsupported UID type [" + type + "]");
+		}
+	}
+	
 	public long preLoad(final UniqueId.UniqueIdType type) {
-		return execute(new TxCallable<Long>(){
+		final long start = System.nanoTime();
+		final long size = executeUIDWrite(null, new TxCallable<Long>(){
 			@Override
 			//HTreeMap<String, CachedUIDMeta> map = db.hashMap(uidMapNames.get(type));
 			public Long tx(DB db) throws TxRollbackException {
 				final HTreeMap<String, CachedUIDMeta> map = db.hashMap(uidMapNames.get(type));
 				try {
-					return preLoad(type, map);
+					return preLoad(type, map, uidNameMap(db, type));
 				} finally {
 					map.close();
 				}
 			}
+		}, new TxJournal<Long>() {
+			@Override
+			public void journal(final ChangeJournal j, final DB db, final Long result) {
+				for(CachedUIDMeta meta: db.<String, CachedUIDMeta>hashMap(uidMapNames.get(type)).values()) {
+					j.appendUID(meta);
+				}
+			}
 		});
+		metrics.preloadLatency.recordSince(start);
+		rebuildUIDFilter(type);
+		return size;
 	}
 	
-	public long preLoad(final UniqueId.UniqueIdType type, final HTreeMap<String, CachedUIDMeta> map) {
+	public long preLoad(final UniqueId.UniqueIdType type, final HTreeMap<String, CachedUIDMeta> map, final BTreeMap<String, String> names) {
 		Connection conn = null;
 		PreparedStatement ps = null;
 		ResultSet rset = null;
 		try {
-			conn = DriverManager.getConnection(JDBC_URL, "sa", "");
+			conn = DriverManager.getConnection(jdbcUrl(), "sa", "");
 			ps = conn.prepareStatement("SELECT XUID, NAME FROM " + uidTableNames.get(type));
 			ps.setFetchSize(10000);
 			rset = ps.executeQuery();
@@ -336,7 +1172,13 @@ public static final String JDBC_URL = "jdbc:h2:tcp://10.5.202.22:8083//var/opt/o
 			while(rset.next()) {
 				String xuid = rset.getString(1);
 				String name = rset.getString(2);
-				map.put(xuid, new CachedUIDMeta(name, UniqueId.stringToUid(xuid), type));				
+				final CachedUIDMeta meta = new CachedUIDMeta(name, UniqueId.stringToUid(xuid), type);
+				addToUIDFilters(type, xuid);
+				final CachedUIDMeta prior = map.put(xuid, meta);
+				if(prior!=null && !prior.getName().equals(meta.getName())) {
+					names.remove(prior.getName(), xuid);
+				}
+				names.put(meta.getName(), xuid);
 			}
 			return map.sizeLong();
 		} catch (Exception x) {
@@ -351,15 +1193,864 @@ public static final String JDBC_URL = "jdbc:h2:tcp://10.5.202.22:8083//var/opt/o
 	
 	
 	public void clearTSMetas() {
-		execute(new TxBlock(){
-			/**
-			 * {@inheritDoc}
-			 * @see org.mapdb.TxBlock#tx(org.mapdb.DB)
-			 */
+		final WriteBehindBuffer wb = pendingWrites();
+		if(wb!=null) wb.discardTSMetas();
+		execute(new TxCallable<Void>(){
+			@Override
+			public Void tx(final DB db) throws TxRollbackException {
+				tsMetaMap(db).clear();
+				return null;
+			}
+		}, new TxJournal<Void>() {
 			@Override
-			public void tx(final DB db) throws TxRollbackException {
-				db.hashMap(TSMETA_NAME).clear();
-				
+			public void journal(final ChangeJournal j, final DB db, final Void result) {
+				j.appendClear();
+			}
+		});
+		seriesIndex.clear();
+		activity.clear();
+		cardinality.clear();
+		final TSMetaEvictor ev = evictor;
+		if(ev!=null) ev.clear();
+	}
+	
+	/**
+	 * Returns the TSMeta map from the passed transaction
+	 * @param db The transaction
+	 * @return the TSMeta map keyed by raw tsuid
+	 */
+	static BTreeMap<byte[], CachedTSMeta> tsMetaMap(final DB db) {
+		return db.treeMap(TSMETA_NAME);
+	}
+	
+	/**
+	 * Returns the values of the named cache map from the passed transaction
+	 * @param db The transaction
+	 * @param mapName The map name
+	 * @return the map
+	 */
+	static Map<?, Object> valueMap(final DB db, final String mapName) {
+		return TSMETA_NAME.equals(mapName) ? db.<byte[], Object>treeMap(mapName) : db.<String, Object>hashMap(mapName);
+	}
+	
+	/**
+	 * Returns the cached TSMeta for the passed tsuid
+	 * @param tsuidHex The tsuid hex
+	 * @return the TSMeta or null if not found
+	 */
+	public CachedTSMeta getCachedTSMeta(final String tsuidHex) {
+		final WriteBehindBuffer wb = pendingWrites();
+		if(wb!=null) {
+			final CachedTSMeta pending = wb.getTSMeta(tsuidHex);
+			if(pending!=null) {
+				metrics.map(TSMETA_NAME).lookup(true);
+				return pending;
+			}
+		}
+		final CachedTSMeta meta = executeRead(new TxCallable<CachedTSMeta>() {
+			@Override
+			public CachedTSMeta tx(final DB db) throws TxRollbackException {
+				return tsMetaMap(db).get(UniqueId.stringToUid(tsuidHex));
+			}
+		});
+		metrics.map(TSMETA_NAME).lookup(meta!=null);
+		final TSMetaEvictor ev = evictor;
+		if(meta!=null && ev!=null) ev.touch(seriesIndex.ordinal(tsuidHex));
+		return meta;
+	}
+	
+	/**
+	 * Returns the cached TSMetas whose raw tsuid starts with the passed prefix, in tsuid order, by scanning the contiguous
+	 * key range of the prefix. Buffered writes not yet applied to the map are not included.
+	 * @param prefix The tsuid prefix
+	 * @param limit The maximum number of TSMetas to return, or 0 for no limit
+	 * @return the matching TSMetas
+	 */
+	public List<CachedTSMeta> getCachedTSMetas(final byte[] prefix, final int limit) {
+		final List<CachedTSMeta> metas = executeRead(new TxCallable<List<CachedTSMeta>>() {
+			@Override
+			public List<CachedTSMeta> tx(final DB db) throws TxRollbackException {
+				final List<CachedTSMeta> metas = new ArrayList<CachedTSMeta>();
+				for(Map.Entry<byte[], CachedTSMeta> entry: tsMetaMap(db).tailMap(prefix, true).entrySet()) {
+					if(!startsWith(entry.getKey(), prefix)) break;
+					metas.add(entry.getValue());
+					if(metas.size()==limit) break;
+				}
+				return metas;
+			}
+		});
+		metrics.map(TSMETA_NAME).lookup(!metas.isEmpty());
+		return metas;
+	}
+	
+	/**
+	 * Returns the cached TSMetas of the passed metric
+	 * @param metricUidHex The metric UID hex
+	 * @return the metric's TSMetas in tsuid order
+	 */
+	public List<CachedTSMeta> getCachedTSMetasForMetric(final String metricUidHex) {
+		return getCachedTSMetas(UniqueId.stringToUid(metricUidHex), 0);
+	}
+	
+	/**
+	 * Returns the cached TSMetas of the passed metric whose first tag is the passed pair.
+	 * Since tsuid tag pairs are sorted by tag key UID, this is a contiguous range within the metric.
+	 * @param metricUidHex The metric UID hex
+	 * @param tagkUidHex The first tag key UID hex
+	 * @param tagvUidHex The first tag value UID hex, or null for any value of the tag key
+	 * @return the matching TSMetas in tsuid order
+	 */
+	public List<CachedTSMeta> getCachedTSMetasForMetric(final String metricUidHex, final String tagkUidHex, final String tagvUidHex) {
+		return getCachedTSMetas(UniqueId.stringToUid(metricUidHex + tagkUidHex + (tagvUidHex==null ? "" : tagvUidHex)), 0);
+	}
+	
+	/**
+	 * Determines if the passed key starts with the passed prefix
+	 * @param key The key
+	 * @param prefix The prefix
+	 * @return true if the key starts with the prefix
+	 */
+	static boolean startsWith(final byte[] key, final byte[] prefix) {
+		if(key.length < prefix.length) return false;
+		for(int i = 0; i < prefix.length; i++) {
+			if(key[i]!=prefix[i]) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Adds the passed TSMeta to the series index and starts its access tracking
+	 * @param meta The TSMeta to index
+	 */
+	void indexTSMeta(final CachedTSMeta meta) {
+		final int ordinal = seriesIndex.add(meta);
+		cardinality.add(meta);
+		// a re-put keeps the series' access tracking, which is only reset for a newly assigned ordinal
+		if(activity.indexed(ordinal, SeriesSeenSet.hash(meta.tsuid), System.currentTimeMillis())) {
+			final TSMetaEvictor ev = evictor;
+			if(ev!=null) ev.added(ordinal);
+		}
+	}
+	
+	/**
+	 * Removes the passed TSMeta from the series index and stops tracking its activity
+	 * @param meta The TSMeta to remove
+	 */
+	void unindexTSMeta(final CachedTSMeta meta) {
+		final int ordinal = seriesIndex.ordinal(meta.tsuidHex);
+		if(seriesIndex.remove(meta)) activity.removed(ordinal);
+	}
+	
+	/**
+	 * Records activity of the passed series, e.g. from a data point or a scan of cell timestamps
+	 * @param tsuidHex The tsuid hex of the series
+	 * @param time The activity time in ms
+	 * @return true if the series is indexed and the activity was recorded
+	 */
+	public boolean recordActivity(final String tsuidHex, final long time) {
+		return activity.seen(seriesIndex.ordinal(tsuidHex), SeriesSeenSet.hash(UniqueId.stringToUid(tsuidHex)), time);
+	}
+	
+	/**
+	 * Returns the first-seen time of the passed series
+	 * @param tsuidHex The tsuid hex of the series
+	 * @return the first-seen time in ms or 0 if the series is not indexed
+	 */
+	public long getFirstSeen(final String tsuidHex) {
+		return activity.getFirstSeen(seriesIndex.ordinal(tsuidHex));
+	}
+	
+	/**
+	 * Returns the last-seen time of the passed series
+	 * @param tsuidHex The tsuid hex of the series
+	 * @return the last-seen time in ms or 0 if the series is not indexed
+	 */
+	public long getLastSeen(final String tsuidHex) {
+		return activity.getLastSeen(seriesIndex.ordinal(tsuidHex));
+	}
+	
+	/**
+	 * Removes the TSMetas for the passed tsuids from the tsmeta map and the series index, discarding any buffered puts of them
+	 * @param tsuids The tsuid hex strings of the TSMetas to remove
+	 * @return the number of removed TSMetas
+	 */
+	public int evictTSMetas(final Collection<String> tsuids) {
+		if(tsuids==null || tsuids.isEmpty()) return 0;
+		final WriteBehindBuffer wb = pendingWrites();
+		if(wb!=null) wb.discardTSMetas(tsuids);
+		final List<CachedTSMeta> removed = execute(new TxCallable<List<CachedTSMeta>>() {
+			@Override
+			public List<CachedTSMeta> tx(final DB db) throws TxRollbackException {
+				final BTreeMap<byte[], CachedTSMeta> map = tsMetaMap(db);
+				final List<CachedTSMeta> metas = new ArrayList<CachedTSMeta>(tsuids.size());
+				for(String tsuid: tsuids) {
+					final CachedTSMeta meta = map.remove(UniqueId.stringToUid(tsuid));
+					if(meta!=null) metas.add(meta);
+				}
+				return metas;
+			}
+		}, new TxJournal<List<CachedTSMeta>>() {
+			@Override
+			public void journal(final ChangeJournal j, final DB db, final List<CachedTSMeta> metas) {
+				for(CachedTSMeta meta: metas) {
+					j.appendTSMeta(ChangeJournal.OP_REMOVE_TSMETA, meta);
+				}
+			}
+		});
+		for(CachedTSMeta meta: removed) {
+			unindexTSMeta(meta);
+		}
+		return removed.size();
+	}
+	
+	/**
+	 * Starts bounding the tsmeta map, replacing any current eviction policy. Each run scans the next <b><code>scanSize</code></b> series,
+	 * expiring those idle for longer than <b><code>expireAfterAccess</code></b> and, while the map is over either bound, evicting the 
+	 * least frequently accessed.
+	 * @param maxEntries The maximum number of entries, or 0 for no entry bound
+	 * @param maxBytes The maximum estimated serialized size in bytes, or 0 for no byte bound
+	 * @param expireAfterAccess The idle time after which a series expires, or 0 for no expiry
+	 * @param unit The unit of the idle time
+	 * @param period The period between eviction runs in ms
+	 * @param scanSize The number of series scanned per run
+	 * @return the evictor
+	 */
+	public synchronized TSMetaEvictor enableTSMetaEviction(final long maxEntries, final long maxBytes, final long expireAfterAccess, final TimeUnit unit, final long period, final int scanSize) {
+		disableTSMetaEviction();
+		final TSMetaEvictor ev = new TSMetaEvictor(this, maxEntries, maxBytes, expireAfterAccess, unit, scanSize);
+		final int capacity = seriesIndex.capacity();
+		for(int ordinal = 0; ordinal < capacity; ordinal++) {
+			if(seriesIndex.tsuid(ordinal)!=null) ev.added(ordinal);
+		}
+		evictor = ev;
+		evictorHandle = scheduler().scheduleWithFixedDelay(ev, period, period, TimeUnit.MILLISECONDS);
+		return ev;
+	}
+	
+	/**
+	 * Stops bounding the tsmeta map
+	 */
+	public synchronized void disableTSMetaEviction() {
+		if(evictorHandle!=null) {
+			evictorHandle.cancel(false);
+			evictorHandle = null;
+		}
+		evictor = null;
+	}
+	
+	/**
+	 * Starts evicting series not seen for longer than <b><code>staleAfter</code></b>, replacing any current pruner.
+	 * Each run scans the next <b><code>scanSize</code></b> series.
+	 * @param staleAfter The inactive time after which a series is stale
+	 * @param unit The unit of the inactive time
+	 * @param period The period between pruning runs in ms
+	 * @param scanSize The number of series scanned per run
+	 * @return the pruner
+	 */
+	public synchronized SeriesPruner enableStalePruning(final long staleAfter, final TimeUnit unit, final long period, final int scanSize) {
+		disableStalePruning();
+		final SeriesPruner p = new SeriesPruner(this, staleAfter, unit, scanSize);
+		pruner = p;
+		prunerHandle = scheduler().scheduleWithFixedDelay(p, period, period, TimeUnit.MILLISECONDS);
+		return p;
+	}
+	
+	/**
+	 * Stops evicting stale series
+	 */
+	public synchronized void disableStalePruning() {
+		if(prunerHandle!=null) {
+			prunerHandle.cancel(false);
+			prunerHandle = null;
+		}
+		pruner = null;
+	}
+	
+	/**
+	 * Starts estimating the heap and store bytes used by each cache map and enforcing their budgets, replacing any current accountant
+	 * @param period The period between accounting runs
+	 * @param unit The unit of the period
+	 * @return the accountant
+	 */
+	public synchronized MemoryAccountant enableMemoryAccounting(final long period, final TimeUnit unit) {
+		if(period < 1) throw new IllegalArgumentException("Invalid accounting period [" + period + "]");
+		disableMemoryAccounting();
+		final MemoryAccountant ma = new MemoryAccountant(this);
+		accountant = ma;
+		accountantHandle = scheduler().scheduleWithFixedDelay(ma, 0, unit.toMillis(period), TimeUnit.MILLISECONDS);
+		return ma;
+	}
+	
+	/**
+	 * Stops accounting the cache maps. Budgets are kept but no longer enforced.
+	 */
+	public synchronized void disableMemoryAccounting() {
+		if(accountantHandle!=null) {
+			accountantHandle.cancel(false);
+			accountantHandle = null;
+		}
+		accountant = null;
+		for(CacheMetrics.MapMetrics mm: metrics.mapMetrics.values()) {
+			mm.overBudget = false;
+		}
+	}
+	
+	/**
+	 * Sets the store byte budget of the named cache map, starting memory accounting with the default period if it is not running.
+	 * While a map is over a {@link MemoryAccountant.BudgetPolicy#REJECT} budget, puts to it are dropped and counted as rejected.
+	 * While the tsmeta map is over a {@link MemoryAccountant.BudgetPolicy#EVICT} budget, its least recently seen series are evicted.
+	 * @param mapName The map name
+	 * @param maxBytes The maximum estimated store bytes, or 0 to remove the budget
+	 * @param policy The over budget policy
+	 */
+	public synchronized void setMemoryBudget(final String mapName, final long maxBytes, final MemoryAccountant.BudgetPolicy policy) {
+		if(maxBytes < 0) throw new IllegalArgumentException("Invalid budget [" + maxBytes + "]");
+		if(policy==null) throw new IllegalArgumentException("The passed policy was null");
+		if(policy==MemoryAccountant.BudgetPolicy.EVICT && !TSMETA_NAME.equals(mapName)) throw new IllegalArgumentException("The EVICT policy only applies to the [" + TSMETA_NAME + "] map");
+		final CacheMetrics.MapMetrics mm = metrics.map(mapName);
+		mm.budgetBytes = maxBytes;
+		mm.budgetPolicy = maxBytes==0 ? null : policy;
+		if(maxBytes==0) mm.overBudget = false;
+		else if(accountant==null) enableMemoryAccounting(MemoryAccountant.DEFAULT_PERIOD, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Returns the scheduler for the cache's background tasks, creating it if necessary
+	 * @return the scheduler
+	 */
+	synchronized ScheduledExecutorService scheduler() {
+		if(scheduler==null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread t = new Thread(r, "CacheScheduler[" + dbFile.getName() + "]");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return scheduler;
+	}
+	
+	/**
+	 * Caches and indexes the passed TSMeta
+	 * @param meta The TSMeta to cache
+	 */
+	public void putCachedTSMeta(final CachedTSMeta meta) {
+		if(!metrics.map(TSMETA_NAME).admit(1)) return;
+		final WriteBehindBuffer wb = writeBehind;
+		if(wb!=null) {
+			wb.put(meta);
+			return;
+		}
+		awaitDrained();
+		execute(meta.getTsuidHex(), new TxCallable<Void>() {
+			@Override
+			public Void tx(final DB db) throws TxRollbackException {
+				tsMetaMap(db).put(meta.getTsuid(), meta);
+				return null;
+			}
+		}, new TxJournal<Void>() {
+			@Override
+			public void journal(final ChangeJournal j, final DB db, final Void result) {
+				j.appendTSMeta(ChangeJournal.OP_PUT_TSMETA, meta);
+			}
+		});
+		metrics.map(TSMETA_NAME).puts.increment();
+		indexTSMeta(meta);
+	}
+	
+	/**
+	 * Caches and indexes the passed TSMetas in one transaction
+	 * @param metas The TSMetas to cache
+	 */
+	public void putCachedTSMetas(final Collection<CachedTSMeta> metas) {
+		if(metas==null || metas.isEmpty()) return;
+		if(!metrics.map(TSMETA_NAME).admit(metas.size())) return;
+		final WriteBehindBuffer wb = writeBehind;
+		if(wb!=null) {
+			for(CachedTSMeta meta: metas) {
+				wb.put(meta);
+			}
+			return;
+		}
+		awaitDrained();
+		execute(new TxCallable<Void>() {
+			@Override
+			public Void tx(final DB db) throws TxRollbackException {
+				final BTreeMap<byte[], CachedTSMeta> map = tsMetaMap(db);
+				for(CachedTSMeta meta: metas) {
+					map.put(meta.getTsuid(), meta);
+				}
+				return null;
+			}
+		}, new TxJournal<Void>() {
+			@Override
+			public void journal(final ChangeJournal j, final DB db, final Void result) {
+				for(CachedTSMeta meta: metas) {
+					j.appendTSMeta(ChangeJournal.OP_PUT_TSMETA, meta);
+				}
+			}
+		});
+		metrics.map(TSMETA_NAME).puts.add(metas.size());
+		for(CachedTSMeta meta: metas) {
+			indexTSMeta(meta);
+		}
+	}
+	
+	/**
+	 * Applies a batch of buffered puts in one transaction
+	 * @param writes The puts to apply
+	 */
+	void applyWrites(final List<WriteBehindBuffer.PendingWrite> writes) {
+		if(writes.isEmpty()) return;
+		executeUIDWrite(null, new TxCallable<Void>() {
+			@Override
+			public Void tx(final DB db) throws TxRollbackException {
+				final BTreeMap<byte[], CachedTSMeta> tsMetas = tsMetaMap(db);
+				final Map<UniqueId.UniqueIdType, HTreeMap<String, CachedUIDMeta>> uidMaps = new EnumMap<UniqueId.UniqueIdType, HTreeMap<String, CachedUIDMeta>>(UniqueId.UniqueIdType.class);
+				final Map<UniqueId.UniqueIdType, BTreeMap<String, String>> nameMaps = new EnumMap<UniqueId.UniqueIdType, BTreeMap<String, String>>(UniqueId.UniqueIdType.class);
+				for(WriteBehindBuffer.PendingWrite pw: writes) {
+					if(pw.tsMeta!=null) {
+						tsMetas.put(pw.tsMeta.getTsuid(), pw.tsMeta);
+					} else {
+						HTreeMap<String, CachedUIDMeta> map = uidMaps.get(pw.type);
+						if(map==null) {
+							map = db.hashMap(uidMapNames.get(pw.type));
+							uidMaps.put(pw.type, map);
+							nameMaps.put(pw.type, uidNameMap(db, pw.type));
+						}
+						putUID(pw.type, map, nameMaps.get(pw.type), pw.uidMeta);
+					}
+				}
+				return null;
+			}
+		}, new TxJournal<Void>() {
+			@Override
+			public void journal(final ChangeJournal j, final DB db, final Void result) {
+				for(WriteBehindBuffer.PendingWrite pw: writes) {
+					if(pw.tsMeta!=null) j.appendTSMeta(ChangeJournal.OP_PUT_TSMETA, pw.tsMeta);
+					else j.appendUID(pw.uidMeta);
+				}
+			}
+		});
+		for(WriteBehindBuffer.PendingWrite pw: writes) {
+			if(pw.tsMeta!=null) {
+				indexTSMeta(pw.tsMeta);
+				metrics.map(TSMETA_NAME).puts.increment();
+			} else {
+				metrics.map(uidMapNames.get(pw.type)).puts.increment();
+			}
+		}
+	}
+	
+	/**
+	 * Starts journaling every committed mutation to the passed directory, so caches in other processes can follow this one
+	 * @param dir The journal directory
+	 * @return the journal
+	 */
+	public synchronized ChangeJournal enableJournal(final File dir) {
+		disableJournal();
+		journal = recoverJournal(new ChangeJournal(dir));
+		return journal;
+	}
+	
+	/**
+	 * Redoes the records a journal holds without a commit or abort marker, left by a writer which stopped between journaling
+	 * a transaction and marking it, and then marks them committed
+	 * @param j The journal to recover
+	 * @return the journal
+	 */
+	ChangeJournal recoverJournal(final ChangeJournal j) {
+		synchronized(j) {
+			final List<ChangeJournal.Entry> uncommitted = j.uncommitted();
+			if(!uncommitted.isEmpty()) {
+				applyEntries(uncommitted, -1L);
+				j.appendCommit();
+				log.warn("Redid [{}] uncommitted journal records of [{}]", uncommitted.size(), j.dir);
+			}
+		}
+		return j;
+	}
+	
+	/**
+	 * Stops journaling mutations
+	 */
+	public synchronized void disableJournal() {
+		if(journal!=null) {
+			journal.close();
+			journal = null;
+		}
+	}
+	
+	/**
+	 * Returns the change journal
+	 * @return the journal, or null if mutations are not being journaled
+	 */
+	public ChangeJournal getJournal() {
+		return journal;
+	}
+	
+	/**
+	 * Starts applying the changes journaled by another cache to this one, resuming from this cache's last checkpoint
+	 * @param dir The journal directory
+	 * @param period The polling period in ms
+	 * @return the follower
+	 */
+	public synchronized JournalFollower followJournal(final File dir, final long period) {
+		stopFollowingJournal();
+		final JournalFollower follower = new JournalFollower(this, dir, JournalFollower.DEFAULT_MAX_BATCH);
+		followerHandle = scheduler().scheduleWithFixedDelay(follower, 0, period, TimeUnit.MILLISECONDS);
+		return follower;
+	}
+	
+	/**
+	 * Stops applying journaled changes
+	 */
+	public synchronized void stopFollowingJournal() {
+		if(followerHandle!=null) {
+			followerHandle.cancel(false);
+			followerHandle = null;
+		}
+	}
+	
+	/**
+	 * Publishes the current contents of the cache as a new immutable generation store for {@link CacheView}s in this or other
+	 * processes. The generation is written to a temporary file, renamed into place and then published by atomically replacing
+	 * the generation pointer file. Generations older than the last {@link #RETAINED_GENERATIONS} are deleted; views still
+	 * mapping them keep their mappings until they move on.
+	 * @return the published generation store file
+	 */
+	public synchronized File publishGeneration() {
+		final long number = CacheView.readGeneration(dbFile) + 1;
+		final File genFile = CacheView.generationFile(dbFile, number);
+		final File tmp = new File(genFile.getPath() + ".tmp");
+		tmp.delete();
+		final long start = System.currentTimeMillis();
+		final DB target = DBMaker.fileDB(tmp).transactionDisable().make();
+		try {
+			createMaps(target, executeRead(new TxCallable<Map<String, Serializer<?>>>() {
+				@Override
+				public Map<String, Serializer<?>> tx(final DB db) throws TxRollbackException {
+					return valueSerializers(db);
+				}
+			}));
+			executeRead(new TxCallable<Void>() {
+				@Override
+				public Void tx(final DB db) throws TxRollbackException {
+					tsMetaMap(target).putAll(tsMetaMap(db));
+					for(UniqueId.UniqueIdType type: UniqueId.UniqueIdType.values()) {
+						target.<String, CachedUIDMeta>hashMap(uidMapNames.get(type)).putAll(db.<String, CachedUIDMeta>hashMap(uidMapNames.get(type)));
+						target.<String, String>treeMap(uidNameMapNames.get(type)).putAll(uidNameMap(db, type));
+					}
+					return null;
+				}
+			});
+			target.commit();
+		} finally {
+			target.close();
+		}
+		if(!tmp.renameTo(genFile)) throw new RuntimeException("Failed to rename [" + tmp + "] to [" + genFile + "]");
+		CacheView.writeGeneration(dbFile, number);
+		for(long old = number - RETAINED_GENERATIONS; old > 0; old--) {
+			if(!CacheView.generationFile(dbFile, old).delete()) break;
+		}
+		log.info("Published generation [{}] of [{}] in [{}] ms", number, dbFile, System.currentTimeMillis() - start);
+		return genFile;
+	}
+	
+	/**
+	 * Publishes a new generation periodically
+	 * @param period The period between publications
+	 * @param unit The unit of the period
+	 */
+	public void schedulePublishing(final long period, final TimeUnit unit) {
+		scheduler().scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					publishGeneration();
+				} catch (Exception ex) {
+					log.error("Failed to publish a generation of [{}]", dbFile, ex);
+				}
+			}
+		}, period, period, unit);
+	}
+	
+	/**
+	 * Returns the sequence number of the last journal record applied to this cache
+	 * @return the journal checkpoint, 0 if none has been applied
+	 */
+	public long getJournalCheckpoint() {
+		return executeRead(new TxCallable<Long>() {
+			@Override
+			public Long tx(final DB db) throws TxRollbackException {
+				return db.exists(JOURNAL_CHECKPOINT_NAME) ? db.atomicLong(JOURNAL_CHECKPOINT_NAME).get() : 0L;
+			}
+		});
+	}
+	
+	/**
+	 * Applies a batch of journal records and advances the journal checkpoint in one transaction
+	 * @param entries The records to apply, in sequence order
+	 */
+	void applyJournal(final List<ChangeJournal.Entry> entries) {
+		if(entries.isEmpty()) return;
+		applyEntries(entries, entries.get(entries.size()-1).seq);
+	}
+	
+	/**
+	 * Applies journal records in one transaction
+	 * @param entries The records to apply, in sequence order
+	 * @param checkpoint The journal checkpoint to set in the same transaction, or -1 to leave it
+	 */
+	private void applyEntries(final List<ChangeJournal.Entry> entries, final long checkpoint) {
+		executeUIDWrite(null, new TxCallable<Void>() {
+			@Override
+			public Void tx(final DB db) throws TxRollbackException {
+				final BTreeMap<byte[], CachedTSMeta> tsMetas = tsMetaMap(db);
+				final Map<UniqueId.UniqueIdType, HTreeMap<String, CachedUIDMeta>> uidMaps = new EnumMap<UniqueId.UniqueIdType, HTreeMap<String, CachedUIDMeta>>(UniqueId.UniqueIdType.class);
+				final Map<UniqueId.UniqueIdType, BTreeMap<String, String>> nameMaps = new EnumMap<UniqueId.UniqueIdType, BTreeMap<String, String>>(UniqueId.UniqueIdType.class);
+				for(ChangeJournal.Entry e: entries) {
+					switch(e.op) {
+					case ChangeJournal.OP_PUT_UID:
+						final UniqueId.UniqueIdType type = e.getType();
+						HTreeMap<String, CachedUIDMeta> map = uidMaps.get(type);
+						if(map==null) {
+							map = db.hashMap(uidMapNames.get(type));
+							uidMaps.put(type, map);
+							nameMaps.put(type, uidNameMap(db, type));
+						}
+						putUID(type, map, nameMaps.get(type), e.uidMeta);
+						break;
+					case ChangeJournal.OP_PUT_TSMETA:
+						tsMetas.put(e.tsMeta.getTsuid(), e.tsMeta);
+						break;
+					case ChangeJournal.OP_REMOVE_TSMETA:
+						tsMetas.remove(e.tsMeta.getTsuid());
+						break;
+					case ChangeJournal.OP_CLEAR_TSMETAS:
+						tsMetas.clear();
+						break;
+					default:
+						throw new IllegalArgumentException("Unknown journal op [" + e.op + "]");
+					}
+				}
+				if(checkpoint >= 0) db.atomicLong(JOURNAL_CHECKPOINT_NAME).set(checkpoint);
+				return null;
+			}
+		}, null);
+		for(ChangeJournal.Entry e: entries) {
+			switch(e.op) {
+			case ChangeJournal.OP_PUT_UID:
+				metrics.map(uidMapNames.get(e.getType())).puts.increment();
+				break;
+			case ChangeJournal.OP_PUT_TSMETA:
+				indexTSMeta(e.tsMeta);
+				metrics.map(TSMETA_NAME).puts.increment();
+				break;
+			case ChangeJournal.OP_REMOVE_TSMETA:
+				unindexTSMeta(e.tsMeta);
+				break;
+			case ChangeJournal.OP_CLEAR_TSMETAS:
+				seriesIndex.clear();
+				activity.clear();
+				cardinality.clear();
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Switches puts to write-behind mode, where they are buffered and applied in group commits.
+	 * Point lookups see buffered puts before they are committed, but the series index only sees them once they are, so
+	 * {@link #findTSUIDs(String, Map)}, scoped {@link #suggest(net.opentsdb.uid.UniqueId.UniqueIdType, String, int, String, String)}
+	 * calls and {@link #getCachedTSMetas(byte[], int)} miss them until then; call {@link #flush()} first where that matters.
+	 * If write-behind is already enabled, the current buffer is replaced. Lookups see the puts it holds until
+	 * they are committed, and the new buffer commits nothing until they have been.
+	 * @param maxBatch The maximum number of puts per commit
+	 * @param maxLatency The maximum time a put waits before being committed
+	 * @param unit The unit of the max latency
+	 */
+	public synchronized void enableWriteBehind(final int maxBatch, final long maxLatency, final TimeUnit unit) {
+		final WriteBehindBuffer prior = writeBehind;
+		writeBehind = new WriteBehindBuffer(this, maxBatch, maxLatency, unit, prior);
+		if(prior!=null) prior.close();
+	}
+	
+	/**
+	 * Flushes any buffered puts and switches puts back to one transaction per put.
+	 * Lookups see the buffered puts until they are committed, and puts written through wait for them.
+	 */
+	public synchronized void disableWriteBehind() {
+		final WriteBehindBuffer prior = writeBehind;
+		if(prior==null) return;
+		draining = prior;
+		writeBehind = null;
+		try {
+			prior.close();
+		} finally {
+			draining = null;
+		}
+	}
+	
+	/**
+	 * Returns the buffer holding puts not yet committed, the write-behind buffer or the one being drained
+	 * @return the buffer or null if there is none
+	 */
+	WriteBehindBuffer pendingWrites() {
+		final WriteBehindBuffer wb = writeBehind;
+		return wb!=null ? wb : draining;
+	}
+	
+	/**
+	 * Waits for a write-behind buffer being drained to be closed, so a put written through is not overwritten
+	 * by an older put of the same key committed from the buffer
+	 */
+	void awaitDrained() {
+		final WriteBehindBuffer d = draining;
+		if(d!=null) d.close();
+	}
+	
+	/**
+	 * Blocks until all buffered puts have been committed. No op if write-behind is not enabled.
+	 */
+	public void flush() {
+		final WriteBehindBuffer wb = pendingWrites();
+		if(wb!=null) wb.flush();
+	}
+	
+	/**
+	 * Returns the write-behind buffer
+	 * @return the write-behind buffer or null if write-behind is not enabled
+	 */
+	public WriteBehindBuffer getWriteBehind() {
+		return writeBehind;
+	}
+	
+	/**
+	 * Returns the number of entries in the named map
+	 * @param mapName The map name
+	 * @return the number of entries
+	 */
+	long mapSize(final String mapName) {
+		return executeRead(new TxCallable<Long>() {
+			@Override
+			public Long tx(final DB db) throws TxRollbackException {
+				final Map<?, Object> map = valueMap(db, mapName);
+				return map instanceof BTreeMap ? ((BTreeMap<?, Object>)map).sizeLong() : ((HTreeMap<?, Object>)map).sizeLong();
+			}
+		});
+	}
+	
+	/**
+	 * Returns the compression stats of the named map's value serializer in this cache's store
+	 * @param mapName The map name
+	 * @return the stats, which stay empty if the map's values are not compressed
+	 */
+	AdaptiveCompressionSerializer.CompressionStats compressionStats(final String mapName) {
+		AdaptiveCompressionSerializer.CompressionStats cs = compressionStats.get(mapName);
+		if(cs==null) {
+			final Object ser = executeRead(new TxCallable<Object>() {
+				@Override
+				public Object tx(final DB db) throws TxRollbackException {
+					return db.getCatalog().get(mapName + ".valueSerializer");
+				}
+			});
+			cs = ser instanceof AdaptiveCompressionSerializer ? ((AdaptiveCompressionSerializer<?>)ser).stats() : new AdaptiveCompressionSerializer.CompressionStats();
+			final AdaptiveCompressionSerializer.CompressionStats prior = compressionStats.putIfAbsent(mapName, cs);
+			if(prior!=null) cs = prior;
+		}
+		return cs;
+	}
+	
+	/**
+	 * Estimates the average uncompressed serialized size of the values in the named map
+	 * @param mapName The map name
+	 * @param sampleSize The maximum number of values to sample
+	 * @return the average value size in bytes, or 0 if the map is empty
+	 */
+	long averageValueBytes(final String mapName, final int sampleSize) {
+		return executeRead(new TxCallable<Long>() {
+			@SuppressWarnings({ "unchecked", "rawtypes" })
+			@Override
+			public Long tx(final DB db) throws TxRollbackException {
+				final Serializer ser = TSMETA_NAME.equals(mapName) ? CachedTSMetaSerializer.INSTANCE : CachedUIDMetaSerializer.INSTANCE;
+				final ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+				final DataOutputStream out = new DataOutputStream(baos);
+				int sampled = 0;
+				try {
+					for(Object value: valueMap(db, mapName).values()) {
+						ser.serialize(out, value);
+						if(++sampled==sampleSize) break;
+					}
+					out.flush();
+				} catch (IOException iex) {
+					throw new RuntimeException("Failed to sample values for map [" + mapName + "]", iex);
+				}
+				return sampled==0 ? 0L : (long)baos.size() / sampled;
+			}
+		});
+	}
+	
+	/**
+	 * Returns the cache instrumentation
+	 * @return the cache metrics
+	 */
+	public CacheMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Records the cache metrics to the passed OpenTSDB stats collector
+	 * @param collector The collector to record to
+	 */
+	public void collectStats(final StatsCollector collector) {
+		metrics.collectStats(collector);
+	}
+	
+	/**
+	 * Returns the tsuids of the series for the passed metric having all the passed tags
+	 * @param metric The metric name, or null for any metric
+	 * @param tags The tags to match where a value of <b><code>*</code></b> matches any value
+	 * @return the matching tsuid hex strings
+	 * @see SeriesIndex#find(String, Map)
+	 */
+	public Set<String> findTSUIDs(final String metric, final Map<String, String> tags) {
+		return seriesIndex.tsuids(seriesIndex.find(metric, tags));
+	}
+	
+	/**
+	 * Returns the inverted index over the cached TSMetas
+	 * @return the series index
+	 */
+	public SeriesIndex getSeriesIndex() {
+		return seriesIndex;
+	}
+	
+	/**
+	 * Returns the cardinality sketches of the cached TSMetas
+	 * @return the cardinality tracker
+	 */
+	public CardinalityTracker getCardinality() {
+		return cardinality;
+	}
+	
+	/**
+	 * Clears and rebuilds the series index from the TSMeta map
+	 * @return the number of indexed series
+	 */
+	public long rebuildSeriesIndex() {
+		seriesIndex.clear();
+		activity.clear();
+		cardinality.clear();
+		return executeRead(new TxCallable<Long>() {
+			@Override
+			public Long tx(final DB db) throws TxRollbackException {
+				for(CachedTSMeta meta: tsMetaMap(db).values()) {
+					indexTSMeta(meta);
+				}
+				return (long)seriesIndex.size();
 			}
 		});
 	}
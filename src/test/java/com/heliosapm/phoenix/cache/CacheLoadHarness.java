@@ -0,0 +1,259 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.opentsdb.uid.UniqueId;
+
+/**
+ * <p>Title: CacheLoadHarness</p>
+ * <p>Description: End to end load harness. Generates a catalog with a {@link MetaGenerator} (or uses the catalog named by
+ * {@link CacheImpl#JDBC_URL_PROP} if set), preloads a new cache from it, bulk loads the TSMetas and then drives steady state
+ * UID lookups, TSMeta lookups and index queries from a number of threads, reporting load times, throughput, latency and memory.</p>
+ * <p>Usage: <b><code>CacheLoadHarness [series] [threads] [seconds per phase]</code></b></p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.CacheLoadHarness</code></p>
+ */
+
+public class CacheLoadHarness {
+	/** The cache under load */
+	final CacheImpl cache;
+	/** The number of load threads */
+	final int threads;
+	/** The duration of each steady state phase in ms */
+	final long phaseMs;
+	/** The cached UID counts indexed by UID type ordinal */
+	final int[] uidCounts = new int[UniqueId.UniqueIdType.values().length];
+
+	/**
+	 * <p>Title: Operation</p>
+	 * <p>Description: One steady state operation driven by the harness</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.CacheLoadHarness.Operation</code></p>
+	 */
+	interface Operation {
+		/**
+		 * Executes one operation
+		 * @param random The calling thread's random
+		 * @return true if the operation found what it looked up
+		 */
+		boolean execute(Random random);
+	}
+
+	/**
+	 * Creates a new CacheLoadHarness
+	 * @param cache The cache under load
+	 * @param threads The number of load threads
+	 * @param phaseMs The duration of each steady state phase in ms
+	 */
+	CacheLoadHarness(final CacheImpl cache, final int threads, final long phaseMs) {
+		this.cache = cache;
+		this.threads = threads;
+		this.phaseMs = phaseMs;
+		for(UniqueId.UniqueIdType type: UniqueId.UniqueIdType.values()) {
+			uidCounts[type.ordinal()] = (int)cache.mapSize(cache.uidMapNames.get(type));
+		}
+	}
+
+	/**
+	 * Runs the harness
+	 * @param args The optional series count, thread count and seconds per phase
+	 */
+	public static void main(final String[] args) {
+		final int series = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		final int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		final long phaseMs = TimeUnit.SECONDS.toMillis(args.length > 2 ? Long.parseLong(args[2]) : 20);
+		final long baseHeap = usedHeap();
+		long start = System.currentTimeMillis();
+		if(System.getProperty(CacheImpl.JDBC_URL_PROP)==null) {
+			System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("harness", series));
+			report("Generated catalog of [%d] series in [%d] ms", series, System.currentTimeMillis() - start);
+		}
+		final long catalogHeap = usedHeap();
+		final File dbFile = new File(System.getProperty("java.io.tmpdir"), "tsmeta-harness.db");
+		deleteStore(dbFile);
+		try {
+			start = System.currentTimeMillis();
+			final CacheImpl cache = CacheImpl.getInstance(dbFile.getAbsolutePath());
+			report("Preloaded UIDs in [%d] ms", System.currentTimeMillis() - start);
+			start = System.currentTimeMillis();
+			final int cores = Runtime.getRuntime().availableProcessors();
+			final TSMetaBulkLoader loader = new TSMetaBulkLoader(cache, Math.max(1, cores/2), Math.max(1, cores/4), 2, TSMetaBulkLoader.DEFAULT_BATCH_SIZE, TSMetaBulkLoader.DEFAULT_QUEUE_DEPTH);
+			final long loaded = loader.load();
+			final long loadMs = System.currentTimeMillis() - start;
+			report("Bulk loaded [%d] TSMetas in [%d] ms (%d/s), skipped [%d] orphans", loaded, loadMs, loadMs==0 ? loaded : loaded * 1000 / loadMs, loader.getOrphans());
+			for(TSMetaBulkLoader.Stage stage: loader.getStages().values()) {
+				report("  %s", stage);
+			}
+			final CacheLoadHarness harness = new CacheLoadHarness(cache, threads, phaseMs);
+			report("Memory: cache heap [%d] KB, catalog heap [%d] KB, store files [%d] KB",
+				(usedHeap() - catalogHeap) / 1024, Math.max(0, catalogHeap - baseHeap) / 1024, storeSize(dbFile) / 1024);
+			harness.run();
+			cache.close();
+		} finally {
+			deleteStore(dbFile);
+		}
+	}
+
+	/**
+	 * Runs the steady state phases
+	 */
+	void run() {
+		phase("UID lookups", new Operation() {
+			final UniqueId.UniqueIdType[] types = UniqueId.UniqueIdType.values();
+			@Override
+			public boolean execute(final Random random) {
+				final UniqueId.UniqueIdType type = types[random.nextInt(types.length)];
+				final int count = uidCounts[type.ordinal()];
+				return count > 0 && cache.getCachedUIDMeta(type, MetaGenerator.uidHex(random.nextInt(count)))!=null;
+			}
+		});
+		phase("TSMeta lookups", new Operation() {
+			@Override
+			public boolean execute(final Random random) {
+				final String tsuid = randomTSUID(random);
+				return tsuid!=null && cache.getCachedTSMeta(tsuid)!=null;
+			}
+		});
+		phase("Index queries", new Operation() {
+			@Override
+			public boolean execute(final Random random) {
+				final String tsuid = randomTSUID(random);
+				if(tsuid==null) return false;
+				final CachedTSMeta meta = cache.getCachedTSMeta(tsuid);
+				return meta!=null && !cache.findTSUIDs(meta.getMetric(), meta.getTags()).isEmpty();
+			}
+		});
+	}
+
+	/**
+	 * Returns a random cached tsuid
+	 * @param random The random
+	 * @return a tsuid hex or null if the drawn ordinal has been freed
+	 */
+	String randomTSUID(final Random random) {
+		final int capacity = cache.seriesIndex.capacity();
+		return capacity==0 ? null : cache.seriesIndex.tsuid(random.nextInt(capacity));
+	}
+
+	/**
+	 * Drives one operation from all the load threads for a warmup of a quarter of the phase time, then for the phase time
+	 * @param name The phase name
+	 * @param op The operation
+	 */
+	void phase(final String name, final Operation op) {
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong hits = new AtomicLong(0);
+		final AtomicLong ops = new AtomicLong(0);
+		final long warmupEnd = System.currentTimeMillis() + phaseMs / 4;
+		final long end = warmupEnd + phaseMs;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for(int t = 0; t < threads; t++) {
+			final Thread thread = new Thread(name + "#" + t) {
+				@Override
+				public void run() {
+					final Random random = new Random();
+					try {
+						long now;
+						while((now = System.currentTimeMillis()) < end) {
+							final long start = System.nanoTime();
+							final boolean hit = op.execute(random);
+							if(now >= warmupEnd) {
+								latency.recordSince(start);
+								ops.incrementAndGet();
+								if(hit) hits.incrementAndGet();
+							}
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+		try {
+			done.await();
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		final long n = ops.get();
+		report("%s: threads [%d], ops [%d], ops/s [%d], hit rate [%.1f%%], mean [%d] us, p50 [%d] us, p99 [%d] us, p99.9 [%d] us",
+			name, threads, n, n * 1000 / phaseMs, n==0 ? 0D : hits.get() * 100D / n, latency.getMeanMicros(),
+			latency.getPercentileMicros(0.5D), latency.getPercentileMicros(0.99D), latency.getPercentileMicros(0.999D));
+	}
+
+	/**
+	 * Returns the used heap after a best effort full GC
+	 * @return the used heap in bytes
+	 */
+	static long usedHeap() {
+		for(int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * Returns the total size of the passed store file and its side files
+	 * @param dbFile The store file
+	 * @return the size in bytes
+	 */
+	static long storeSize(final File dbFile) {
+		long size = 0;
+		final File[] files = dbFile.getAbsoluteFile().getParentFile().listFiles();
+		if(files!=null) {
+			for(File f: files) {
+				if(f.getName().startsWith(dbFile.getName())) size += f.length();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Deletes the passed store file and its side files
+	 * @param dbFile The store file
+	 */
+	static void deleteStore(final File dbFile) {
+		final File[] files = dbFile.getAbsoluteFile().getParentFile().listFiles();
+		if(files!=null) {
+			for(File f: files) {
+				if(f.getName().startsWith(dbFile.getName())) f.delete();
+			}
+		}
+	}
+
+	/**
+	 * Prints a harness report line
+	 * @param format The line format
+	 * @param args The format arguments
+	 */
+	static void report(final String format, final Object...args) {
+		System.out.println(String.format(format, args));
+	}
+}
@@ -34,13 +34,12 @@ import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeMap;
 
-import javax.management.ObjectName;
 import javax.xml.bind.DatatypeConverter;
 
 import net.opentsdb.uid.UniqueId;
 
+import org.mapdb.BTreeMap;
 import org.mapdb.HTreeMap;
 import org.mapdb.DB;
 import org.mapdb.TxMaker;
@@ -81,14 +80,14 @@ public class CacheLoadTest {
 		initDb();
 	}
 	
-	public CachedUIDMeta getName(final Connection conn, final UniqueId.UniqueIdType type, final String xuid, final HTreeMap<String, CachedUIDMeta> map) {
+	public CachedUIDMeta getName(final Connection conn, final UniqueId.UniqueIdType type, final String xuid, final HTreeMap<String, CachedUIDMeta> map, final BTreeMap<String, String> names) {
 		switch(type) {
 		case METRIC:
-			return getMetric(conn, xuid, map);
+			return getMetric(conn, xuid, map, names);
 		case TAGK:
-			return getTagK(conn, xuid, map);
+			return getTagK(conn, xuid, map, names);
 		case TAGV:
-			return getTagV(conn, xuid, map);
+			return getTagV(conn, xuid, map, names);
 		default:
 			throw new RuntimeException();
 			
@@ -98,32 +97,53 @@ public class CacheLoadTest {
 	final CacheImpl cache = CacheImpl.getInstance(FILE_NAME);
 	
 	
-	public CachedUIDMeta getTagK(final Connection conn, final String xuid, final HTreeMap<String, CachedUIDMeta> map) {
+	public CachedUIDMeta getTagK(final Connection conn, final String xuid, final HTreeMap<String, CachedUIDMeta> map, final BTreeMap<String, String> names) {
 		final UniqueId.UniqueIdType _type = UniqueId.UniqueIdType.TAGK;
 		CachedUIDMeta cm = map.get(xuid);
-		if(cm==null) {			
-			cm = new CachedUIDMeta(getName(conn, TAGK_SQL, xuid), UniqueId.stringToUid(xuid), _type);
-			map.put(xuid, cm);
+		if(cm==null) {
+			final CacheImpl ci = CacheImpl.getInstance(FILE_NAME);
+			if(ci.isKnownAbsent(_type, xuid)) return null;
+			final String name = getName(conn, TAGK_SQL, xuid);
+			if(name==null) {
+				ci.markAbsent(_type, xuid);
+				return null;
+			}
+			cm = new CachedUIDMeta(name, UniqueId.stringToUid(xuid), _type);
+			ci.putUID(_type, map, names, cm);
 		}
 		return cm;
 	}
 	
-	public CachedUIDMeta getTagV(final Connection conn, final String xuid, final HTreeMap<String, CachedUIDMeta> map) {
+	public CachedUIDMeta getTagV(final Connection conn, final String xuid, final HTreeMap<String, CachedUIDMeta> map, final BTreeMap<String, String> names) {
 		final UniqueId.UniqueIdType _type = UniqueId.UniqueIdType.TAGV;
 		CachedUIDMeta cm = map.get(xuid);
-		if(cm==null) {			
-			cm = new CachedUIDMeta(getName(conn, TAGV_SQL, xuid), UniqueId.stringToUid(xuid), _type);
-			map.put(xuid, cm);
+		if(cm==null) {
+			final CacheImpl ci = CacheImpl.getInstance(FILE_NAME);
+			if(ci.isKnownAbsent(_type, xuid)) return null;
+			final String name = getName(conn, TAGV_SQL, xuid);
+			if(name==null) {
+				ci.markAbsent(_type, xuid);
+				return null;
+			}
+			cm = new CachedUIDMeta(name, UniqueId.stringToUid(xuid), _type);
+			ci.putUID(_type, map, names, cm);
 		}
 		return cm;
 	}
 	
-	public CachedUIDMeta getMetric(final Connection conn, final String xuid, final HTreeMap<String, CachedUIDMeta> map) {
+	public CachedUIDMeta getMetric(final Connection conn, final String xuid, final HTreeMap<String, CachedUIDMeta> map, final BTreeMap<String, String> names) {
 		final UniqueId.UniqueIdType _type = UniqueId.UniqueIdType.METRIC;
 		CachedUIDMeta cm = map.get(xuid);
-		if(cm==null) {			
-			cm = new CachedUIDMeta(getName(conn, METRIC_SQL, xuid), UniqueId.stringToUid(xuid), _type);
-			map.put(xuid, cm);
+		if(cm==null) {
+			final CacheImpl ci = CacheImpl.getInstance(FILE_NAME);
+			if(ci.isKnownAbsent(_type, xuid)) return null;
+			final String name = getName(conn, METRIC_SQL, xuid);
+			if(name==null) {
+				ci.markAbsent(_type, xuid);
+				return null;
+			}
+			cm = new CachedUIDMeta(name, UniqueId.stringToUid(xuid), _type);
+			ci.putUID(_type, map, names, cm);
 		}
 		return cm;
 	}
@@ -137,8 +157,7 @@ public class CacheLoadTest {
 			 ps = conn.prepareStatement(sql);
 			 ps.setString(1, xuid);
 			 rset = ps.executeQuery();
-			 rset.next();
-			 return rset.getString(1);
+			 return rset.next() ? rset.getString(1) : null;
 		} catch (Exception ex) {
 			throw new RuntimeException("Failed to get name for [" + sql.replace("?", xuid) + "]", ex);
 		} finally {
@@ -150,7 +169,7 @@ public class CacheLoadTest {
 	protected void initDb() {
 		try {
 			Class.forName(JDBC_DRIVER);
-			conn = DriverManager.getConnection(JDBC_URL, "sa", "");
+			conn = DriverManager.getConnection(CacheImpl.jdbcUrl(), "sa", "");
 			log.info("Connected to [{}]", conn.getMetaData().getURL());
 		} catch (Exception ex) {
 			close();
@@ -179,20 +198,27 @@ public class CacheLoadTest {
 	protected void load(final int max) {
 		TxMaker tx = null;
 		DB db = null;
-		HTreeMap<String, CachedTSMeta> map = null;
+		BTreeMap<byte[], CachedTSMeta> map = null;
 		HTreeMap<String, CachedUIDMeta> tagkMap = null;
 		HTreeMap<String, CachedUIDMeta> tagvMap = null;
 		HTreeMap<String, CachedUIDMeta> metricMap = null;
+		BTreeMap<String, String> tagkNames = null;
+		BTreeMap<String, String> tagvNames = null;
+		BTreeMap<String, String> metricNames = null;
 		final Set<CachedTSMeta> ctms = new HashSet<CachedTSMeta>(max);
 		
 		try {
-			tx = CacheImpl.getInstance(FILE_NAME).makeTxMaker();
+			final CacheImpl ci = CacheImpl.getInstance(FILE_NAME);
+			tx = ci.makeTxMaker();
 			db = tx.makeTx();
 			log.info("tsmeta exists: {}", db.exists(CacheImpl.TSMETA_NAME));
-			map = db.hashMap(CacheImpl.TSMETA_NAME);
+			map = CacheImpl.tsMetaMap(db);
 			tagkMap = db.hashMap(CacheImpl.TAGK_NAME);
 			tagvMap = db.hashMap(CacheImpl.TAGV_NAME);
 			metricMap = db.hashMap(CacheImpl.METRIC_NAME);
+			tagkNames = ci.uidNameMap(db, UniqueId.UniqueIdType.TAGK);
+			tagvNames = ci.uidNameMap(db, UniqueId.UniqueIdType.TAGV);
+			metricNames = ci.uidNameMap(db, UniqueId.UniqueIdType.METRIC);
 			ElapsedTime et = SystemClock.startClock();
 			//417/378
 			//122/110
@@ -202,26 +228,26 @@ public class CacheLoadTest {
 			rset = ps.executeQuery();
 			rset.setFetchSize(max);
 			int cnt = 0;
+			final FQNParser parser = new FQNParser();
 			while(rset.next()) {
 				final String fqn = rset.getString(1);
 				final String tsuid = rset.getString(2);
 				final byte[] bytes = UniqueId.stringToUid(tsuid);
-				final ObjectName on = new ObjectName(fqn);
 //				log.info("TSMETA:  [{}], tsuid: [{}}", fqn, Arrays.toString(UniqueId.stringToUid(tsuid)));
 				
-				final CachedTSMeta ctm = new CachedTSMeta(on.getDomain(), new TreeMap<String, String>(on.getKeyPropertyList()), bytes);
+				final CachedTSMeta ctm = parser.parse(fqn, bytes);
 				byte[] metricBytes = new byte[3];
 				System.arraycopy(bytes, 0, metricBytes, 0, 3);
 				List<byte[]> uidBytes = UniqueId.getTagPairsFromTSUID(ctm.getTsuid());
 //				log.info("Fetching Metas for TS {}", ctm);
 				final ElapsedTime ex = SystemClock.startClock();
 				Set<CachedUIDMeta> cmetas = new LinkedHashSet<CachedUIDMeta>(uidBytes.size()+1);
-				cmetas.add(getName(conn, UniqueId.UniqueIdType.METRIC, DatatypeConverter.printHexBinary(metricBytes), metricMap));
+				cmetas.add(getName(conn, UniqueId.UniqueIdType.METRIC, DatatypeConverter.printHexBinary(metricBytes), metricMap, metricNames));
 				for(byte[] b: uidBytes) {
 					final String pairBytes = DatatypeConverter.printHexBinary(b);
 					//log.info("Pairs: [{}]", pairBytes);
-					cmetas.add(getName(conn, UniqueId.UniqueIdType.TAGK, pairBytes.substring(0, 6), tagkMap));
-					cmetas.add(getName(conn, UniqueId.UniqueIdType.TAGV, pairBytes.substring(6), tagvMap));
+					cmetas.add(getName(conn, UniqueId.UniqueIdType.TAGK, pairBytes.substring(0, 6), tagkMap, tagkNames));
+					cmetas.add(getName(conn, UniqueId.UniqueIdType.TAGV, pairBytes.substring(6), tagvMap, tagvNames));
 				}
 //				log.info("Meta Load Time: {}", ex.printAvg("Meta Lookups", cmetas.size()));
 				cnt++;
@@ -230,20 +256,24 @@ public class CacheLoadTest {
 			String summary = et.printAvg("TSMetas", cnt);
 			log.info("Retrieved [{}] TSMetas from DB. Elapsed: {}", cnt, summary );
 			et = SystemClock.startClock();
-			for(CachedTSMeta c: ctms) {
-				map.put(c.getTsuidHex(), c);
-			}
+			ci.putCachedTSMetas(ctms);
 			summary = et.printAvg("Cache Saves", cnt);
 
 			log.info("Cache Saved [{}] TSMetas to Cache. Elapsed: {}", cnt, summary );
 			et = SystemClock.startClock();
 			for(CachedTSMeta ct: ctms) {
-				if(!map.containsKey(ct.getTsuidHex())) {
+				if(ci.getSeriesIndex().ordinal(ct.getTsuidHex())==-1) {
 					throw new RuntimeException("Failed to find key: [" + ct.getTsuidHex() + "]");
 				}
 			}			
 			summary = et.printAvg("Cache Lookups", cnt);
 			log.info("Cache Lookups Elapsed: {}", summary );
+			et = SystemClock.startClock();
+			for(CachedTSMeta ct: ctms) {
+				ci.findTSUIDs(ct.getMetric(), ct.getTags());
+			}			
+			summary = et.printAvg("Index Queries", cnt);
+			log.info("Index Queries Elapsed: {}", summary );
 			
 			map.close(); map = null;
 			db.commit();
@@ -265,18 +295,34 @@ public class CacheLoadTest {
 		}
 	}
 
+	/**
+	 * Loads the TSMetas through the parallel bulk loader
+	 * @param max The maximum number of TSMetas to load
+	 */
+	protected void loadParallel(final int max) {
+		final CacheImpl ci = CacheImpl.getInstance(FILE_NAME);
+		final int cores = Runtime.getRuntime().availableProcessors();
+		final TSMetaBulkLoader loader = new TSMetaBulkLoader(ci, Math.max(1, cores/2), Math.max(1, cores/4), 2, TSMetaBulkLoader.DEFAULT_BATCH_SIZE, TSMetaBulkLoader.DEFAULT_QUEUE_DEPTH);
+		final long loaded = loader.load(max);
+		log.info("Bulk loaded [{}] TSMetas, skipped [{}] orphans, indexed series: [{}]", loaded, loader.getOrphans(), ci.getSeriesIndex().size());
+	}
+
 	/**
 	 * @param args
 	 */
 	public static void main(String[] args) {
 //		delStore();
+		final String generate = System.getProperty(MetaGenerator.GENERATE_PROP);
+		if(generate!=null && !generate.trim().isEmpty()) {
+			System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("cacheloadtest", Integer.parseInt(generate.trim())));
+		}
 		try {
 			log.info("Cache Load Test");
 			CacheLoadTest clt = new CacheLoadTest();
 			clt.load(15000);
 			CacheImpl.getInstance(FILE_NAME).reset();
 			delStore();
-			clt.load(15000);
+			clt.loadParallel(15000);
 		} finally {
 			bigGc();
 			delStore();
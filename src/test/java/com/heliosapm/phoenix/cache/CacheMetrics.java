@@ -0,0 +1,639 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import net.opentsdb.stats.StatsCollector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: CacheMetrics</p>
+ * <p>Description: Hit/miss/put counters, size and byte estimates and latency histograms for a {@link CacheImpl},
+ * published as MBeans and through OpenTSDB's {@link StatsCollector}. Counters are striped so recording stays off the hot path;
+ * sizes and byte estimates are only computed when read.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.CacheMetrics</code></p>
+ */
+
+public class CacheMetrics implements CacheMetricsMBean {
+	private static final Logger log = LoggerFactory .getLogger(CacheMetrics.class);
+	/** The JMX domain the cache MBeans are registered under */
+	public static final String JMX_DOMAIN = "com.heliosapm.phoenix.cache";
+	/** The OpenTSDB stats metric name prefix */
+	public static final String STATS_PREFIX = "tsdbmeta.cache.";
+	/** The number of values sampled to estimate a map's average value size */
+	public static final int BYTE_SAMPLE_SIZE = 256;
+	/** The minimum period between byte estimate refreshes in ms */
+	public static final long BYTE_ESTIMATE_TTL = 60000;
+	/** The number of highest cardinality metrics and tag keys recorded to the stats collector */
+	public static final int TOP_CARDINALITY = 10;
+
+	/** The cache being instrumented */
+	final CacheImpl cache;
+	/** The per map metrics keyed by map name */
+	final Map<String, MapMetrics> mapMetrics = new LinkedHashMap<String, MapMetrics>();
+	/** Committed transactions */
+	final StripedCounter txCommits = new StripedCounter();
+	/** Transactions retried after a TxRollbackException */
+	final StripedCounter txRetries = new StripedCounter();
+	/** Transactions abandoned after exhausting their retries */
+	final StripedCounter txFailures = new StripedCounter();
+	/** Read-only transactions */
+	final StripedCounter txReads = new StripedCounter();
+	/** TSMetas evicted to keep the tsmeta map within bounds */
+	final StripedCounter tsmetaEvictions = new StripedCounter();
+	/** TSMetas expired after being idle */
+	final StripedCounter tsmetaExpirations = new StripedCounter();
+	/** TSMetas evicted after not being seen for the stale period */
+	final StripedCounter tsmetaPrunes = new StripedCounter();
+	/** UID lookups rejected by the UID Bloom filters */
+	final StripedCounter uidFilterRejects = new StripedCounter();
+	/** UID lookups answered by the negative caches */
+	final StripedCounter uidNegativeHits = new StripedCounter();
+	/** The UID preload latencies */
+	final LatencyHistogram preloadLatency = new LatencyHistogram();
+	/** The on-miss source load latencies, one per {@link UIDLoader} query of the SQL catalog */
+	final LatencyHistogram sourceLoadLatency = new LatencyHistogram();
+	/** The last accounted store size in bytes, or -1 if not accounted */
+	volatile long storeCurrentBytes = -1;
+	/** The last accounted free space in the store in bytes, or -1 if not accounted */
+	volatile long storeFreeBytes = -1;
+	/** The last accounted heap held by the in-memory indexes and filters in bytes */
+	volatile long indexHeapBytes = 0;
+	/** The registered MBean object names */
+	final CopyOnWriteArrayList<ObjectName> registered = new CopyOnWriteArrayList<ObjectName>();
+
+	/**
+	 * <p>Title: MapMetricsMBean</p>
+	 * <p>Description: JMX interface for the metrics of one cache map</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.CacheMetrics.MapMetricsMBean</code></p>
+	 */
+	public interface MapMetricsMBean {
+		/**
+		 * Returns the map name
+		 * @return the map name
+		 */
+		public String getMapName();
+		/**
+		 * Returns the number of lookups that found a value
+		 * @return the number of hits
+		 */
+		public long getHits();
+		/**
+		 * Returns the number of lookups that did not find a value
+		 * @return the number of misses
+		 */
+		public long getMisses();
+		/**
+		 * Returns the ratio of hits to lookups
+		 * @return the hit ratio
+		 */
+		public double getHitRatio();
+		/**
+		 * Returns the number of puts
+		 * @return the number of puts
+		 */
+		public long getPuts();
+		/**
+		 * Returns the number of entries in the map
+		 * @return the number of entries
+		 */
+		public long getSize();
+		/**
+		 * Returns the sampled average serialized value size in bytes
+		 * @return the average value size
+		 */
+		public long getAverageValueBytes();
+		/**
+		 * Returns the estimated serialized size of all the values in the map
+		 * @return the estimated map size in bytes
+		 */
+		public long getByteEstimate();
+		/**
+		 * Returns the serialized size of the values stored since startup, before compression
+		 * @return the serialized bytes
+		 */
+		public long getSerializedBytes();
+		/**
+		 * Returns the stored size of the values stored since startup, after compression
+		 * @return the stored bytes
+		 */
+		public long getStoredBytes();
+		/**
+		 * Returns the ratio of stored to serialized bytes
+		 * @return the stored byte ratio
+		 */
+		public double getStoredRatio();
+		/**
+		 * Returns the number of values stored compressed since startup
+		 * @return the number of compressed values
+		 */
+		public long getCompressedValues();
+		/**
+		 * Returns the number of values stored raw since startup
+		 * @return the number of raw values
+		 */
+		public long getRawValues();
+		/**
+		 * Returns the mean time spent compressing a value
+		 * @return the mean compression time in nanos
+		 */
+		public long getCompressMeanNanos();
+		/**
+		 * Returns the mean time spent decompressing a value
+		 * @return the mean decompression time in nanos
+		 */
+		public long getDecompressMeanNanos();
+		/**
+		 * Returns the sampled average deserialized value size on the heap in bytes
+		 * @return the average object size
+		 */
+		public long getAverageObjectBytes();
+		/**
+		 * Returns the estimated heap held by the map's values in the record cache
+		 * @return the heap bytes
+		 */
+		public long getHeapBytes();
+		/**
+		 * Returns the estimated size of the map's keys, values and records in the memory mapped store
+		 * @return the store bytes
+		 */
+		public long getStoreBytes();
+		/**
+		 * Returns the map's store byte budget
+		 * @return the budget in bytes, or 0 if the map has no budget
+		 */
+		public long getBudgetBytes();
+		/**
+		 * Returns the policy applied when the map is over its budget
+		 * @return the budget policy name, or null if the map has no budget
+		 */
+		public String getBudgetPolicy();
+		/**
+		 * Indicates if the map was over its budget at the last accounting run
+		 * @return true if over budget, false otherwise
+		 */
+		public boolean isOverBudget();
+		/**
+		 * Returns the number of puts refused because the map was over budget
+		 * @return the number of rejected puts
+		 */
+		public long getRejectedPuts();
+		/**
+		 * Resets the counters
+		 */
+		public void reset();
+	}
+
+	/**
+	 * <p>Title: MapMetrics</p>
+	 * <p>Description: The metrics for one cache map</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.CacheMetrics.MapMetrics</code></p>
+	 */
+	public class MapMetrics implements MapMetricsMBean {
+		/** The map name */
+		final String mapName;
+		/** Lookups that found a value */
+		final StripedCounter hits = new StripedCounter();
+		/** Lookups that did not find a value */
+		final StripedCounter misses = new StripedCounter();
+		/** Puts */
+		final StripedCounter puts = new StripedCounter();
+		/** The last sampled average value size */
+		volatile long averageValueBytes = -1;
+		/** The timestamp of the last value size sample */
+		volatile long averageValueBytesTime = 0;
+		/** Puts refused because the map was over budget */
+		final StripedCounter rejectedPuts = new StripedCounter();
+		/** The last accounted average deserialized value size */
+		volatile long averageObjectBytes = 0;
+		/** The last accounted record cache heap bytes */
+		volatile long heapBytes = 0;
+		/** The last accounted store bytes */
+		volatile long storeBytes = 0;
+		/** The store byte budget, or 0 for no budget */
+		volatile long budgetBytes = 0;
+		/** The over budget policy, or null for no budget */
+		volatile MemoryAccountant.BudgetPolicy budgetPolicy = null;
+		/** Indicates if the map was over budget at the last accounting run */
+		volatile boolean overBudget = false;
+
+		/**
+		 * Creates a new MapMetrics
+		 * @param mapName The map name
+		 */
+		MapMetrics(final String mapName) {
+			this.mapName = mapName;
+		}
+
+		/**
+		 * Admits or refuses puts to the map, refusing them while the map is over a {@link MemoryAccountant.BudgetPolicy#REJECT} budget
+		 * @param count The number of entries being put
+		 * @return true if the puts are admitted, false if they are refused
+		 */
+		public boolean admit(final int count) {
+			if(!overBudget || budgetPolicy!=MemoryAccountant.BudgetPolicy.REJECT) return true;
+			rejectedPuts.add(count);
+			return false;
+		}
+
+		/**
+		 * Records a lookup
+		 * @param hit true if the lookup found a value, false otherwise
+		 */
+		public void lookup(final boolean hit) {
+			if(hit) hits.increment();
+			else misses.increment();
+		}
+
+		@Override
+		public String getMapName() {
+			return mapName;
+		}
+
+		@Override
+		public long getHits() {
+			return hits.get();
+		}
+
+		@Override
+		public long getMisses() {
+			return misses.get();
+		}
+
+		@Override
+		public double getHitRatio() {
+			final long h = hits.get();
+			final long total = h + misses.get();
+			return total==0 ? 0D : (double)h / total;
+		}
+
+		@Override
+		public long getPuts() {
+			return puts.get();
+		}
+
+		@Override
+		public long getSize() {
+			return cache.mapSize(mapName);
+		}
+
+		@Override
+		public long getAverageValueBytes() {
+			final long now = System.currentTimeMillis();
+			if(averageValueBytes < 0 || now - averageValueBytesTime > BYTE_ESTIMATE_TTL) {
+				averageValueBytes = cache.averageValueBytes(mapName, BYTE_SAMPLE_SIZE);
+				averageValueBytesTime = now;
+			}
+			return averageValueBytes;
+		}
+
+		@Override
+		public long getByteEstimate() {
+			return getSize() * getAverageValueBytes();
+		}
+
+		@Override
+		public long getSerializedBytes() {
+			return cache.compressionStats(mapName).getSerializedBytes();
+		}
+
+		@Override
+		public long getStoredBytes() {
+			return cache.compressionStats(mapName).getStoredBytes();
+		}
+
+		@Override
+		public double getStoredRatio() {
+			return cache.compressionStats(mapName).getStoredRatio();
+		}
+
+		@Override
+		public long getCompressedValues() {
+			return cache.compressionStats(mapName).getCompressedValues();
+		}
+
+		@Override
+		public long getRawValues() {
+			return cache.compressionStats(mapName).getRawValues();
+		}
+
+		@Override
+		public long getCompressMeanNanos() {
+			return cache.compressionStats(mapName).getCompressMeanNanos();
+		}
+
+		@Override
+		public long getDecompressMeanNanos() {
+			return cache.compressionStats(mapName).getDecompressMeanNanos();
+		}
+
+		@Override
+		public long getAverageObjectBytes() {
+			return averageObjectBytes;
+		}
+
+		@Override
+		public long getHeapBytes() {
+			return heapBytes;
+		}
+
+		@Override
+		public long getStoreBytes() {
+			return storeBytes;
+		}
+
+		@Override
+		public long getBudgetBytes() {
+			return budgetBytes;
+		}
+
+		@Override
+		public String getBudgetPolicy() {
+			final MemoryAccountant.BudgetPolicy policy = budgetPolicy;
+			return policy==null ? null : policy.name();
+		}
+
+		@Override
+		public boolean isOverBudget() {
+			return overBudget;
+		}
+
+		@Override
+		public long getRejectedPuts() {
+			return rejectedPuts.get();
+		}
+
+		@Override
+		public void reset() {
+			hits.reset();
+			misses.reset();
+			puts.reset();
+			rejectedPuts.reset();
+			averageValueBytes = -1;
+			cache.compressionStats(mapName).reset();
+		}
+	}
+
+	/**
+	 * Creates a new CacheMetrics
+	 * @param cache The cache being instrumented
+	 * @param mapNames The names of the maps to instrument
+	 */
+	CacheMetrics(final CacheImpl cache, final String...mapNames) {
+		this.cache = cache;
+		for(String mapName: mapNames) {
+			mapMetrics.put(mapName, new MapMetrics(mapName));
+		}
+	}
+
+	/**
+	 * Returns the metrics for the named map
+	 * @param mapName The map name
+	 * @return the map metrics
+	 */
+	public MapMetrics map(final String mapName) {
+		final MapMetrics mm = mapMetrics.get(mapName);
+		if(mm==null) throw new IllegalArgumentException("No metrics for map [" + mapName + "]");
+		return mm;
+	}
+
+	/**
+	 * Registers the cache and map MBeans with the platform MBeanServer
+	 */
+	void register() {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final String file = ObjectName.quote(cache.dbFile.getAbsolutePath());
+		try {
+			final ObjectName on = new ObjectName(JMX_DOMAIN + ":service=CacheImpl,file=" + file);
+			server.registerMBean(new StandardMBean(this, CacheMetricsMBean.class), on);
+			registered.add(on);
+			for(MapMetrics mm: mapMetrics.values()) {
+				final ObjectName mon = new ObjectName(JMX_DOMAIN + ":service=CacheImpl,file=" + file + ",map=" + mm.mapName);
+				server.registerMBean(new StandardMBean(mm, MapMetricsMBean.class), mon);
+				registered.add(mon);
+			}
+			final ObjectName con = new ObjectName(JMX_DOMAIN + ":service=CacheImpl,file=" + file + ",type=Cardinality");
+			server.registerMBean(new StandardMBean(cache.cardinality, CardinalityTrackerMBean.class), con);
+			registered.add(con);
+		} catch (Exception ex) {
+			log.warn("Failed to register cache MBeans for [{}]", cache.dbFile, ex);
+		}
+	}
+
+	/**
+	 * Unregisters the MBeans registered by {@link #register()}
+	 */
+	void unregister() {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for(ObjectName on: registered) {
+			try { server.unregisterMBean(on); } catch (Exception x) {/* No Op */}
+		}
+		registered.clear();
+	}
+
+	/**
+	 * Records the cache metrics to the passed OpenTSDB stats collector
+	 * @param collector The collector to record to
+	 */
+	public void collectStats(final StatsCollector collector) {
+		for(MapMetrics mm: mapMetrics.values()) {
+			final String tag = "map=" + mm.mapName;
+			collector.record(STATS_PREFIX + "hits", mm.getHits(), tag);
+			collector.record(STATS_PREFIX + "misses", mm.getMisses(), tag);
+			collector.record(STATS_PREFIX + "puts", mm.getPuts(), tag);
+			collector.record(STATS_PREFIX + "size", mm.getSize(), tag);
+			collector.record(STATS_PREFIX + "bytes", mm.getByteEstimate(), tag);
+			collector.record(STATS_PREFIX + "serialized.bytes", mm.getSerializedBytes(), tag);
+			collector.record(STATS_PREFIX + "stored.bytes", mm.getStoredBytes(), tag);
+			collector.record(STATS_PREFIX + "compress.nanos", mm.getCompressMeanNanos(), tag);
+			collector.record(STATS_PREFIX + "decompress.nanos", mm.getDecompressMeanNanos(), tag);
+			collector.record(STATS_PREFIX + "heap.bytes", mm.getHeapBytes(), tag);
+			collector.record(STATS_PREFIX + "store.bytes", mm.getStoreBytes(), tag);
+			collector.record(STATS_PREFIX + "budget.bytes", mm.getBudgetBytes(), tag);
+			collector.record(STATS_PREFIX + "budget.rejects", mm.getRejectedPuts(), tag);
+		}
+		collector.record(STATS_PREFIX + "tx.commits", getTxCommits());
+		collector.record(STATS_PREFIX + "tx.retries", getTxRetries());
+		collector.record(STATS_PREFIX + "tx.failures", getTxFailures());
+		collector.record(STATS_PREFIX + "tx.reads", getTxReads());
+		collector.record(STATS_PREFIX + "file.bytes", getStoreFileBytes());
+		collector.record(STATS_PREFIX + "file.current.bytes", getStoreCurrentBytes());
+		collector.record(STATS_PREFIX + "file.free.bytes", getStoreFreeBytes());
+		collector.record(STATS_PREFIX + "index.heap.bytes", getIndexHeapBytes());
+		collector.record(STATS_PREFIX + "series", getIndexedSeries());
+		collector.record(STATS_PREFIX + "tsmeta.evictions", getTSMetaEvictions());
+		collector.record(STATS_PREFIX + "tsmeta.expirations", getTSMetaExpirations());
+		collector.record(STATS_PREFIX + "tsmeta.prunes", getTSMetaPrunes());
+		collector.record(STATS_PREFIX + "uid.filterrejects", getUIDFilterRejects());
+		collector.record(STATS_PREFIX + "uid.negativehits", getUIDNegativeHits());
+		collector.record(STATS_PREFIX + "cardinality.metrics", cache.cardinality.getMetricCount());
+		collector.record(STATS_PREFIX + "cardinality.tagks", cache.cardinality.getTagKeyCount());
+		for(Map.Entry<String, Long> entry: cache.cardinality.topMetrics(TOP_CARDINALITY).entrySet()) {
+			collector.record(STATS_PREFIX + "cardinality.series", entry.getValue(), "metric=" + entry.getKey());
+		}
+		for(Map.Entry<String, Long> entry: cache.cardinality.topTagKeys(TOP_CARDINALITY).entrySet()) {
+			collector.record(STATS_PREFIX + "cardinality.values", entry.getValue(), "tagk=" + entry.getKey());
+		}
+		recordLatency(collector, STATS_PREFIX + "preload.latency", preloadLatency);
+		recordLatency(collector, STATS_PREFIX + "sourceload.latency", sourceLoadLatency);
+	}
+
+	/**
+	 * Records the percentiles of the passed histogram in OpenTSDB's <b><code>_NNpct</code></b> naming style
+	 * @param collector The collector to record to
+	 * @param name The metric name
+	 * @param histogram The histogram to record
+	 */
+	private static void recordLatency(final StatsCollector collector, final String name, final LatencyHistogram histogram) {
+		collector.record(name + "_50pct", histogram.getPercentileMicros(0.5));
+		collector.record(name + "_75pct", histogram.getPercentileMicros(0.75));
+		collector.record(name + "_90pct", histogram.getPercentileMicros(0.9));
+		collector.record(name + "_95pct", histogram.getPercentileMicros(0.95));
+		collector.record(name + "_99pct", histogram.getPercentileMicros(0.99));
+	}
+
+	@Override
+	public long getTxCommits() {
+		return txCommits.get();
+	}
+
+	@Override
+	public long getTxRetries() {
+		return txRetries.get();
+	}
+
+	@Override
+	public long getTxFailures() {
+		return txFailures.get();
+	}
+
+	@Override
+	public long getTxReads() {
+		return txReads.get();
+	}
+
+	@Override
+	public long getStoreFileBytes() {
+		return cache.dbFile.length();
+	}
+
+	@Override
+	public long getStoreCurrentBytes() {
+		return storeCurrentBytes;
+	}
+
+	@Override
+	public long getStoreFreeBytes() {
+		return storeFreeBytes;
+	}
+
+	@Override
+	public long getIndexHeapBytes() {
+		return indexHeapBytes;
+	}
+
+	@Override
+	public int getIndexedSeries() {
+		return cache.seriesIndex.size();
+	}
+
+	@Override
+	public long getTSMetaEvictions() {
+		return tsmetaEvictions.get();
+	}
+
+	@Override
+	public long getTSMetaExpirations() {
+		return tsmetaExpirations.get();
+	}
+
+	@Override
+	public long getTSMetaPrunes() {
+		return tsmetaPrunes.get();
+	}
+
+	@Override
+	public long getUIDFilterRejects() {
+		return uidFilterRejects.get();
+	}
+
+	@Override
+	public long getUIDNegativeHits() {
+		return uidNegativeHits.get();
+	}
+
+	@Override
+	public long getPreloadCount() {
+		return preloadLatency.getCount();
+	}
+
+	@Override
+	public long getPreloadMeanMicros() {
+		return preloadLatency.getMeanMicros();
+	}
+
+	@Override
+	public long getSourceLoadCount() {
+		return sourceLoadLatency.getCount();
+	}
+
+	@Override
+	public long getSourceLoadMeanMicros() {
+		return sourceLoadLatency.getMeanMicros();
+	}
+
+	@Override
+	public long getSourceLoadP99Micros() {
+		return sourceLoadLatency.getPercentileMicros(0.99);
+	}
+
+	@Override
+	public void reset() {
+		txCommits.reset();
+		txRetries.reset();
+		txFailures.reset();
+		txReads.reset();
+		tsmetaEvictions.reset();
+		tsmetaExpirations.reset();
+		tsmetaPrunes.reset();
+		uidFilterRejects.reset();
+		uidNegativeHits.reset();
+		preloadLatency.reset();
+		sourceLoadLatency.reset();
+		for(MapMetrics mm: mapMetrics.values()) {
+			mm.reset();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+/**
+ * <p>Title: CacheMetricsMBean</p>
+ * <p>Description: JMX interface for the cache wide metrics</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.CacheMetricsMBean</code></p>
+ */
+public interface CacheMetricsMBean {
+	/**
+	 * Returns the number of committed transactions
+	 * @return the number of committed transactions
+	 */
+	public long getTxCommits();
+	/**
+	 * Returns the number of transactions retried after a rollback
+	 * @return the number of retried transactions
+	 */
+	public long getTxRetries();
+	/**
+	 * Returns the number of write transactions abandoned after exhausting their retries
+	 * @return the number of failed transactions
+	 */
+	public long getTxFailures();
+	/**
+	 * Returns the number of read-only transactions
+	 * @return the number of read-only transactions
+	 */
+	public long getTxReads();
+	/**
+	 * Returns the size of the cache store file in bytes
+	 * @return the store file size
+	 */
+	public long getStoreFileBytes();
+	/**
+	 * Returns the number of series in the series index
+	 * @return the number of indexed series
+	 */
+	public int getIndexedSeries();
+	/**
+	 * Returns the store's allocated size at the last memory accounting run
+	 * @return the store size in bytes, or -1 if not accounted
+	 */
+	public long getStoreCurrentBytes();
+	/**
+	 * Returns the free space in the store at the last memory accounting run
+	 * @return the free bytes, or -1 if not accounted
+	 */
+	public long getStoreFreeBytes();
+	/**
+	 * Returns the heap held by the series index, activity, cardinality sketches and UID filters at the last memory accounting run
+	 * @return the index heap bytes
+	 */
+	public long getIndexHeapBytes();
+	/**
+	 * Returns the number of TSMetas evicted to keep the tsmeta map within bounds
+	 * @return the number of evictions
+	 */
+	public long getTSMetaEvictions();
+	/**
+	 * Returns the number of TSMetas expired after being idle
+	 * @return the number of expirations
+	 */
+	public long getTSMetaExpirations();
+	/**
+	 * Returns the number of TSMetas evicted after not being seen for the stale period
+	 * @return the number of prunes
+	 */
+	public long getTSMetaPrunes();
+	/**
+	 * Returns the number of UID lookups rejected by the UID Bloom filters without a transaction
+	 * @return the number of rejected lookups
+	 */
+	public long getUIDFilterRejects();
+	/**
+	 * Returns the number of UID lookups answered by the negative caches without a source query
+	 * @return the number of negative cache hits
+	 */
+	public long getUIDNegativeHits();
+	/**
+	 * Returns the number of UID preloads
+	 * @return the number of preloads
+	 */
+	public long getPreloadCount();
+	/**
+	 * Returns the mean UID preload time in microseconds
+	 * @return the mean preload time
+	 */
+	public long getPreloadMeanMicros();
+	/**
+	 * Returns the number of on-miss source loads
+	 * @return the number of source loads
+	 */
+	public long getSourceLoadCount();
+	/**
+	 * Returns the mean on-miss source load time in microseconds
+	 * @return the mean source load time
+	 */
+	public long getSourceLoadMeanMicros();
+	/**
+	 * Returns the 99th percentile on-miss source load time in microseconds
+	 * @return the p99 source load time
+	 */
+	public long getSourceLoadP99Micros();
+	/**
+	 * Resets the counters and histograms
+	 */
+	public void reset();
+}
@@ -0,0 +1,130 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <p>Title: CacheMetricsTest</p>
+ * <p>Description: Tests the {@link CacheMetrics} map counters and latency histograms recorded by {@link CacheImpl} and its loaders</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.CacheMetricsTest</code></p>
+ */
+
+public class CacheMetricsTest {
+	/** The temporary folder holding the cache file */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	/** The cache under test */
+	CacheImpl cache = null;
+
+	@BeforeClass
+	public static void generateCatalog() {
+		System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("CacheMetricsTest", 10));
+	}
+
+	@Before
+	public void setUp() {
+		cache = CacheImpl.getInstance(new File(folder.getRoot(), "tsmeta.db").getAbsolutePath(), false);
+	}
+
+	@After
+	public void tearDown() {
+		cache.close();
+	}
+
+	/**
+	 * Returns the uid of the first metric in the SQL catalog
+	 * @return the uid hex
+	 * @throws SQLException thrown on any JDBC error
+	 */
+	static String catalogMetric() throws SQLException {
+		final Connection conn = DriverManager.getConnection(CacheImpl.jdbcUrl(), "sa", "");
+		try {
+			final Statement st = conn.createStatement();
+			final ResultSet rset = st.executeQuery("SELECT XUID FROM TSD_METRIC LIMIT 1");
+			assertTrue(rset.next());
+			final String xuid = rset.getString(1);
+			rset.close();
+			st.close();
+			return xuid;
+		} finally {
+			conn.close();
+		}
+	}
+
+	@Test
+	public void testSourceLoadLatency() throws Exception {
+		final CacheMetrics metrics = cache.getMetrics();
+		assertEquals(0, metrics.getSourceLoadCount());
+		final String xuid = catalogMetric();
+		// a miss reads the source
+		assertNotNull(cache.getCachedUIDMetaAsync(UniqueId.UniqueIdType.METRIC, xuid).join(10000));
+		assertEquals(1, metrics.getSourceLoadCount());
+		assertTrue(metrics.getSourceLoadMeanMicros() > 0);
+		// a hit does not
+		assertNotNull(cache.getCachedUIDMetaAsync(UniqueId.UniqueIdType.METRIC, xuid).join(10000));
+		assertEquals(1, metrics.getSourceLoadCount());
+		// a uid the source does not hold is still a source read
+		assertNull(cache.getCachedUIDMetaAsync(UniqueId.UniqueIdType.METRIC, "FFFFFF").join(10000));
+		assertEquals(2, metrics.getSourceLoadCount());
+		metrics.reset();
+		assertEquals(0, metrics.getSourceLoadCount());
+	}
+
+	@Test
+	public void testPreloadLatency() {
+		final CacheMetrics metrics = cache.getMetrics();
+		assertEquals(0, metrics.getPreloadCount());
+		assertTrue(cache.preLoad(UniqueId.UniqueIdType.TAGK) > 0);
+		assertEquals(1, metrics.getPreloadCount());
+		assertEquals(0, metrics.getSourceLoadCount());
+	}
+
+	@Test
+	public void testMapCounters() {
+		final CacheMetrics.MapMetrics mm = cache.getMetrics().map(CacheImpl.TAGV_NAME);
+		cache.putCachedUIDMeta(UniqueId.UniqueIdType.TAGV, new CachedUIDMeta("counted", new byte[]{0x7F, 0, 1}, UniqueId.UniqueIdType.TAGV));
+		assertEquals(1, mm.getPuts());
+		assertNotNull(cache.getUid(UniqueId.UniqueIdType.TAGV, "counted"));
+		assertNull(cache.getUid(UniqueId.UniqueIdType.TAGV, "uncounted"));
+		assertEquals(1, mm.getHits());
+		assertEquals(1, mm.getMisses());
+	}
+}
@@ -0,0 +1,534 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import net.opentsdb.core.TSDB;
+import net.opentsdb.meta.Annotation;
+import net.opentsdb.meta.TSMeta;
+import net.opentsdb.meta.UIDMeta;
+import net.opentsdb.search.SearchPlugin;
+import net.opentsdb.search.SearchQuery;
+import net.opentsdb.stats.StatsCollector;
+import net.opentsdb.uid.UniqueId;
+import net.opentsdb.utils.Config;
+import net.opentsdb.utils.Pair;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: CacheSearchPlugin</p>
+ * <p>Description: An OpenTSDB search plugin backed by a {@link CacheImpl}. Meta updates from the TSD are applied through the cache's
+ * write-behind buffer so the index callbacks never block the TSD, and queries are answered from the cache's series index and UID name maps.</p>
+ * <p>Configuration:<ul>
+ * 	<li><b><code>tsd.search.cache.file</code></b>: The cache file name (required)</li>
+ * 	<li><b><code>tsd.search.cache.preload</code></b>: Preload the UID maps on start (default true)</li>
+ * 	<li><b><code>tsd.search.cache.batch</code></b>: The maximum number of puts per commit (default 1024)</li>
+ * 	<li><b><code>tsd.search.cache.latency</code></b>: The maximum time in ms a put waits before being committed (default 100)</li>
+ * </ul></p>
+ * <p>TSMETA, TSMETA_SUMMARY and TSUIDS queries take the form <b><code>metric{k1=v1,k2=*}</code></b>, where the metric may be
+ * <b><code>*</code></b> and the tags are optional. UIDMETA queries take the form <b><code>[metric|tagk|tagv:]prefix</code></b>.
+ * LOOKUP queries use the metric and tags of the query. Annotations are not cached, so annotation queries return no results.</p>
+ * <p>The plugin, like the rest of this package, is built from the test sources, so it is not in the built artifact and a TSD
+ * cannot load it until the package moves to the main sources.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.CacheSearchPlugin</code></p>
+ */
+
+public class CacheSearchPlugin extends SearchPlugin {
+	private static final Logger log = LoggerFactory .getLogger(CacheSearchPlugin.class);
+	
+	/** The config key for the cache file name */
+	public static final String CONFIG_FILE = "tsd.search.cache.file";
+	/** The config key for the preload flag */
+	public static final String CONFIG_PRELOAD = "tsd.search.cache.preload";
+	/** The config key for the write-behind max batch */
+	public static final String CONFIG_BATCH = "tsd.search.cache.batch";
+	/** The config key for the write-behind max latency in ms */
+	public static final String CONFIG_LATENCY = "tsd.search.cache.latency";
+	/** The default write-behind max batch */
+	public static final int DEFAULT_BATCH = 1024;
+	/** The default write-behind max latency in ms */
+	public static final long DEFAULT_LATENCY = 100;
+	/** The plugin version */
+	public static final String VERSION = "2.1.0";
+	/** The stats prefix for the plugin's counters */
+	public static final String STATS_PREFIX = CacheMetrics.STATS_PREFIX + "search.";
+	
+	/** The cache */
+	CacheImpl cache = null;
+	/** Indicates if this plugin enabled the cache's write-behind, and so disables it on shutdown */
+	boolean enabledWriteBehind = false;
+	/** The number of indexed TSMetas */
+	final StripedCounter indexedTSMetas = new StripedCounter();
+	/** The number of indexed UIDMetas */
+	final StripedCounter indexedUIDMetas = new StripedCounter();
+	/** The number of TSMetas dropped because they were incomplete */
+	final StripedCounter droppedTSMetas = new StripedCounter();
+	/** The number of deleted TSMetas */
+	final StripedCounter deletedTSMetas = new StripedCounter();
+	/** The number of executed queries */
+	final StripedCounter queries = new StripedCounter();
+	/** The number of failed queries */
+	final StripedCounter failedQueries = new StripedCounter();
+	/** The query latency histogram */
+	final LatencyHistogram queryLatency = new LatencyHistogram();
+	
+	/**
+	 * {@inheritDoc}
+	 * @see net.opentsdb.search.SearchPlugin#initialize(net.opentsdb.core.TSDB)
+	 */
+	@Override
+	public void initialize(final TSDB tsdb) {
+		final Config config = tsdb.getConfig();
+		if(!config.hasProperty(CONFIG_FILE) || config.getString(CONFIG_FILE)==null || config.getString(CONFIG_FILE).trim().isEmpty()) {
+			throw new IllegalArgumentException("The search cache file [" + CONFIG_FILE + "] was not configured");
+		}
+		final String fileName = config.getString(CONFIG_FILE).trim();
+		final boolean preload = config.hasProperty(CONFIG_PRELOAD) ? config.getBoolean(CONFIG_PRELOAD) : true;
+		final int batch = config.hasProperty(CONFIG_BATCH) ? config.getInt(CONFIG_BATCH) : DEFAULT_BATCH;
+		final long latency = config.hasProperty(CONFIG_LATENCY) ? config.getLong(CONFIG_LATENCY) : DEFAULT_LATENCY;
+		initialize(CacheImpl.getInstance(fileName, preload), batch, latency);
+		log.info("Initialized search cache on [{}], batch: {}, latency: {} ms", fileName, batch, latency);
+	}
+	
+	/**
+	 * Initializes the plugin on the passed cache and enables the cache's write-behind, unless another user of the
+	 * cache, such as a {@link NewSeriesPublisher}, already has
+	 * @param cache The cache to index into and search
+	 * @param batch The maximum number of puts per commit
+	 * @param latency The maximum time in ms a put waits before being committed
+	 */
+	void initialize(final CacheImpl cache, final int batch, final long latency) {
+		synchronized(cache) {
+			if(cache.getWriteBehind()==null) {
+				cache.enableWriteBehind(batch, latency, TimeUnit.MILLISECONDS);
+				enabledWriteBehind = true;
+			}
+		}
+		this.cache = cache;
+	}
+
+	/**
+	 * Commits the buffered meta updates. The cache is shared with the other plugins of the process, so it is left open,
+	 * and its write-behind is only disabled if this plugin enabled it.
+	 * {@inheritDoc}
+	 * @see net.opentsdb.search.SearchPlugin#shutdown()
+	 */
+	@Override
+	public Deferred<Object> shutdown() {
+		final CacheImpl c = cache;
+		if(c!=null) {
+			cache = null;
+			if(enabledWriteBehind) {
+				enabledWriteBehind = false;
+				c.disableWriteBehind();
+			} else {
+				c.flush();
+			}
+		}
+		return Deferred.fromResult(null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see net.opentsdb.search.SearchPlugin#version()
+	 */
+	@Override
+	public String version() {
+		return VERSION;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see net.opentsdb.search.SearchPlugin#collectStats(net.opentsdb.stats.StatsCollector)
+	 */
+	@Override
+	public void collectStats(final StatsCollector collector) {
+		final CacheImpl c = cache;
+		if(c!=null) c.collectStats(collector);
+		collector.record(STATS_PREFIX + "tsmeta.indexed", indexedTSMetas.get());
+		collector.record(STATS_PREFIX + "tsmeta.dropped", droppedTSMetas.get());
+		collector.record(STATS_PREFIX + "tsmeta.deleted", deletedTSMetas.get());
+		collector.record(STATS_PREFIX + "uidmeta.indexed", indexedUIDMetas.get());
+		collector.record(STATS_PREFIX + "queries", queries.get());
+		collector.record(STATS_PREFIX + "queries.failed", failedQueries.get());
+		final WriteBehindBuffer wb = c==null ? null : c.getWriteBehind();
+		collector.record(STATS_PREFIX + "pending", wb==null ? 0 : wb.getPending());
+		collector.record(STATS_PREFIX + "pending.discarded", wb==null ? 0 : wb.getDiscarded());
+		collector.record(STATS_PREFIX + "query.latency_50pct", queryLatency.getPercentileMicros(0.5));
+		collector.record(STATS_PREFIX + "query.latency_99pct", queryLatency.getPercentileMicros(0.99));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Enqueues the TSMeta in the cache's write-behind buffer and returns immediately.</p>
+	 * @see net.opentsdb.search.SearchPlugin#indexTSMeta(net.opentsdb.meta.TSMeta)
+	 */
+	@Override
+	public Deferred<Object> indexTSMeta(final TSMeta meta) {
+		final CachedTSMeta cached = toCachedTSMeta(meta);
+		if(cached==null) {
+			droppedTSMetas.increment();
+		} else {
+			cache().putCachedTSMeta(cached);
+			indexedTSMetas.increment();
+		}
+		return Deferred.fromResult(null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The delete runs on the cache's scheduler once any buffered put of the same TSMeta has been committed.</p>
+	 * @see net.opentsdb.search.SearchPlugin#deleteTSMeta(java.lang.String)
+	 */
+	@Override
+	public Deferred<Object> deleteTSMeta(final String tsuid) {
+		if(tsuid==null || tsuid.isEmpty()) return Deferred.fromResult(null);
+		final CacheImpl c = cache();
+		final Deferred<Object> def = new Deferred<Object>();
+		c.scheduler().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					c.flush();
+					deletedTSMetas.add(c.evictTSMetas(Collections.singleton(tsuid.toUpperCase())));
+					def.callback(null);
+				} catch (Exception ex) {
+					log.error("Failed to delete TSMeta [{}]", tsuid, ex);
+					def.callback(ex);
+				}
+			}
+		});
+		return def;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Enqueues the UIDMeta in the cache's write-behind buffer and returns immediately.</p>
+	 * @see net.opentsdb.search.SearchPlugin#indexUIDMeta(net.opentsdb.meta.UIDMeta)
+	 */
+	@Override
+	public Deferred<Object> indexUIDMeta(final UIDMeta meta) {
+		if(meta!=null && meta.getUID()!=null && meta.getName()!=null && meta.getType()!=null) {
+			cache().putCachedUIDMeta(meta.getType(), toCachedUIDMeta(meta));
+			indexedUIDMetas.increment();
+		}
+		return Deferred.fromResult(null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>No op. Deleting a UIDMeta only removes its meta data, the UID to name mapping the cache holds remains valid.</p>
+	 * @see net.opentsdb.search.SearchPlugin#deleteUIDMeta(net.opentsdb.meta.UIDMeta)
+	 */
+	@Override
+	public Deferred<Object> deleteUIDMeta(final UIDMeta meta) {
+		return Deferred.fromResult(null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>No op. Annotations are not cached.</p>
+	 * @see net.opentsdb.search.SearchPlugin#indexAnnotation(net.opentsdb.meta.Annotation)
+	 */
+	@Override
+	public Deferred<Object> indexAnnotation(final Annotation note) {
+		return Deferred.fromResult(null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>No op. Annotations are not cached.</p>
+	 * @see net.opentsdb.search.SearchPlugin#deleteAnnotation(net.opentsdb.meta.Annotation)
+	 */
+	@Override
+	public Deferred<Object> deleteAnnotation(final Annotation note) {
+		return Deferred.fromResult(null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see net.opentsdb.search.SearchPlugin#executeQuery(net.opentsdb.search.SearchQuery)
+	 */
+	@Override
+	public Deferred<SearchQuery> executeQuery(final SearchQuery query) {
+		final long start = System.nanoTime();
+		queries.increment();
+		try {
+			switch(query.getType()) {
+			case TSMETA:
+			case TSMETA_SUMMARY:
+			case TSUIDS:
+				final ParsedQuery pq = parse(query.getQuery());
+				searchSeries(query, pq.metric, pq.tags);
+				break;
+			case LOOKUP:
+				searchSeries(query, query.getMetric(), tags(query.getTags()));
+				break;
+			case UIDMETA:
+				searchUIDs(query);
+				break;
+			default:
+				query.setResults(new ArrayList<Object>(0));
+				query.setTotalResults(0);
+			}
+		} catch (Exception ex) {
+			failedQueries.increment();
+			return Deferred.fromError(ex);
+		} finally {
+			final long elapsed = System.nanoTime() - start;
+			queryLatency.record(elapsed);
+			query.setTime(elapsed / 1000000f);
+		}
+		return Deferred.fromResult(query);
+	}
+	
+	/**
+	 * Answers a series query from the cache's series index
+	 * @param query The query to set the results on
+	 * @param metric The metric name, or null for any metric
+	 * @param tags The tags to match, or null for no tag filter
+	 */
+	void searchSeries(final SearchQuery query, final String metric, final Map<String, String> tags) {
+		final CacheImpl c = cache();
+		final PostingList matches = c.seriesIndex.find(metric, tags);
+		final int limit = Math.max(0, query.getLimit());
+		final List<Object> results = new ArrayList<Object>(Math.min(limit, 128));
+		int skip = Math.max(0, query.getStartIndex());
+		for(int ordinal = matches.nextSetBit(0); ordinal >= 0 && results.size() < limit; ordinal = matches.nextSetBit(ordinal+1)) {
+			if(skip > 0) {
+				skip--;
+				continue;
+			}
+			final String tsuid = c.seriesIndex.tsuid(ordinal);
+			if(tsuid==null) continue;
+			if(query.getType()==SearchQuery.SearchType.TSUIDS) {
+				results.add(tsuid);
+				continue;
+			}
+			final CachedTSMeta meta = c.getCachedTSMeta(tsuid);
+			if(meta==null) continue;
+			results.add(query.getType()==SearchQuery.SearchType.TSMETA ? tsMetaResult(meta) : summaryResult(meta));
+		}
+		query.setResults(results);
+		query.setTotalResults(matches.cardinality());
+	}
+	
+	/**
+	 * Answers a UIDMeta query from the cache's UID name maps
+	 * @param query The query to set the results on
+	 */
+	void searchUIDs(final SearchQuery query) {
+		final CacheImpl c = cache();
+		String prefix = query.getQuery()==null ? "" : query.getQuery().trim();
+		UniqueId.UniqueIdType[] types = UniqueId.UniqueIdType.values();
+		final int colon = prefix.indexOf(':');
+		if(colon!=-1) {
+			types = new UniqueId.UniqueIdType[] {UniqueId.stringToUniqueIdType(prefix.substring(0, colon).trim())};
+			prefix = prefix.substring(colon + 1).trim();
+		}
+		if(prefix.endsWith(SeriesIndex.WILDCARD)) prefix = prefix.substring(0, prefix.length()-1);
+		final int startIndex = Math.max(0, query.getStartIndex());
+		final int want = startIndex + Math.max(0, query.getLimit());
+		final List<Object> matches = new ArrayList<Object>();
+		for(UniqueId.UniqueIdType type: types) {
+			if(matches.size() >= want) break;
+			final List<String> names = c.suggest(type, prefix, want - matches.size());
+			for(CachedUIDMeta meta: c.getUids(type, names).values()) {
+				matches.add(uidResult(meta));
+			}
+		}
+		query.setResults(page(matches, startIndex, query.getLimit()));
+		query.setTotalResults(matches.size());
+	}
+	
+	/**
+	 * Returns the requested page of the passed results
+	 * @param all The full results
+	 * @param startIndex The index of the first result to return
+	 * @param limit The maximum number of results to return
+	 * @return the page
+	 */
+	static <T> List<T> page(final List<T> all, final int startIndex, final int limit) {
+		final int from = Math.min(Math.max(0, startIndex), all.size());
+		final int to = Math.min(all.size(), from + Math.max(0, limit));
+		return new ArrayList<T>(all.subList(from, to));
+	}
+	
+	/**
+	 * Converts the passed TSMeta to a CachedTSMeta
+	 * @param meta The TSMeta to convert
+	 * @return the CachedTSMeta or null if the TSMeta has no resolved metric or tags
+	 */
+	static CachedTSMeta toCachedTSMeta(final TSMeta meta) {
+		if(meta==null || meta.getTSUID()==null || meta.getMetric()==null || meta.getMetric().getName()==null) return null;
+		final List<UIDMeta> uids = meta.getTags();
+		if(uids==null || uids.isEmpty() || uids.size()%2!=0) return null;
+		final TreeMap<String, String> tags = new TreeMap<String, String>();
+		for(int i = 0; i < uids.size(); i+=2) {
+			final UIDMeta k = uids.get(i), v = uids.get(i+1);
+			if(k==null || v==null || k.getName()==null || v.getName()==null) return null;
+			tags.put(k.getName(), v.getName());
+		}
+		return new CachedTSMeta(UniqueId.stringToUid(meta.getTSUID()), meta.getMetric().getName().trim(), tags);
+	}
+	
+	/**
+	 * Converts the passed UIDMeta to a CachedUIDMeta
+	 * @param meta The UIDMeta to convert
+	 * @return the CachedUIDMeta
+	 */
+	static CachedUIDMeta toCachedUIDMeta(final UIDMeta meta) {
+		return new CachedUIDMeta(meta.getName(), UniqueId.stringToUid(meta.getUID()), meta.getType());
+	}
+	
+	/**
+	 * Returns the TSMETA result for the passed TSMeta, in the shape of OpenTSDB's TSMeta JSON
+	 * @param meta The TSMeta
+	 * @return the result map
+	 */
+	static Map<String, Object> tsMetaResult(final CachedTSMeta meta) {
+		final Map<String, Object> result = new LinkedHashMap<String, Object>(4);
+		final List<Object> tags = new ArrayList<Object>(meta.getTags().size() * 2);
+		Map<String, Object> metric = null;
+		for(CachedUIDMeta uid: meta.getUIDMetas()) {
+			if(metric==null) {
+				metric = uidResult(uid);
+			} else {
+				tags.add(uidResult(uid));
+			}
+		}
+		result.put("tsuid", meta.getTsuidHex());
+		result.put("metric", metric);
+		result.put("tags", tags);
+		return result;
+	}
+	
+	/**
+	 * Returns the TSMETA_SUMMARY result for the passed TSMeta
+	 * @param meta The TSMeta
+	 * @return the result map
+	 */
+	static Map<String, Object> summaryResult(final CachedTSMeta meta) {
+		final Map<String, Object> result = new LinkedHashMap<String, Object>(4);
+		result.put("tsuid", meta.getTsuidHex());
+		result.put("metric", meta.getMetric());
+		result.put("tags", meta.getTags());
+		return result;
+	}
+	
+	/**
+	 * Returns the UIDMETA result for the passed UIDMeta, in the shape of OpenTSDB's UIDMeta JSON
+	 * @param meta The UIDMeta
+	 * @return the result map
+	 */
+	static Map<String, Object> uidResult(final CachedUIDMeta meta) {
+		final Map<String, Object> result = new LinkedHashMap<String, Object>(4);
+		result.put("uid", meta.getUidHex());
+		result.put("type", meta.getType().name());
+		result.put("name", meta.getName());
+		return result;
+	}
+	
+	/**
+	 * Converts the passed query tag pairs to a tag map. Null or empty values are treated as wildcards.
+	 * @param pairs The tag pairs
+	 * @return the tag map or null if there are no pairs
+	 */
+	static Map<String, String> tags(final List<Pair<String, String>> pairs) {
+		if(pairs==null || pairs.isEmpty()) return null;
+		final Map<String, String> tags = new LinkedHashMap<String, String>(pairs.size());
+		for(Pair<String, String> pair: pairs) {
+			if(pair.getKey()==null) continue;
+			final String v = pair.getValue();
+			tags.put(pair.getKey(), v==null || v.isEmpty() ? SeriesIndex.WILDCARD : v);
+		}
+		return tags;
+	}
+	
+	/**
+	 * Parses a series query in the form <b><code>metric{k1=v1,k2=*}</code></b>
+	 * @param q The query
+	 * @return the parsed query
+	 */
+	static ParsedQuery parse(final String q) {
+		final String s = q==null ? "" : q.trim();
+		final int brace = s.indexOf('{');
+		String metric = (brace==-1 ? s : s.substring(0, brace)).trim();
+		if(metric.isEmpty() || SeriesIndex.WILDCARD.equals(metric)) metric = null;
+		Map<String, String> tags = null;
+		if(brace!=-1) {
+			if(!s.endsWith("}")) throw new IllegalArgumentException("Unterminated tags in query [" + q + "]");
+			tags = new LinkedHashMap<String, String>();
+			for(String pair: s.substring(brace + 1, s.length()-1).split(",")) {
+				if(pair.trim().isEmpty()) continue;
+				final int eq = pair.indexOf('=');
+				if(eq < 1) throw new IllegalArgumentException("Invalid tag [" + pair + "] in query [" + q + "]");
+				tags.put(pair.substring(0, eq).trim(), pair.substring(eq + 1).trim());
+			}
+		}
+		return new ParsedQuery(metric, tags);
+	}
+	
+	/**
+	 * <p>Title: ParsedQuery</p>
+	 * <p>Description: The metric and tags of a parsed series query</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.CacheSearchPlugin.ParsedQuery</code></p>
+	 */
+	static class ParsedQuery {
+		/** The metric name, or null for any metric */
+		final String metric;
+		/** The tags to match, or null for no tag filter */
+		final Map<String, String> tags;
+		
+		/**
+		 * Creates a new ParsedQuery
+		 * @param metric The metric name, or null for any metric
+		 * @param tags The tags to match, or null for no tag filter
+		 */
+		ParsedQuery(final String metric, final Map<String, String> tags) {
+			this.metric = metric;
+			this.tags = tags;
+		}
+	}
+	
+	/**
+	 * Returns the cache
+	 * @return the cache
+	 */
+	private CacheImpl cache() {
+		final CacheImpl c = cache;
+		if(c==null) throw new IllegalStateException("The search plugin is not initialized");
+		return c;
+	}
+}
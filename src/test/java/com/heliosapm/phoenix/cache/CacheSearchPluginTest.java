@@ -0,0 +1,108 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <p>Title: CacheSearchPluginTest</p>
+ * <p>Description: Tests that {@link CacheSearchPlugin} only releases the cache resources it acquired</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.CacheSearchPluginTest</code></p>
+ */
+
+public class CacheSearchPluginTest {
+	/** The temporary folder holding the cache file */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	/** The shared cache */
+	CacheImpl cache = null;
+
+	@BeforeClass
+	public static void generateCatalog() {
+		System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("CacheSearchPluginTest", 10));
+	}
+
+	@Before
+	public void setUp() {
+		cache = CacheImpl.getInstance(new File(folder.getRoot(), "tsmeta.db").getAbsolutePath(), false);
+	}
+
+	@After
+	public void tearDown() {
+		cache.close();
+	}
+
+	/**
+	 * Creates a TSMeta
+	 * @param id The series id, making up the last bytes of the tsuid
+	 * @return the TSMeta
+	 */
+	static CachedTSMeta meta(final int id) {
+		final Map<String, String> tags = new TreeMap<String, String>();
+		tags.put("host", "sp" + id);
+		return new CachedTSMeta("sys.sp", tags, new byte[]{1, 1, 1, 0, 0, 1, (byte)(id >>> 16), (byte)(id >>> 8), (byte)id});
+	}
+
+	@Test
+	public void testSharedWriteBehindIsKept() {
+		// another plugin, e.g. the publisher, enabled write-behind first
+		cache.enableWriteBehind(16, 10, TimeUnit.MILLISECONDS);
+		final WriteBehindBuffer shared = cache.getWriteBehind();
+		final CacheSearchPlugin plugin = new CacheSearchPlugin();
+		plugin.initialize(cache, 1024, 100);
+		assertSame(shared, cache.getWriteBehind());
+		cache.putCachedTSMeta(meta(1));
+		plugin.shutdown();
+		assertSame(shared, cache.getWriteBehind());
+		assertEquals(0, shared.getPending());
+		// the shared cache is still open
+		cache.putCachedTSMeta(meta(2));
+		cache.flush();
+		assertNotNull(cache.getCachedTSMeta(meta(2).getTsuidHex()));
+	}
+
+	@Test
+	public void testOwnWriteBehindIsDisabled() {
+		final CacheSearchPlugin plugin = new CacheSearchPlugin();
+		plugin.initialize(cache, 1024, 100);
+		assertNotNull(cache.getWriteBehind());
+		cache.putCachedTSMeta(meta(1));
+		plugin.shutdown();
+		assertNull(cache.getWriteBehind());
+		assertNotNull(cache.getCachedTSMeta(meta(1).getTsuidHex()));
+		assertSame(cache, CacheImpl.getInstance(new File(folder.getRoot(), "tsmeta.db").getAbsolutePath(), false));
+	}
+}
@@ -0,0 +1,716 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.h2.api.TableEngine;
+import org.h2.command.ddl.CreateTableData;
+import org.h2.engine.Session;
+import org.h2.index.BaseIndex;
+import org.h2.index.Cursor;
+import org.h2.index.IndexCondition;
+import org.h2.index.IndexType;
+import org.h2.index.Index;
+import org.h2.message.DbException;
+import org.h2.result.Row;
+import org.h2.result.SearchRow;
+import org.h2.result.SortOrder;
+import org.h2.table.Column;
+import org.h2.table.IndexColumn;
+import org.h2.table.Table;
+import org.h2.table.TableBase;
+import org.h2.table.TableFilter;
+import org.h2.value.Value;
+import org.h2.value.ValueNull;
+import org.h2.value.ValueString;
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.TxRollbackException;
+
+/**
+ * <p>Title: CacheTableEngine</p>
+ * <p>Description: An H2 table engine exposing the {@link CacheImpl} maps as read-only H2 tables, so meta data SQL runs
+ * in-process against the cache instead of through linked tables. The table engine parameters are the map name and the cache file:
+ * <pre>CREATE TABLE CACHE_TAGV (XUID VARCHAR, NAME VARCHAR) ENGINE "com.heliosapm.phoenix.cache.CacheTableEngine" WITH "tagv", "/var/cache/tsdbmeta.db"</pre>
+ * UID tables (<b><code>tagk</code></b>, <b><code>tagv</code></b>, <b><code>metric</code></b>) have the columns
+ * <b><code>XUID</code></b> and <b><code>NAME</code></b>, indexed for equality on the UID and for equality, ranges and
+ * <b><code>LIKE 'prefix%'</code></b> on the name. The <b><code>tsmeta</code></b> table has the columns <b><code>TSUID</code></b>,
+ * <b><code>METRIC_UID</code></b>, <b><code>METRIC</code></b> and <b><code>FQN</code></b>, indexed for equality on the tsuid,
+ * and on the metric UID or name, which is a range scan of the sorted tsmeta map. A table may declare any subset of its columns.</p>
+ * <p>Scans read the maps a page at a time, each page from its own snapshot, and do not see buffered writes not yet applied.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.CacheTableEngine</code></p>
+ */
+
+public class CacheTableEngine implements TableEngine {
+	/** The number of rows read per snapshot by scans */
+	public static final int PAGE_SIZE = 1024;
+	/** The prefix of the table names created by {@link #createTables(Connection, String, String)} */
+	public static final String DEFAULT_TABLE_PREFIX = "CACHE_";
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.h2.api.TableEngine#createTable(org.h2.command.ddl.CreateTableData)
+	 */
+	@Override
+	public Table createTable(final CreateTableData data) {
+		final List<String> params = data.tableEngineParams;
+		if(params==null || params.size() < 2) throw DbException.getInvalidValueException("table engine parameters (map name, cache file)", params);
+		final String mapName = params.get(0);
+		final CacheImpl cache = CacheImpl.getInstance(params.get(1), false);
+		if(CacheImpl.TSMETA_NAME.equals(mapName)) return new TSMetaTable(data, cache);
+		for(Map.Entry<UniqueId.UniqueIdType, String> entry: cache.uidMapNames.entrySet()) {
+			if(entry.getValue().equals(mapName)) return new UIDTable(data, cache, entry.getKey());
+		}
+		throw DbException.getInvalidValueException("cache map name", mapName);
+	}
+
+	/**
+	 * Creates the cache tables for each cache map in the passed H2 database if they do not exist
+	 * @param conn The H2 connection
+	 * @param cacheFile The cache file
+	 * @param prefix The table name prefix, or null for {@link #DEFAULT_TABLE_PREFIX}
+	 * @throws SQLException thrown on any SQL error
+	 */
+	public static void createTables(final Connection conn, final String cacheFile, final String prefix) throws SQLException {
+		final String p = prefix==null ? DEFAULT_TABLE_PREFIX : prefix;
+		final String engine = " ENGINE \"" + CacheTableEngine.class.getName() + "\" WITH \"";
+		final String file = "\", \"" + cacheFile + "\"";
+		final Statement st = conn.createStatement();
+		try {
+			for(String mapName: new String[]{CacheImpl.TAGK_NAME, CacheImpl.TAGV_NAME, CacheImpl.METRIC_NAME}) {
+				st.execute("CREATE TABLE IF NOT EXISTS " + p + mapName.toUpperCase() + " (XUID VARCHAR, NAME VARCHAR)" + engine + mapName + file);
+			}
+			st.execute("CREATE TABLE IF NOT EXISTS " + p + CacheImpl.TSMETA_NAME.toUpperCase() + " (TSUID VARCHAR, METRIC_UID VARCHAR, METRIC VARCHAR, FQN VARCHAR)" + engine + CacheImpl.TSMETA_NAME + file);
+		} finally {
+			try { st.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Returns the string value of the passed column of a search row
+	 * @param row The search row, possibly null
+	 * @param columnId The column id, or -1 if the table does not have the column
+	 * @return the string or null if the row, column or value is null
+	 */
+	static String string(final SearchRow row, final int columnId) {
+		if(row==null || columnId < 0) return null;
+		final Value v = row.getValue(columnId);
+		return v==null || v==ValueNull.INSTANCE ? null : v.getString();
+	}
+
+	/**
+	 * Determines if the passed index condition masks have the passed condition on the passed column
+	 * @param masks The masks indexed by column id, possibly null
+	 * @param columnId The column id, or -1 if the table does not have the column
+	 * @param condition The condition
+	 * @return true if the condition is present
+	 */
+	static boolean has(final int[] masks, final int columnId, final int condition) {
+		return masks!=null && columnId >= 0 && (masks[columnId] & condition)!=0;
+	}
+
+	/**
+	 * <p>Title: CacheTable</p>
+	 * <p>Description: The base read-only table over a cache map</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.CacheTableEngine.CacheTable</code></p>
+	 */
+	abstract static class CacheTable extends TableBase {
+		/** The cache */
+		final CacheImpl cache;
+		/** The cache map name */
+		final String mapName;
+		/** The indexes, the scan index first and the unique index second */
+		final ArrayList<Index> indexes = new ArrayList<Index>();
+
+		/**
+		 * Creates a new CacheTable
+		 * @param data The table definition
+		 * @param cache The cache
+		 * @param mapName The cache map name
+		 * @param columnNames The supported column names
+		 */
+		CacheTable(final CreateTableData data, final CacheImpl cache, final String mapName, final String... columnNames) {
+			super(data);
+			this.cache = cache;
+			this.mapName = mapName;
+			for(Column column: getColumns()) {
+				boolean known = false;
+				for(String name: columnNames) {
+					if(name.equals(column.getName())) known = true;
+				}
+				if(!known) throw DbException.getInvalidValueException("column of cache map [" + mapName + "]", column.getName());
+			}
+		}
+
+		/**
+		 * Returns the id of the named column
+		 * @param name The column name
+		 * @return the column id or -1 if the table does not have the column
+		 */
+		int columnId(final String name) {
+			for(Column column: getColumns()) {
+				if(name.equals(column.getName())) return column.getColumnId();
+			}
+			return -1;
+		}
+
+		/**
+		 * Returns the columns with the passed ids, skipping absent ones
+		 * @param columnIds The column ids
+		 * @return the columns
+		 */
+		Column[] columns(final int... columnIds) {
+			final List<Column> cols = new ArrayList<Column>(columnIds.length);
+			for(int id: columnIds) {
+				if(id >= 0) cols.add(getColumn(id));
+			}
+			return cols.toArray(new Column[cols.size()]);
+		}
+
+		/**
+		 * Creates a row, setting the passed values in the passed columns
+		 * @param key The row key
+		 * @param columnIds The column ids, where -1 skips the value
+		 * @param values The values
+		 * @return the row
+		 */
+		Row row(final long key, final int[] columnIds, final String... values) {
+			final Column[] cols = getColumns();
+			final Value[] vals = new Value[cols.length];
+			for(int i = 0; i < vals.length; i++) {
+				vals[i] = ValueNull.INSTANCE;
+			}
+			for(int i = 0; i < columnIds.length; i++) {
+				if(columnIds[i] >= 0 && values[i]!=null) vals[columnIds[i]] = cols[columnIds[i]].convert(ValueString.get(values[i]));
+			}
+			final Row row = new Row(vals, Row.MEMORY_CALCULATE);
+			row.setKey(key);
+			return row;
+		}
+
+		/**
+		 * Returns the cost of a full scan
+		 * @return the scan cost
+		 */
+		double scanCost() {
+			return 10 + getRowCountApproximation();
+		}
+
+		@Override
+		public boolean lock(final Session session, final boolean exclusive, final boolean forceLockEvenInMvcc) {
+			return false;
+		}
+
+		@Override
+		public void close(final Session session) {
+			/* The cache outlives its tables */
+		}
+
+		@Override
+		public void unlock(final Session s) {
+			/* No Op */
+		}
+
+		@Override
+		public Index addIndex(final Session session, final String indexName, final int indexId, final IndexColumn[] cols, final IndexType indexType, final boolean create, final String indexComment) {
+			throw DbException.getUnsupportedException("Indexes on cache table " + getName());
+		}
+
+		@Override
+		public void removeRow(final Session session, final Row row) {
+			throw DbException.getUnsupportedException("Modifying cache table " + getName());
+		}
+
+		@Override
+		public void truncate(final Session session) {
+			throw DbException.getUnsupportedException("Modifying cache table " + getName());
+		}
+
+		@Override
+		public void addRow(final Session session, final Row row) {
+			throw DbException.getUnsupportedException("Modifying cache table " + getName());
+		}
+
+		@Override
+		public void checkSupportAlter() {
+			throw DbException.getUnsupportedException("Altering cache table " + getName());
+		}
+
+		@Override
+		public String getTableType() {
+			return EXTERNAL_TABLE_ENGINE;
+		}
+
+		@Override
+		public Index getScanIndex(final Session session) {
+			return indexes.get(0);
+		}
+
+		@Override
+		public Index getUniqueIndex() {
+			return indexes.get(1);
+		}
+
+		@Override
+		public ArrayList<Index> getIndexes() {
+			return indexes;
+		}
+
+		@Override
+		public boolean isLockedExclusively() {
+			return false;
+		}
+
+		/**
+		 * The cache is modified outside of H2, so results are never reused
+		 * {@inheritDoc}
+		 * @see org.h2.table.Table#getMaxDataModificationId()
+		 */
+		@Override
+		public long getMaxDataModificationId() {
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public boolean isDeterministic() {
+			return false;
+		}
+
+		@Override
+		public boolean canGetRowCount() {
+			return true;
+		}
+
+		@Override
+		public boolean canDrop() {
+			return true;
+		}
+
+		@Override
+		public long getRowCount(final Session session) {
+			return cache.mapSize(mapName);
+		}
+
+		@Override
+		public long getRowCountApproximation() {
+			return cache.mapSize(mapName);
+		}
+
+		@Override
+		public long getDiskSpaceUsed() {
+			return 0;
+		}
+
+		@Override
+		public void checkRename() {
+			/* Renaming only changes the H2 name */
+		}
+	}
+
+	/**
+	 * <p>Title: UIDTable</p>
+	 * <p>Description: A table over the UIDs of one type, read from the type's sorted name map</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.CacheTableEngine.UIDTable</code></p>
+	 */
+	static class UIDTable extends CacheTable {
+		/** The UID type */
+		final UniqueId.UniqueIdType type;
+		/** The ids of the XUID and NAME columns, -1 for an undeclared column */
+		final int[] valueColumnIds;
+
+		/**
+		 * Creates a new UIDTable
+		 * @param data The table definition
+		 * @param cache The cache
+		 * @param type The UID type
+		 */
+		UIDTable(final CreateTableData data, final CacheImpl cache, final UniqueId.UniqueIdType type) {
+			super(data, cache, cache.uidMapNames.get(type), "XUID", "NAME");
+			this.type = type;
+			valueColumnIds = new int[]{columnId("XUID"), columnId("NAME")};
+			final int xuid = valueColumnIds[0];
+			final int name = valueColumnIds[1];
+			indexes.add(new CacheIndex(this, getName() + "_SCAN", getColumns(), IndexType.createScan(false)) {
+				@Override
+				double cost(final int[] masks) {
+					return scanCost();
+				}
+				@Override
+				public Cursor find(final Session session, final SearchRow first, final SearchRow last) {
+					return names(null, null);
+				}
+			});
+			indexes.add(new CacheIndex(this, getName() + "_XUID", columns(xuid), IndexType.createUnique(false, false)) {
+				@Override
+				double cost(final int[] masks) {
+					return has(masks, xuid, IndexCondition.EQUALITY) ? 2 : Double.MAX_VALUE;
+				}
+				@Override
+				public Cursor find(final Session session, final SearchRow first, final SearchRow last) {
+					final String uidHex = string(first, xuid);
+					return new PagedCursor() {
+						@Override
+						boolean fetch(final List<Row> page) {
+							final CachedUIDMeta meta = uidHex==null ? null : UIDTable.this.cache.getCachedUIDMeta(UIDTable.this.type, uidHex);
+							if(meta!=null) page.add(row(0, valueColumnIds, meta.getUidHex(), meta.getName()));
+							return false;
+						}
+					};
+				}
+			});
+			indexes.add(new CacheIndex(this, getName() + "_NAME", columns(name), IndexType.createNonUnique(false)) {
+				@Override
+				double cost(final int[] masks) {
+					if(has(masks, name, IndexCondition.EQUALITY)) return 3;
+					if(has(masks, name, IndexCondition.RANGE)) return 3 + getRowCountApproximation() / 4;
+					return Double.MAX_VALUE;
+				}
+				@Override
+				public Cursor find(final Session session, final SearchRow first, final SearchRow last) {
+					return names(string(first, name), string(last, name));
+				}
+			});
+		}
+
+		/**
+		 * Returns a cursor over the UIDs with names in the passed range, in name order
+		 * @param from The inclusive lower bound, or null for none
+		 * @param to The inclusive upper bound, or null for none
+		 * @return the cursor
+		 */
+		Cursor names(final String from, final String to) {
+			return new PagedCursor() {
+				/** The last name read */
+				String lastName = null;
+				@Override
+				boolean fetch(final List<Row> page) {
+					return cache.executeRead(new CacheImpl.TxCallable<Boolean>() {
+						@Override
+						public Boolean tx(final DB db) throws TxRollbackException {
+							NavigableMap<String, String> range = cache.uidNameMap(db, type);
+							if(lastName!=null) range = range.tailMap(lastName, false);
+							else if(from!=null) range = range.tailMap(from, true);
+							if(to!=null) range = range.headMap(to, true);
+							for(Map.Entry<String, String> entry: range.entrySet()) {
+								page.add(row(key++, valueColumnIds, entry.getValue(), entry.getKey()));
+								lastName = entry.getKey();
+								if(page.size()==PAGE_SIZE) return true;
+							}
+							return false;
+						}
+					});
+				}
+			};
+		}
+	}
+
+	/**
+	 * <p>Title: TSMetaTable</p>
+	 * <p>Description: A table over the TSMetas, read from the sorted tsmeta map</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.CacheTableEngine.TSMetaTable</code></p>
+	 */
+	static class TSMetaTable extends CacheTable {
+		/** The ids of the TSUID, METRIC_UID, METRIC and FQN columns, -1 for an undeclared column */
+		final int[] valueColumnIds;
+
+		/**
+		 * Creates a new TSMetaTable
+		 * @param data The table definition
+		 * @param cache The cache
+		 */
+		TSMetaTable(final CreateTableData data, final CacheImpl cache) {
+			super(data, cache, CacheImpl.TSMETA_NAME, "TSUID", "METRIC_UID", "METRIC", "FQN");
+			valueColumnIds = new int[]{columnId("TSUID"), columnId("METRIC_UID"), columnId("METRIC"), columnId("FQN")};
+			final int tsuid = valueColumnIds[0];
+			final int metricUid = valueColumnIds[1];
+			final int metric = valueColumnIds[2];
+			indexes.add(new CacheIndex(this, getName() + "_SCAN", getColumns(), IndexType.createScan(false)) {
+				@Override
+				double cost(final int[] masks) {
+					return scanCost();
+				}
+				@Override
+				public Cursor find(final Session session, final SearchRow first, final SearchRow last) {
+					return prefix(new byte[0]);
+				}
+			});
+			indexes.add(new CacheIndex(this, getName() + "_TSUID", columns(tsuid), IndexType.createUnique(false, false)) {
+				@Override
+				double cost(final int[] masks) {
+					return has(masks, tsuid, IndexCondition.EQUALITY) ? 2 : Double.MAX_VALUE;
+				}
+				@Override
+				public Cursor find(final Session session, final SearchRow first, final SearchRow last) {
+					final String tsuidHex = string(first, tsuid);
+					return new PagedCursor() {
+						@Override
+						boolean fetch(final List<Row> page) {
+							final CachedTSMeta meta = tsuidHex==null ? null : TSMetaTable.this.cache.getCachedTSMeta(tsuidHex);
+							if(meta!=null) page.add(row(0, meta));
+							return false;
+						}
+					};
+				}
+			});
+			indexes.add(new CacheIndex(this, getName() + "_METRIC_UID", columns(metricUid), IndexType.createNonUnique(false)) {
+				@Override
+				double cost(final int[] masks) {
+					return has(masks, metricUid, IndexCondition.EQUALITY) ? metricCost() : Double.MAX_VALUE;
+				}
+				@Override
+				public Cursor find(final Session session, final SearchRow first, final SearchRow last) {
+					final String uidHex = string(first, metricUid);
+					return uidHex==null ? prefix(null) : prefix(UniqueId.stringToUid(uidHex));
+				}
+			});
+			indexes.add(new CacheIndex(this, getName() + "_METRIC", columns(metric), IndexType.createNonUnique(false)) {
+				@Override
+				double cost(final int[] masks) {
+					return has(masks, metric, IndexCondition.EQUALITY) ? metricCost() + 1 : Double.MAX_VALUE;
+				}
+				@Override
+				public Cursor find(final Session session, final SearchRow first, final SearchRow last) {
+					final String name = string(first, metric);
+					final CachedUIDMeta meta = name==null ? null : TSMetaTable.this.cache.getUid(UniqueId.UniqueIdType.METRIC, name);
+					return prefix(meta==null ? null : meta.getUid());
+				}
+			});
+		}
+
+		/**
+		 * Returns the estimated cost of reading the series of one metric
+		 * @return the cost
+		 */
+		double metricCost() {
+			return 3 + getRowCountApproximation() / Math.max(1, cache.mapSize(CacheImpl.METRIC_NAME));
+		}
+
+		/**
+		 * Creates a row for the passed TSMeta
+		 * @param key The row key
+		 * @param meta The TSMeta
+		 * @return the row
+		 */
+		Row row(final long key, final CachedTSMeta meta) {
+			final String tsuidHex = meta.getTsuidHex();
+			final StringBuilder fqn = new StringBuilder(meta.getMetric()).append(':');
+			for(Map.Entry<String, String> entry: meta.getTags().entrySet()) {
+				fqn.append(entry.getKey()).append('=').append(entry.getValue()).append(',');
+			}
+			fqn.setLength(fqn.length()-1);
+			return row(key, valueColumnIds, tsuidHex, tsuidHex.substring(0, CachedTSMeta.TS_UID_SIZE * 2), meta.getMetric(), fqn.toString());
+		}
+
+		/**
+		 * Returns a cursor over the TSMetas whose tsuid starts with the passed prefix, in tsuid order
+		 * @param prefix The tsuid prefix, empty for all TSMetas, or null for none
+		 * @return the cursor
+		 */
+		Cursor prefix(final byte[] prefix) {
+			return new PagedCursor() {
+				/** The last tsuid read */
+				byte[] lastKey = null;
+				@Override
+				boolean fetch(final List<Row> page) {
+					if(prefix==null) return false;
+					return cache.executeRead(new CacheImpl.TxCallable<Boolean>() {
+						@Override
+						public Boolean tx(final DB db) throws TxRollbackException {
+							final BTreeMap<byte[], CachedTSMeta> map = CacheImpl.tsMetaMap(db);
+							final NavigableMap<byte[], CachedTSMeta> range = lastKey==null ? map.tailMap(prefix, true) : map.tailMap(lastKey, false);
+							for(Map.Entry<byte[], CachedTSMeta> entry: range.entrySet()) {
+								if(!CacheImpl.startsWith(entry.getKey(), prefix)) return false;
+								page.add(row(key++, entry.getValue()));
+								lastKey = entry.getKey();
+								if(page.size()==PAGE_SIZE) return true;
+							}
+							return false;
+						}
+					});
+				}
+			};
+		}
+	}
+
+	/**
+	 * <p>Title: CacheIndex</p>
+	 * <p>Description: The base read-only index over a cache table</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.CacheTableEngine.CacheIndex</code></p>
+	 */
+	abstract static class CacheIndex extends BaseIndex {
+		/**
+		 * Creates a new CacheIndex
+		 * @param table The table
+		 * @param name The index name
+		 * @param columns The indexed columns
+		 * @param indexType The index type
+		 */
+		CacheIndex(final CacheTable table, final String name, final Column[] columns, final IndexType indexType) {
+			initBaseIndex(table, 0, name, IndexColumn.wrap(columns), indexType);
+		}
+
+		/**
+		 * Returns the cost of a lookup with the passed conditions
+		 * @param masks The index conditions by column id, possibly null
+		 * @return the cost, or {@link Double#MAX_VALUE} if the index cannot serve the conditions
+		 */
+		abstract double cost(int[] masks);
+
+		@Override
+		public double getCost(final Session session, final int[] masks, final TableFilter filter, final SortOrder sortOrder) {
+			return cost(masks);
+		}
+
+		@Override
+		public void close(final Session session) {
+			/* No Op */
+		}
+
+		@Override
+		public void add(final Session session, final Row row) {
+			throw DbException.getUnsupportedException("Modifying cache table " + table.getName());
+		}
+
+		@Override
+		public void remove(final Session session, final Row row) {
+			throw DbException.getUnsupportedException("Modifying cache table " + table.getName());
+		}
+
+		@Override
+		public void remove(final Session session) {
+			/* No Op */
+		}
+
+		@Override
+		public void truncate(final Session session) {
+			throw DbException.getUnsupportedException("Modifying cache table " + table.getName());
+		}
+
+		@Override
+		public boolean canGetFirstOrLast() {
+			return false;
+		}
+
+		@Override
+		public Cursor findFirstOrLast(final Session session, final boolean first) {
+			throw DbException.getUnsupportedException("First or last of cache table " + table.getName());
+		}
+
+		@Override
+		public boolean needRebuild() {
+			return false;
+		}
+
+		@Override
+		public long getRowCount(final Session session) {
+			return table.getRowCount(session);
+		}
+
+		@Override
+		public long getRowCountApproximation() {
+			return table.getRowCountApproximation();
+		}
+
+		@Override
+		public long getDiskSpaceUsed() {
+			return 0;
+		}
+
+		@Override
+		public void checkRename() {
+			throw DbException.getUnsupportedException("Renaming an index of cache table " + table.getName());
+		}
+	}
+
+	/**
+	 * <p>Title: PagedCursor</p>
+	 * <p>Description: A forward only cursor reading its rows a page at a time</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.CacheTableEngine.PagedCursor</code></p>
+	 */
+	abstract static class PagedCursor implements Cursor {
+		/** The current page */
+		final List<Row> page = new ArrayList<Row>();
+		/** The position in the current page */
+		int pos = 0;
+		/** Indicates if no pages follow the current one */
+		boolean exhausted = false;
+		/** The current row */
+		Row current = null;
+		/** The key of the next row */
+		long key = 0;
+
+		/**
+		 * Reads the next page
+		 * @param page The page to add the rows to
+		 * @return true if more pages may follow
+		 */
+		abstract boolean fetch(List<Row> page);
+
+		@Override
+		public boolean next() {
+			if(pos >= page.size()) {
+				page.clear();
+				pos = 0;
+				if(!exhausted) exhausted = !fetch(page);
+				if(page.isEmpty()) {
+					current = null;
+					return false;
+				}
+			}
+			current = page.get(pos++);
+			return true;
+		}
+
+		@Override
+		public Row get() {
+			return current;
+		}
+
+		@Override
+		public SearchRow getSearchRow() {
+			return current;
+		}
+
+		@Override
+		public boolean previous() {
+			throw DbException.throwInternalError();
+		}
+	}
+}
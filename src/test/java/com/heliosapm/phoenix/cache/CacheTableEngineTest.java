@@ -0,0 +1,208 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <p>Title: CacheTableEngineTest</p>
+ * <p>Description: Tests the {@link CacheTableEngine} tables choose the cache index for each kind of condition and return the matching rows</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.CacheTableEngineTest</code></p>
+ */
+
+public class CacheTableEngineTest {
+	/** The temporary folder holding the cache file */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	/** The cache under test */
+	CacheImpl cache = null;
+	/** The H2 connection holding the cache tables */
+	Connection conn = null;
+
+	@BeforeClass
+	public static void generateCatalog() {
+		System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("CacheTableEngineTest", 10));
+	}
+
+	@Before
+	public void setUp() throws SQLException {
+		final String fileName = new File(folder.getRoot(), "tsmeta.db").getAbsolutePath();
+		cache = CacheImpl.getInstance(fileName, false);
+		for(String name: new String[]{"sys.cpu", "sys.disk", "sys.mem", "app.hits"}) {
+			cache.putCachedUIDMeta(UniqueId.UniqueIdType.METRIC, metric(name));
+		}
+		final List<CachedTSMeta> metas = new ArrayList<CachedTSMeta>();
+		for(int id = 1; id <= 3; id++) {
+			metas.add(series("sys.cpu", id));
+			metas.add(series("sys.mem", id));
+		}
+		metas.add(series("app.hits", 1));
+		cache.putCachedTSMetas(metas);
+		conn = DriverManager.getConnection("jdbc:h2:mem:CacheTableEngineTables");
+		CacheTableEngine.createTables(conn, fileName, null);
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		try {
+			if(conn!=null) conn.close();
+		} finally {
+			cache.close();
+		}
+	}
+
+	/**
+	 * Returns the metric uid of the passed test metric name
+	 * @param name The metric name
+	 * @return the uid
+	 */
+	static byte[] metricUid(final String name) {
+		return new byte[]{0x10, 0, (byte)(name.length() + name.charAt(4))};
+	}
+
+	/**
+	 * Creates a metric UIDMeta
+	 * @param name The metric name
+	 * @return the UIDMeta
+	 */
+	static CachedUIDMeta metric(final String name) {
+		return new CachedUIDMeta(name, metricUid(name), UniqueId.UniqueIdType.METRIC);
+	}
+
+	/**
+	 * Creates a TSMeta of the passed metric with one host tag
+	 * @param metric The metric name
+	 * @param id The host id
+	 * @return the TSMeta
+	 */
+	static CachedTSMeta series(final String metric, final int id) {
+		final Map<String, String> tags = new TreeMap<String, String>();
+		tags.put("host", "web0" + id);
+		final byte[] uid = metricUid(metric);
+		return new CachedTSMeta(metric, tags, new byte[]{uid[0], uid[1], uid[2], 0, 0, 1, 0, 0, (byte)id});
+	}
+
+	/**
+	 * Returns the plan H2 chooses for the passed query
+	 * @param sql The query
+	 * @return the plan
+	 * @throws SQLException thrown on any SQL error
+	 */
+	String plan(final String sql) throws SQLException {
+		final List<String> rows = column("EXPLAIN " + sql);
+		return rows.get(0);
+	}
+
+	/**
+	 * Runs the passed query and returns its first column
+	 * @param sql The query
+	 * @return the values of the first column
+	 * @throws SQLException thrown on any SQL error
+	 */
+	List<String> column(final String sql) throws SQLException {
+		final Statement st = conn.createStatement();
+		try {
+			final ResultSet rset = st.executeQuery(sql);
+			final List<String> values = new ArrayList<String>();
+			while(rset.next()) values.add(rset.getString(1));
+			return values;
+		} finally {
+			try { st.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Asserts the plan of the passed query reads the named index
+	 * @param index The index name
+	 * @param sql The query
+	 * @throws SQLException thrown on any SQL error
+	 */
+	void assertIndex(final String index, final String sql) throws SQLException {
+		final String plan = plan(sql);
+		assertTrue("Expected index [" + index + "] in plan [" + plan + "]", plan.contains("." + index + ":") || plan.contains("." + index + " "));
+	}
+
+	@Test
+	public void testUIDIndexes() throws SQLException {
+		final String uidHex = UniqueId.uidToString(metricUid("sys.disk"));
+		assertIndex("CACHE_METRIC_XUID", "SELECT NAME FROM CACHE_METRIC WHERE XUID = '" + uidHex + "'");
+		assertEquals(Arrays.asList("sys.disk"), column("SELECT NAME FROM CACHE_METRIC WHERE XUID = '" + uidHex + "'"));
+		assertIndex("CACHE_METRIC_NAME", "SELECT XUID FROM CACHE_METRIC WHERE NAME = 'sys.mem'");
+		assertEquals(Arrays.asList(UniqueId.uidToString(metricUid("sys.mem"))), column("SELECT XUID FROM CACHE_METRIC WHERE NAME = 'sys.mem'"));
+		assertIndex("CACHE_METRIC_NAME", "SELECT NAME FROM CACHE_METRIC WHERE NAME >= 'sys.d' AND NAME < 'sys.m'");
+		assertEquals(Arrays.asList("sys.disk"), column("SELECT NAME FROM CACHE_METRIC WHERE NAME >= 'sys.d' AND NAME < 'sys.m'"));
+		assertIndex("CACHE_METRIC_NAME", "SELECT NAME FROM CACHE_METRIC WHERE NAME LIKE 'sys.%'");
+		assertEquals(Arrays.asList("sys.cpu", "sys.disk", "sys.mem"), column("SELECT NAME FROM CACHE_METRIC WHERE NAME LIKE 'sys.%'"));
+		// no usable condition is a scan in name order
+		assertIndex("CACHE_METRIC_SCAN", "SELECT NAME FROM CACHE_METRIC WHERE NAME LIKE '%.mem'");
+		assertEquals(Arrays.asList("sys.mem"), column("SELECT NAME FROM CACHE_METRIC WHERE NAME LIKE '%.mem'"));
+		assertEquals(Arrays.asList("4"), column("SELECT COUNT(*) FROM CACHE_METRIC"));
+	}
+
+	@Test
+	public void testTSMetaIndexes() throws SQLException {
+		final CachedTSMeta web2 = series("sys.cpu", 2);
+		final String cpuHex = UniqueId.uidToString(metricUid("sys.cpu"));
+		assertIndex("CACHE_TSMETA_TSUID", "SELECT FQN FROM CACHE_TSMETA WHERE TSUID = '" + web2.getTsuidHex() + "'");
+		assertEquals(Arrays.asList("sys.cpu:host=web02"), column("SELECT FQN FROM CACHE_TSMETA WHERE TSUID = '" + web2.getTsuidHex() + "'"));
+		assertIndex("CACHE_TSMETA_METRIC_UID", "SELECT TSUID FROM CACHE_TSMETA WHERE METRIC_UID = '" + cpuHex + "'");
+		assertEquals(Arrays.asList(series("sys.cpu", 1).getTsuidHex(), web2.getTsuidHex(), series("sys.cpu", 3).getTsuidHex()),
+			column("SELECT TSUID FROM CACHE_TSMETA WHERE METRIC_UID = '" + cpuHex + "'"));
+		assertIndex("CACHE_TSMETA_METRIC", "SELECT FQN FROM CACHE_TSMETA WHERE METRIC = 'app.hits'");
+		assertEquals(Arrays.asList("app.hits:host=web01"), column("SELECT FQN FROM CACHE_TSMETA WHERE METRIC = 'app.hits'"));
+		// a metric without series, and an unknown metric, read nothing
+		assertTrue(column("SELECT FQN FROM CACHE_TSMETA WHERE METRIC = 'sys.disk'").isEmpty());
+		assertTrue(column("SELECT FQN FROM CACHE_TSMETA WHERE METRIC = 'sys.none'").isEmpty());
+		assertIndex("CACHE_TSMETA_SCAN", "SELECT FQN FROM CACHE_TSMETA WHERE FQN LIKE '%web03'");
+		assertEquals(Arrays.asList("sys.cpu:host=web03", "sys.mem:host=web03"), column("SELECT FQN FROM CACHE_TSMETA WHERE FQN LIKE '%web03' ORDER BY FQN"));
+	}
+
+	@Test
+	public void testJoinDrivesMetricIndex() throws SQLException {
+		final String sql = "SELECT T.FQN FROM CACHE_METRIC M JOIN CACHE_TSMETA T ON T.METRIC_UID = M.XUID WHERE M.NAME LIKE 'sys.m%'";
+		final String plan = plan(sql);
+		assertTrue(plan, plan.contains("CACHE_METRIC_NAME"));
+		assertTrue(plan, plan.contains("CACHE_TSMETA_METRIC_UID"));
+		assertEquals(Arrays.asList("sys.mem:host=web01", "sys.mem:host=web02", "sys.mem:host=web03"), column(sql));
+	}
+}
@@ -0,0 +1,189 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mapdb.DB;
+import org.mapdb.TxRollbackException;
+
+/**
+ * <p>Title: CacheTxTest</p>
+ * <p>Description: Tests {@link CacheImpl} bounded write retries and commit-free reads</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.CacheTxTest</code></p>
+ */
+
+public class CacheTxTest {
+	/** The temporary folder holding the cache file */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	/** The cache under test */
+	CacheImpl cache = null;
+	/** The name of the test map */
+	static final String MAP = "txtest";
+
+	@BeforeClass
+	public static void generateCatalog() {
+		System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("CacheTxTest", 10));
+	}
+
+	@Before
+	public void setUp() {
+		cache = CacheImpl.getInstance(new File(folder.getRoot(), "tsmeta.db").getAbsolutePath(), false);
+		cache.execute(new CacheImpl.TxCallable<Void>() {
+			@Override
+			public Void tx(final DB db) throws TxRollbackException {
+				db.treeMap(MAP).put("k", "initial");
+				return null;
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		cache.close();
+	}
+
+	/**
+	 * Returns the test map's value
+	 * @return the value
+	 */
+	String value() {
+		return cache.executeRead(new CacheImpl.TxCallable<String>() {
+			@Override
+			public String tx(final DB db) throws TxRollbackException {
+				return (String)db.treeMap(MAP).get("k");
+			}
+		});
+	}
+
+	@Test
+	public void testConflictIsRetried() {
+		final CacheMetrics metrics = cache.getMetrics();
+		metrics.reset();
+		final AtomicInteger attempts = new AtomicInteger(0);
+		final String result = cache.execute(new CacheImpl.TxCallable<String>() {
+			@Override
+			public String tx(final DB db) throws TxRollbackException {
+				db.treeMap(MAP).put("k", "mine");
+				if(attempts.getAndIncrement()==0) {
+					// a concurrent writer commits the same key first
+					final DB other = cache.makeTx();
+					other.treeMap(MAP).put("k", "theirs");
+					other.commit();
+				}
+				return "done";
+			}
+		});
+		assertEquals("done", result);
+		assertEquals(2, attempts.get());
+		assertEquals("mine", value());
+		assertEquals(1, metrics.getTxRetries());
+		assertEquals(0, metrics.getTxFailures());
+		assertEquals(1, metrics.getTxCommits());
+	}
+
+	@Test
+	public void testRetriesAreBounded() {
+		final CacheMetrics metrics = cache.getMetrics();
+		metrics.reset();
+		cache.setMaxTxRetries(3);
+		final AtomicInteger attempts = new AtomicInteger(0);
+		try {
+			cache.execute(new CacheImpl.TxCallable<Void>() {
+				@Override
+				public Void tx(final DB db) throws TxRollbackException {
+					attempts.incrementAndGet();
+					db.treeMap(MAP).put("k", "never");
+					throw new TxRollbackException();
+				}
+			});
+			fail("The transaction should have failed after the maximum retries");
+		} catch (TxRollbackException expected) {
+			/* No Op */
+		}
+		assertEquals(4, attempts.get());
+		assertEquals(3, metrics.getTxRetries());
+		assertEquals(1, metrics.getTxFailures());
+		assertEquals(0, metrics.getTxCommits());
+		assertEquals("initial", value());
+		// no retries at all
+		cache.setMaxTxRetries(0);
+		attempts.set(0);
+		try {
+			cache.execute(new CacheImpl.TxCallable<Void>() {
+				@Override
+				public Void tx(final DB db) throws TxRollbackException {
+					attempts.incrementAndGet();
+					throw new TxRollbackException();
+				}
+			});
+			fail("The transaction should have failed");
+		} catch (TxRollbackException expected) {
+			/* No Op */
+		}
+		assertEquals(1, attempts.get());
+		assertEquals(2, metrics.getTxFailures());
+		try {
+			cache.setMaxTxRetries(-1);
+			fail("A negative retry count should be rejected");
+		} catch (IllegalArgumentException expected) {
+			/* No Op */
+		}
+	}
+
+	@Test
+	public void testReadsDoNotCommit() {
+		final CacheMetrics metrics = cache.getMetrics();
+		metrics.reset();
+		// writes made by a read are discarded
+		assertEquals("initial", cache.executeRead(new CacheImpl.TxCallable<String>() {
+			@Override
+			public String tx(final DB db) throws TxRollbackException {
+				final Object v = db.treeMap(MAP).get("k");
+				db.treeMap(MAP).put("k", "discarded");
+				return (String)v;
+			}
+		}));
+		assertEquals("initial", value());
+		// the cache's own background readers may add to the count
+		assertTrue(metrics.getTxReads() >= 2);
+		assertEquals(0, metrics.getTxCommits());
+		assertNull(cache.executeRead(new CacheImpl.TxCallable<Object>() {
+			@Override
+			public Object tx(final DB db) throws TxRollbackException {
+				return db.treeMap(MAP).get("nokey");
+			}
+		}));
+	}
+}
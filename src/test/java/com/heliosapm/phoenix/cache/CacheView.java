@@ -0,0 +1,268 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.HTreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: CacheView</p>
+ * <p>Description: A read-only view of the latest generation published by the {@link CacheImpl} owning a cache file
+ * (see {@link CacheImpl#publishGeneration()}). Generations are immutable store files opened read-only and memory mapped
+ * without a private object cache, so any number of views in any number of JVMs on a host share one copy of the data in the
+ * OS page cache. The view polls the generation pointer file and switches to a new generation when the writer publishes one,
+ * closing the previous generation once in-flight lookups have had time to finish.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.CacheView</code></p>
+ */
+
+public class CacheView implements Closeable {
+	private static final Logger log = LoggerFactory .getLogger(CacheView.class);
+	/** The suffix of the generation pointer file */
+	public static final String POINTER_SUFFIX = ".current";
+	/** The infix of generation store files */
+	public static final String GENERATION_INFIX = ".gen.";
+	/** The delay in ms before a replaced generation is closed */
+	public static final long RETIRE_DELAY_MS = 30000;
+
+	/** The cache file the generations are published for */
+	final File dbFile;
+	/** The current generation */
+	volatile Generation current = null;
+	/** The refresh and retirement scheduler */
+	final ScheduledExecutorService scheduler;
+
+	/**
+	 * <p>Title: Generation</p>
+	 * <p>Description: One opened generation store</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.CacheView.Generation</code></p>
+	 */
+	static class Generation {
+		/** The generation number */
+		final long number;
+		/** The read-only store */
+		final DB db;
+		/** The TSMeta map */
+		final BTreeMap<byte[], CachedTSMeta> tsMetas;
+		/** The uid hex to UIDMeta maps keyed by UID type */
+		final Map<UniqueId.UniqueIdType, HTreeMap<String, CachedUIDMeta>> uids = new EnumMap<UniqueId.UniqueIdType, HTreeMap<String, CachedUIDMeta>>(UniqueId.UniqueIdType.class);
+		/** The name to uid hex maps keyed by UID type */
+		final Map<UniqueId.UniqueIdType, BTreeMap<String, String>> names = new EnumMap<UniqueId.UniqueIdType, BTreeMap<String, String>>(UniqueId.UniqueIdType.class);
+
+		/**
+		 * Opens a generation
+		 * @param dbFile The cache file
+		 * @param number The generation number
+		 */
+		Generation(final File dbFile, final long number) {
+			this.number = number;
+			db = DBMaker.fileDB(generationFile(dbFile, number))
+				.readOnly()
+				.fileLockDisable()
+				.fileMmapEnableIfSupported()
+				.transactionDisable()
+				.make();
+			tsMetas = CacheImpl.tsMetaMap(db);
+			uids.put(UniqueId.UniqueIdType.TAGK, db.<String, CachedUIDMeta>hashMap(CacheImpl.TAGK_NAME));
+			uids.put(UniqueId.UniqueIdType.TAGV, db.<String, CachedUIDMeta>hashMap(CacheImpl.TAGV_NAME));
+			uids.put(UniqueId.UniqueIdType.METRIC, db.<String, CachedUIDMeta>hashMap(CacheImpl.METRIC_NAME));
+			names.put(UniqueId.UniqueIdType.TAGK, db.<String, String>treeMap(CacheImpl.TAGK_NAME + CacheImpl.NAMES_SUFFIX));
+			names.put(UniqueId.UniqueIdType.TAGV, db.<String, String>treeMap(CacheImpl.TAGV_NAME + CacheImpl.NAMES_SUFFIX));
+			names.put(UniqueId.UniqueIdType.METRIC, db.<String, String>treeMap(CacheImpl.METRIC_NAME + CacheImpl.NAMES_SUFFIX));
+		}
+	}
+
+	/**
+	 * Opens a view of the latest generation published for the passed cache file
+	 * @param fileName The cache file name
+	 * @param refreshPeriod The period in ms between checks for a new generation
+	 */
+	public CacheView(final String fileName, final long refreshPeriod) {
+		dbFile = new File(fileName.trim()).getAbsoluteFile();
+		final long number = readGeneration(dbFile);
+		if(number < 1) throw new IllegalStateException("No generation has been published for [" + dbFile + "]");
+		current = new Generation(dbFile, number);
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "CacheViewRefresh[" + dbFile.getName() + "]");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refresh();
+				} catch (Exception ex) {
+					log.warn("Failed to refresh view of [{}]", dbFile, ex);
+				}
+			}
+		}, refreshPeriod, refreshPeriod, TimeUnit.MILLISECONDS);
+		log.info("Opened view of [{}] at generation [{}]", dbFile, number);
+	}
+
+	/**
+	 * Switches to the latest published generation if it is newer than the current one
+	 * @return true if the view switched generations
+	 */
+	public synchronized boolean refresh() {
+		final long number = readGeneration(dbFile);
+		final Generation prior = current;
+		if(number <= prior.number) return false;
+		current = new Generation(dbFile, number);
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try { prior.db.close(); } catch (Exception x) {/* No Op */}
+			}
+		}, RETIRE_DELAY_MS, TimeUnit.MILLISECONDS);
+		log.info("View of [{}] moved to generation [{}]", dbFile, number);
+		return true;
+	}
+
+	/**
+	 * Returns the UIDMeta for the passed uid
+	 * @param type The UID type
+	 * @param uidHex The uid hex
+	 * @return the UIDMeta or null if the uid is not in the current generation
+	 */
+	public CachedUIDMeta getCachedUIDMeta(final UniqueId.UniqueIdType type, final String uidHex) {
+		return current.uids.get(type).get(uidHex);
+	}
+
+	/**
+	 * Returns the UIDMeta for the passed name
+	 * @param type The UID type
+	 * @param name The UID name
+	 * @return the UIDMeta or null if the name is not in the current generation
+	 */
+	public CachedUIDMeta getUid(final UniqueId.UniqueIdType type, final String name) {
+		final Generation g = current;
+		final String uidHex = g.names.get(type).get(name);
+		return uidHex==null ? null : g.uids.get(type).get(uidHex);
+	}
+
+	/**
+	 * Returns the TSMeta for the passed tsuid
+	 * @param tsuidHex The tsuid hex
+	 * @return the TSMeta or null if the tsuid is not in the current generation
+	 */
+	public CachedTSMeta getCachedTSMeta(final String tsuidHex) {
+		return current.tsMetas.get(UniqueId.stringToUid(tsuidHex));
+	}
+
+	/**
+	 * Returns the current generation number
+	 * @return the generation number
+	 */
+	public long getGeneration() {
+		return current.number;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public synchronized void close() {
+		scheduler.shutdownNow();
+		try { current.db.close(); } catch (Exception x) {/* No Op */}
+	}
+
+	/**
+	 * Returns the store file of a generation
+	 * @param dbFile The cache file
+	 * @param number The generation number
+	 * @return the generation store file
+	 */
+	static File generationFile(final File dbFile, final long number) {
+		return new File(dbFile.getPath() + GENERATION_INFIX + number);
+	}
+
+	/**
+	 * Reads the latest published generation number from the pointer file
+	 * @param dbFile The cache file
+	 * @return the generation number, or 0 if none has been published
+	 */
+	static long readGeneration(final File dbFile) {
+		final File pointer = new File(dbFile.getPath() + POINTER_SUFFIX);
+		if(!pointer.exists()) return 0;
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(pointer));
+			final String line = reader.readLine();
+			return line==null ? 0 : Long.parseLong(line.trim());
+		} catch (IOException iex) {
+			throw new RuntimeException("Failed to read generation pointer [" + pointer + "]", iex);
+		} finally {
+			if(reader!=null) try { reader.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Publishes a generation by replacing the pointer file with a rename, so readers see either the old or the new number
+	 * @param dbFile The cache file
+	 * @param number The generation number
+	 */
+	static void writeGeneration(final File dbFile, final long number) {
+		final File pointer = new File(dbFile.getPath() + POINTER_SUFFIX);
+		final File tmp = new File(pointer.getPath() + ".tmp");
+		FileWriter writer = null;
+		try {
+			writer = new FileWriter(tmp);
+			writer.write(Long.toString(number));
+			writer.write('\n');
+			writer.close();
+			writer = null;
+			if(!tmp.renameTo(pointer)) {
+				// Platforms which cannot rename over an existing file
+				pointer.delete();
+				if(!tmp.renameTo(pointer)) throw new IOException("Failed to rename [" + tmp + "] to [" + pointer + "]");
+			}
+		} catch (IOException iex) {
+			throw new RuntimeException("Failed to write generation pointer [" + pointer + "]", iex);
+		} finally {
+			if(writer!=null) try { writer.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+}
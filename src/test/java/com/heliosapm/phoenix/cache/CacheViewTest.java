@@ -0,0 +1,163 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <p>Title: CacheViewTest</p>
+ * <p>Description: Tests {@link CacheView} reads of published generations and moves to newer ones</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.CacheViewTest</code></p>
+ */
+
+public class CacheViewTest {
+	/** The temporary folder holding the cache file */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	/** The cache file name */
+	String fileName = null;
+	/** The cache publishing generations */
+	CacheImpl cache = null;
+	/** The view under test */
+	CacheView view = null;
+
+	@BeforeClass
+	public static void generateCatalog() {
+		System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("CacheViewTest", 10));
+	}
+
+	@Before
+	public void setUp() {
+		fileName = new File(folder.getRoot(), "tsmeta.db").getAbsolutePath();
+		cache = CacheImpl.getInstance(fileName, false);
+	}
+
+	@After
+	public void tearDown() {
+		if(view!=null) view.close();
+		cache.close();
+	}
+
+	/**
+	 * Creates a tag value UIDMeta
+	 * @param name The name
+	 * @param id The last uid byte
+	 * @return the UIDMeta
+	 */
+	static CachedUIDMeta tagv(final String name, final int id) {
+		return new CachedUIDMeta(name, new byte[]{0x7F, 0, (byte)id}, UniqueId.UniqueIdType.TAGV);
+	}
+
+	/**
+	 * Creates a TSMeta
+	 * @param id The series id, making up the last bytes of the tsuid
+	 * @return the TSMeta
+	 */
+	static CachedTSMeta meta(final int id) {
+		final Map<String, String> tags = new TreeMap<String, String>();
+		tags.put("host", "view" + id);
+		return new CachedTSMeta("sys.view", tags, new byte[]{1, 1, 1, 0, 0, 1, (byte)(id >>> 16), (byte)(id >>> 8), (byte)id});
+	}
+
+	@Test
+	public void testNoGeneration() {
+		try {
+			view = new CacheView(fileName, 60000);
+			fail("A view needs a published generation");
+		} catch (IllegalStateException expected) {
+			/* No Op */
+		}
+	}
+
+	@Test
+	public void testRefreshMovesToNewGeneration() {
+		cache.putCachedUIDMeta(UniqueId.UniqueIdType.TAGV, tagv("web01", 1));
+		cache.putCachedTSMeta(meta(1));
+		cache.publishGeneration();
+		view = new CacheView(fileName, 3600000);
+		assertEquals(1, view.getGeneration());
+		assertEquals("web01", view.getCachedUIDMeta(UniqueId.UniqueIdType.TAGV, tagv("web01", 1).getUidHex()).getName());
+		assertEquals(tagv("web01", 1).getUidHex(), view.getUid(UniqueId.UniqueIdType.TAGV, "web01").getUidHex());
+		assertEquals(meta(1).getTags(), view.getCachedTSMeta(meta(1).getTsuidHex()).getTags());
+		assertFalse(view.refresh());
+		// writes after a publication are not seen until the next one
+		cache.putCachedUIDMeta(UniqueId.UniqueIdType.TAGV, tagv("web02", 2));
+		cache.putCachedTSMeta(meta(2));
+		assertNull(view.getUid(UniqueId.UniqueIdType.TAGV, "web02"));
+		assertNull(view.getCachedTSMeta(meta(2).getTsuidHex()));
+		cache.publishGeneration();
+		assertEquals(1, view.getGeneration());
+		assertTrue(view.refresh());
+		assertEquals(2, view.getGeneration());
+		assertNotNull(view.getUid(UniqueId.UniqueIdType.TAGV, "web01"));
+		assertEquals(tagv("web02", 2).getUidHex(), view.getUid(UniqueId.UniqueIdType.TAGV, "web02").getUidHex());
+		assertNotNull(view.getCachedTSMeta(meta(2).getTsuidHex()));
+		assertFalse(view.refresh());
+	}
+
+	@Test
+	public void testScheduledRefresh() throws Exception {
+		cache.publishGeneration();
+		view = new CacheView(fileName, 20);
+		cache.putCachedTSMeta(meta(3));
+		cache.publishGeneration();
+		final long deadline = System.currentTimeMillis() + 10000;
+		while(view.getGeneration() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(2, view.getGeneration());
+		assertNotNull(view.getCachedTSMeta(meta(3).getTsuidHex()));
+	}
+
+	@Test
+	public void testOldGenerationsAreDeleted() {
+		final File dbFile = new File(fileName);
+		for(int i = 0; i <= CacheImpl.RETAINED_GENERATIONS; i++) {
+			cache.publishGeneration();
+		}
+		final long latest = CacheImpl.RETAINED_GENERATIONS + 1;
+		assertEquals(latest, CacheView.readGeneration(dbFile));
+		assertFalse(CacheView.generationFile(dbFile, 1).exists());
+		for(long g = 2; g <= latest; g++) {
+			assertTrue(CacheView.generationFile(dbFile, g).exists());
+		}
+		view = new CacheView(fileName, 3600000);
+		assertEquals(latest, view.getGeneration());
+	}
+}
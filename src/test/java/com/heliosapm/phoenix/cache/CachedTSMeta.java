@@ -76,6 +76,19 @@ public class CachedTSMeta implements Serializable  {
 		this.tsuidHex = DatatypeConverter.printHexBinary(this.tsuid);
 	}
 	
+	/**
+	 * Creates a new CachedTSMeta from already validated parts, taking ownership of the passed tag map without copying it
+	 * @param tsuid The TSMeta tsuid bytes
+	 * @param metric The trimmed TSMeta metric name
+	 * @param tags The non-empty TSMeta tags
+	 */
+	CachedTSMeta(final byte[] tsuid, final String metric, final TreeMap<String, String> tags) {
+		this.metric = metric;
+		this.tags = Collections.unmodifiableSortedMap(tags);
+		this.tsuid = tsuid;
+		this.tsuidHex = DatatypeConverter.printHexBinary(this.tsuid);
+	}
+	
 	/**
 	 * Creates a new CachedTSMeta
 	 * @param in The DataInput to read the meta from
@@ -0,0 +1,352 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Title: CardinalityTracker</p>
+ * <p>Description: Maintains {@link HyperLogLog} sketches of the number of series per metric, the number of values per tag key,
+ * and the number of values per tag key within each metric, updated as series are indexed by the {@link CacheImpl}.
+ * Sketches only grow: evicted series are still counted, so the estimates track the cardinality ever seen since the tracker
+ * was created or cleared. Estimates are cached by the sketches, so queries do not scan anything, and the whole tracker
+ * can be serialized and merged into another instance's.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.CardinalityTracker</code></p>
+ */
+
+public class CardinalityTracker implements CardinalityTrackerMBean {
+	/** The default precision of the per metric series and per tag key value sketches (~1.6% error) */
+	public static final int DEFAULT_PRECISION = 12;
+	/** The default precision of the per metric tag key value sketches (~3.3% error) */
+	public static final int DEFAULT_PAIR_PRECISION = 10;
+	/** The number of entries returned by the top-N JMX attributes */
+	public static final int TOP_SIZE = 20;
+	/** The serialized format version */
+	static final int VERSION = 1;
+	
+	/** Orders estimate entries highest first */
+	static final Comparator<Map.Entry<String, Long>> HIGHEST_FIRST = new Comparator<Map.Entry<String, Long>>() {
+		@Override
+		public int compare(final Map.Entry<String, Long> a, final Map.Entry<String, Long> b) {
+			return b.getValue().compareTo(a.getValue());
+		}
+	};
+	
+	/** The precision of the per metric series and per tag key value sketches */
+	final int precision;
+	/** The precision of the per metric tag key value sketches */
+	final int pairPrecision;
+	/** The series sketches keyed by metric */
+	final ConcurrentHashMap<String, HyperLogLog> metricSeries = new ConcurrentHashMap<String, HyperLogLog>();
+	/** The value sketches keyed by tag key */
+	final ConcurrentHashMap<String, HyperLogLog> tagKeyValues = new ConcurrentHashMap<String, HyperLogLog>();
+	/** The value sketches keyed by tag key within metric */
+	final ConcurrentHashMap<String, ConcurrentHashMap<String, HyperLogLog>> metricTagKeyValues = new ConcurrentHashMap<String, ConcurrentHashMap<String, HyperLogLog>>();
+
+	/**
+	 * Creates a new CardinalityTracker with the default precisions
+	 */
+	public CardinalityTracker() {
+		this(DEFAULT_PRECISION, DEFAULT_PAIR_PRECISION);
+	}
+
+	/**
+	 * Creates a new CardinalityTracker
+	 * @param precision The precision of the per metric series and per tag key value sketches
+	 * @param pairPrecision The precision of the per metric tag key value sketches
+	 */
+	public CardinalityTracker(final int precision, final int pairPrecision) {
+		if(precision < HyperLogLog.MIN_PRECISION || precision > HyperLogLog.MAX_PRECISION) throw new IllegalArgumentException("Invalid precision [" + precision + "]");
+		if(pairPrecision < HyperLogLog.MIN_PRECISION || pairPrecision > HyperLogLog.MAX_PRECISION) throw new IllegalArgumentException("Invalid pair precision [" + pairPrecision + "]");
+		this.precision = precision;
+		this.pairPrecision = pairPrecision;
+	}
+	
+	/**
+	 * Adds the passed series to the sketches
+	 * @param meta The series
+	 */
+	public void add(final CachedTSMeta meta) {
+		sketch(metricSeries, meta.metric, precision).offer(SeriesSeenSet.hash(meta.tsuid));
+		final ConcurrentHashMap<String, HyperLogLog> perMetric = tagKeySketches(meta.metric);
+		for(final Map.Entry<String, String> tag: meta.tags.entrySet()) {
+			final long valueHash = StringBloomFilter.hash(tag.getValue());
+			sketch(tagKeyValues, tag.getKey(), precision).offer(valueHash);
+			sketch(perMetric, tag.getKey(), pairPrecision).offer(valueHash);
+		}
+	}
+	
+	/**
+	 * Returns the sketch for the passed key, creating it if necessary
+	 * @param sketches The sketches to get from
+	 * @param key The sketch key
+	 * @param p The precision of a new sketch
+	 * @return the sketch
+	 */
+	private static HyperLogLog sketch(final ConcurrentHashMap<String, HyperLogLog> sketches, final String key, final int p) {
+		HyperLogLog hll = sketches.get(key);
+		if(hll==null) {
+			final HyperLogLog created = new HyperLogLog(p);
+			hll = sketches.putIfAbsent(key, created);
+			if(hll==null) hll = created;
+		}
+		return hll;
+	}
+	
+	/**
+	 * Returns the tag key value sketches of the passed metric, creating them if necessary
+	 * @param metric The metric name
+	 * @return the sketches keyed by tag key
+	 */
+	private ConcurrentHashMap<String, HyperLogLog> tagKeySketches(final String metric) {
+		ConcurrentHashMap<String, HyperLogLog> sketches = metricTagKeyValues.get(metric);
+		if(sketches==null) {
+			final ConcurrentHashMap<String, HyperLogLog> created = new ConcurrentHashMap<String, HyperLogLog>(8, 0.75f, 2);
+			sketches = metricTagKeyValues.putIfAbsent(metric, created);
+			if(sketches==null) sketches = created;
+		}
+		return sketches;
+	}
+
+	@Override
+	public long getMetricCardinality(final String metric) {
+		final HyperLogLog hll = metricSeries.get(metric);
+		return hll==null ? 0 : hll.cardinality();
+	}
+
+	@Override
+	public long getTagKeyCardinality(final String tagKey) {
+		final HyperLogLog hll = tagKeyValues.get(tagKey);
+		return hll==null ? 0 : hll.cardinality();
+	}
+
+	@Override
+	public long getTagKeyCardinality(final String metric, final String tagKey) {
+		final ConcurrentHashMap<String, HyperLogLog> sketches = metricTagKeyValues.get(metric);
+		final HyperLogLog hll = sketches==null ? null : sketches.get(tagKey);
+		return hll==null ? 0 : hll.cardinality();
+	}
+	
+	/**
+	 * Returns the metrics with the most series
+	 * @param n The maximum number of metrics to return
+	 * @return the estimated series counts keyed by metric, highest first
+	 */
+	public Map<String, Long> topMetrics(final int n) {
+		return top(metricSeries, n);
+	}
+	
+	/**
+	 * Returns the tag keys with the most values
+	 * @param n The maximum number of tag keys to return
+	 * @return the estimated value counts keyed by tag key, highest first
+	 */
+	public Map<String, Long> topTagKeys(final int n) {
+		return top(tagKeyValues, n);
+	}
+	
+	/**
+	 * Returns the tag keys of the passed metric with the most values
+	 * @param metric The metric name
+	 * @param n The maximum number of tag keys to return
+	 * @return the estimated value counts keyed by tag key, highest first
+	 */
+	public Map<String, Long> topTagKeys(final String metric, final int n) {
+		final ConcurrentHashMap<String, HyperLogLog> sketches = metricTagKeyValues.get(metric);
+		if(sketches==null) return Collections.emptyMap();
+		return top(sketches, n);
+	}
+	
+	/**
+	 * Returns the highest estimates of the passed sketches
+	 * @param sketches The sketches
+	 * @param n The maximum number of estimates to return
+	 * @return the estimates keyed by sketch key, highest first
+	 */
+	private static Map<String, Long> top(final Map<String, HyperLogLog> sketches, final int n) {
+		final List<Map.Entry<String, Long>> estimates = new ArrayList<Map.Entry<String, Long>>(sketches.size());
+		for(Map.Entry<String, HyperLogLog> entry: sketches.entrySet()) {
+			estimates.add(new AbstractMap.SimpleImmutableEntry<String, Long>(entry.getKey(), entry.getValue().cardinality()));
+		}
+		Collections.sort(estimates, HIGHEST_FIRST);
+		final Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for(Map.Entry<String, Long> entry: estimates) {
+			if(result.size()==n) break;
+			result.put(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getTopMetrics() {
+		return topMetrics(TOP_SIZE);
+	}
+
+	@Override
+	public Map<String, Long> getTopTagKeys() {
+		return topTagKeys(TOP_SIZE);
+	}
+
+	@Override
+	public int getMetricCount() {
+		return metricSeries.size();
+	}
+
+	@Override
+	public int getTagKeyCount() {
+		return tagKeyValues.size();
+	}
+
+	@Override
+	public int getSketchCount() {
+		int count = metricSeries.size() + tagKeyValues.size();
+		for(ConcurrentHashMap<String, HyperLogLog> sketches: metricTagKeyValues.values()) {
+			count += sketches.size();
+		}
+		return count;
+	}
+
+	@Override
+	public long getSizeBytes() {
+		long size = 0;
+		for(HyperLogLog hll: metricSeries.values()) size += hll.getSizeBytes();
+		for(HyperLogLog hll: tagKeyValues.values()) size += hll.getSizeBytes();
+		for(ConcurrentHashMap<String, HyperLogLog> sketches: metricTagKeyValues.values()) {
+			for(HyperLogLog hll: sketches.values()) size += hll.getSizeBytes();
+		}
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		metricSeries.clear();
+		tagKeyValues.clear();
+		metricTagKeyValues.clear();
+	}
+	
+	/**
+	 * Merges the sketches of the passed tracker into this one
+	 * @param other The tracker to merge, which must have the same precisions
+	 */
+	public void merge(final CardinalityTracker other) {
+		if(other.precision!=precision || other.pairPrecision!=pairPrecision) throw new IllegalArgumentException("Cannot merge trackers of different precisions");
+		for(Map.Entry<String, HyperLogLog> entry: other.metricSeries.entrySet()) {
+			sketch(metricSeries, entry.getKey(), precision).merge(entry.getValue());
+		}
+		for(Map.Entry<String, HyperLogLog> entry: other.tagKeyValues.entrySet()) {
+			sketch(tagKeyValues, entry.getKey(), precision).merge(entry.getValue());
+		}
+		for(Map.Entry<String, ConcurrentHashMap<String, HyperLogLog>> metric: other.metricTagKeyValues.entrySet()) {
+			final ConcurrentHashMap<String, HyperLogLog> sketches = tagKeySketches(metric.getKey());
+			for(Map.Entry<String, HyperLogLog> entry: metric.getValue().entrySet()) {
+				sketch(sketches, entry.getKey(), pairPrecision).merge(entry.getValue());
+			}
+		}
+	}
+	
+	/**
+	 * Merges the sketches serialized by another instance's {@link #toBytes()} into this tracker
+	 * @param bytes The serialized tracker
+	 */
+	public void merge(final byte[] bytes) {
+		try {
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			final int version = in.readInt();
+			if(version!=VERSION) throw new IOException("Unsupported tracker version [" + version + "]");
+			final CardinalityTracker other = new CardinalityTracker(in.readInt(), in.readInt());
+			readSketches(in, other.metricSeries);
+			readSketches(in, other.tagKeyValues);
+			final int metrics = in.readInt();
+			for(int i = 0; i < metrics; i++) {
+				readSketches(in, other.tagKeySketches(in.readUTF()));
+			}
+			merge(other);
+		} catch (IOException ex) {
+			throw new IllegalArgumentException("Invalid serialized tracker", ex);
+		}
+	}
+	
+	/**
+	 * Serializes all the sketches for merging into another instance
+	 * @return the serialized tracker
+	 */
+	public byte[] toBytes() {
+		try {
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream(baos);
+			out.writeInt(VERSION);
+			out.writeInt(precision);
+			out.writeInt(pairPrecision);
+			writeSketches(out, metricSeries);
+			writeSketches(out, tagKeyValues);
+			final Map<String, ConcurrentHashMap<String, HyperLogLog>> metrics = new LinkedHashMap<String, ConcurrentHashMap<String, HyperLogLog>>(metricTagKeyValues);
+			out.writeInt(metrics.size());
+			for(Map.Entry<String, ConcurrentHashMap<String, HyperLogLog>> metric: metrics.entrySet()) {
+				out.writeUTF(metric.getKey());
+				writeSketches(out, metric.getValue());
+			}
+			out.flush();
+			return baos.toByteArray();
+		} catch (IOException ex) {
+			throw new RuntimeException("Failed to serialize tracker", ex);
+		}
+	}
+	
+	/**
+	 * Writes a snapshot of the passed sketches
+	 * @param out The output to write to
+	 * @param sketches The sketches to write
+	 * @throws IOException thrown on any output error
+	 */
+	private static void writeSketches(final DataOutputStream out, final Map<String, HyperLogLog> sketches) throws IOException {
+		final Map<String, HyperLogLog> snapshot = new LinkedHashMap<String, HyperLogLog>(sketches);
+		out.writeInt(snapshot.size());
+		for(Map.Entry<String, HyperLogLog> entry: snapshot.entrySet()) {
+			out.writeUTF(entry.getKey());
+			entry.getValue().write(out);
+		}
+	}
+	
+	/**
+	 * Reads sketches written by {@link #writeSketches(DataOutputStream, Map)}
+	 * @param in The input to read from
+	 * @param sketches The map to read the sketches into
+	 * @throws IOException thrown on any input error
+	 */
+	private static void readSketches(final DataInputStream in, final Map<String, HyperLogLog> sketches) throws IOException {
+		final int size = in.readInt();
+		for(int i = 0; i < size; i++) {
+			sketches.put(in.readUTF(), HyperLogLog.read(in));
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.Map;
+
+/**
+ * <p>Title: CardinalityTrackerMBean</p>
+ * <p>Description: JMX interface for the cache's cardinality sketches</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.CardinalityTrackerMBean</code></p>
+ */
+public interface CardinalityTrackerMBean {
+	/**
+	 * Returns the estimated number of series of the passed metric
+	 * @param metric The metric name
+	 * @return the estimated series count
+	 */
+	public long getMetricCardinality(String metric);
+	
+	/**
+	 * Returns the estimated number of values of the passed tag key across all metrics
+	 * @param tagKey The tag key
+	 * @return the estimated value count
+	 */
+	public long getTagKeyCardinality(String tagKey);
+	
+	/**
+	 * Returns the estimated number of values of the passed tag key on the passed metric
+	 * @param metric The metric name
+	 * @param tagKey The tag key
+	 * @return the estimated value count
+	 */
+	public long getTagKeyCardinality(String metric, String tagKey);
+	
+	/**
+	 * Returns the metrics with the most series
+	 * @return the estimated series counts keyed by metric, highest first
+	 */
+	public Map<String, Long> getTopMetrics();
+	
+	/**
+	 * Returns the tag keys with the most values
+	 * @return the estimated value counts keyed by tag key, highest first
+	 */
+	public Map<String, Long> getTopTagKeys();
+	
+	/**
+	 * Returns the number of tracked metrics
+	 * @return the number of tracked metrics
+	 */
+	public int getMetricCount();
+	
+	/**
+	 * Returns the number of tracked tag keys
+	 * @return the number of tracked tag keys
+	 */
+	public int getTagKeyCount();
+	
+	/**
+	 * Returns the total number of sketches
+	 * @return the number of sketches
+	 */
+	public int getSketchCount();
+	
+	/**
+	 * Returns the approximate heap size of all sketches
+	 * @return the size in bytes
+	 */
+	public long getSizeBytes();
+	
+	/**
+	 * Discards all sketches
+	 */
+	public void clear();
+}
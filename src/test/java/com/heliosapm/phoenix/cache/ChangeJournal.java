@@ -0,0 +1,678 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.heliosapm.phoenix.cache.CachedTSMeta.CachedTSMetaSerializer;
+import com.heliosapm.phoenix.cache.CachedUIDMeta.CachedUIDMetaSerializer;
+
+/**
+ * <p>Title: ChangeJournal</p>
+ * <p>Description: An append-only journal of {@link CacheImpl} mutations in memory mapped segment files, so caches in other
+ * processes can tail the changes with a {@link ChangeJournal.Reader} instead of loading from the SQL catalog.
+ * Each segment file is named after the sequence number of its first record, and holds records of
+ * <b><code>[int length][int crc][long seq][byte op][payload]</code></b>, each starting on a 4 byte boundary. The length is written
+ * last and the CRC32 covers the sequence number, op code and payload, so a reader treats a record whose CRC does not match as not
+ * written yet rather than trusting the order in which the writer's stores become visible: a zero length means no more records yet,
+ * and a length of <b><code>-1</code></b> means the writer moved on to the next segment. Segments are created at their full size under
+ * a temporary name and renamed into place, so a reader never maps a partly created segment.
+ * Only one process may write to a journal directory.
+ * The journal is written ahead: a transaction's records are appended before it commits and followed by an {@link #OP_COMMIT}
+ * record once it has, or an {@link #OP_ABORT} record if it rolled back. Readers only return the records of committed transactions,
+ * and records left without either marker by a crash are returned by {@link #uncommitted()} so the writer can redo them.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.ChangeJournal</code></p>
+ */
+
+public class ChangeJournal implements Closeable {
+	private static final Logger log = LoggerFactory .getLogger(ChangeJournal.class);
+	/** The default segment size in bytes */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	/** The segment file name suffix */
+	public static final String SEGMENT_SUFFIX = ".journal";
+	/** The op code of a UIDMeta put */
+	public static final byte OP_PUT_UID = 1;
+	/** The op code of a TSMeta put */
+	public static final byte OP_PUT_TSMETA = 2;
+	/** The op code of a TSMeta removal */
+	public static final byte OP_REMOVE_TSMETA = 3;
+	/** The op code of a clear of all TSMetas */
+	public static final byte OP_CLEAR_TSMETAS = 4;
+	/** The op code of the marker following the records of a committed transaction */
+	public static final byte OP_COMMIT = 5;
+	/** The op code of the marker following the records of a rolled back transaction */
+	public static final byte OP_ABORT = 6;
+	/** The record header size: the CRC, the sequence number and the op code */
+	static final int HEADER_SIZE = 13;
+	/** The offset of the CRC from the start of a record */
+	static final int CRC_OFFSET = 4;
+	/** The offset of the sequence number from the start of a record */
+	static final int SEQ_OFFSET = 8;
+	/** The offset of the op code from the start of a record */
+	static final int OP_OFFSET = 16;
+	/** The segment end marker */
+	static final int END_OF_SEGMENT = -1;
+	/** The suffix of a segment file being created */
+	static final String TEMP_SUFFIX = ".tmp";
+
+	/** The journal directory */
+	final File dir;
+	/** The segment size in bytes */
+	final int segmentSize;
+	/** The current segment */
+	MappedByteBuffer segment = null;
+	/** The sequence number of the last record */
+	long lastSeq = 0;
+	/** The records found after the last commit or abort marker when the journal was opened */
+	List<Entry> uncommitted = Collections.emptyList();
+	/** Scratch buffer for record payloads */
+	final ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
+	/** Scratch output for record payloads */
+	final DataOutputStream dos = new DataOutputStream(baos);
+
+	/**
+	 * <p>Title: Entry</p>
+	 * <p>Description: One journal record</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.ChangeJournal.Entry</code></p>
+	 */
+	public static class Entry {
+		/** The sequence number */
+		final long seq;
+		/** The op code */
+		final byte op;
+		/** The UIDMeta for a UID put */
+		final CachedUIDMeta uidMeta;
+		/** The TSMeta for a TSMeta put or removal */
+		final CachedTSMeta tsMeta;
+
+		/**
+		 * Creates a new Entry
+		 * @param seq The sequence number
+		 * @param op The op code
+		 * @param uidMeta The UIDMeta for a UID put
+		 * @param tsMeta The TSMeta for a TSMeta put or removal
+		 */
+		Entry(final long seq, final byte op, final CachedUIDMeta uidMeta, final CachedTSMeta tsMeta) {
+			this.seq = seq;
+			this.op = op;
+			this.uidMeta = uidMeta;
+			this.tsMeta = tsMeta;
+		}
+
+		/**
+		 * Returns the sequence number
+		 * @return the sequence number
+		 */
+		public long getSeq() {
+			return seq;
+		}
+
+		/**
+		 * Returns the op code
+		 * @return the op code
+		 */
+		public byte getOp() {
+			return op;
+		}
+
+		/**
+		 * Returns the UID type of a UID put
+		 * @return the UID type, or null if this is not a UID put
+		 */
+		public UniqueId.UniqueIdType getType() {
+			return uidMeta==null ? null : uidMeta.getType();
+		}
+	}
+
+	/**
+	 * Opens or creates a journal
+	 * @param dir The journal directory
+	 * @param segmentSize The segment size in bytes
+	 */
+	public ChangeJournal(final File dir, final int segmentSize) {
+		if(segmentSize < 4096) throw new IllegalArgumentException("Invalid segment size [" + segmentSize + "]");
+		if(!dir.isDirectory() && !dir.mkdirs()) throw new IllegalArgumentException("Cannot create journal directory [" + dir + "]");
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+		try {
+			final File[] segments = segments(dir);
+			if(segments.length==0) {
+				segment = newSegment(1);
+			} else {
+				final File last = segments[segments.length-1];
+				segment = map(last, segmentSize, true);
+				lastSeq = firstSeq(last) - 1;
+				int pos = 0, len;
+				while(segment.capacity() - pos >= 4 && written(segment, pos, len = segment.getInt(pos))) {
+					lastSeq = segment.getLong(pos + SEQ_OFFSET);
+					pos += recordSize(len);
+				}
+				if(segment.capacity() - pos >= 4 && segment.getInt(pos)==END_OF_SEGMENT) {
+					segment = newSegment(lastSeq + 1);
+				} else {
+					// a record torn by a crash is overwritten by the next append
+					if(segment.capacity() - pos >= 4) segment.putInt(pos, 0);
+					segment.position(pos);
+				}
+				uncommitted = trailing(segments);
+			}
+			log.info("Opened journal [{}] at seq [{}] with [{}] uncommitted records", dir, lastSeq, uncommitted.size());
+		} catch (IOException iex) {
+			throw new RuntimeException("Failed to open journal [" + dir + "]", iex);
+		}
+	}
+
+	/**
+	 * Opens or creates a journal with the default segment size
+	 * @param dir The journal directory
+	 */
+	public ChangeJournal(final File dir) {
+		this(dir, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Appends a UIDMeta put
+	 * @param meta The UIDMeta
+	 * @return the record's sequence number
+	 */
+	public synchronized long appendUID(final CachedUIDMeta meta) {
+		try {
+			baos.reset();
+			CachedUIDMetaSerializer.INSTANCE.serialize(dos, meta);
+			return append(OP_PUT_UID);
+		} catch (IOException iex) {
+			throw new RuntimeException("Failed to journal UID [" + meta + "]", iex);
+		}
+	}
+
+	/**
+	 * Appends a TSMeta put or removal
+	 * @param op {@link #OP_PUT_TSMETA} or {@link #OP_REMOVE_TSMETA}
+	 * @param meta The TSMeta
+	 * @return the record's sequence number
+	 */
+	public synchronized long appendTSMeta(final byte op, final CachedTSMeta meta) {
+		try {
+			baos.reset();
+			CachedTSMetaSerializer.INSTANCE.serialize(dos, meta);
+			return append(op);
+		} catch (IOException iex) {
+			throw new RuntimeException("Failed to journal TSMeta [" + meta + "]", iex);
+		}
+	}
+
+	/**
+	 * Appends a clear of all TSMetas
+	 * @return the record's sequence number
+	 */
+	public synchronized long appendClear() {
+		try {
+			baos.reset();
+			return append(OP_CLEAR_TSMETAS);
+		} catch (IOException iex) {
+			throw new RuntimeException("Failed to journal clear", iex);
+		}
+	}
+
+	/**
+	 * Appends the marker following the records of a committed transaction
+	 * @return the marker's sequence number
+	 */
+	public synchronized long appendCommit() {
+		return appendMarker(OP_COMMIT);
+	}
+
+	/**
+	 * Appends the marker following the records of a rolled back transaction
+	 * @return the marker's sequence number
+	 */
+	public synchronized long appendAbort() {
+		return appendMarker(OP_ABORT);
+	}
+
+	/**
+	 * Appends a commit or abort marker
+	 * @param op The marker op code
+	 * @return the marker's sequence number
+	 */
+	private long appendMarker(final byte op) {
+		try {
+			baos.reset();
+			final long seq = append(op);
+			uncommitted = Collections.emptyList();
+			return seq;
+		} catch (IOException iex) {
+			throw new RuntimeException("Failed to journal marker [" + op + "]", iex);
+		}
+	}
+
+	/**
+	 * Returns the records found after the last commit or abort marker when the journal was opened, left by a writer which
+	 * stopped between appending a transaction's records and its marker. The transaction may or may not have committed, so the
+	 * writer should redo the records, which are all idempotent, and then append a commit marker.
+	 * @return the uncommitted records, empty once a marker has been appended
+	 */
+	public synchronized List<Entry> uncommitted() {
+		return uncommitted;
+	}
+
+	/**
+	 * Appends the payload in the scratch buffer as a record, rolling to a new segment if it does not fit
+	 * @param op The op code
+	 * @return the record's sequence number
+	 * @throws IOException thrown on any error creating a new segment
+	 */
+	private long append(final byte op) throws IOException {
+		final int len = HEADER_SIZE + baos.size();
+		if(recordSize(len) + 4 > segmentSize) throw new IllegalArgumentException("Record of [" + len + "] bytes exceeds the segment size");
+		final long seq = lastSeq + 1;
+		if(segment.remaining() < recordSize(len) + 4) {
+			segment.putInt(segment.position(), END_OF_SEGMENT);
+			segment = newSegment(seq);
+		}
+		final int pos = segment.position();
+		final ByteBuffer body = segment.duplicate();
+		body.position(pos + SEQ_OFFSET);
+		body.putLong(seq);
+		body.put(op);
+		body.put(baos.toByteArray());
+		segment.putInt(pos + CRC_OFFSET, crc(segment, pos, len));
+		segment.putInt(pos, len);
+		segment.position(pos + recordSize(len));
+		lastSeq = seq;
+		return seq;
+	}
+
+	/**
+	 * Returns the number of bytes a record takes in a segment, including its length and the padding to the next 4 byte boundary
+	 * @param len The record length
+	 * @return the record size
+	 */
+	static int recordSize(final int len) {
+		return (4 + len + 3) & ~3;
+	}
+
+	/**
+	 * Computes the CRC32 of the sequence number, op code and payload of a record
+	 * @param segment The segment holding the record
+	 * @param pos The record offset
+	 * @param len The record length
+	 * @return the CRC32
+	 */
+	static int crc(final ByteBuffer segment, final int pos, final int len) {
+		final byte[] bytes = new byte[len - CRC_OFFSET];
+		final ByteBuffer body = segment.duplicate();
+		body.position(pos + SEQ_OFFSET);
+		body.get(bytes);
+		final CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		return (int)crc.getValue();
+	}
+
+	/**
+	 * Determines if the record at the passed offset has been completely written, i.e. its length is valid
+	 * and its CRC matches its contents
+	 * @param segment The segment holding the record
+	 * @param pos The record offset
+	 * @param len The record length read at the offset
+	 * @return true if the record is complete, false if it has not been (completely) written yet
+	 */
+	static boolean written(final ByteBuffer segment, final int pos, final int len) {
+		if(len < HEADER_SIZE || pos + 4 + len > segment.capacity()) return false;
+		return segment.getInt(pos + CRC_OFFSET)==crc(segment, pos, len);
+	}
+
+	/**
+	 * Returns the records following the last commit or abort marker in the passed segments, scanning back from the last segment
+	 * @param segments The segment files in sequence order
+	 * @return the trailing records
+	 * @throws IOException thrown on any IO error
+	 */
+	static List<Entry> trailing(final File[] segments) throws IOException {
+		final List<Entry> trailing = new ArrayList<Entry>();
+		for(int i = segments.length - 1; i >= 0; i--) {
+			final MappedByteBuffer seg = map(segments[i], Integer.MAX_VALUE, false);
+			final List<Entry> records = new ArrayList<Entry>();
+			boolean marked = false;
+			int pos = 0, len;
+			while(seg.capacity() - pos >= 4 && written(seg, pos, len = seg.getInt(pos))) {
+				final byte op = seg.get(pos + OP_OFFSET);
+				if(op==OP_COMMIT || op==OP_ABORT) {
+					records.clear();
+					marked = true;
+				} else {
+					records.add(decode(seg, seg.getLong(pos + SEQ_OFFSET), op, pos + 4 + HEADER_SIZE, len - HEADER_SIZE));
+				}
+				pos += recordSize(len);
+			}
+			trailing.addAll(0, records);
+			if(marked) break;
+		}
+		return trailing;
+	}
+
+	/**
+	 * Decodes a record payload
+	 * @param segment The segment holding the record
+	 * @param seq The sequence number
+	 * @param op The op code
+	 * @param offset The payload offset in the segment
+	 * @param length The payload length
+	 * @return the entry
+	 * @throws IOException thrown on any deserialization error
+	 */
+	static Entry decode(final ByteBuffer segment, final long seq, final byte op, final int offset, final int length) throws IOException {
+		final byte[] payload = new byte[length];
+		final ByteBuffer body = segment.duplicate();
+		body.position(offset);
+		body.get(payload);
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		switch(op) {
+		case OP_PUT_UID:
+			return new Entry(seq, op, CachedUIDMetaSerializer.INSTANCE.deserialize(in, length), null);
+		case OP_PUT_TSMETA:
+		case OP_REMOVE_TSMETA:
+			return new Entry(seq, op, null, CachedTSMetaSerializer.INSTANCE.deserialize(in, length));
+		case OP_CLEAR_TSMETAS:
+		case OP_COMMIT:
+		case OP_ABORT:
+			return new Entry(seq, op, null, null);
+		default:
+			throw new IOException("Unknown op [" + op + "] at seq [" + seq + "]");
+		}
+	}
+
+	/**
+	 * Returns the sequence number of the last record
+	 * @return the last sequence number
+	 */
+	public synchronized long getLastSeq() {
+		return lastSeq;
+	}
+
+	/**
+	 * Deletes the segments all of whose records have sequence numbers at or below the passed one,
+	 * e.g. once every follower has checkpointed past them
+	 * @param seq The sequence number
+	 * @return the number of deleted segments
+	 */
+	public synchronized int deleteSegmentsThrough(final long seq) {
+		final File[] segments = segments(dir);
+		int deleted = 0;
+		for(int i = 0; i < segments.length - 1; i++) {
+			if(firstSeq(segments[i+1]) - 1 > seq) break;
+			if(segments[i].delete()) deleted++;
+		}
+		return deleted;
+	}
+
+	/**
+	 * Forces the current segment to disk
+	 */
+	public synchronized void force() {
+		segment.force();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public synchronized void close() {
+		segment.force();
+	}
+
+	/**
+	 * Creates and maps a new segment. The file is sized under a temporary name and then renamed into place,
+	 * so readers never list a segment shorter than its final size.
+	 * @param firstSeq The sequence number of the segment's first record
+	 * @return the mapped segment
+	 * @throws IOException thrown on any IO error
+	 */
+	private MappedByteBuffer newSegment(final long firstSeq) throws IOException {
+		final File file = new File(dir, String.format("%020d", firstSeq) + SEGMENT_SUFFIX);
+		final File temp = new File(dir, file.getName() + TEMP_SUFFIX);
+		final RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		try {
+			raf.setLength(segmentSize);
+		} finally {
+			raf.close();
+		}
+		if(!temp.renameTo(file)) throw new IOException("Failed to rename segment [" + temp + "] to [" + file + "]");
+		return map(file, segmentSize, true);
+	}
+
+	/**
+	 * Maps a segment file
+	 * @param file The segment file
+	 * @param size The segment size
+	 * @param write true to map for writing, creating the file if necessary, false to map for reading
+	 * @return the mapped segment
+	 * @throws IOException thrown on any IO error
+	 */
+	static MappedByteBuffer map(final File file, final int size, final boolean write) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, write ? "rw" : "r");
+		try {
+			if(write && raf.length() < size) raf.setLength(size);
+			return raf.getChannel().map(write ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, Math.min(size, raf.length()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the segment files in the passed directory in sequence order
+	 * @param dir The journal directory
+	 * @return the segment files
+	 */
+	static File[] segments(final File dir) {
+		final File[] files = dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(final File f) {
+				return f.isFile() && f.getName().endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if(files==null) return new File[0];
+		Arrays.sort(files);
+		return files;
+	}
+
+	/**
+	 * Returns the sequence number of the first record in the passed segment file
+	 * @param segment The segment file
+	 * @return the first sequence number
+	 */
+	static long firstSeq(final File segment) {
+		final String name = segment.getName();
+		return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	/**
+	 * <p>Title: Reader</p>
+	 * <p>Description: Tails a journal directory, possibly written by another process, reading the records after a checkpoint.
+	 * A transaction's records are held back until its commit marker is read and dropped if its abort marker is read, so only
+	 * whole committed transactions are returned.</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.ChangeJournal.Reader</code></p>
+	 */
+	public static class Reader {
+		/** The journal directory */
+		final File dir;
+		/** The current segment, null until the first read */
+		MappedByteBuffer segment = null;
+		/** The current segment file */
+		File segmentFile = null;
+		/** The sequence number of the last record read */
+		long lastSeq;
+		/** The sequence number of the last commit or abort marker read, or the starting checkpoint */
+		long lastMarkerSeq;
+		/** The records read since the last marker */
+		final List<Entry> pending = new ArrayList<Entry>();
+
+		/**
+		 * Creates a new Reader
+		 * @param dir The journal directory
+		 * @param afterSeq The sequence number of the last record already applied, 0 to read from the start
+		 */
+		public Reader(final File dir, final long afterSeq) {
+			this.dir = dir;
+			this.lastSeq = afterSeq;
+			this.lastMarkerSeq = afterSeq;
+		}
+
+		/**
+		 * Reads the available records of the committed transactions following the last one read.
+		 * Whole transactions are returned, so more than the maximum may be returned when a transaction is larger than it.
+		 * @param max The maximum number of records to read
+		 * @return the records, empty if there are none yet
+		 */
+		public List<Entry> read(final int max) {
+			final List<Entry> entries = new ArrayList<Entry>(Math.min(max, 1024));
+			try {
+				if(segment==null && !open()) return entries;
+				while(entries.size() < max) {
+					final int pos = segment.position();
+					if(segment.remaining() < 4) {
+						// mapped before the writer finished sizing the segment
+						if(!remap()) break;
+						continue;
+					}
+					final int len = segment.getInt(pos);
+					if(len==END_OF_SEGMENT) {
+						if(!next()) break;
+						continue;
+					}
+					if(!written(segment, pos, len)) break;
+					final long seq = segment.getLong(pos + SEQ_OFFSET);
+					if(seq > lastSeq) {
+						final byte op = segment.get(pos + OP_OFFSET);
+						if(op==OP_COMMIT) {
+							entries.addAll(pending);
+							pending.clear();
+							lastMarkerSeq = seq;
+						} else if(op==OP_ABORT) {
+							pending.clear();
+							lastMarkerSeq = seq;
+						} else {
+							pending.add(decode(segment, seq, op, pos + 4 + HEADER_SIZE, len - HEADER_SIZE));
+						}
+						lastSeq = seq;
+					}
+					segment.position(pos + recordSize(len));
+				}
+			} catch (IOException iex) {
+				throw new RuntimeException("Failed to read journal [" + dir + "] after seq [" + lastSeq + "]", iex);
+			}
+			return entries;
+		}
+
+		/**
+		 * Opens the segment holding the record following the last one read
+		 * @return true if a segment was opened, false if the journal has no segments yet
+		 * @throws IOException thrown on any IO error
+		 */
+		private boolean open() throws IOException {
+			final File[] segments = segments(dir);
+			if(segments.length==0) return false;
+			File target = segments[0];
+			if(firstSeq(target) > lastSeq + 1) throw new IllegalStateException("Journal [" + dir + "] no longer holds seq [" + (lastSeq + 1) + "]");
+			for(File f: segments) {
+				if(firstSeq(f) <= lastSeq + 1) target = f;
+			}
+			segmentFile = target;
+			segment = map(target, Integer.MAX_VALUE, false);
+			return true;
+		}
+
+		/**
+		 * Maps the current segment again if its file has grown since it was mapped
+		 * @return true if the segment was remapped, false if the file has not grown
+		 * @throws IOException thrown on any IO error
+		 */
+		private boolean remap() throws IOException {
+			final MappedByteBuffer remapped = map(segmentFile, Integer.MAX_VALUE, false);
+			if(remapped.capacity() <= segment.capacity()) return false;
+			remapped.position(segment.position());
+			segment = remapped;
+			return true;
+		}
+
+		/**
+		 * Moves to the segment after the current one
+		 * @return true if there is a next segment, false if the writer has not created it yet
+		 * @throws IOException thrown on any IO error
+		 */
+		private boolean next() throws IOException {
+			for(File f: segments(dir)) {
+				if(f.getName().compareTo(segmentFile.getName()) > 0) {
+					segmentFile = f;
+					segment = map(f, Integer.MAX_VALUE, false);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Moves the reader back so the next read starts after the passed sequence number, e.g. after failing to apply a batch
+		 * @param seq The sequence number of the last record applied
+		 */
+		public void rewind(final long seq) {
+			lastSeq = seq;
+			lastMarkerSeq = seq;
+			pending.clear();
+			segment = null;
+			segmentFile = null;
+		}
+
+		/**
+		 * Returns the sequence number of the last commit or abort marker read, the point a restarted reader can resume from
+		 * @return the last marker sequence number read
+		 */
+		public long getLastSeq() {
+			return lastMarkerSeq;
+		}
+	}
+}
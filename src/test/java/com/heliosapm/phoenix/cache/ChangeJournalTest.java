@@ -0,0 +1,257 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mapdb.DB;
+import org.mapdb.TxRollbackException;
+
+/**
+ * <p>Title: ChangeJournalTest</p>
+ * <p>Description: Tests {@link ChangeJournal} write/read round trips, transaction visibility, reopening and segment deletion</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.ChangeJournalTest</code></p>
+ */
+
+public class ChangeJournalTest {
+	/** The temporary folder holding the journal */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	/** The journal directory */
+	File dir = null;
+	/** The journal under test */
+	ChangeJournal journal = null;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = folder.newFolder("journal");
+		journal = new ChangeJournal(dir, 4096);
+	}
+
+	@After
+	public void tearDown() {
+		journal.close();
+	}
+
+	/**
+	 * Creates a TSMeta
+	 * @param id The series id, making up the last bytes of the tsuid
+	 * @return the TSMeta
+	 */
+	static CachedTSMeta meta(final int id) {
+		final Map<String, String> tags = new TreeMap<String, String>();
+		tags.put("host", "web" + id);
+		tags.put("dc", "east");
+		return new CachedTSMeta("sys.cpu", tags, new byte[]{0, 0, 1, 0, 0, 1, (byte)(id >>> 16), (byte)(id >>> 8), (byte)id});
+	}
+
+	/**
+	 * Returns the journal's segment files
+	 * @return the segment files
+	 */
+	File[] segments() {
+		return dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(final File f) {
+				return f.getName().endsWith(ChangeJournal.SEGMENT_SUFFIX);
+			}
+		});
+	}
+
+	@Test
+	public void testRoundTrip() {
+		final CachedUIDMeta uid = new CachedUIDMeta("sys.cpu", new byte[]{0, 0, 1}, UniqueId.UniqueIdType.METRIC);
+		final long uidSeq = journal.appendUID(uid);
+		final long putSeq = journal.appendTSMeta(ChangeJournal.OP_PUT_TSMETA, meta(1));
+		journal.appendCommit();
+		journal.appendTSMeta(ChangeJournal.OP_REMOVE_TSMETA, meta(1));
+		journal.appendClear();
+		journal.appendCommit();
+
+		final List<ChangeJournal.Entry> entries = new ChangeJournal.Reader(dir, 0).read(100);
+		assertEquals(4, entries.size());
+		final ChangeJournal.Entry e0 = entries.get(0);
+		assertEquals(uidSeq, e0.getSeq());
+		assertEquals(ChangeJournal.OP_PUT_UID, e0.getOp());
+		assertEquals(UniqueId.UniqueIdType.METRIC, e0.getType());
+		assertEquals(uid, e0.uidMeta);
+		assertEquals("sys.cpu", e0.uidMeta.getName());
+		final ChangeJournal.Entry e1 = entries.get(1);
+		assertEquals(putSeq, e1.getSeq());
+		assertEquals(ChangeJournal.OP_PUT_TSMETA, e1.getOp());
+		assertEquals(meta(1).getTsuidHex(), e1.tsMeta.getTsuidHex());
+		assertEquals("sys.cpu", e1.tsMeta.getMetric());
+		assertEquals(meta(1).getTags(), e1.tsMeta.getTags());
+		assertEquals(ChangeJournal.OP_REMOVE_TSMETA, entries.get(2).getOp());
+		assertEquals(meta(1).getTsuidHex(), entries.get(2).tsMeta.getTsuidHex());
+		assertEquals(ChangeJournal.OP_CLEAR_TSMETAS, entries.get(3).getOp());
+		assertNull(entries.get(3).tsMeta);
+		assertNull(entries.get(3).getType());
+	}
+
+	@Test
+	public void testUncommittedRecordsAreInvisible() {
+		journal.appendTSMeta(ChangeJournal.OP_PUT_TSMETA, meta(1));
+		journal.appendAbort();
+		journal.appendTSMeta(ChangeJournal.OP_PUT_TSMETA, meta(2));
+		final ChangeJournal.Reader reader = new ChangeJournal.Reader(dir, 0);
+		assertTrue(reader.read(100).isEmpty());
+		final long commitSeq = journal.appendCommit();
+		final List<ChangeJournal.Entry> entries = reader.read(100);
+		assertEquals(1, entries.size());
+		assertEquals(meta(2).getTsuidHex(), entries.get(0).tsMeta.getTsuidHex());
+		assertEquals(commitSeq, reader.getLastSeq());
+	}
+
+	@Test
+	public void testReopen() {
+		journal.appendTSMeta(ChangeJournal.OP_PUT_TSMETA, meta(1));
+		journal.appendCommit();
+		journal.appendTSMeta(ChangeJournal.OP_PUT_TSMETA, meta(2));
+		final long lastSeq = journal.appendTSMeta(ChangeJournal.OP_PUT_TSMETA, meta(3));
+		journal.close();
+
+		journal = new ChangeJournal(dir, 4096);
+		assertEquals(lastSeq, journal.getLastSeq());
+		final List<ChangeJournal.Entry> uncommitted = journal.uncommitted();
+		assertEquals(2, uncommitted.size());
+		assertEquals(meta(2).getTsuidHex(), uncommitted.get(0).tsMeta.getTsuidHex());
+		assertEquals(meta(3).getTsuidHex(), uncommitted.get(1).tsMeta.getTsuidHex());
+		assertEquals(lastSeq + 1, journal.appendCommit());
+		assertTrue(journal.uncommitted().isEmpty());
+		assertEquals(3, new ChangeJournal.Reader(dir, 0).read(100).size());
+	}
+
+	@Test
+	public void testSegmentDeletion() {
+		final int count = 1000;
+		final long[] seqs = new long[count];
+		for(int i = 0; i < count; i++) {
+			seqs[i] = journal.appendTSMeta(ChangeJournal.OP_PUT_TSMETA, meta(i));
+			journal.appendCommit();
+		}
+		final int segmentCount = segments().length;
+		assertTrue("Expected several segments but found [" + segmentCount + "]", segmentCount > 4);
+		assertEquals(count, new ChangeJournal.Reader(dir, 0).read(count * 2).size());
+
+		final long checkpoint = seqs[count / 2];
+		final int deleted = journal.deleteSegmentsThrough(checkpoint);
+		assertTrue(deleted > 0);
+		assertEquals(segmentCount - deleted, segments().length);
+		final List<ChangeJournal.Entry> rest = new ChangeJournal.Reader(dir, checkpoint).read(count * 2);
+		assertEquals(count - count / 2 - 1, rest.size());
+		assertEquals(seqs[count / 2 + 1], rest.get(0).getSeq());
+
+		journal.deleteSegmentsThrough(Long.MAX_VALUE);
+		assertEquals(1, segments().length);
+	}
+
+	@Test
+	public void testTornRecordIsNotRead() throws Exception {
+		journal.appendTSMeta(ChangeJournal.OP_PUT_TSMETA, meta(1));
+		journal.appendCommit();
+		journal.close();
+		// corrupt a payload byte of the first record, as if the writer had not finished writing it
+		final RandomAccessFile raf = new RandomAccessFile(segments()[0], "rw");
+		try {
+			raf.seek(4 + ChangeJournal.HEADER_SIZE + 2);
+			final int b = raf.read();
+			raf.seek(4 + ChangeJournal.HEADER_SIZE + 2);
+			raf.write(b ^ 0xFF);
+		} finally {
+			raf.close();
+		}
+		assertTrue(new ChangeJournal.Reader(dir, 0).read(100).isEmpty());
+		// a reopened writer overwrites the torn record
+		journal = new ChangeJournal(dir, 4096);
+		assertEquals(0, journal.getLastSeq());
+		journal.appendTSMeta(ChangeJournal.OP_PUT_TSMETA, meta(2));
+		journal.appendCommit();
+		final List<ChangeJournal.Entry> entries = new ChangeJournal.Reader(dir, 0).read(100);
+		assertEquals(1, entries.size());
+		assertEquals(meta(2).getTsuidHex(), entries.get(0).tsMeta.getTsuidHex());
+	}
+
+	@Test
+	public void testReaderRemapsGrownSegment() throws Exception {
+		journal.close();
+		final File empty = folder.newFolder("empty");
+		// a segment listed by the reader before the writer sized it
+		final File segment = new File(empty, String.format("%020d", 1) + ChangeJournal.SEGMENT_SUFFIX);
+		assertTrue(segment.createNewFile());
+		final ChangeJournal.Reader reader = new ChangeJournal.Reader(empty, 0);
+		assertTrue(reader.read(100).isEmpty());
+		journal = new ChangeJournal(empty, 4096);
+		journal.appendTSMeta(ChangeJournal.OP_PUT_TSMETA, meta(1));
+		journal.appendCommit();
+		assertEquals(1, reader.read(100).size());
+	}
+
+	@Test
+	public void testFailedJournalerIsAborted() {
+		System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("ChangeJournalTest", 10));
+		journal.close();
+		final CacheImpl cache = CacheImpl.getInstance(new File(folder.getRoot(), "tsmeta.db").getAbsolutePath(), false);
+		try {
+			journal = cache.enableJournal(dir);
+			try {
+				cache.execute(new CacheImpl.TxCallable<Void>() {
+					@Override
+					public Void tx(final DB db) throws TxRollbackException {
+						return null;
+					}
+				}, new CacheImpl.TxJournal<Void>() {
+					@Override
+					public void journal(final ChangeJournal j, final DB db, final Void result) {
+						j.appendTSMeta(ChangeJournal.OP_PUT_TSMETA, meta(1));
+						throw new IllegalStateException("Journaler failed");
+					}
+				});
+				fail("The journaler's failure should propagate");
+			} catch (IllegalStateException expected) {
+				/* No Op */
+			}
+			cache.putCachedTSMeta(meta(2));
+			final List<ChangeJournal.Entry> entries = new ChangeJournal.Reader(dir, 0).read(100);
+			assertEquals(1, entries.size());
+			assertEquals(meta(2).getTsuidHex(), entries.get(0).tsMeta.getTsuidHex());
+		} finally {
+			cache.close();
+		}
+	}
+}
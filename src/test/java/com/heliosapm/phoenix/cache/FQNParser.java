@@ -0,0 +1,194 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: FQNParser</p>
+ * <p>Description: A single pass parser for the <b><code>metric:k1=v1,k2=v2</code></b> TSMeta FQNs in <b><code>TSD_TSMETA.FQN</code></b>,
+ * building {@link CachedTSMeta}s directly without the validation, quoting and hashtable work of {@link ObjectName}.
+ * Metric, tag key and tag value strings are deduplicated through a small direct mapped pool, so the many repeats of the same
+ * names across series share one instance and are not reallocated. Instances are not thread safe; use one per loading thread.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.FQNParser</code></p>
+ */
+
+public class FQNParser {
+	private static final Logger log = LoggerFactory .getLogger(FQNParser.class);
+	/** The default number of pooled strings, a power of 2 */
+	public static final int DEFAULT_POOL_SIZE = 8192;
+
+	/** The string pool */
+	private final String[] pool;
+	/** The string pool index mask */
+	private final int mask;
+
+	/**
+	 * Creates a new FQNParser with the default pool size
+	 */
+	public FQNParser() {
+		this(DEFAULT_POOL_SIZE);
+	}
+
+	/**
+	 * Creates a new FQNParser
+	 * @param poolSize The number of pooled strings, rounded up to a power of 2
+	 */
+	public FQNParser(final int poolSize) {
+		if(poolSize < 1) throw new IllegalArgumentException("Invalid pool size [" + poolSize + "]");
+		int size = 1;
+		while(size < poolSize) size <<= 1;
+		pool = new String[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Parses the passed FQN into a CachedTSMeta
+	 * @param fqn The FQN in the form <b><code>metric:k1=v1,k2=v2</code></b>
+	 * @param tsuid The tsuid bytes of the series
+	 * @return the CachedTSMeta
+	 */
+	public CachedTSMeta parse(final CharSequence fqn, final byte[] tsuid) {
+		if(fqn==null) throw new IllegalArgumentException("The passed FQN was null");
+		if(tsuid==null || tsuid.length==0) throw new IllegalArgumentException("The passed tsuid was null or zero length");
+		final int len = fqn.length();
+		int colon = -1;
+		for(int i = 0; i < len; i++) {
+			if(fqn.charAt(i)==':') {
+				colon = i;
+				break;
+			}
+		}
+		if(colon==-1) throw new IllegalArgumentException("No metric delimiter in FQN [" + fqn + "]");
+		int mStart = 0, mEnd = colon;
+		while(mStart < mEnd && fqn.charAt(mStart) <= ' ') mStart++;
+		while(mEnd > mStart && fqn.charAt(mEnd-1) <= ' ') mEnd--;
+		if(mStart==mEnd) throw new IllegalArgumentException("Empty metric in FQN [" + fqn + "]");
+		final String metric = string(fqn, mStart, mEnd);
+		final TreeMap<String, String> tags = new TreeMap<String, String>();
+		int start = colon + 1;
+		int eq = -1;
+		for(int i = start; i <= len; i++) {
+			final char c = i==len ? ',' : fqn.charAt(i);
+			if(c=='=') {
+				if(eq==-1) eq = i;
+			} else if(c==',') {
+				if(eq==-1 || eq==start) throw new IllegalArgumentException("Invalid tag at offset [" + start + "] in FQN [" + fqn + "]");
+				if(tags.put(string(fqn, start, eq), string(fqn, eq + 1, i))!=null) {
+					throw new IllegalArgumentException("Duplicate tag key at offset [" + start + "] in FQN [" + fqn + "]");
+				}
+				start = i + 1;
+				eq = -1;
+			}
+		}
+		return new CachedTSMeta(tsuid, metric, tags);
+	}
+
+	/**
+	 * Returns the pooled string for the passed character range, creating and pooling it if the pool slot holds a different string
+	 * @param src The source characters
+	 * @param start The start offset, inclusive
+	 * @param end The end offset, exclusive
+	 * @return the string
+	 */
+	String string(final CharSequence src, final int start, final int end) {
+		final int len = end - start;
+		int h = 0;
+		for(int i = start; i < end; i++) {
+			h = 31 * h + src.charAt(i);
+		}
+		final int slot = (h ^ (h >>> 16)) & mask;
+		final String pooled = pool[slot];
+		if(pooled!=null && pooled.length()==len) {
+			int i = 0;
+			while(i < len && pooled.charAt(i)==src.charAt(start + i)) i++;
+			if(i==len) return pooled;
+		}
+		final String s = src.subSequence(start, end).toString();
+		pool[slot] = s;
+		return s;
+	}
+
+	/**
+	 * Benchmarks the parser against the ObjectName path on generated FQNs
+	 * @param args The number of rows (default 2,000,000) and rounds (default 5)
+	 */
+	public static void main(final String[] args) {
+		final int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		final List<String> fqns = new ArrayList<String>(rows);
+		for(int i = 0; i < rows; i++) {
+			fqns.add(new StringBuilder("sys.cpu.").append(i % 97)
+				.append(":cpu=").append(i % 32)
+				.append(",dc=dc").append(i % 5)
+				.append(",host=web").append(i % 20011)
+				.append(",type=").append(i % 3==0 ? "combined" : "user")
+				.toString());
+		}
+		final byte[] tsuid = new byte[15];
+		final FQNParser parser = new FQNParser();
+		for(String fqn: fqns.subList(0, Math.min(rows, 10000))) {
+			final CachedTSMeta a = objectNamePath(fqn, tsuid);
+			final CachedTSMeta b = parser.parse(fqn, tsuid);
+			if(!a.getMetric().equals(b.getMetric()) || !a.getTags().equals(b.getTags())) {
+				throw new IllegalStateException("Parse mismatch for [" + fqn + "]: " + a.getTags() + " vs " + b.getTags());
+			}
+		}
+		log.info("Benchmarking [{}] rows x [{}] rounds", rows, rounds);
+		for(int r = 0; r < rounds; r++) {
+			long start = System.nanoTime();
+			long sink = 0;
+			for(String fqn: fqns) {
+				sink += objectNamePath(fqn, tsuid).getTags().size();
+			}
+			final long onNanos = System.nanoTime() - start;
+			start = System.nanoTime();
+			for(String fqn: fqns) {
+				sink += parser.parse(fqn, tsuid).getTags().size();
+			}
+			final long fpNanos = System.nanoTime() - start;
+			log.info("Round {}: ObjectName: {} ns/row, FQNParser: {} ns/row, speedup: {}x ({})",
+				r, onNanos / rows, fpNanos / rows, String.format("%.2f", (double)onNanos / fpNanos), sink);
+		}
+	}
+
+	/**
+	 * Parses the passed FQN the way it was parsed before this class, through an ObjectName
+	 * @param fqn The FQN
+	 * @param tsuid The tsuid bytes
+	 * @return the CachedTSMeta
+	 */
+	static CachedTSMeta objectNamePath(final String fqn, final byte[] tsuid) {
+		try {
+			final ObjectName on = new ObjectName(fqn);
+			return new CachedTSMeta(on.getDomain(), new TreeMap<String, String>(on.getKeyPropertyList()), tsuid);
+		} catch (Exception ex) {
+			throw new IllegalArgumentException("Invalid FQN [" + fqn + "]", ex);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: FQNParserTest</p>
+ * <p>Description: Tests that {@link FQNParser} parses FQNs the same as the {@link javax.management.ObjectName} path it replaced</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.FQNParserTest</code></p>
+ */
+
+public class FQNParserTest {
+	/** FQNs covering single and many tags, unsorted keys and the punctuation found in metric and tag names */
+	static final String[] FQNS = {
+		"sys.cpu:host=web1",
+		"sys.cpu:type=user,host=web1,dc=east,cpu=0",
+		"sys.cpu.percent:cpu=12,dc=dc-east-1,host=web-01.example.com",
+		"jvm.gc/collections:collector=G1_Young_Generation,app=tsd",
+		"net.if.bytes:iface=eth0.100,direction=in,host=10.0.0.1",
+		"a:b=c",
+		"disk.used:path=/var/lib/data,host=db1",
+		"metric with spaces:tag key=tag value",
+	};
+
+	@Test
+	public void testParityWithObjectName() {
+		final FQNParser parser = new FQNParser();
+		final byte[] tsuid = new byte[]{0, 0, 1, 0, 0, 2, 0, 0, 3};
+		for(String fqn: FQNS) {
+			final CachedTSMeta expected = FQNParser.objectNamePath(fqn, tsuid);
+			final CachedTSMeta actual = parser.parse(fqn, tsuid);
+			assertEquals(fqn, expected.getMetric(), actual.getMetric());
+			assertEquals(fqn, expected.getTags(), actual.getTags());
+			assertArrayEquals(fqn, expected.getTsuid(), actual.getTsuid());
+			assertEquals(fqn, expected.getTsuidHex(), actual.getTsuidHex());
+		}
+	}
+
+	@Test
+	public void testParityOnGeneratedFQNs() {
+		final FQNParser parser = new FQNParser(64);
+		final byte[] tsuid = new byte[15];
+		for(int i = 0; i < 10000; i++) {
+			final String fqn = new StringBuilder("sys.cpu.").append(i % 97)
+				.append(":cpu=").append(i % 32)
+				.append(",dc=dc").append(i % 5)
+				.append(",host=web").append(i % 20011)
+				.append(",type=").append(i % 3==0 ? "combined" : "user")
+				.toString();
+			final CachedTSMeta expected = FQNParser.objectNamePath(fqn, tsuid);
+			final CachedTSMeta actual = parser.parse(fqn, tsuid);
+			assertEquals(fqn, expected.getMetric(), actual.getMetric());
+			assertEquals(fqn, expected.getTags(), actual.getTags());
+		}
+	}
+
+	@Test
+	public void testPooledStrings() {
+		final FQNParser parser = new FQNParser();
+		final CachedTSMeta a = parser.parse(new StringBuilder("sys.cpu:host=web1"), new byte[9]);
+		final CachedTSMeta b = parser.parse(new StringBuilder("sys.cpu:host=web1"), new byte[9]);
+		assertSame(a.getMetric(), b.getMetric());
+		assertSame(a.getTags().get("host"), b.getTags().get("host"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testObjectNamePathRejectsInvalid() {
+		FQNParser.objectNamePath("no-domain-separator", new byte[9]);
+	}
+}
@@ -0,0 +1,244 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * <p>Title: HyperLogLog</p>
+ * <p>Description: A HyperLogLog distinct count sketch over pre-computed 64 bit hashes. Small sets are held as an exact sorted array
+ * of hashes and only switch to <b><code>2^precision</code></b> byte registers once the array would be larger than a quarter of the registers,
+ * so the many low cardinality sketches a tracker holds stay small. Sketches of the same precision can be merged, and serialized to merge
+ * across instances. The estimate is cached and only recomputed after a change.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.HyperLogLog</code></p>
+ */
+
+public class HyperLogLog {
+	/** The minimum precision */
+	public static final int MIN_PRECISION = 4;
+	/** The maximum precision */
+	public static final int MAX_PRECISION = 16;
+	/** The serialized format version */
+	static final byte VERSION = 1;
+	
+	/** The number of index bits */
+	final int precision;
+	/** The number of registers */
+	final int m;
+	/** The maximum number of exact hashes before switching to registers */
+	final int sparseLimit;
+	/** The sorted exact hashes, null once the registers are in use */
+	private long[] sparse = new long[4];
+	/** The number of exact hashes */
+	private int sparseSize = 0;
+	/** The registers, null while the exact hashes are in use */
+	private byte[] registers = null;
+	/** The cached estimate, -1 when it must be recomputed */
+	private volatile long estimate = 0;
+
+	/**
+	 * Creates a new HyperLogLog
+	 * @param precision The number of index bits, between {@link #MIN_PRECISION} and {@link #MAX_PRECISION}
+	 */
+	public HyperLogLog(final int precision) {
+		if(precision < MIN_PRECISION || precision > MAX_PRECISION) throw new IllegalArgumentException("Invalid precision [" + precision + "]");
+		this.precision = precision;
+		this.m = 1 << precision;
+		this.sparseLimit = Math.max(4, m >>> 5);
+	}
+
+	/**
+	 * Adds a hash to the sketch
+	 * @param hash The 64 bit hash of the item
+	 * @return true if the sketch changed
+	 */
+	public synchronized boolean offer(final long hash) {
+		final boolean changed;
+		if(registers==null) {
+			final int pos = Arrays.binarySearch(sparse, 0, sparseSize, hash);
+			if(pos >= 0) return false;
+			if(sparseSize==sparseLimit) {
+				toRegisters();
+				changed = offerRegister(hash);
+			} else {
+				final int ins = -pos - 1;
+				if(sparseSize==sparse.length) sparse = Arrays.copyOf(sparse, Math.min(sparseLimit, sparse.length << 1));
+				System.arraycopy(sparse, ins, sparse, ins + 1, sparseSize - ins);
+				sparse[ins] = hash;
+				sparseSize++;
+				changed = true;
+			}
+		} else {
+			changed = offerRegister(hash);
+		}
+		if(changed) estimate = -1;
+		return changed;
+	}
+	
+	/**
+	 * Updates the register for the passed hash. Caller must hold the sketch lock.
+	 * @param hash The hash
+	 * @return true if the register increased
+	 */
+	private boolean offerRegister(final long hash) {
+		final int index = (int)(hash >>> (64 - precision));
+		final int rho = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+		if(rho > registers[index]) {
+			registers[index] = (byte)rho;
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Moves the exact hashes into the registers. Caller must hold the sketch lock.
+	 */
+	private void toRegisters() {
+		registers = new byte[m];
+		for(int i = 0; i < sparseSize; i++) {
+			offerRegister(sparse[i]);
+		}
+		sparse = null;
+		sparseSize = 0;
+	}
+
+	/**
+	 * Returns the estimated number of distinct hashes offered
+	 * @return the estimate
+	 */
+	public long cardinality() {
+		final long e = estimate;
+		if(e >= 0) return e;
+		synchronized(this) {
+			if(estimate < 0) estimate = compute();
+			return estimate;
+		}
+	}
+	
+	/**
+	 * Computes the estimate. Caller must hold the sketch lock.
+	 * @return the estimate
+	 */
+	private long compute() {
+		if(registers==null) return sparseSize;
+		double sum = 0;
+		int zeros = 0;
+		for(int i = 0; i < m; i++) {
+			final int r = registers[i];
+			sum += 1.0 / (1L << r);
+			if(r==0) zeros++;
+		}
+		final double alpha;
+		switch(m) {
+		case 16: alpha = 0.673; break;
+		case 32: alpha = 0.697; break;
+		case 64: alpha = 0.709; break;
+		default: alpha = 0.7213 / (1 + 1.079 / m);
+		}
+		final double raw = alpha * m * m / sum;
+		if(raw <= 2.5 * m && zeros > 0) {
+			// Linear counting for the small range
+			return Math.round(m * Math.log((double)m / zeros));
+		}
+		return Math.round(raw);
+	}
+
+	/**
+	 * Merges the passed sketch into this one
+	 * @param other The sketch to merge, which must have the same precision
+	 */
+	public void merge(final HyperLogLog other) {
+		if(other.precision!=precision) throw new IllegalArgumentException("Cannot merge precision [" + other.precision + "] into [" + precision + "]");
+		if(other==this) return;
+		final long[] otherSparse;
+		final byte[] otherRegisters;
+		synchronized(other) {
+			otherSparse = other.registers==null ? Arrays.copyOf(other.sparse, other.sparseSize) : null;
+			otherRegisters = other.registers==null ? null : other.registers.clone();
+		}
+		if(otherSparse!=null) {
+			for(long h: otherSparse) offer(h);
+			return;
+		}
+		synchronized(this) {
+			if(registers==null) toRegisters();
+			for(int i = 0; i < m; i++) {
+				if(otherRegisters[i] > registers[i]) registers[i] = otherRegisters[i];
+			}
+			estimate = -1;
+		}
+	}
+
+	/**
+	 * Returns the approximate heap size of the sketch's data
+	 * @return the size in bytes
+	 */
+	public synchronized long getSizeBytes() {
+		return registers==null ? (long)sparse.length << 3 : m;
+	}
+
+	/**
+	 * Writes the sketch to the passed output
+	 * @param out The output to write to
+	 * @throws IOException thrown on any output error
+	 */
+	public synchronized void write(final DataOutput out) throws IOException {
+		out.writeByte(VERSION);
+		out.writeByte(precision);
+		if(registers==null) {
+			out.writeBoolean(false);
+			out.writeInt(sparseSize);
+			for(int i = 0; i < sparseSize; i++) out.writeLong(sparse[i]);
+		} else {
+			out.writeBoolean(true);
+			out.write(registers);
+		}
+	}
+
+	/**
+	 * Reads a sketch written by {@link #write(DataOutput)}
+	 * @param in The input to read from
+	 * @return the sketch
+	 * @throws IOException thrown on any input error
+	 */
+	public static HyperLogLog read(final DataInput in) throws IOException {
+		final byte version = in.readByte();
+		if(version!=VERSION) throw new IOException("Unsupported sketch version [" + version + "]");
+		final HyperLogLog hll = new HyperLogLog(in.readByte());
+		if(in.readBoolean()) {
+			hll.registers = new byte[hll.m];
+			in.readFully(hll.registers);
+			hll.sparse = null;
+			hll.estimate = -1;
+		} else {
+			final int size = in.readInt();
+			if(size < 0 || size > hll.sparseLimit) throw new IOException("Invalid sketch size [" + size + "]");
+			hll.sparse = new long[Math.max(4, size)];
+			for(int i = 0; i < size; i++) hll.sparse[i] = in.readLong();
+			hll.sparseSize = size;
+			hll.estimate = size;
+		}
+		return hll;
+	}
+}
@@ -0,0 +1,132 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: HyperLogLogTest</p>
+ * <p>Description: Tests that {@link HyperLogLog} estimates stay within their expected error bounds,
+ * exactly count small sets, merge as a union and survive serialization</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.HyperLogLogTest</code></p>
+ */
+
+public class HyperLogLogTest {
+
+	/**
+	 * Returns the relative error bound of an estimate: four standard errors of <b><code>1.04 / sqrt(m)</code></b>
+	 * @param precision The sketch precision
+	 * @return the relative error bound
+	 */
+	static double bound(final int precision) {
+		return 4 * 1.04 / Math.sqrt(1 << precision);
+	}
+
+	/**
+	 * Asserts the passed estimate is within the error bound of the actual cardinality
+	 * @param precision The sketch precision
+	 * @param actual The actual cardinality
+	 * @param estimate The estimate
+	 */
+	static void assertWithinBound(final int precision, final long actual, final long estimate) {
+		final double error = Math.abs(estimate - actual) / (double)actual;
+		assertTrue("Estimate [" + estimate + "] of [" + actual + "] at precision [" + precision + "] off by [" + error + "]", error <= bound(precision));
+	}
+
+	@Test
+	public void testErrorBounds() {
+		for(int precision: new int[]{10, 12, 14}) {
+			final Random random = new Random(precision);
+			final HyperLogLog hll = new HyperLogLog(precision);
+			long offered = 0;
+			for(long target: new long[]{100, 1000, 10000, 100000, 1000000}) {
+				for(; offered < target; offered++) {
+					hll.offer(random.nextLong());
+				}
+				assertWithinBound(precision, target, hll.cardinality());
+			}
+		}
+	}
+
+	@Test
+	public void testSmallSetsAreExact() {
+		final HyperLogLog hll = new HyperLogLog(14);
+		final Random random = new Random(1);
+		final long[] hashes = new long[hll.sparseLimit];
+		for(int i = 0; i < hashes.length; i++) {
+			hashes[i] = random.nextLong();
+			assertTrue(hll.offer(hashes[i]));
+		}
+		for(long hash: hashes) {
+			assertFalse(hll.offer(hash));
+		}
+		assertEquals(hashes.length, hll.cardinality());
+	}
+
+	@Test
+	public void testMerge() {
+		final int precision = 12;
+		final Random random = new Random(2);
+		final HyperLogLog a = new HyperLogLog(precision);
+		final HyperLogLog b = new HyperLogLog(precision);
+		for(int i = 0; i < 50000; i++) {
+			final long hash = random.nextLong();
+			a.offer(hash);
+			// a quarter of the hashes are common to both sketches
+			if(i % 4==0) b.offer(hash);
+		}
+		for(int i = 0; i < 25000; i++) {
+			b.offer(random.nextLong());
+		}
+		a.merge(b);
+		assertWithinBound(precision, 75000, a.cardinality());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testMergeRejectsOtherPrecision() {
+		new HyperLogLog(10).merge(new HyperLogLog(12));
+	}
+
+	@Test
+	public void testSerialization() throws Exception {
+		final Random random = new Random(3);
+		for(int count: new int[]{10, 100000}) {
+			final HyperLogLog hll = new HyperLogLog(12);
+			for(int i = 0; i < count; i++) {
+				hll.offer(random.nextLong());
+			}
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			hll.write(new DataOutputStream(baos));
+			final HyperLogLog copy = HyperLogLog.read(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+			assertEquals(hll.cardinality(), copy.cardinality());
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: JournalFollower</p>
+ * <p>Description: Applies the records of a {@link ChangeJournal} written by another cache, typically in another process,
+ * to a {@link CacheImpl}. Each batch of records is applied in one transaction together with the cache's journal checkpoint,
+ * so a restarted follower resumes exactly after the last record it applied.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.JournalFollower</code></p>
+ */
+
+public class JournalFollower implements Runnable {
+	private static final Logger log = LoggerFactory .getLogger(JournalFollower.class);
+	/** The default maximum number of records applied per transaction */
+	public static final int DEFAULT_MAX_BATCH = 1000;
+
+	/** The cache to apply the records to */
+	final CacheImpl cache;
+	/** The journal reader */
+	final ChangeJournal.Reader reader;
+	/** The maximum number of records applied per transaction */
+	final int maxBatch;
+	/** The number of records applied */
+	final AtomicLong applied = new AtomicLong(0);
+
+	/**
+	 * Creates a new JournalFollower starting after the cache's journal checkpoint
+	 * @param cache The cache to apply the records to
+	 * @param dir The journal directory
+	 * @param maxBatch The maximum number of records applied per transaction
+	 */
+	JournalFollower(final CacheImpl cache, final File dir, final int maxBatch) {
+		if(maxBatch < 1) throw new IllegalArgumentException("Invalid max batch [" + maxBatch + "]");
+		this.cache = cache;
+		this.maxBatch = maxBatch;
+		final long checkpoint = cache.getJournalCheckpoint();
+		reader = new ChangeJournal.Reader(dir, checkpoint);
+		log.info("Following journal [{}] from seq [{}]", dir, checkpoint);
+	}
+
+	/**
+	 * Applies all the records available in the journal
+	 * {@inheritDoc}
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		try {
+			poll();
+		} catch (Exception ex) {
+			log.error("Failed to apply journal records after seq [{}]", getCheckpoint(), ex);
+		}
+	}
+
+	/**
+	 * Applies all the records available in the journal
+	 * @return the number of records applied
+	 */
+	public long poll() {
+		long total = 0;
+		List<ChangeJournal.Entry> entries;
+		while(!(entries = reader.read(maxBatch)).isEmpty()) {
+			try {
+				cache.applyJournal(entries);
+			} catch (RuntimeException ex) {
+				reader.rewind(entries.get(0).seq - 1);
+				throw ex;
+			}
+			applied.addAndGet(entries.size());
+			total += entries.size();
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the sequence number of the last record applied
+	 * @return the checkpoint
+	 */
+	public long getCheckpoint() {
+		return reader.getLastSeq();
+	}
+
+	/**
+	 * Returns the number of records applied by this follower
+	 * @return the number of records applied
+	 */
+	public long getApplied() {
+		return applied.get();
+	}
+}
@@ -0,0 +1,127 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Title: LatencyHistogram</p>
+ * <p>Description: A fixed size latency histogram with power of 2 microsecond buckets.
+ * Bucket <b><code>n</code></b> counts latencies in <b><code>[2^(n-1), 2^n)</code></b> microseconds,
+ * so percentiles are reported as the upper bound of the bucket they fall in.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.LatencyHistogram</code></p>
+ */
+
+public class LatencyHistogram {
+	/** The number of buckets, enough for latencies up to ~ 2^40 microseconds */
+	public static final int BUCKETS = 41;
+
+	/** The bucket counts */
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	/** The number of recorded latencies */
+	private final StripedCounter count = new StripedCounter();
+	/** The total of recorded latencies in nanos */
+	private final StripedCounter totalNanos = new StripedCounter();
+
+	/**
+	 * Records a latency
+	 * @param nanos The latency in nanos
+	 */
+	public void record(final long nanos) {
+		final long micros = nanos < 0 ? 0 : nanos / 1000;
+		final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		buckets.incrementAndGet(bucket);
+		count.increment();
+		totalNanos.add(nanos);
+	}
+
+	/**
+	 * Records the latency since the passed start time
+	 * @param startNanos The start time from {@link System#nanoTime()}
+	 * @return the recorded latency in nanos
+	 */
+	public long recordSince(final long startNanos) {
+		final long elapsed = System.nanoTime() - startNanos;
+		record(elapsed);
+		return elapsed;
+	}
+
+	/**
+	 * Returns the number of recorded latencies
+	 * @return the number of recorded latencies
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the mean recorded latency in microseconds
+	 * @return the mean latency
+	 */
+	public long getMeanMicros() {
+		final long c = count.get();
+		return c==0 ? 0 : totalNanos.get() / c / 1000;
+	}
+
+	/**
+	 * Returns the latency in microseconds below which the passed fraction of recorded latencies fall
+	 * @param fraction The fraction, e.g. 0.99 for the 99th percentile
+	 * @return the upper bound of the bucket holding the percentile, or 0 if nothing is recorded
+	 */
+	public long getPercentileMicros(final double fraction) {
+		final long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = buckets.get(i);
+			total += snapshot[i];
+		}
+		if(total==0) return 0;
+		final long target = (long)Math.ceil(total * fraction);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if(seen >= target) return 1L << i;
+		}
+		return 1L << (BUCKETS - 1);
+	}
+
+	/**
+	 * Resets the histogram
+	 */
+	public void reset() {
+		for(int i = 0; i < BUCKETS; i++) buckets.set(i, 0L);
+		count.reset();
+		totalNanos.reset();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new StringBuilder("count=").append(getCount())
+			.append(", mean=").append(getMeanMicros())
+			.append("us, p50=").append(getPercentileMicros(0.5))
+			.append("us, p99=").append(getPercentileMicros(0.99))
+			.append("us").toString();
+	}
+}
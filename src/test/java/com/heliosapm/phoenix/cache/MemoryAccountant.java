@@ -0,0 +1,321 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.mapdb.DB;
+import org.mapdb.Store;
+import org.mapdb.TxRollbackException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: MemoryAccountant</p>
+ * <p>Description: Periodically estimates the bytes each cache map uses and enforces the maps' byte budgets.
+ * For each map it samples values to estimate their deserialized heap size and their stored size (value after the map's compression ratio,
+ * plus key and record overhead, plus the name map entry for UID maps), then derives:<ul>
+ * 	<li><b>store bytes</b>: the map's estimated share of the store file, which is memory mapped and so lives off heap</li>
+ * 	<li><b>heap bytes</b>: the map's share of the MapDB record cache times the average deserialized value size</li>
+ * </ul>
+ * The store's own current and free sizes and the heap used by the cache's in-memory indexes are recorded alongside.
+ * A map over its budget either refuses new puts until it is back under budget ({@link BudgetPolicy#REJECT}), or, for the tsmeta map,
+ * has its least recently seen series evicted ({@link BudgetPolicy#EVICT}).</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.MemoryAccountant</code></p>
+ */
+
+public class MemoryAccountant implements Runnable {
+	private static final Logger log = LoggerFactory .getLogger(MemoryAccountant.class);
+	/** The default period between accounting runs in ms */
+	public static final long DEFAULT_PERIOD = 10000;
+	/** The estimated store overhead per record in bytes (index slot and record header) */
+	public static final int RECORD_OVERHEAD = 16;
+	/** The object header size in bytes */
+	static final int OBJECT_HEADER = 12;
+	/** The array header size in bytes */
+	static final int ARRAY_HEADER = 16;
+	/** The reference size in bytes */
+	static final int REF = 4;
+	/** The size of a TreeMap entry in bytes */
+	static final int TREE_ENTRY = 40;
+	/** The size of a HashMap entry with a boxed int value, including its table slot, in bytes */
+	static final int HASH_ENTRY = 52;
+	
+	/**
+	 * <p>Title: BudgetPolicy</p>
+	 * <p>Description: What happens when a map is over its budget</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.MemoryAccountant.BudgetPolicy</code></p>
+	 */
+	public static enum BudgetPolicy {
+		/** Puts to the map are refused while it is over budget */
+		REJECT,
+		/** The least recently seen entries are evicted until the map is back under budget. TSMeta map only. */
+		EVICT;
+	}
+
+	/** The cache to account */
+	final CacheImpl cache;
+	
+	/**
+	 * Creates a new MemoryAccountant
+	 * @param cache The cache to account
+	 */
+	MemoryAccountant(final CacheImpl cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Runs one accounting and budget enforcement pass
+	 * {@inheritDoc}
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		try {
+			final CacheMetrics metrics = cache.metrics;
+			final Map<CacheMetrics.MapMetrics, Long> sizes = new LinkedHashMap<CacheMetrics.MapMetrics, Long>();
+			long total = 0;
+			for(CacheMetrics.MapMetrics mm: metrics.mapMetrics.values()) {
+				final long size = mm.getSize();
+				sizes.put(mm, size);
+				total += size;
+			}
+			for(Map.Entry<CacheMetrics.MapMetrics, Long> entry: sizes.entrySet()) {
+				account(entry.getKey(), entry.getValue(), total);
+			}
+			accountStore(metrics);
+			metrics.indexHeapBytes = cache.seriesIndex.getSizeBytes() + cache.activity.getSizeBytes() + cache.cardinality.getSizeBytes() + uidFilterBytes();
+			for(Map.Entry<CacheMetrics.MapMetrics, Long> entry: sizes.entrySet()) {
+				enforce(entry.getKey(), entry.getValue());
+			}
+		} catch (Exception ex) {
+			log.warn("Memory accounting pass failed", ex);
+		}
+	}
+	
+	/**
+	 * Updates the byte estimates of one map
+	 * @param mm The map's metrics
+	 * @param size The number of entries in the map
+	 * @param total The number of entries in all maps
+	 */
+	void account(final CacheMetrics.MapMetrics mm, final long size, final long total) {
+		final long[] footprint = sampleFootprint(mm.mapName, CacheMetrics.BYTE_SAMPLE_SIZE);
+		mm.averageObjectBytes = footprint[0];
+		final double storedRatio = cache.compressionStats(mm.mapName).getStoredRatio();
+		final long perEntry = Math.round(mm.getAverageValueBytes() * storedRatio) + footprint[1] + RECORD_OVERHEAD;
+		mm.storeBytes = size * perEntry;
+		final long cached = total==0 ? 0 : Math.min(size, (long)((double)cache.recordCacheSize * size / total));
+		mm.heapBytes = cached * footprint[0];
+	}
+	
+	/**
+	 * Records the store's current and free sizes
+	 * @param metrics The metrics to record to
+	 */
+	void accountStore(final CacheMetrics metrics) {
+		cache.executeRead(new CacheImpl.TxCallable<Void>() {
+			@Override
+			public Void tx(final DB db) throws TxRollbackException {
+				final Store store = Store.forDB(db);
+				if(store!=null) {
+					metrics.storeCurrentBytes = store.getCurrSize();
+					metrics.storeFreeBytes = store.getFreeSize();
+				}
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Returns the total size of the UID Bloom filters
+	 * @return the size in bytes
+	 */
+	long uidFilterBytes() {
+		long bytes = 0;
+		for(UniqueId.UniqueIdType type: UniqueId.UniqueIdType.values()) {
+			final StringBloomFilter filter = cache.getUIDFilter(type);
+			if(filter!=null) bytes += filter.getSizeBytes();
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Updates the over budget flag of one map and evicts its excess if its policy is {@link BudgetPolicy#EVICT}
+	 * @param mm The map's metrics
+	 * @param size The number of entries in the map
+	 */
+	void enforce(final CacheMetrics.MapMetrics mm, final long size) {
+		final long budget = mm.budgetBytes;
+		final BudgetPolicy policy = mm.budgetPolicy;
+		if(budget <= 0 || policy==null) {
+			mm.overBudget = false;
+			return;
+		}
+		final boolean over = mm.storeBytes > budget;
+		if(over && !mm.overBudget) log.warn("Cache map [{}] is over its budget of {} bytes at an estimated {} bytes", mm.mapName, budget, mm.storeBytes);
+		if(over && policy==BudgetPolicy.EVICT && size > 0) {
+			final long perEntry = Math.max(1, mm.storeBytes / size);
+			final int excess = (int)Math.min(Integer.MAX_VALUE, (mm.storeBytes - budget + perEntry - 1) / perEntry);
+			final int evicted = cache.evictTSMetas(leastRecentlySeen(excess));
+			cache.metrics.tsmetaEvictions.add(evicted);
+			mm.storeBytes -= evicted * perEntry;
+			mm.overBudget = mm.storeBytes > budget;
+			return;
+		}
+		mm.overBudget = over;
+	}
+	
+	/**
+	 * Returns the tsuids of the least recently seen series
+	 * @param count The number of series to return
+	 * @return the tsuids
+	 */
+	List<String> leastRecentlySeen(final int count) {
+		final SeriesIndex index = cache.seriesIndex;
+		final SeriesActivity activity = cache.activity;
+		final int capacity = index.capacity();
+		final int n = Math.min(count, index.size());
+		if(n < 1) return new ArrayList<String>(0);
+		// max heap on last-seen holding the n oldest ordinals seen so far
+		final PriorityQueue<long[]> oldest = new PriorityQueue<long[]>(n, new Comparator<long[]>() {
+			@Override
+			public int compare(final long[] a, final long[] b) {
+				return a[1] > b[1] ? -1 : (a[1]==b[1] ? 0 : 1);
+			}
+		});
+		for(int ordinal = 0; ordinal < capacity; ordinal++) {
+			final long lastSeen = activity.getLastSeen(ordinal);
+			if(lastSeen==0L) continue;
+			if(oldest.size() < n) {
+				oldest.add(new long[]{ordinal, lastSeen});
+			} else if(lastSeen < oldest.peek()[1]) {
+				oldest.poll();
+				oldest.add(new long[]{ordinal, lastSeen});
+			}
+		}
+		final List<String> tsuids = new ArrayList<String>(oldest.size());
+		for(long[] o: oldest) {
+			final String tsuid = index.tsuid((int)o[0]);
+			if(tsuid!=null) tsuids.add(tsuid);
+		}
+		return tsuids;
+	}
+	
+	/**
+	 * Estimates the heap size of a string
+	 * @param s The string
+	 * @return the size in bytes
+	 */
+	static long stringBytes(final String s) {
+		return s==null ? 0 : align(OBJECT_HEADER + REF + 4) + align(ARRAY_HEADER + 2L * s.length());
+	}
+	
+	/**
+	 * Estimates the heap size of a byte array
+	 * @param b The byte array
+	 * @return the size in bytes
+	 */
+	static long byteArrayBytes(final byte[] b) {
+		return b==null ? 0 : align(ARRAY_HEADER + b.length);
+	}
+	
+	/**
+	 * Estimates the heap size of a UIDMeta
+	 * @param meta The UIDMeta
+	 * @return the size in bytes
+	 */
+	static long objectBytes(final CachedUIDMeta meta) {
+		return align(OBJECT_HEADER + 3 * REF + 1) + stringBytes(meta.name) + byteArrayBytes(meta.uid) + stringBytes(meta.uidHex);
+	}
+	
+	/**
+	 * Estimates the heap size of a TSMeta
+	 * @param meta The TSMeta
+	 * @return the size in bytes
+	 */
+	static long objectBytes(final CachedTSMeta meta) {
+		long bytes = align(OBJECT_HEADER + 4 * REF) + stringBytes(meta.metric) + byteArrayBytes(meta.tsuid) + stringBytes(meta.tsuidHex);
+		// the unmodifiable wrapper and the tree map
+		bytes += align(OBJECT_HEADER + 2 * REF) + align(OBJECT_HEADER + 4 * REF + 8);
+		for(Map.Entry<String, String> tag: meta.tags.entrySet()) {
+			bytes += TREE_ENTRY + stringBytes(tag.getKey()) + stringBytes(tag.getValue());
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Estimates the stored size of a map key, including the name map entry of a UID
+	 * @param key The key
+	 * @param value The value
+	 * @return the size in bytes
+	 */
+	static long keyBytes(final Object key, final Object value) {
+		if(key instanceof byte[]) return ((byte[])key).length + 1;
+		long bytes = key.toString().length() + 1;
+		if(value instanceof CachedUIDMeta) {
+			final CachedUIDMeta meta = (CachedUIDMeta)value;
+			bytes += meta.name.length() + 1 + meta.uidHex.length() + 1 + RECORD_OVERHEAD;
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Samples the values of the named map
+	 * @param mapName The map name
+	 * @param sampleSize The maximum number of values to sample
+	 * @return the average heap size of a value and the average stored size of a key, in bytes
+	 */
+	long[] sampleFootprint(final String mapName, final int sampleSize) {
+		return cache.executeRead(new CacheImpl.TxCallable<long[]>() {
+			@Override
+			public long[] tx(final DB db) throws TxRollbackException {
+				long objectBytes = 0, keyBytes = 0;
+				int sampled = 0;
+				for(Map.Entry<?, Object> entry: CacheImpl.valueMap(db, mapName).entrySet()) {
+					final Object value = entry.getValue();
+					objectBytes += value instanceof CachedTSMeta ? objectBytes((CachedTSMeta)value) : objectBytes((CachedUIDMeta)value);
+					keyBytes += keyBytes(entry.getKey(), value);
+					if(++sampled==sampleSize) break;
+				}
+				return sampled==0 ? new long[]{0L, 0L} : new long[]{objectBytes / sampled, keyBytes / sampled};
+			}
+		});
+	}
+	
+	/**
+	 * Rounds the passed size up to the 8 byte object alignment
+	 * @param size The size
+	 * @return the aligned size
+	 */
+	static long align(final long size) {
+		return (size + 7) & ~7L;
+	}
+}
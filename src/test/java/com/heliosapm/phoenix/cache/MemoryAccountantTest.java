@@ -0,0 +1,171 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <p>Title: MemoryAccountantTest</p>
+ * <p>Description: Tests {@link MemoryAccountant} enforcement of the {@link MemoryAccountant.BudgetPolicy#REJECT} and {@link MemoryAccountant.BudgetPolicy#EVICT} map budgets.
+ * The budgets are set on the map metrics and the accountant is run directly, so no scheduled run races the assertions.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.MemoryAccountantTest</code></p>
+ */
+
+public class MemoryAccountantTest {
+	/** The temporary folder holding the cache file */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	/** The cache under test */
+	CacheImpl cache = null;
+	/** The accountant under test, which never runs on its own */
+	MemoryAccountant accountant = null;
+
+	@BeforeClass
+	public static void generateCatalog() {
+		System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("MemoryAccountantTest", 10));
+	}
+
+	@Before
+	public void setUp() {
+		cache = CacheImpl.getInstance(new File(folder.getRoot(), "tsmeta.db").getAbsolutePath(), false);
+		accountant = new MemoryAccountant(cache);
+	}
+
+	@After
+	public void tearDown() {
+		cache.close();
+	}
+
+	/**
+	 * Creates a tag value UIDMeta
+	 * @param id The last uid byte
+	 * @return the UIDMeta
+	 */
+	static CachedUIDMeta tagv(final int id) {
+		return new CachedUIDMeta("budget" + id, new byte[]{0x7F, 0x7F, (byte)id}, UniqueId.UniqueIdType.TAGV);
+	}
+
+	/**
+	 * Creates a TSMeta
+	 * @param id The series id, making up the last bytes of the tsuid
+	 * @return the TSMeta
+	 */
+	static CachedTSMeta meta(final int id) {
+		final Map<String, String> tags = new TreeMap<String, String>();
+		tags.put("host", "budget" + id);
+		return new CachedTSMeta("sys.budget", tags, new byte[]{1, 1, 3, 0, 0, 1, 0, (byte)(id >>> 8), (byte)id});
+	}
+
+	/**
+	 * Sets the budget of the named map
+	 * @param mapName The map name
+	 * @param maxBytes The budget in bytes
+	 * @param policy The over budget policy
+	 * @return the map's metrics
+	 */
+	CacheMetrics.MapMetrics budget(final String mapName, final long maxBytes, final MemoryAccountant.BudgetPolicy policy) {
+		final CacheMetrics.MapMetrics mm = cache.metrics.map(mapName);
+		mm.budgetBytes = maxBytes;
+		mm.budgetPolicy = policy;
+		return mm;
+	}
+
+	@Test
+	public void testRejectBudgetDropsPuts() {
+		final List<CachedUIDMeta> metas = new ArrayList<CachedUIDMeta>();
+		for(int id = 0; id < 50; id++) {
+			metas.add(tagv(id));
+		}
+		cache.putCachedUIDMetas(UniqueId.UniqueIdType.TAGV, metas);
+		final CacheMetrics.MapMetrics mm = budget(cache.uidMapNames.get(UniqueId.UniqueIdType.TAGV), 1, MemoryAccountant.BudgetPolicy.REJECT);
+		accountant.run();
+		assertTrue(mm.storeBytes > 1);
+		assertTrue(mm.overBudget);
+		cache.putCachedUIDMeta(UniqueId.UniqueIdType.TAGV, tagv(50));
+		cache.putCachedUIDMetas(UniqueId.UniqueIdType.TAGV, Arrays.asList(tagv(51), tagv(52)));
+		assertNull(cache.getUid(UniqueId.UniqueIdType.TAGV, "budget50"));
+		assertNull(cache.getUid(UniqueId.UniqueIdType.TAGV, "budget52"));
+		assertEquals(3, mm.getRejectedPuts());
+		// other maps are unaffected
+		cache.putCachedTSMeta(meta(1));
+		assertNotNull(cache.getCachedTSMeta(meta(1).getTsuidHex()));
+		// back under budget, puts are admitted again
+		budget(mm.mapName, mm.storeBytes * 2, MemoryAccountant.BudgetPolicy.REJECT);
+		accountant.run();
+		assertFalse(mm.overBudget);
+		cache.putCachedUIDMeta(UniqueId.UniqueIdType.TAGV, tagv(50));
+		assertNotNull(cache.getUid(UniqueId.UniqueIdType.TAGV, "budget50"));
+		assertEquals(3, mm.getRejectedPuts());
+	}
+
+	@Test
+	public void testEvictBudgetEvictsLeastRecentlySeen() {
+		final List<CachedTSMeta> metas = new ArrayList<CachedTSMeta>();
+		for(int id = 0; id < 100; id++) {
+			metas.add(meta(id));
+		}
+		cache.putCachedTSMetas(metas);
+		// later ids were seen more recently
+		final long now = System.currentTimeMillis() + 60000;
+		for(int id = 0; id < 100; id++) {
+			assertTrue(cache.recordActivity(meta(id).getTsuidHex(), now + id));
+		}
+		final CacheMetrics.MapMetrics mm = cache.metrics.map(CacheImpl.TSMETA_NAME);
+		accountant.run();
+		final long full = mm.storeBytes;
+		assertTrue(full > 0);
+		final long evictions = cache.metrics.tsmetaEvictions.get();
+		budget(CacheImpl.TSMETA_NAME, full * 6 / 10, MemoryAccountant.BudgetPolicy.EVICT);
+		accountant.run();
+		final long evicted = cache.metrics.tsmetaEvictions.get() - evictions;
+		assertTrue("evicted " + evicted, evicted >= 40 && evicted <= 41);
+		assertFalse(mm.overBudget);
+		assertTrue(mm.storeBytes <= mm.budgetBytes);
+		for(int id = 0; id < 100; id++) {
+			final boolean kept = cache.getCachedTSMeta(meta(id).getTsuidHex())!=null;
+			assertEquals("series " + id, id >= evicted, kept);
+		}
+		// the next run finds the map under budget
+		accountant.run();
+		assertEquals(evicted, cache.metrics.tsmetaEvictions.get() - evictions);
+		assertFalse(mm.overBudget);
+	}
+}
@@ -0,0 +1,502 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: MetaGenerator</p>
+ * <p>Description: Fills a SQL catalog, typically an embedded H2, with synthetic OpenTSDB meta-data in the
+ * <b><code>TSD_TAGK</code></b>, <b><code>TSD_TAGV</code></b>, <b><code>TSD_METRIC</code></b> and <b><code>TSD_TSMETA</code></b>
+ * tables the cache loads from. The cardinality of each UID type, the distribution of tag counts per series, the distribution
+ * of name lengths and the skew of metric, tag key and tag value popularity are configurable, and the output is reproducible
+ * for a given seed. Series are merged on their TSUID, so the rare duplicate combination collapses into one row.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.MetaGenerator</code></p>
+ */
+
+public class MetaGenerator {
+	private static final Logger log = LoggerFactory .getLogger(MetaGenerator.class);
+	/** The system property which, when set to a series count, makes {@link CacheLoadTest} generate its catalog */
+	public static final String GENERATE_PROP = "tsdbmeta.generate";
+	/** The maximum number of UIDs of one type, the size of a 3 byte UID space */
+	public static final int MAX_UIDS = 0xFFFFFF;
+	/** The default tag count weights, indexed by tag count */
+	public static final int[] DEFAULT_TAG_COUNT_WEIGHTS = {0, 10, 25, 30, 20, 10, 5};
+
+	/** The words metric names are built from */
+	static final String[] METRIC_WORDS = {"sys", "cpu", "mem", "disk", "net", "jvm", "gc", "heap", "app", "http", "requests",
+		"latency", "errors", "queue", "depth", "io", "read", "write", "bytes", "ops", "tsd", "hbase", "rpc", "cache", "hits"};
+	/** The words tag key names are built from */
+	static final String[] TAGK_WORDS = {"host", "dc", "app", "service", "instance", "cpu", "disk", "iface", "env", "region",
+		"rack", "pool", "type", "port", "role"};
+	/** The words tag value names are built from */
+	static final String[] TAGV_WORDS = {"web", "db", "cache", "east", "west", "prod", "stage", "dev", "node", "api", "worker",
+		"batch", "primary", "replica", "example", "com"};
+	/** Hex digits */
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	/** The JDBC URL of the catalog to fill */
+	final String jdbcUrl;
+	/** The number of metrics */
+	int metrics = 1000;
+	/** The number of tag keys */
+	int tagKeys = 50;
+	/** The number of tag values */
+	int tagValues = 100000;
+	/** The number of series */
+	int series = 1000000;
+	/** The relative weights of each tag count, indexed by tag count */
+	int[] tagCountWeights = DEFAULT_TAG_COUNT_WEIGHTS;
+	/** The mean name length */
+	int nameLengthMean = 20;
+	/** The standard deviation of the name length */
+	int nameLengthStdDev = 8;
+	/** The maximum name length */
+	int nameLengthMax = 200;
+	/** The Zipf exponent of metric, tag key and tag value popularity, 0 for uniform */
+	double skew = 1.0D;
+	/** The random seed */
+	long seed = 42L;
+	/** The number of rows per insert batch */
+	int batchSize = 10000;
+
+	/**
+	 * <p>Title: Zipf</p>
+	 * <p>Description: Draws ordinals in <b><code>[0, n)</code></b> with Zipf distributed popularity by inverting a precomputed CDF</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.MetaGenerator.Zipf</code></p>
+	 */
+	static class Zipf {
+		/** The cumulative probabilities, null when uniform */
+		final double[] cdf;
+		/** The number of ordinals */
+		final int n;
+
+		/**
+		 * Creates a new Zipf
+		 * @param n The number of ordinals
+		 * @param exponent The Zipf exponent, 0 for uniform
+		 */
+		Zipf(final int n, final double exponent) {
+			this.n = n;
+			if(exponent <= 0D) {
+				cdf = null;
+				return;
+			}
+			cdf = new double[n];
+			double total = 0D;
+			for(int i = 0; i < n; i++) {
+				total += 1D / Math.pow(i + 1, exponent);
+				cdf[i] = total;
+			}
+			for(int i = 0; i < n; i++) {
+				cdf[i] /= total;
+			}
+		}
+
+		/**
+		 * Draws the next ordinal
+		 * @param random The random to draw with
+		 * @return the ordinal
+		 */
+		int next(final Random random) {
+			if(cdf==null) return random.nextInt(n);
+			final int index = Arrays.binarySearch(cdf, random.nextDouble());
+			return Math.min(n - 1, index < 0 ? -index - 1 : index);
+		}
+	}
+
+	/**
+	 * Creates a new MetaGenerator with the default settings
+	 * @param jdbcUrl The JDBC URL of the catalog to fill
+	 */
+	public MetaGenerator(final String jdbcUrl) {
+		if(jdbcUrl==null || jdbcUrl.trim().isEmpty()) throw new IllegalArgumentException("The passed JDBC URL was null or empty");
+		this.jdbcUrl = jdbcUrl.trim();
+	}
+
+	/**
+	 * Generates a catalog of the passed number of series in the named private in-memory H2 database,
+	 * using the default settings and cardinalities scaled to the series count
+	 * @param dbName The in-memory database name
+	 * @param series The number of series
+	 * @return the JDBC URL of the catalog
+	 */
+	public static String generateInMemory(final String dbName, final int series) {
+		final String url = "jdbc:h2:mem:" + dbName + ";DB_CLOSE_DELAY=-1";
+		new MetaGenerator(url)
+			.series(series)
+			.metrics(Math.max(10, series / 1000))
+			.tagValues(Math.max(100, series / 10))
+			.generate();
+		return url;
+	}
+
+	/**
+	 * Sets the number of metrics
+	 * @param metrics The number of metrics
+	 * @return this generator
+	 */
+	public MetaGenerator metrics(final int metrics) {
+		this.metrics = checkCardinality("metrics", metrics);
+		return this;
+	}
+
+	/**
+	 * Sets the number of tag keys
+	 * @param tagKeys The number of tag keys
+	 * @return this generator
+	 */
+	public MetaGenerator tagKeys(final int tagKeys) {
+		this.tagKeys = checkCardinality("tagKeys", tagKeys);
+		return this;
+	}
+
+	/**
+	 * Sets the number of tag values
+	 * @param tagValues The number of tag values
+	 * @return this generator
+	 */
+	public MetaGenerator tagValues(final int tagValues) {
+		this.tagValues = checkCardinality("tagValues", tagValues);
+		return this;
+	}
+
+	/**
+	 * Sets the number of series
+	 * @param series The number of series
+	 * @return this generator
+	 */
+	public MetaGenerator series(final int series) {
+		if(series < 0) throw new IllegalArgumentException("Invalid series count [" + series + "]");
+		this.series = series;
+		return this;
+	}
+
+	/**
+	 * Sets the relative weights of each tag count. e.g. <b><code>{0, 1, 2}</code></b> generates one third
+	 * of the series with one tag and two thirds with two.
+	 * @param weights The weights indexed by tag count
+	 * @return this generator
+	 */
+	public MetaGenerator tagCountWeights(final int...weights) {
+		if(weights==null || weights.length==0) throw new IllegalArgumentException("The passed weights were null or empty");
+		long total = 0;
+		for(int w: weights) {
+			if(w < 0) throw new IllegalArgumentException("Negative weight in " + Arrays.toString(weights));
+			total += w;
+		}
+		if(total==0) throw new IllegalArgumentException("All weights were zero in " + Arrays.toString(weights));
+		this.tagCountWeights = weights.clone();
+		return this;
+	}
+
+	/**
+	 * Sets the name length distribution, a normal distribution clamped to <b><code>[1, max]</code></b>
+	 * @param mean The mean name length
+	 * @param stdDev The standard deviation of the name length
+	 * @param max The maximum name length
+	 * @return this generator
+	 */
+	public MetaGenerator nameLength(final int mean, final int stdDev, final int max) {
+		if(mean < 1 || stdDev < 0 || max < mean) throw new IllegalArgumentException("Invalid name length distribution mean [" + mean + "], stddev [" + stdDev + "], max [" + max + "]");
+		this.nameLengthMean = mean;
+		this.nameLengthStdDev = stdDev;
+		this.nameLengthMax = max;
+		return this;
+	}
+
+	/**
+	 * Sets the Zipf exponent of metric, tag key and tag value popularity
+	 * @param skew The exponent, 0 for uniform popularity
+	 * @return this generator
+	 */
+	public MetaGenerator skew(final double skew) {
+		if(skew < 0D) throw new IllegalArgumentException("Invalid skew [" + skew + "]");
+		this.skew = skew;
+		return this;
+	}
+
+	/**
+	 * Sets the random seed
+	 * @param seed The seed
+	 * @return this generator
+	 */
+	public MetaGenerator seed(final long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * Validates a UID cardinality
+	 * @param name The setting name
+	 * @param count The cardinality
+	 * @return the cardinality
+	 */
+	private static int checkCardinality(final String name, final int count) {
+		if(count < 1 || count > MAX_UIDS) throw new IllegalArgumentException("Invalid " + name + " count [" + count + "]");
+		return count;
+	}
+
+	/**
+	 * Creates the catalog tables if they do not exist and fills them
+	 * @return the number of distinct series in the catalog
+	 */
+	public long generate() {
+		final long start = System.currentTimeMillis();
+		final Random random = new Random(seed);
+		Connection conn = null;
+		try {
+			Class.forName(CacheImpl.JDBC_DRIVER);
+			conn = DriverManager.getConnection(jdbcUrl, "sa", "");
+			conn.setAutoCommit(false);
+			createTables(conn);
+			final String[] metricNames = generateUIDs(conn, "TSD_METRIC", METRIC_WORDS, '.', metrics, random);
+			final String[] tagkNames = generateUIDs(conn, "TSD_TAGK", TAGK_WORDS, '_', tagKeys, random);
+			final String[] tagvNames = generateUIDs(conn, "TSD_TAGV", TAGV_WORDS, '-', tagValues, random);
+			generateSeries(conn, metricNames, tagkNames, tagvNames, random);
+			final long count = count(conn, "TSD_TSMETA");
+			log.info("Generated [{}] metrics, [{}] tag keys, [{}] tag values and [{}] series in [{}] ms",
+				new Object[]{metrics, tagKeys, tagValues, count, System.currentTimeMillis() - start});
+			return count;
+		} catch (Exception ex) {
+			throw new RuntimeException("Failed to generate catalog in [" + jdbcUrl + "]", ex);
+		} finally {
+			if(conn!=null) try { conn.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Creates the catalog tables if they do not exist
+	 * @param conn The catalog connection
+	 * @throws SQLException thrown on any SQL error
+	 */
+	static void createTables(final Connection conn) throws SQLException {
+		final Statement st = conn.createStatement();
+		try {
+			for(String table: new String[]{"TSD_TAGK", "TSD_TAGV", "TSD_METRIC"}) {
+				st.execute("CREATE TABLE IF NOT EXISTS " + table + "(XUID CHAR(6) NOT NULL PRIMARY KEY, NAME VARCHAR(255) NOT NULL)");
+			}
+			st.execute("CREATE TABLE IF NOT EXISTS TSD_TSMETA(TSUID VARCHAR(255) NOT NULL PRIMARY KEY, FQN VARCHAR(4000) NOT NULL)");
+		} finally {
+			st.close();
+		}
+		conn.commit();
+	}
+
+	/**
+	 * Generates the names of one UID type and merges them into its table
+	 * @param conn The catalog connection
+	 * @param table The UID table
+	 * @param words The words names are built from
+	 * @param separator The word separator
+	 * @param count The number of UIDs
+	 * @param random The random
+	 * @return the names indexed by UID ordinal, where ordinal <b><code>n</code></b> has the uid <b><code>n + 1</code></b>
+	 * @throws SQLException thrown on any SQL error
+	 */
+	String[] generateUIDs(final Connection conn, final String table, final String[] words, final char separator, final int count, final Random random) throws SQLException {
+		final String[] names = new String[count];
+		final PreparedStatement ps = conn.prepareStatement("MERGE INTO " + table + " KEY(XUID) VALUES(?, ?)");
+		try {
+			for(int i = 0; i < count; i++) {
+				names[i] = name(words, separator, nameLength(random), i, random);
+				ps.setString(1, uidHex(i));
+				ps.setString(2, names[i]);
+				ps.addBatch();
+				if(i % batchSize==batchSize-1) ps.executeBatch();
+			}
+			ps.executeBatch();
+			conn.commit();
+		} finally {
+			ps.close();
+		}
+		return names;
+	}
+
+	/**
+	 * Generates the series and merges them into the TSMeta table
+	 * @param conn The catalog connection
+	 * @param metricNames The metric names
+	 * @param tagkNames The tag key names
+	 * @param tagvNames The tag value names
+	 * @param random The random
+	 * @throws SQLException thrown on any SQL error
+	 */
+	void generateSeries(final Connection conn, final String[] metricNames, final String[] tagkNames, final String[] tagvNames, final Random random) throws SQLException {
+		final Zipf metricDist = new Zipf(metrics, skew);
+		final Zipf tagkDist = new Zipf(tagKeys, skew);
+		final Zipf tagvDist = new Zipf(tagValues, skew);
+		final int[] cumulativeWeights = new int[tagCountWeights.length];
+		int totalWeight = 0;
+		for(int i = 0; i < tagCountWeights.length; i++) {
+			totalWeight += tagCountWeights[i];
+			cumulativeWeights[i] = totalWeight;
+		}
+		final int[] tagks = new int[tagCountWeights.length];
+		final StringBuilder tsuid = new StringBuilder(256);
+		final StringBuilder fqn = new StringBuilder(512);
+		final PreparedStatement ps = conn.prepareStatement("MERGE INTO TSD_TSMETA KEY(TSUID) VALUES(?, ?)");
+		try {
+			for(int s = 0; s < series; s++) {
+				final int metric = metricDist.next(random);
+				final int tagCount = Math.min(tagKeys, tagCount(cumulativeWeights, random.nextInt(totalWeight)));
+				// distinct tag keys, in uid order as they are laid out in the tsuid
+				int picked = 0;
+				while(picked < tagCount) {
+					final int tagk = tagkDist.next(random);
+					boolean dup = false;
+					for(int i = 0; i < picked; i++) {
+						if(tagks[i]==tagk) { dup = true; break; }
+					}
+					if(!dup) tagks[picked++] = tagk;
+				}
+				Arrays.sort(tagks, 0, tagCount);
+				tsuid.setLength(0);
+				fqn.setLength(0);
+				tsuid.append(uidHex(metric));
+				fqn.append(metricNames[metric]).append(':');
+				for(int i = 0; i < tagCount; i++) {
+					final int tagv = tagvDist.next(random);
+					tsuid.append(uidHex(tagks[i])).append(uidHex(tagv));
+					if(i > 0) fqn.append(',');
+					fqn.append(tagkNames[tagks[i]]).append('=').append(tagvNames[tagv]);
+				}
+				ps.setString(1, tsuid.toString());
+				ps.setString(2, fqn.toString());
+				ps.addBatch();
+				if(s % batchSize==batchSize-1) {
+					ps.executeBatch();
+					conn.commit();
+				}
+			}
+			ps.executeBatch();
+			conn.commit();
+		} finally {
+			ps.close();
+		}
+	}
+
+	/**
+	 * Returns the tag count for the passed draw from the cumulative weights
+	 * @param cumulativeWeights The cumulative tag count weights
+	 * @param draw A draw in <b><code>[0, total weight)</code></b>
+	 * @return the tag count
+	 */
+	static int tagCount(final int[] cumulativeWeights, final int draw) {
+		for(int i = 0; i < cumulativeWeights.length; i++) {
+			if(draw < cumulativeWeights[i]) return i;
+		}
+		return cumulativeWeights.length - 1;
+	}
+
+	/**
+	 * Draws a name length from the configured distribution
+	 * @param random The random
+	 * @return the name length
+	 */
+	int nameLength(final Random random) {
+		final int length = (int)Math.round(nameLengthMean + random.nextGaussian() * nameLengthStdDev);
+		return Math.max(1, Math.min(nameLengthMax, length));
+	}
+
+	/**
+	 * Builds a name of roughly the passed length from random words, ending in the ordinal in base 36 which keeps
+	 * the names of one UID type unique
+	 * @param words The words to build from
+	 * @param separator The word separator
+	 * @param length The target length
+	 * @param ordinal The UID ordinal
+	 * @param random The random
+	 * @return the name
+	 */
+	static String name(final String[] words, final char separator, final int length, final int ordinal, final Random random) {
+		final String suffix = Integer.toString(ordinal, 36);
+		final StringBuilder b = new StringBuilder(Math.max(length, suffix.length()));
+		while(b.length() + suffix.length() < length) {
+			final String word = words[random.nextInt(words.length)];
+			final int room = length - suffix.length() - b.length() - 1;
+			if(room < 1) break;
+			b.append(word.length() > room ? word.substring(0, room) : word).append(separator);
+		}
+		return b.append(suffix).toString();
+	}
+
+	/**
+	 * Returns the 6 digit uid hex of the UID with the passed ordinal
+	 * @param ordinal The ordinal
+	 * @return the uid hex
+	 */
+	static String uidHex(final int ordinal) {
+		final int uid = ordinal + 1;
+		final char[] c = new char[6];
+		for(int i = 5; i >= 0; i--) {
+			c[i] = HEX[(uid >>> ((5 - i) * 4)) & 0xF];
+		}
+		return new String(c);
+	}
+
+	/**
+	 * Returns the row count of the passed table
+	 * @param conn The catalog connection
+	 * @param table The table
+	 * @return the row count
+	 * @throws SQLException thrown on any SQL error
+	 */
+	static long count(final Connection conn, final String table) throws SQLException {
+		final Statement st = conn.createStatement();
+		try {
+			final ResultSet rset = st.executeQuery("SELECT COUNT(*) FROM " + table);
+			rset.next();
+			return rset.getLong(1);
+		} finally {
+			st.close();
+		}
+	}
+
+	/**
+	 * Generates a catalog. Usage: <b><code>MetaGenerator &lt;jdbc url&gt; [series] [metrics] [tag keys] [tag values]</code></b>
+	 * @param args As above
+	 */
+	public static void main(final String[] args) {
+		if(args.length==0) {
+			System.err.println("Usage: MetaGenerator <jdbc url> [series] [metrics] [tag keys] [tag values]");
+			return;
+		}
+		final MetaGenerator gen = new MetaGenerator(args[0]);
+		if(args.length > 1) gen.series(Integer.parseInt(args[1]));
+		if(args.length > 2) gen.metrics(Integer.parseInt(args[2]));
+		if(args.length > 3) gen.tagKeys(Integer.parseInt(args[3]));
+		if(args.length > 4) gen.tagValues(Integer.parseInt(args[4]));
+		System.out.println("Generated [" + gen.generate() + "] series in [" + args[0] + "]");
+	}
+}
@@ -0,0 +1,119 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Title: NegativeCache</p>
+ * <p>Description: Remembers keys which were looked up in the source and not found, for a short time to live,
+ * so repeated lookups of unknown keys do not go back to the source. When the cache grows past its maximum size
+ * expired entries are purged, and if that is not enough it is cleared.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.NegativeCache</code></p>
+ */
+
+public class NegativeCache {
+	/** The default time to live in ms */
+	public static final long DEFAULT_TTL_MS = TimeUnit.SECONDS.toMillis(30);
+	/** The default maximum number of keys */
+	public static final int DEFAULT_MAX_SIZE = 100000;
+
+	/** The absent keys with their expiry times */
+	private final ConcurrentHashMap<String, Long> expiries = new ConcurrentHashMap<String, Long>();
+	/** The time to live in ms */
+	private final long ttlMs;
+	/** The maximum number of keys */
+	private final int maxSize;
+
+	/**
+	 * Creates a new NegativeCache
+	 * @param ttl The time an absent key is remembered for
+	 * @param unit The unit of the time to live
+	 * @param maxSize The maximum number of keys
+	 */
+	public NegativeCache(final long ttl, final TimeUnit unit, final int maxSize) {
+		if(ttl < 1) throw new IllegalArgumentException("Invalid ttl [" + ttl + "]");
+		if(maxSize < 1) throw new IllegalArgumentException("Invalid max size [" + maxSize + "]");
+		this.ttlMs = unit.toMillis(ttl);
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Records the passed key as absent from the source
+	 * @param key The absent key
+	 */
+	public void add(final String key) {
+		if(expiries.size() >= maxSize) purge();
+		expiries.put(key, System.currentTimeMillis() + ttlMs);
+	}
+
+	/**
+	 * Indicates if the passed key is known to be absent from the source
+	 * @param key The key to test
+	 * @return true if the key was recorded as absent within the time to live
+	 */
+	public boolean contains(final String key) {
+		final Long expiry = expiries.get(key);
+		if(expiry==null) return false;
+		if(expiry < System.currentTimeMillis()) {
+			expiries.remove(key, expiry);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Forgets the passed key, e.g. because it has since been cached
+	 * @param key The key to forget
+	 */
+	public void remove(final String key) {
+		expiries.remove(key);
+	}
+
+	/**
+	 * Returns the number of remembered keys, including any expired but not yet purged
+	 * @return the number of keys
+	 */
+	public int size() {
+		return expiries.size();
+	}
+
+	/**
+	 * Clears the cache
+	 */
+	public void clear() {
+		expiries.clear();
+	}
+
+	/**
+	 * Removes expired keys, clearing the cache if it is still full
+	 */
+	private void purge() {
+		final long now = System.currentTimeMillis();
+		for(Iterator<Map.Entry<String, Long>> iter = expiries.entrySet().iterator(); iter.hasNext();) {
+			if(iter.next().getValue() < now) iter.remove();
+		}
+		if(expiries.size() >= maxSize) expiries.clear();
+	}
+}
@@ -0,0 +1,81 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: NegativeCacheTest</p>
+ * <p>Description: Tests for {@link NegativeCache} membership, expiry and size bounding</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.NegativeCacheTest</code></p>
+ */
+
+public class NegativeCacheTest {
+
+	@Test
+	public void testAddContainsRemove() {
+		final NegativeCache cache = new NegativeCache(1, TimeUnit.MINUTES, 100);
+		assertFalse(cache.contains("000001"));
+		cache.add("000001");
+		assertTrue(cache.contains("000001"));
+		assertFalse(cache.contains("000002"));
+		cache.remove("000001");
+		assertFalse(cache.contains("000001"));
+		cache.add("000001");
+		cache.add("000002");
+		assertEquals(2, cache.size());
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		final NegativeCache cache = new NegativeCache(50, TimeUnit.MILLISECONDS, 100);
+		cache.add("000001");
+		assertTrue(cache.contains("000001"));
+		Thread.sleep(120);
+		assertFalse(cache.contains("000001"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testSizeBound() throws Exception {
+		final NegativeCache cache = new NegativeCache(50, TimeUnit.MILLISECONDS, 10);
+		for(int i = 0; i < 5; i++) cache.add("old" + i);
+		Thread.sleep(120);
+		for(int i = 0; i < 5; i++) cache.add("new" + i);
+		// full: the expired keys are purged to make room
+		cache.add("new5");
+		assertEquals(6, cache.size());
+		for(int i = 0; i <= 5; i++) assertTrue(cache.contains("new" + i));
+		// full of live keys: the cache is cleared rather than exceed its bound
+		for(int i = 6; i < 10; i++) cache.add("new" + i);
+		cache.add("last");
+		assertEquals(1, cache.size());
+		assertTrue(cache.contains("last"));
+	}
+}
@@ -0,0 +1,293 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.DatatypeConverter;
+
+import net.opentsdb.core.TSDB;
+import net.opentsdb.meta.Annotation;
+import net.opentsdb.stats.StatsCollector;
+import net.opentsdb.tsd.RTPublisher;
+import net.opentsdb.uid.UniqueId;
+import net.opentsdb.utils.Config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: NewSeriesPublisher</p>
+ * <p>Description: An OpenTSDB real time publisher which watches the TSD's data point stream for series the {@link CacheImpl} has not seen
+ * and forwards only those to the cache, keeping the cached series catalog current without a re-preload.
+ * Each point costs a hash of its tsuid and a probe of a lock-free {@link SeriesSeenSet} seeded with the already cached series.
+ * First-seen series are put through the cache's write-behind buffer, so the ingest thread never waits for a commit.
+ * Points of already seen series update the series' last-seen time through an ordinal cached in the seen-set,
+ * and series which have since been evicted from the cache are forwarded again.</p>
+ * <p>Configuration:<ul>
+ * 	<li><b><code>tsd.rtpublisher.cache.file</code></b>: The cache file name (required)</li>
+ * 	<li><b><code>tsd.rtpublisher.cache.series</code></b>: The number of series to size the seen-set for (default 4,000,000)</li>
+ * 	<li><b><code>tsd.rtpublisher.cache.batch</code></b>: The maximum number of puts per commit (default 1024)</li>
+ * 	<li><b><code>tsd.rtpublisher.cache.latency</code></b>: The maximum time in ms a put waits before being committed (default 100)</li>
+ * </ul></p>
+ * <p>The publisher, like the rest of this package, is built from the test sources, so it is not in the built artifact and a TSD
+ * cannot load it until the package moves to the main sources.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.NewSeriesPublisher</code></p>
+ */
+
+public class NewSeriesPublisher extends RTPublisher {
+	private static final Logger log = LoggerFactory .getLogger(NewSeriesPublisher.class);
+	
+	/** The config key for the cache file name */
+	public static final String CONFIG_FILE = "tsd.rtpublisher.cache.file";
+	/** The config key for the number of series to size the seen-set for */
+	public static final String CONFIG_SERIES = "tsd.rtpublisher.cache.series";
+	/** The config key for the write-behind max batch */
+	public static final String CONFIG_BATCH = "tsd.rtpublisher.cache.batch";
+	/** The config key for the write-behind max latency in ms */
+	public static final String CONFIG_LATENCY = "tsd.rtpublisher.cache.latency";
+	/** The default number of series to size the seen-set for */
+	public static final int DEFAULT_SERIES = 4000000;
+	/** The default write-behind max batch */
+	public static final int DEFAULT_BATCH = 1024;
+	/** The default write-behind max latency in ms */
+	public static final long DEFAULT_LATENCY = 100;
+	/** The seen-set ordinal hint of a series claimed by a thread which has not yet forwarded it */
+	static final int CLAIMED = -1;
+	/** The seen-set ordinal hint of a forwarded series whose ordinal has not been resolved */
+	static final int FORWARDED = -2;
+	/** The mask of the timestamp bits above a seconds timestamp */
+	static final long SECOND_MASK = 0xFFFFFFFF00000000L;
+	/** The plugin version */
+	public static final String VERSION = "2.1.0";
+	/** The stats prefix for the publisher's counters */
+	public static final String STATS_PREFIX = CacheMetrics.STATS_PREFIX + "newseries.";
+	
+	/** The cache */
+	CacheImpl cache = null;
+	/** The hashes of the seen series */
+	SeriesSeenSet seen = null;
+	/** The number of published points */
+	final StripedCounter points = new StripedCounter();
+	/** The number of first-seen series forwarded to the cache */
+	final StripedCounter newSeries = new StripedCounter();
+	/** The number of evicted series forwarded to the cache again */
+	final StripedCounter returnedSeries = new StripedCounter();
+	/** The number of points dropped because they had no tsuid */
+	final StripedCounter dropped = new StripedCounter();
+	/** Indicates if the seen-set saturation has been logged */
+	volatile boolean saturationLogged = false;
+	
+	/**
+	 * {@inheritDoc}
+	 * @see net.opentsdb.tsd.RTPublisher#initialize(net.opentsdb.core.TSDB)
+	 */
+	@Override
+	public void initialize(final TSDB tsdb) {
+		final Config config = tsdb.getConfig();
+		if(!config.hasProperty(CONFIG_FILE) || config.getString(CONFIG_FILE)==null || config.getString(CONFIG_FILE).trim().isEmpty()) {
+			throw new IllegalArgumentException("The publisher cache file [" + CONFIG_FILE + "] was not configured");
+		}
+		final String fileName = config.getString(CONFIG_FILE).trim();
+		final int series = config.hasProperty(CONFIG_SERIES) ? config.getInt(CONFIG_SERIES) : DEFAULT_SERIES;
+		final int batch = config.hasProperty(CONFIG_BATCH) ? config.getInt(CONFIG_BATCH) : DEFAULT_BATCH;
+		final long latency = config.hasProperty(CONFIG_LATENCY) ? config.getLong(CONFIG_LATENCY) : DEFAULT_LATENCY;
+		initialize(CacheImpl.getInstance(fileName, false), series, batch, latency);
+		log.info("Initialized new series publisher on [{}], seeded series: {}, seen-set bytes: {}", fileName, seen.size(), seen.getSizeBytes());
+	}
+	
+	/**
+	 * Initializes the publisher on the passed cache, seeds the seen-set with the cached series and their ordinals
+	 * and enables the cache's write-behind if it is not already enabled
+	 * @param cache The cache to forward new series to
+	 * @param series The number of series to size the seen-set for
+	 * @param batch The maximum number of puts per commit
+	 * @param latency The maximum time in ms a put waits before being committed
+	 */
+	void initialize(final CacheImpl cache, final int series, final int batch, final long latency) {
+		final SeriesSeenSet set = new SeriesSeenSet(series);
+		final int capacity = cache.seriesIndex.capacity();
+		for(int ordinal = 0; ordinal < capacity; ordinal++) {
+			final String tsuid = cache.seriesIndex.tsuid(ordinal);
+			if(tsuid==null) continue;
+			final long hash = SeriesSeenSet.hash(UniqueId.stringToUid(tsuid));
+			set.add(hash);
+			final int slot = set.indexOf(hash);
+			if(slot >= 0) set.setOrdinal(slot, ordinal);
+		}
+		synchronized(cache) {
+			if(cache.getWriteBehind()==null) cache.enableWriteBehind(batch, latency, TimeUnit.MILLISECONDS);
+		}
+		this.seen = set;
+		this.cache = cache;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see net.opentsdb.tsd.RTPublisher#publishDataPoint(java.lang.String, long, long, java.util.Map, byte[])
+	 */
+	@Override
+	public Deferred<Object> publishDataPoint(final String metric, final long timestamp, final long value, final Map<String, String> tags, final byte[] tsuid) {
+		onDataPoint(metric, timestamp, tags, tsuid);
+		return Deferred.fromResult(null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see net.opentsdb.tsd.RTPublisher#publishDataPoint(java.lang.String, long, double, java.util.Map, byte[])
+	 */
+	@Override
+	public Deferred<Object> publishDataPoint(final String metric, final long timestamp, final double value, final Map<String, String> tags, final byte[] tsuid) {
+		onDataPoint(metric, timestamp, tags, tsuid);
+		return Deferred.fromResult(null);
+	}
+	
+	/**
+	 * Forwards the series of the passed point to the cache if it has not been seen before or has since been evicted,
+	 * otherwise records the point as activity of the series
+	 * @param metric The metric name
+	 * @param timestamp The point timestamp in seconds or ms
+	 * @param tags The tags
+	 * @param tsuid The tsuid bytes
+	 * @return true if the series was forwarded
+	 */
+	boolean onDataPoint(final String metric, final long timestamp, final Map<String, String> tags, final byte[] tsuid) {
+		points.increment();
+		final CacheImpl c = cache;
+		if(c==null) return false;
+		if(tsuid==null || tsuid.length==0 || tags==null || tags.isEmpty()) {
+			dropped.increment();
+			return false;
+		}
+		final long time = (timestamp & SECOND_MASK)==0 ? timestamp * 1000 : timestamp;
+		final SeriesSeenSet set = seen;
+		final long hash = SeriesSeenSet.hash(tsuid);
+		final int slot = set.indexOf(hash);
+		if(slot >= 0) {
+			final int ordinal = set.getOrdinal(slot);
+			if(ordinal >= 0 && c.activity.seen(ordinal, hash, time)) return false;
+			// The thread which claimed the series is forwarding it
+			if(ordinal==CLAIMED) return false;
+			return resolve(c, set, slot, hash, time, metric, tags, tsuid, returnedSeries);
+		}
+		if(!set.add(hash)) return false;
+		final int claimed = set.indexOf(hash);
+		try {
+			if(set.isSaturated()) {
+				// The set may not have recorded the hash, so check the cache before forwarding
+				if(!saturationLogged) {
+					saturationLogged = true;
+					log.warn("The new series seen-set is full at {} series, unseen series are now checked against the cache", set.size());
+				}
+				return resolve(c, set, claimed, hash, time, metric, tags, tsuid, newSeries);
+			}
+			c.putCachedTSMeta(new CachedTSMeta(metric, tags, tsuid));
+			newSeries.increment();
+			return true;
+		} finally {
+			// Later points resolve the series against the cache, which now has it pending or indexed
+			if(claimed >= 0 && set.getOrdinal(claimed)==CLAIMED) set.setOrdinal(claimed, FORWARDED);
+		}
+	}
+	
+	/**
+	 * Looks up a seen series in the cache. Indexed series have the point recorded as activity and their ordinal cached in the seen-set,
+	 * series which are neither indexed nor pending are forwarded to the cache.
+	 * @param c The cache
+	 * @param set The seen-set
+	 * @param slot The seen-set slot of the series, or -1 if the series is not stored in the seen-set
+	 * @param hash The tsuid hash
+	 * @param time The point time in ms
+	 * @param metric The metric name
+	 * @param tags The tags
+	 * @param tsuid The tsuid bytes
+	 * @param forwarded The counter to increment if the series is forwarded
+	 * @return true if the series was forwarded
+	 */
+	private boolean resolve(final CacheImpl c, final SeriesSeenSet set, final int slot, final long hash, final long time, final String metric, final Map<String, String> tags, final byte[] tsuid, final StripedCounter forwarded) {
+		final String tsuidHex = DatatypeConverter.printHexBinary(tsuid);
+		final int ordinal = c.seriesIndex.ordinal(tsuidHex);
+		if(ordinal!=-1) {
+			if(slot >= 0) set.setOrdinal(slot, ordinal);
+			c.activity.seen(ordinal, hash, time);
+			return false;
+		}
+		final WriteBehindBuffer wb = c.getWriteBehind();
+		if(wb!=null && wb.getTSMeta(tsuidHex)!=null) return false;
+		c.putCachedTSMeta(new CachedTSMeta(metric, tags, tsuid));
+		forwarded.increment();
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>No op. Annotations are not cached.</p>
+	 * @see net.opentsdb.tsd.RTPublisher#publishAnnotation(net.opentsdb.meta.Annotation)
+	 */
+	@Override
+	public Deferred<Object> publishAnnotation(final Annotation annotation) {
+		return Deferred.fromResult(null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see net.opentsdb.tsd.RTPublisher#shutdown()
+	 */
+	@Override
+	public Deferred<Object> shutdown() {
+		final CacheImpl c = cache;
+		if(c!=null) {
+			cache = null;
+			c.flush();
+		}
+		return Deferred.fromResult(null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see net.opentsdb.tsd.RTPublisher#version()
+	 */
+	@Override
+	public String version() {
+		return VERSION;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see net.opentsdb.tsd.RTPublisher#collectStats(net.opentsdb.stats.StatsCollector)
+	 */
+	@Override
+	public void collectStats(final StatsCollector collector) {
+		collector.record(STATS_PREFIX + "points", points.get());
+		collector.record(STATS_PREFIX + "series", newSeries.get());
+		collector.record(STATS_PREFIX + "returned", returnedSeries.get());
+		collector.record(STATS_PREFIX + "dropped", dropped.get());
+		final SeriesSeenSet set = seen;
+		if(set!=null) {
+			collector.record(STATS_PREFIX + "seen", set.size());
+			collector.record(STATS_PREFIX + "seen.bytes", set.getSizeBytes());
+			collector.record(STATS_PREFIX + "seen.overflows", set.getOverflows());
+		}
+	}
+}
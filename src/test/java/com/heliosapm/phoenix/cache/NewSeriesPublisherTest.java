@@ -0,0 +1,199 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <p>Title: NewSeriesPublisherTest</p>
+ * <p>Description: Tests {@link NewSeriesPublisher} forwarding of first-seen, saturated and evicted series</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.NewSeriesPublisherTest</code></p>
+ */
+
+public class NewSeriesPublisherTest {
+	/** The temporary folder holding the cache file */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	/** The cache under test */
+	CacheImpl cache = null;
+	/** The publisher under test */
+	NewSeriesPublisher publisher = null;
+	/** The data point timestamp in seconds, after the last-seen time the series are indexed with */
+	static final long TIME = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 3600;
+
+	@BeforeClass
+	public static void generateCatalog() {
+		System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("NewSeriesPublisherTest", 10));
+	}
+
+	@Before
+	public void setUp() {
+		cache = CacheImpl.getInstance(new File(folder.getRoot(), "tsmeta.db").getAbsolutePath(), false);
+		publisher = new NewSeriesPublisher();
+	}
+
+	@After
+	public void tearDown() {
+		publisher.shutdown();
+		cache.close();
+	}
+
+	/**
+	 * Creates a TSMeta
+	 * @param id The series id, making up the last bytes of the tsuid
+	 * @return the TSMeta
+	 */
+	static CachedTSMeta meta(final int id) {
+		final Map<String, String> tags = new TreeMap<String, String>();
+		tags.put("host", "pub" + id);
+		return new CachedTSMeta("sys.pub", tags, new byte[]{1, 1, 1, 0, 0, 1, (byte)(id >>> 16), (byte)(id >>> 8), (byte)id});
+	}
+
+	/**
+	 * Publishes a point of the passed series
+	 * @param meta The series
+	 * @param time The point time in seconds
+	 * @return true if the series was forwarded to the cache
+	 */
+	boolean publish(final CachedTSMeta meta, final long time) {
+		return publisher.onDataPoint(meta.getMetric(), time, meta.getTags(), meta.getTsuid());
+	}
+
+	/**
+	 * Initializes the publisher with a write-behind buffer that only commits on a flush
+	 * @param series The number of series to size the seen-set for
+	 */
+	void initialize(final int series) {
+		publisher.initialize(cache, series, 100000, TimeUnit.HOURS.toMillis(1));
+	}
+
+	@Test
+	public void testConcurrentFirstSeenForwardedOnce() throws Exception {
+		initialize(10000);
+		final int series = 500, threads = 8;
+		final AtomicInteger forwarded = new AtomicInteger(0);
+		final CyclicBarrier barrier = new CyclicBarrier(threads);
+		final Thread[] publishers = new Thread[threads];
+		for(int t = 0; t < threads; t++) {
+			publishers[t] = new Thread("Publisher#" + t) {
+				@Override
+				public void run() {
+					try {
+						barrier.await(10, TimeUnit.SECONDS);
+					} catch (Exception ex) {
+						throw new RuntimeException(ex);
+					}
+					for(int i = 0; i < series; i++) {
+						if(publish(meta(i), TIME)) forwarded.incrementAndGet();
+					}
+				}
+			};
+			publishers[t].start();
+		}
+		for(Thread t: publishers) t.join(30000);
+		assertEquals(series, forwarded.get());
+		assertEquals(series, publisher.newSeries.get());
+		assertEquals(0, publisher.returnedSeries.get());
+		assertEquals(series, cache.getWriteBehind().getPending());
+		cache.flush();
+		assertEquals(series, cache.getSeriesIndex().size());
+		// indexed series resolve their ordinal and record the point as activity
+		assertFalse(publish(meta(7), TIME + 60));
+		assertEquals((TIME + 60) * 1000, cache.getLastSeen(meta(7).getTsuidHex()));
+	}
+
+	@Test
+	public void testSeededSeriesRecordActivity() {
+		for(int i = 0; i < 10; i++) {
+			cache.putCachedTSMeta(meta(i));
+		}
+		initialize(100);
+		for(int i = 0; i < 10; i++) {
+			assertFalse(publish(meta(i), TIME + i));
+			assertEquals((TIME + i) * 1000, cache.getLastSeen(meta(i).getTsuidHex()));
+		}
+		assertEquals(0, publisher.newSeries.get());
+		assertTrue(publish(meta(10), TIME));
+		assertEquals(1, publisher.newSeries.get());
+	}
+
+	@Test
+	public void testSaturationFallsBackToCache() {
+		// a seen-set of 12 entries
+		initialize(12);
+		for(int i = 0; i < 20; i++) {
+			assertTrue(publish(meta(i), TIME));
+		}
+		assertTrue(publisher.seen.isSaturated());
+		assertTrue(publisher.seen.getOverflows() > 0);
+		// pending series are not forwarded again, whether or not the set recorded them
+		for(int i = 0; i < 20; i++) {
+			assertFalse(publish(meta(i), TIME));
+		}
+		cache.flush();
+		for(int i = 0; i < 20; i++) {
+			assertFalse(publish(meta(i), TIME + 60));
+			assertEquals((TIME + 60) * 1000, cache.getLastSeen(meta(i).getTsuidHex()));
+		}
+		assertEquals(20, publisher.newSeries.get());
+		assertEquals(0, publisher.returnedSeries.get());
+		assertEquals(20, cache.getSeriesIndex().size());
+	}
+
+	@Test
+	public void testEvictedSeriesForwardedAgain() {
+		initialize(100);
+		final CachedTSMeta meta = meta(1);
+		assertTrue(publish(meta, TIME));
+		cache.flush();
+		// resolves and caches the ordinal hint
+		assertFalse(publish(meta, TIME + 60));
+		assertEquals(1, cache.evictTSMetas(Collections.singleton(meta.getTsuidHex())));
+		// the stale hint no longer matches the series' activity, so it is forwarded again
+		assertTrue(publish(meta, TIME + 120));
+		assertEquals(1, publisher.returnedSeries.get());
+		assertFalse(publish(meta, TIME + 180));
+		cache.flush();
+		assertNotNull(cache.getCachedTSMeta(meta.getTsuidHex()));
+		assertFalse(publish(meta, TIME + 240));
+		assertEquals((TIME + 240) * 1000, cache.getLastSeen(meta.getTsuidHex()));
+		assertEquals(1, publisher.newSeries.get());
+		assertEquals(1, publisher.returnedSeries.get());
+	}
+}
@@ -0,0 +1,736 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.Arrays;
+
+/**
+ * <p>Title: PostingList</p>
+ * <p>Description: A compressed set of non-negative int ordinals in the style of a roaring bitmap. The ordinals are split into chunks
+ * of 65536 by their high 16 bits. A chunk holding up to {@link #ARRAY_MAX} ordinals is a sorted array of their low 16 bits (2 bytes each),
+ * a denser chunk is a fixed 8KB bitmap, so a posting costs about 2 bytes per series when sparse and at most 1 bit per ordinal when dense,
+ * rather than one bit per ordinal up to its highest. The operations mirror {@link java.util.BitSet}'s, and like it this class is not thread-safe.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.PostingList</code></p>
+ */
+
+public class PostingList implements Cloneable {
+	/** The maximum number of ordinals in an array chunk */
+	public static final int ARRAY_MAX = 4096;
+	/** The number of words in a bitmap chunk */
+	static final int BITMAP_WORDS = 1024;
+	/** The shared empty key array */
+	private static final char[] NO_KEYS = new char[0];
+	/** The shared empty chunk array */
+	private static final Chunk[] NO_CHUNKS = new Chunk[0];
+
+	/** The sorted chunk keys, the high 16 bits of their ordinals */
+	private char[] keys = NO_KEYS;
+	/** The chunks, in key order */
+	private Chunk[] chunks = NO_CHUNKS;
+	/** The number of chunks */
+	private int size = 0;
+
+	/**
+	 * Sets the passed ordinal
+	 * @param ordinal The ordinal to set
+	 */
+	public void set(final int ordinal) {
+		if(ordinal < 0) throw new IndexOutOfBoundsException("ordinal < 0: " + ordinal);
+		final char high = (char)(ordinal >>> 16);
+		final int i = indexOf(high);
+		if(i >= 0) {
+			chunks[i] = chunks[i].add((char)ordinal);
+		} else {
+			insert(-i - 1, high, new ArrayChunk().add((char)ordinal));
+		}
+	}
+
+	/**
+	 * Clears the passed ordinal
+	 * @param ordinal The ordinal to clear
+	 */
+	public void clear(final int ordinal) {
+		if(ordinal < 0) return;
+		final int i = indexOf((char)(ordinal >>> 16));
+		if(i < 0) return;
+		final Chunk c = chunks[i].remove((char)ordinal);
+		if(c.cardinality()==0) delete(i);
+		else chunks[i] = c;
+	}
+
+	/**
+	 * Clears all ordinals
+	 */
+	public void clear() {
+		keys = NO_KEYS;
+		chunks = NO_CHUNKS;
+		size = 0;
+	}
+
+	/**
+	 * Indicates if the passed ordinal is set
+	 * @param ordinal The ordinal to test
+	 * @return true if set, false otherwise
+	 */
+	public boolean get(final int ordinal) {
+		if(ordinal < 0) return false;
+		final int i = indexOf((char)(ordinal >>> 16));
+		return i >= 0 && chunks[i].contains((char)ordinal);
+	}
+
+	/**
+	 * Returns the number of set ordinals
+	 * @return the number of set ordinals
+	 */
+	public int cardinality() {
+		int card = 0;
+		for(int i = 0; i < size; i++) card += chunks[i].cardinality();
+		return card;
+	}
+
+	/**
+	 * Indicates if no ordinals are set
+	 * @return true if empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		return size==0;
+	}
+
+	/**
+	 * Returns the first set ordinal at or after the passed ordinal
+	 * @param from The ordinal to start from
+	 * @return the next set ordinal or -1 if there is none
+	 */
+	public int nextSetBit(final int from) {
+		if(from < 0) throw new IndexOutOfBoundsException("from < 0: " + from);
+		final char high = (char)(from >>> 16);
+		int i = indexOf(high);
+		if(i >= 0) {
+			final int low = chunks[i].next(from & 0xFFFF);
+			if(low >= 0) return (high << 16) | low;
+			i++;
+		} else {
+			i = -i - 1;
+		}
+		return i < size ? (keys[i] << 16) | chunks[i].next(0) : -1;
+	}
+
+	/**
+	 * Retains only the ordinals also set in the passed list
+	 * @param other The list to intersect with
+	 */
+	public void and(final PostingList other) {
+		int i = 0, j = 0, n = 0;
+		while(i < size && j < other.size) {
+			if(keys[i] < other.keys[j]) {
+				i++;
+			} else if(keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				final Chunk c = chunks[i].and(other.chunks[j]);
+				if(c.cardinality() > 0) {
+					keys[n] = keys[i];
+					chunks[n++] = c;
+				}
+				i++;
+				j++;
+			}
+		}
+		Arrays.fill(chunks, n, size, null);
+		size = n;
+	}
+
+	/**
+	 * Adds the ordinals set in the passed list
+	 * @param other The list to union with
+	 */
+	public void or(final PostingList other) {
+		if(other.size==0) return;
+		final char[] k = new char[size + other.size];
+		final Chunk[] c = new Chunk[k.length];
+		int i = 0, j = 0, n = 0;
+		while(i < size || j < other.size) {
+			if(j==other.size || (i < size && keys[i] < other.keys[j])) {
+				k[n] = keys[i];
+				c[n++] = chunks[i++];
+			} else if(i==size || keys[i] > other.keys[j]) {
+				k[n] = other.keys[j];
+				c[n++] = other.chunks[j++].copy();
+			} else {
+				k[n] = keys[i];
+				c[n++] = chunks[i++].or(other.chunks[j++]);
+			}
+		}
+		keys = k;
+		chunks = c;
+		size = n;
+	}
+
+	/**
+	 * Clears the ordinals set in the passed list
+	 * @param other The list of ordinals to clear
+	 */
+	public void andNot(final PostingList other) {
+		int i = 0, j = 0, n = 0;
+		while(i < size) {
+			while(j < other.size && other.keys[j] < keys[i]) j++;
+			final Chunk c = (j < other.size && other.keys[j]==keys[i]) ? chunks[i].andNot(other.chunks[j]) : chunks[i];
+			if(c.cardinality() > 0) {
+				keys[n] = keys[i];
+				chunks[n++] = c;
+			}
+			i++;
+		}
+		Arrays.fill(chunks, n, size, null);
+		size = n;
+	}
+
+	/**
+	 * Indicates if any ordinal is set in both this and the passed list
+	 * @param other The list to test
+	 * @return true if the lists intersect, false otherwise
+	 */
+	public boolean intersects(final PostingList other) {
+		int i = 0, j = 0;
+		while(i < size && j < other.size) {
+			if(keys[i] < other.keys[j]) {
+				i++;
+			} else if(keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				if(chunks[i].intersects(other.chunks[j])) return true;
+				i++;
+				j++;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the estimated heap size of the list in bytes
+	 * @return the estimated size in bytes
+	 */
+	public long getSizeBytes() {
+		long bytes = MemoryAccountant.align(MemoryAccountant.OBJECT_HEADER + 2 * MemoryAccountant.REF + 4)
+				+ MemoryAccountant.align(MemoryAccountant.ARRAY_HEADER + 2L * keys.length)
+				+ MemoryAccountant.align(MemoryAccountant.ARRAY_HEADER + (long)MemoryAccountant.REF * chunks.length);
+		for(int i = 0; i < size; i++) bytes += chunks[i].getSizeBytes();
+		return bytes;
+	}
+
+	/**
+	 * Returns a deep copy of this list
+	 * {@inheritDoc}
+	 * @see java.lang.Object#clone()
+	 */
+	@Override
+	public PostingList clone() {
+		final PostingList p = new PostingList();
+		if(size==0) return p;
+		p.keys = Arrays.copyOf(keys, size);
+		p.chunks = new Chunk[size];
+		for(int i = 0; i < size; i++) p.chunks[i] = chunks[i].copy();
+		p.size = size;
+		return p;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if(this==obj) return true;
+		if(!(obj instanceof PostingList)) return false;
+		final PostingList other = (PostingList)obj;
+		if(size!=other.size) return false;
+		for(int i = 0; i < size; i++) {
+			if(keys[i]!=other.keys[i] || chunks[i].cardinality()!=other.chunks[i].cardinality()) return false;
+			if(chunks[i].and(other.chunks[i]).cardinality()!=chunks[i].cardinality()) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		int h = 1;
+		for(int o = nextSetBit(0); o >= 0; o = o==Integer.MAX_VALUE ? -1 : nextSetBit(o + 1)) h = 31 * h + o;
+		return h;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder b = new StringBuilder("{");
+		for(int o = nextSetBit(0); o >= 0; o = o==Integer.MAX_VALUE ? -1 : nextSetBit(o + 1)) {
+			if(b.length() > 1) b.append(", ");
+			b.append(o);
+		}
+		return b.append("}").toString();
+	}
+
+	/**
+	 * Binary searches the chunk keys
+	 * @param high The key to find
+	 * @return the chunk index, or <b><code>-(insertion point) - 1</code></b> if not found
+	 */
+	private int indexOf(final char high) {
+		return Arrays.binarySearch(keys, 0, size, high);
+	}
+
+	/**
+	 * Inserts a chunk
+	 * @param index The index to insert at
+	 * @param high The chunk key
+	 * @param chunk The chunk
+	 */
+	private void insert(final int index, final char high, final Chunk chunk) {
+		if(size==keys.length) {
+			final int capacity = Math.max(4, size + (size >>> 1));
+			keys = Arrays.copyOf(keys, capacity);
+			chunks = Arrays.copyOf(chunks, capacity);
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(chunks, index, chunks, index + 1, size - index);
+		keys[index] = high;
+		chunks[index] = chunk;
+		size++;
+	}
+
+	/**
+	 * Deletes a chunk
+	 * @param index The index of the chunk to delete
+	 */
+	private void delete(final int index) {
+		System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+		System.arraycopy(chunks, index + 1, chunks, index, size - index - 1);
+		chunks[--size] = null;
+	}
+
+	/**
+	 * <p>Title: Chunk</p>
+	 * <p>Description: The low 16 bits of the ordinals sharing one high 16 bits. Binary operations return a new chunk
+	 * and never modify their operands, while {@link #add(char)} and {@link #remove(char)} may modify and return this chunk.</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.PostingList.Chunk</code></p>
+	 */
+	abstract static class Chunk {
+		/**
+		 * Adds a value
+		 * @param value The value
+		 * @return the chunk now holding the value
+		 */
+		abstract Chunk add(char value);
+		/**
+		 * Removes a value
+		 * @param value The value
+		 * @return the chunk now not holding the value
+		 */
+		abstract Chunk remove(char value);
+		/**
+		 * Indicates if the passed value is held
+		 * @param value The value
+		 * @return true if held, false otherwise
+		 */
+		abstract boolean contains(char value);
+		/**
+		 * Returns the number of values held
+		 * @return the cardinality
+		 */
+		abstract int cardinality();
+		/**
+		 * Returns the first value at or after the passed value
+		 * @param from The value to start from, between 0 and 65536
+		 * @return the next value or -1 if there is none
+		 */
+		abstract int next(int from);
+		/**
+		 * Returns the values held by both chunks
+		 * @param other The other chunk
+		 * @return a new chunk
+		 */
+		abstract Chunk and(Chunk other);
+		/**
+		 * Returns the values held by either chunk
+		 * @param other The other chunk
+		 * @return a new chunk
+		 */
+		abstract Chunk or(Chunk other);
+		/**
+		 * Returns the values held by this chunk and not the other
+		 * @param other The other chunk
+		 * @return a new chunk
+		 */
+		abstract Chunk andNot(Chunk other);
+		/**
+		 * Indicates if the chunks hold a common value
+		 * @param other The other chunk
+		 * @return true if they intersect, false otherwise
+		 */
+		abstract boolean intersects(Chunk other);
+		/**
+		 * Returns a copy of this chunk
+		 * @return the copy
+		 */
+		abstract Chunk copy();
+		/**
+		 * Returns the estimated heap size of the chunk in bytes
+		 * @return the estimated size in bytes
+		 */
+		abstract long getSizeBytes();
+	}
+
+	/**
+	 * <p>Title: ArrayChunk</p>
+	 * <p>Description: A chunk of up to {@link PostingList#ARRAY_MAX} values held as a sorted array</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.PostingList.ArrayChunk</code></p>
+	 */
+	static final class ArrayChunk extends Chunk {
+		/** The sorted values */
+		char[] values;
+		/** The number of values */
+		int cardinality;
+
+		/**
+		 * Creates a new empty ArrayChunk
+		 */
+		ArrayChunk() {
+			this(new char[4], 0);
+		}
+
+		/**
+		 * Creates a new ArrayChunk
+		 * @param values The sorted values
+		 * @param cardinality The number of values
+		 */
+		ArrayChunk(final char[] values, final int cardinality) {
+			this.values = values;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		Chunk add(final char value) {
+			final int pos = Arrays.binarySearch(values, 0, cardinality, value);
+			if(pos >= 0) return this;
+			if(cardinality==ARRAY_MAX) return toBitmap().add(value);
+			final int at = -pos - 1;
+			if(cardinality==values.length) {
+				values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality + (cardinality >>> 1) + 1));
+			}
+			System.arraycopy(values, at, values, at + 1, cardinality - at);
+			values[at] = value;
+			cardinality++;
+			return this;
+		}
+
+		@Override
+		Chunk remove(final char value) {
+			final int pos = Arrays.binarySearch(values, 0, cardinality, value);
+			if(pos < 0) return this;
+			System.arraycopy(values, pos + 1, values, pos, cardinality - pos - 1);
+			cardinality--;
+			if(values.length > 16 && cardinality < (values.length >>> 2)) values = Arrays.copyOf(values, values.length >>> 1);
+			return this;
+		}
+
+		@Override
+		boolean contains(final char value) {
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		int next(final int from) {
+			if(from > 0xFFFF) return -1;
+			int pos = Arrays.binarySearch(values, 0, cardinality, (char)from);
+			if(pos < 0) pos = -pos - 1;
+			return pos < cardinality ? values[pos] : -1;
+		}
+
+		@Override
+		Chunk and(final Chunk other) {
+			final char[] result = new char[cardinality];
+			int n = 0;
+			if(other instanceof ArrayChunk) {
+				final ArrayChunk a = (ArrayChunk)other;
+				int i = 0, j = 0;
+				while(i < cardinality && j < a.cardinality) {
+					if(values[i] < a.values[j]) i++;
+					else if(values[i] > a.values[j]) j++;
+					else {
+						result[n++] = values[i++];
+						j++;
+					}
+				}
+			} else {
+				for(int i = 0; i < cardinality; i++) {
+					if(other.contains(values[i])) result[n++] = values[i];
+				}
+			}
+			return new ArrayChunk(result, n);
+		}
+
+		@Override
+		Chunk or(final Chunk other) {
+			if(other instanceof BitmapChunk) return other.or(this);
+			final ArrayChunk a = (ArrayChunk)other;
+			if(cardinality + a.cardinality > ARRAY_MAX) return toBitmap().or(other);
+			final char[] result = new char[cardinality + a.cardinality];
+			int i = 0, j = 0, n = 0;
+			while(i < cardinality || j < a.cardinality) {
+				if(j==a.cardinality || (i < cardinality && values[i] < a.values[j])) {
+					result[n++] = values[i++];
+				} else if(i==cardinality || values[i] > a.values[j]) {
+					result[n++] = a.values[j++];
+				} else {
+					result[n++] = values[i++];
+					j++;
+				}
+			}
+			return new ArrayChunk(result, n);
+		}
+
+		@Override
+		Chunk andNot(final Chunk other) {
+			final char[] result = new char[cardinality];
+			int n = 0;
+			for(int i = 0; i < cardinality; i++) {
+				if(!other.contains(values[i])) result[n++] = values[i];
+			}
+			return new ArrayChunk(result, n);
+		}
+
+		@Override
+		boolean intersects(final Chunk other) {
+			for(int i = 0; i < cardinality; i++) {
+				if(other.contains(values[i])) return true;
+			}
+			return false;
+		}
+
+		@Override
+		Chunk copy() {
+			return new ArrayChunk(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+		}
+
+		@Override
+		long getSizeBytes() {
+			return MemoryAccountant.align(MemoryAccountant.OBJECT_HEADER + MemoryAccountant.REF + 4) + MemoryAccountant.align(MemoryAccountant.ARRAY_HEADER + 2L * values.length);
+		}
+
+		/**
+		 * Converts this chunk to a bitmap
+		 * @return the bitmap chunk
+		 */
+		BitmapChunk toBitmap() {
+			final long[] words = new long[BITMAP_WORDS];
+			for(int i = 0; i < cardinality; i++) words[values[i] >>> 6] |= 1L << values[i];
+			return new BitmapChunk(words, cardinality);
+		}
+	}
+
+	/**
+	 * <p>Title: BitmapChunk</p>
+	 * <p>Description: A chunk of more than {@link PostingList#ARRAY_MAX} values held as a 65536 bit bitmap</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.PostingList.BitmapChunk</code></p>
+	 */
+	static final class BitmapChunk extends Chunk {
+		/** The bitmap words */
+		final long[] words;
+		/** The number of set bits */
+		int cardinality;
+
+		/**
+		 * Creates a new BitmapChunk
+		 * @param words The bitmap words
+		 * @param cardinality The number of set bits
+		 */
+		BitmapChunk(final long[] words, final int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		Chunk add(final char value) {
+			final long bit = 1L << value;
+			final int w = value >>> 6;
+			if((words[w] & bit)==0) {
+				words[w] |= bit;
+				cardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		Chunk remove(final char value) {
+			final long bit = 1L << value;
+			final int w = value >>> 6;
+			if((words[w] & bit)!=0) {
+				words[w] &= ~bit;
+				cardinality--;
+			}
+			return cardinality <= ARRAY_MAX ? toArray() : this;
+		}
+
+		@Override
+		boolean contains(final char value) {
+			return (words[value >>> 6] & (1L << value))!=0;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		int next(final int from) {
+			if(from > 0xFFFF) return -1;
+			int w = from >>> 6;
+			long word = words[w] & (-1L << from);
+			while(true) {
+				if(word!=0) return (w << 6) + Long.numberOfTrailingZeros(word);
+				if(++w==BITMAP_WORDS) return -1;
+				word = words[w];
+			}
+		}
+
+		@Override
+		Chunk and(final Chunk other) {
+			if(other instanceof ArrayChunk) return other.and(this);
+			final long[] o = ((BitmapChunk)other).words;
+			final long[] result = new long[BITMAP_WORDS];
+			int card = 0;
+			for(int i = 0; i < BITMAP_WORDS; i++) {
+				result[i] = words[i] & o[i];
+				card += Long.bitCount(result[i]);
+			}
+			return fromWords(result, card);
+		}
+
+		@Override
+		Chunk or(final Chunk other) {
+			final long[] result = Arrays.copyOf(words, BITMAP_WORDS);
+			int card = cardinality;
+			if(other instanceof ArrayChunk) {
+				final ArrayChunk a = (ArrayChunk)other;
+				for(int i = 0; i < a.cardinality; i++) {
+					final char v = a.values[i];
+					final long bit = 1L << v;
+					if((result[v >>> 6] & bit)==0) {
+						result[v >>> 6] |= bit;
+						card++;
+					}
+				}
+			} else {
+				final long[] o = ((BitmapChunk)other).words;
+				card = 0;
+				for(int i = 0; i < BITMAP_WORDS; i++) {
+					result[i] |= o[i];
+					card += Long.bitCount(result[i]);
+				}
+			}
+			return new BitmapChunk(result, card);
+		}
+
+		@Override
+		Chunk andNot(final Chunk other) {
+			final long[] result = Arrays.copyOf(words, BITMAP_WORDS);
+			int card = cardinality;
+			if(other instanceof ArrayChunk) {
+				final ArrayChunk a = (ArrayChunk)other;
+				for(int i = 0; i < a.cardinality; i++) {
+					final char v = a.values[i];
+					final long bit = 1L << v;
+					if((result[v >>> 6] & bit)!=0) {
+						result[v >>> 6] &= ~bit;
+						card--;
+					}
+				}
+			} else {
+				final long[] o = ((BitmapChunk)other).words;
+				card = 0;
+				for(int i = 0; i < BITMAP_WORDS; i++) {
+					result[i] &= ~o[i];
+					card += Long.bitCount(result[i]);
+				}
+			}
+			return fromWords(result, card);
+		}
+
+		@Override
+		boolean intersects(final Chunk other) {
+			if(other instanceof ArrayChunk) return other.intersects(this);
+			final long[] o = ((BitmapChunk)other).words;
+			for(int i = 0; i < BITMAP_WORDS; i++) {
+				if((words[i] & o[i])!=0) return true;
+			}
+			return false;
+		}
+
+		@Override
+		Chunk copy() {
+			return new BitmapChunk(Arrays.copyOf(words, BITMAP_WORDS), cardinality);
+		}
+
+		@Override
+		long getSizeBytes() {
+			return MemoryAccountant.align(MemoryAccountant.OBJECT_HEADER + MemoryAccountant.REF + 4) + MemoryAccountant.ARRAY_HEADER + 8L * BITMAP_WORDS;
+		}
+
+		/**
+		 * Converts this chunk to an array
+		 * @return the array chunk
+		 */
+		ArrayChunk toArray() {
+			final char[] values = new char[Math.max(cardinality, 1)];
+			int n = 0;
+			for(int v = next(0); v >= 0; v = next(v + 1)) values[n++] = (char)v;
+			return new ArrayChunk(values, n);
+		}
+
+		/**
+		 * Returns a chunk over the passed words, converting to an array if sparse
+		 * @param words The bitmap words
+		 * @param cardinality The number of set bits
+		 * @return the chunk
+		 */
+		static Chunk fromWords(final long[] words, final int cardinality) {
+			final BitmapChunk b = new BitmapChunk(words, cardinality);
+			return cardinality <= ARRAY_MAX ? b.toArray() : b;
+		}
+	}
+}
@@ -0,0 +1,545 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.bind.DatatypeConverter;
+
+import net.opentsdb.uid.UniqueId;
+
+import com.heliosapm.phoenix.udf.OpenTSDBFunctions;
+
+/**
+ * <p>Title: ScanPlanner</p>
+ * <p>Description: Builds scan plans for the <b><code>tsdb</code></b> data table from a metric and tag filter, using the UID maps
+ * and series index of a {@link CacheImpl} and the row key layout of {@link OpenTSDBFunctions}
+ * (<b><code>metric uid | base time | tagk uid | tagv uid ...</code></b>). The plan is either a sorted list of exact row ranges,
+ * one per matching series per hour, or a single range over the metric's rows in the time bounds with a tag row key regex,
+ * whichever is estimated to touch fewer rows.</p>
+ * <p>Filters take the form <b><code>metric{host=web*,dc=east|west,rack=*}</code></b>: a value may be a literal, a prefix ending
+ * in <b><code>*</code></b>, alternatives separated by <b><code>|</code></b>, or <b><code>*</code></b> for any value.
+ * Exact ranges only cover the series in the cache, row filters cover every series of the metric.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.ScanPlanner</code></p>
+ */
+
+public class ScanPlanner {
+	/** The charset HBase row key regex filters decode keys with */
+	public static final Charset CHARSET = Charset.forName("ISO-8859-1");
+	/** The number of seconds in one row */
+	public static final int ROW_SPAN = 3600;
+	/** The default estimated cost of one range seek, in rows read */
+	public static final int DEFAULT_SEEK_COST = 16;
+	/** The default maximum number of exact ranges in a plan */
+	public static final int DEFAULT_MAX_RANGES = 10000;
+	/** The width of one tag pair in the row key */
+	static final int TAG_WIDTH = OpenTSDBFunctions.TAGK_WIDTH + OpenTSDBFunctions.TAGV_WIDTH;
+	/** The alternative separator in tag filters */
+	static final String OR = "|";
+	
+	/** Unsigned lexicographic byte array comparator, the order of HBase row keys */
+	static final Comparator<byte[]> UNSIGNED = new Comparator<byte[]>() {
+		@Override
+		public int compare(final byte[] a, final byte[] b) {
+			final int len = Math.min(a.length, b.length);
+			for(int i = 0; i < len; i++) {
+				final int d = (a[i] & 0xff) - (b[i] & 0xff);
+				if(d!=0) return d;
+			}
+			return a.length - b.length;
+		}
+	};
+	
+	/** The cache to plan from */
+	final CacheImpl cache;
+	/** The estimated cost of one range seek, in rows read */
+	final int seekCost;
+	/** The maximum number of exact ranges in a plan */
+	final int maxRanges;
+	
+	/**
+	 * <p>Title: Strategy</p>
+	 * <p>Description: The scan strategies of a plan</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.ScanPlanner.Strategy</code></p>
+	 */
+	public static enum Strategy {
+		/** Nothing can match, no scan is needed */
+		EMPTY,
+		/** Scan the exact rows of each matching series */
+		EXACT_RANGES,
+		/** Scan the metric's rows in the time bounds through the tag regex */
+		ROW_FILTER;
+	}
+
+	/**
+	 * Creates a new ScanPlanner with the default seek cost and range limit
+	 * @param cache The cache to plan from
+	 */
+	public ScanPlanner(final CacheImpl cache) {
+		this(cache, DEFAULT_SEEK_COST, DEFAULT_MAX_RANGES);
+	}
+
+	/**
+	 * Creates a new ScanPlanner
+	 * @param cache The cache to plan from
+	 * @param seekCost The estimated cost of one range seek, in rows read
+	 * @param maxRanges The maximum number of exact ranges in a plan
+	 */
+	public ScanPlanner(final CacheImpl cache, final int seekCost, final int maxRanges) {
+		if(cache==null) throw new IllegalArgumentException("The passed cache was null");
+		if(seekCost < 1) throw new IllegalArgumentException("Invalid seek cost [" + seekCost + "]");
+		if(maxRanges < 1) throw new IllegalArgumentException("Invalid max ranges [" + maxRanges + "]");
+		this.cache = cache;
+		this.seekCost = seekCost;
+		this.maxRanges = maxRanges;
+	}
+	
+	/**
+	 * Plans the scan for the passed filter and time bounds
+	 * @param filter The filter, e.g. <b><code>sys.cpu{host=web*,dc=east|west}</code></b>
+	 * @param startTime The start time in seconds, inclusive
+	 * @param endTime The end time in seconds, inclusive
+	 * @return the scan plan
+	 */
+	public ScanPlan plan(final String filter, final long startTime, final long endTime) {
+		if(endTime < startTime) throw new IllegalArgumentException("End time [" + endTime + "] is before start time [" + startTime + "]");
+		final String f = filter==null ? "" : filter.trim();
+		final int brace = f.indexOf('{');
+		final String metric = (brace==-1 ? f : f.substring(0, brace)).trim();
+		if(metric.isEmpty()) throw new IllegalArgumentException("No metric in filter [" + filter + "]");
+		final Map<String, String> tagFilters = new LinkedHashMap<String, String>();
+		if(brace!=-1) {
+			if(!f.endsWith("}")) throw new IllegalArgumentException("Unterminated tags in filter [" + filter + "]");
+			for(String pair: f.substring(brace + 1, f.length()-1).split(",")) {
+				if(pair.trim().isEmpty()) continue;
+				final int eq = pair.indexOf('=');
+				if(eq < 1) throw new IllegalArgumentException("Invalid tag [" + pair + "] in filter [" + filter + "]");
+				tagFilters.put(pair.substring(0, eq).trim(), pair.substring(eq + 1).trim());
+			}
+		}
+		final long baseStart = startTime - (startTime % ROW_SPAN);
+		final long baseEnd = endTime - (endTime % ROW_SPAN);
+		final int hours = (int)((baseEnd - baseStart) / ROW_SPAN) + 1;
+		final ScanPlan plan = new ScanPlan(filter, baseStart, baseEnd, hours);
+		final CachedUIDMeta metricUid = cache.getUid(UniqueId.UniqueIdType.METRIC, metric);
+		if(metricUid==null) return plan;
+		plan.metricUid = metricUid.getUid();
+		plan.startRow = rowKey(plan.metricUid, baseStart, null);
+		plan.stopRow = rowKey(plan.metricUid, baseEnd + ROW_SPAN, null);
+		final PostingList metricSeries = cache.seriesIndex.metric(metric);
+		final PostingList matches = metricSeries.clone();
+		final List<TagMatch> tagMatches = new ArrayList<TagMatch>(tagFilters.size());
+		for(Map.Entry<String, String> entry: tagFilters.entrySet()) {
+			final TagMatch tm = resolve(entry.getKey(), entry.getValue(), metricSeries);
+			if(tm==null) return plan;
+			matches.and(tm.series);
+			tagMatches.add(tm);
+		}
+		plan.metricSeries = metricSeries.cardinality();
+		plan.matchedSeries = matches.cardinality();
+		if(plan.matchedSeries==0 && plan.metricSeries > 0) return plan;
+		final long exactRanges = (long)plan.matchedSeries * hours;
+		final long filterRows = (long)Math.max(plan.metricSeries, 1) * hours;
+		if(plan.metricSeries > 0 && exactRanges <= maxRanges && exactRanges * seekCost < filterRows) {
+			plan.strategy = Strategy.EXACT_RANGES;
+			plan.estimatedRows = exactRanges;
+			plan.ranges = exactRanges(plan.metricUid, matches, baseStart, hours);
+		} else {
+			plan.strategy = Strategy.ROW_FILTER;
+			plan.estimatedRows = filterRows;
+			plan.regex = regex(tagMatches);
+		}
+		return plan;
+	}
+	
+	/**
+	 * Resolves a tag filter to UIDs and matching series
+	 * @param tagKey The tag key
+	 * @param valueFilter The value filter
+	 * @param scope The metric's series, to limit prefix expansion to
+	 * @return the resolved match or null if the filter cannot match
+	 */
+	TagMatch resolve(final String tagKey, final String valueFilter, final PostingList scope) {
+		final CachedUIDMeta tagk = cache.getUid(UniqueId.UniqueIdType.TAGK, tagKey);
+		if(tagk==null) return null;
+		if(valueFilter.isEmpty() || SeriesIndex.WILDCARD.equals(valueFilter)) {
+			return new TagMatch(tagk.getUid(), null, cache.seriesIndex.tagKey(tagKey));
+		}
+		final Set<String> values = new LinkedHashSet<String>();
+		for(String alt: valueFilter.split("\\" + OR)) {
+			final String v = alt.trim();
+			if(v.isEmpty()) continue;
+			if(v.endsWith(SeriesIndex.WILDCARD)) {
+				values.addAll(cache.seriesIndex.suggestTagValues(tagKey, v.substring(0, v.length()-1), scope, Integer.MAX_VALUE));
+			} else {
+				values.add(v);
+			}
+		}
+		final PostingList series = new PostingList();
+		final List<byte[]> tagvs = new ArrayList<byte[]>(values.size());
+		for(CachedUIDMeta tagv: cache.getUids(UniqueId.UniqueIdType.TAGV, values).values()) {
+			tagvs.add(tagv.getUid());
+			series.or(cache.seriesIndex.tag(tagKey, tagv.getName()));
+		}
+		if(tagvs.isEmpty()) return null;
+		Collections.sort(tagvs, UNSIGNED);
+		return new TagMatch(tagk.getUid(), tagvs, series);
+	}
+	
+	/**
+	 * Builds the sorted exact row ranges of the passed series
+	 * @param metricUid The metric uid
+	 * @param series The series ordinals
+	 * @param baseStart The first row base time
+	 * @param hours The number of rows per series
+	 * @return the sorted ranges
+	 */
+	List<RowRange> exactRanges(final byte[] metricUid, final PostingList series, final long baseStart, final int hours) {
+		final List<byte[]> tags = new ArrayList<byte[]>(series.cardinality());
+		for(String tsuid: cache.seriesIndex.tsuids(series)) {
+			final byte[] bytes = UniqueId.stringToUid(tsuid);
+			tags.add(Arrays.copyOfRange(bytes, OpenTSDBFunctions.METRIC_WIDTH, bytes.length));
+		}
+		Collections.sort(tags, UNSIGNED);
+		final List<RowRange> ranges = new ArrayList<RowRange>(tags.size() * hours);
+		for(int h = 0; h < hours; h++) {
+			final long baseTime = baseStart + ((long)h * ROW_SPAN);
+			for(byte[] t: tags) {
+				final byte[] start = rowKey(metricUid, baseTime, t);
+				ranges.add(new RowRange(start, Arrays.copyOf(start, start.length + 1)));
+			}
+		}
+		return ranges;
+	}
+	
+	/**
+	 * Builds the row key regex for the passed tag matches, in the style of OpenTSDB's own tag filter.
+	 * Row key tags are sorted by tagk uid, so the matches are applied in that order.
+	 * @param tagMatches The tag matches
+	 * @return the regex, or null if there are no tag matches
+	 */
+	static String regex(final List<TagMatch> tagMatches) {
+		if(tagMatches.isEmpty()) return null;
+		final List<TagMatch> sorted = new ArrayList<TagMatch>(tagMatches);
+		Collections.sort(sorted, new Comparator<TagMatch>() {
+			@Override
+			public int compare(final TagMatch a, final TagMatch b) {
+				return UNSIGNED.compare(a.tagk, b.tagk);
+			}
+		});
+		final StringBuilder b = new StringBuilder("(?s)^.{").append(OpenTSDBFunctions.MTWIDTH).append('}');
+		for(TagMatch tm: sorted) {
+			b.append("(?:.{").append(TAG_WIDTH).append("})*");
+			addId(b, tm.tagk);
+			if(tm.tagvs==null) {
+				b.append(".{").append(OpenTSDBFunctions.TAGV_WIDTH).append('}');
+			} else {
+				b.append("(?:");
+				for(int i = 0; i < tm.tagvs.size(); i++) {
+					if(i > 0) b.append('|');
+					addId(b, tm.tagvs.get(i));
+				}
+				b.append(')');
+			}
+		}
+		return b.append("(?:.{").append(TAG_WIDTH).append("})*$").toString();
+	}
+	
+	/**
+	 * Appends a quoted uid to the regex, escaping any <b><code>\E</code></b> in the uid bytes
+	 * @param b The regex buffer
+	 * @param uid The uid bytes
+	 */
+	static void addId(final StringBuilder b, final byte[] uid) {
+		b.append("\\Q");
+		boolean backslash = false;
+		for(byte x: uid) {
+			b.append((char)(x & 0xff));
+			if(x=='E' && backslash) {
+				b.append("\\\\E\\Q");
+				backslash = false;
+			} else {
+				backslash = x=='\\';
+			}
+		}
+		b.append("\\E");
+	}
+	
+	/**
+	 * Builds a data table row key
+	 * @param metricUid The metric uid
+	 * @param baseTime The row base time in seconds
+	 * @param tags The tag uid bytes, or null for the metric and time prefix only
+	 * @return the row key
+	 */
+	static byte[] rowKey(final byte[] metricUid, final long baseTime, final byte[] tags) {
+		final int mw = OpenTSDBFunctions.METRIC_WIDTH;
+		final byte[] key = new byte[OpenTSDBFunctions.MTWIDTH + (tags==null ? 0 : tags.length)];
+		System.arraycopy(metricUid, 0, key, 0, mw);
+		for(int i = 0; i < OpenTSDBFunctions.TIMESTAMP_BYTES; i++) {
+			key[mw + i] = (byte)(baseTime >>> (8 * (OpenTSDBFunctions.TIMESTAMP_BYTES - 1 - i)));
+		}
+		if(tags!=null) System.arraycopy(tags, 0, key, OpenTSDBFunctions.MTWIDTH, tags.length);
+		return key;
+	}
+	
+	/**
+	 * <p>Title: TagMatch</p>
+	 * <p>Description: A tag filter resolved to uids and matching series</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.ScanPlanner.TagMatch</code></p>
+	 */
+	static class TagMatch {
+		/** The tag key uid */
+		final byte[] tagk;
+		/** The sorted tag value uids, or null for any value */
+		final List<byte[]> tagvs;
+		/** The ordinals of the matching series */
+		final PostingList series;
+		
+		/**
+		 * Creates a new TagMatch
+		 * @param tagk The tag key uid
+		 * @param tagvs The sorted tag value uids, or null for any value
+		 * @param series The ordinals of the matching series
+		 */
+		TagMatch(final byte[] tagk, final List<byte[]> tagvs, final PostingList series) {
+			this.tagk = tagk;
+			this.tagvs = tagvs;
+			this.series = series;
+		}
+	}
+	
+	/**
+	 * <p>Title: RowRange</p>
+	 * <p>Description: A row key range, start inclusive, stop exclusive</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.ScanPlanner.RowRange</code></p>
+	 */
+	public static class RowRange {
+		/** The start row, inclusive */
+		final byte[] start;
+		/** The stop row, exclusive */
+		final byte[] stop;
+		
+		/**
+		 * Creates a new RowRange
+		 * @param start The start row, inclusive
+		 * @param stop The stop row, exclusive
+		 */
+		RowRange(final byte[] start, final byte[] stop) {
+			this.start = start;
+			this.stop = stop;
+		}
+
+		/**
+		 * Returns the start row
+		 * @return the start row, inclusive
+		 */
+		public byte[] getStart() {
+			return start;
+		}
+
+		/**
+		 * Returns the stop row
+		 * @return the stop row, exclusive
+		 */
+		public byte[] getStop() {
+			return stop;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "[" + DatatypeConverter.printHexBinary(start) + ", " + DatatypeConverter.printHexBinary(stop) + ")";
+		}
+	}
+	
+	/**
+	 * <p>Title: ScanPlan</p>
+	 * <p>Description: A scan plan for the <b><code>tsdb</code></b> data table</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.ScanPlanner.ScanPlan</code></p>
+	 */
+	public static class ScanPlan {
+		/** The planned filter */
+		final String filter;
+		/** The first row base time in seconds */
+		final long baseStart;
+		/** The last row base time in seconds */
+		final long baseEnd;
+		/** The number of rows per series in the time bounds */
+		final int hours;
+		/** The scan strategy */
+		Strategy strategy = Strategy.EMPTY;
+		/** The metric uid */
+		byte[] metricUid = null;
+		/** The start row of the metric's rows in the time bounds, inclusive */
+		byte[] startRow = null;
+		/** The stop row of the metric's rows in the time bounds, exclusive */
+		byte[] stopRow = null;
+		/** The exact ranges for {@link Strategy#EXACT_RANGES} */
+		List<RowRange> ranges = Collections.emptyList();
+		/** The row key regex for {@link Strategy#ROW_FILTER}, null if every row in the bounds matches */
+		String regex = null;
+		/** The number of cached series of the metric */
+		int metricSeries = 0;
+		/** The number of cached series matching the filter */
+		int matchedSeries = 0;
+		/** The estimated number of rows the plan reads */
+		long estimatedRows = 0;
+		
+		/**
+		 * Creates a new ScanPlan
+		 * @param filter The planned filter
+		 * @param baseStart The first row base time in seconds
+		 * @param baseEnd The last row base time in seconds
+		 * @param hours The number of rows per series in the time bounds
+		 */
+		ScanPlan(final String filter, final long baseStart, final long baseEnd, final int hours) {
+			this.filter = filter;
+			this.baseStart = baseStart;
+			this.baseEnd = baseEnd;
+			this.hours = hours;
+		}
+
+		/**
+		 * Returns the scan strategy
+		 * @return the strategy
+		 */
+		public Strategy getStrategy() {
+			return strategy;
+		}
+
+		/**
+		 * Returns the metric uid
+		 * @return the metric uid or null if the metric is unknown
+		 */
+		public byte[] getMetricUid() {
+			return metricUid;
+		}
+
+		/**
+		 * Returns the start row of the metric's rows in the time bounds
+		 * @return the start row, inclusive
+		 */
+		public byte[] getStartRow() {
+			return startRow;
+		}
+
+		/**
+		 * Returns the stop row of the metric's rows in the time bounds
+		 * @return the stop row, exclusive
+		 */
+		public byte[] getStopRow() {
+			return stopRow;
+		}
+
+		/**
+		 * Returns the sorted exact ranges
+		 * @return the ranges, empty unless the strategy is {@link Strategy#EXACT_RANGES}
+		 */
+		public List<RowRange> getRanges() {
+			return ranges;
+		}
+
+		/**
+		 * Returns the row key regex, to be applied to keys decoded with {@link ScanPlanner#CHARSET}
+		 * @return the regex, null unless the strategy is {@link Strategy#ROW_FILTER} with tag filters
+		 */
+		public String getRegex() {
+			return regex;
+		}
+
+		/**
+		 * Returns the number of cached series of the metric
+		 * @return the metric series count
+		 */
+		public int getMetricSeries() {
+			return metricSeries;
+		}
+
+		/**
+		 * Returns the number of cached series matching the filter
+		 * @return the matched series count
+		 */
+		public int getMatchedSeries() {
+			return matchedSeries;
+		}
+
+		/**
+		 * Returns the estimated number of rows the plan reads
+		 * @return the estimated rows
+		 */
+		public long getEstimatedRows() {
+			return estimatedRows;
+		}
+
+		/**
+		 * Returns the first row base time
+		 * @return the base start in seconds
+		 */
+		public long getBaseStart() {
+			return baseStart;
+		}
+
+		/**
+		 * Returns the last row base time
+		 * @return the base end in seconds
+		 */
+		public long getBaseEnd() {
+			return baseEnd;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			final StringBuilder b = new StringBuilder("ScanPlan [").append(filter).append("] ").append(strategy)
+				.append(", series: ").append(matchedSeries).append("/").append(metricSeries)
+				.append(", hours: ").append(hours).append(", est rows: ").append(estimatedRows);
+			if(startRow!=null) {
+				b.append(", bounds: [").append(DatatypeConverter.printHexBinary(startRow)).append(", ").append(DatatypeConverter.printHexBinary(stopRow)).append(")");
+			}
+			if(strategy==Strategy.EXACT_RANGES) b.append(", ranges: ").append(ranges.size());
+			return b.toString();
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <p>Title: ScanPlannerTest</p>
+ * <p>Description: Tests {@link ScanPlanner} range ordering, strategy choice, regex quoting and empty plans</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.ScanPlannerTest</code></p>
+ */
+
+public class ScanPlannerTest {
+	/** The temporary folder holding the cache file */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	/** The cache under test */
+	CacheImpl cache = null;
+
+	/** The sys.cpu metric uid */
+	static final byte[] CPU = {0, 0, 1};
+	/** The dc tag key uid, sorting before host */
+	static final byte[] DC = {0, 0, 1};
+	/** The host tag key uid */
+	static final byte[] HOST = {0, 0, 2};
+	/** The east tag value uid */
+	static final byte[] EAST = {0, 0, 1};
+	/** The west tag value uid */
+	static final byte[] WEST = {0, 0, 2};
+	/** The web1 tag value uid */
+	static final byte[] WEB1 = {0, 0, 3};
+	/** The web2 tag value uid, with a high bit that sorts it first if compared signed */
+	static final byte[] WEB2 = {(byte)0x80, 0, 4};
+	/** The db1 tag value uid, holding the regex quote terminator */
+	static final byte[] DB1 = {'\\', 'E', 5};
+	/** The base time of the first test row */
+	static final long BASE = ScanPlanner.ROW_SPAN * 10;
+
+	@BeforeClass
+	public static void generateCatalog() {
+		System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("ScanPlannerTest", 10));
+	}
+
+	@Before
+	public void setUp() {
+		cache = CacheImpl.getInstance(new File(folder.getRoot(), "tsmeta.db").getAbsolutePath(), false);
+		uid(UniqueId.UniqueIdType.METRIC, "sys.cpu", CPU);
+		uid(UniqueId.UniqueIdType.TAGK, "dc", DC);
+		uid(UniqueId.UniqueIdType.TAGK, "host", HOST);
+		uid(UniqueId.UniqueIdType.TAGV, "east", EAST);
+		uid(UniqueId.UniqueIdType.TAGV, "west", WEST);
+		uid(UniqueId.UniqueIdType.TAGV, "web1", WEB1);
+		uid(UniqueId.UniqueIdType.TAGV, "web2", WEB2);
+		uid(UniqueId.UniqueIdType.TAGV, "db1", DB1);
+		series("east", EAST, "web1", WEB1);
+		series("east", EAST, "web2", WEB2);
+		series("west", WEST, "db1", DB1);
+		series("west", WEST, "web1", WEB1);
+	}
+
+	@After
+	public void tearDown() {
+		cache.close();
+	}
+
+	/**
+	 * Caches a UID
+	 * @param type The UID type
+	 * @param name The UID name
+	 * @param uid The UID bytes
+	 */
+	void uid(final UniqueId.UniqueIdType type, final String name, final byte[] uid) {
+		cache.putCachedUIDMeta(type, new CachedUIDMeta(name, uid, type));
+	}
+
+	/**
+	 * Caches a sys.cpu series
+	 * @param dc The dc tag value
+	 * @param dcUid The dc tag value uid
+	 * @param host The host tag value
+	 * @param hostUid The host tag value uid
+	 */
+	void series(final String dc, final byte[] dcUid, final String host, final byte[] hostUid) {
+		final Map<String, String> tags = new TreeMap<String, String>();
+		tags.put("dc", dc);
+		tags.put("host", host);
+		final byte[] tsuid = new byte[15];
+		System.arraycopy(CPU, 0, tsuid, 0, 3);
+		System.arraycopy(tags(dcUid, hostUid), 0, tsuid, 3, 12);
+		cache.putCachedTSMeta(new CachedTSMeta("sys.cpu", tags, tsuid));
+	}
+
+	/**
+	 * Returns the row key tag bytes of a sys.cpu series
+	 * @param dcUid The dc tag value uid
+	 * @param hostUid The host tag value uid
+	 * @return the tag bytes
+	 */
+	static byte[] tags(final byte[] dcUid, final byte[] hostUid) {
+		final byte[] tags = new byte[12];
+		System.arraycopy(DC, 0, tags, 0, 3);
+		System.arraycopy(dcUid, 0, tags, 3, 3);
+		System.arraycopy(HOST, 0, tags, 6, 3);
+		System.arraycopy(hostUid, 0, tags, 9, 3);
+		return tags;
+	}
+
+	/**
+	 * Determines if the passed regex matches the row key of a sys.cpu series
+	 * @param regex The row key regex
+	 * @param dcUid The dc tag value uid
+	 * @param hostUid The host tag value uid
+	 * @return true if the row key matches
+	 */
+	static boolean matches(final String regex, final byte[] dcUid, final byte[] hostUid) {
+		final byte[] key = ScanPlanner.rowKey(CPU, BASE, tags(dcUid, hostUid));
+		return Pattern.compile(regex).matcher(new String(key, ScanPlanner.CHARSET)).matches();
+	}
+
+	@Test
+	public void testEmptyPlans() {
+		for(String filter: new String[]{"sys.nope", "sys.cpu{rack=a1}", "sys.cpu{host=nohost}", "sys.cpu{host=zz*}", "sys.cpu{dc=east,host=db1}"}) {
+			final ScanPlanner.ScanPlan plan = new ScanPlanner(cache).plan(filter, BASE, BASE);
+			assertEquals(filter, ScanPlanner.Strategy.EMPTY, plan.getStrategy());
+			assertTrue(filter, plan.getRanges().isEmpty());
+			assertNull(filter, plan.getRegex());
+		}
+		assertNull(new ScanPlanner(cache).plan("sys.nope", BASE, BASE).getMetricUid());
+	}
+
+	@Test
+	public void testExactRangesAreUnsignedSorted() {
+		final ScanPlanner.ScanPlan plan = new ScanPlanner(cache, 1, 100).plan("sys.cpu{host=web*}", BASE, BASE + ScanPlanner.ROW_SPAN);
+		assertEquals(ScanPlanner.Strategy.EXACT_RANGES, plan.getStrategy());
+		assertEquals(3, plan.getMatchedSeries());
+		final List<ScanPlanner.RowRange> ranges = plan.getRanges();
+		assertEquals(6, ranges.size());
+		for(int i = 1; i < ranges.size(); i++) {
+			assertTrue(ranges.get(i).toString(), ScanPlanner.UNSIGNED.compare(ranges.get(i-1).getStart(), ranges.get(i).getStart()) < 0);
+		}
+		// web2's 0x80 uid sorts after web1 in the same dc, as it does in HBase
+		assertArrayEquals(ScanPlanner.rowKey(CPU, BASE, tags(EAST, WEB1)), ranges.get(0).getStart());
+		assertArrayEquals(ScanPlanner.rowKey(CPU, BASE, tags(EAST, WEB2)), ranges.get(1).getStart());
+		assertArrayEquals(ScanPlanner.rowKey(CPU, BASE, tags(WEST, WEB1)), ranges.get(2).getStart());
+		assertArrayEquals(ScanPlanner.rowKey(CPU, BASE + ScanPlanner.ROW_SPAN, tags(EAST, WEB1)), ranges.get(3).getStart());
+		for(ScanPlanner.RowRange range: ranges) {
+			assertArrayEquals(Arrays.copyOf(range.getStart(), range.getStart().length + 1), range.getStop());
+		}
+	}
+
+	@Test
+	public void testStrategyAtSeekCostBoundary() {
+		// one of four series for one hour: exact ranges while 1 seek costs less than reading 4 rows
+		ScanPlanner.ScanPlan plan = new ScanPlanner(cache, 3, 100).plan("sys.cpu{host=db1}", BASE, BASE);
+		assertEquals(ScanPlanner.Strategy.EXACT_RANGES, plan.getStrategy());
+		assertEquals(1, plan.getEstimatedRows());
+		assertEquals(1, plan.getRanges().size());
+		plan = new ScanPlanner(cache, 4, 100).plan("sys.cpu{host=db1}", BASE, BASE);
+		assertEquals(ScanPlanner.Strategy.ROW_FILTER, plan.getStrategy());
+		assertEquals(4, plan.getEstimatedRows());
+		assertTrue(plan.getRanges().isEmpty());
+		assertArrayEquals(ScanPlanner.rowKey(CPU, BASE, null), plan.getStartRow());
+		assertArrayEquals(ScanPlanner.rowKey(CPU, BASE + ScanPlanner.ROW_SPAN, null), plan.getStopRow());
+		// too many ranges falls back to the row filter whatever the seek cost
+		plan = new ScanPlanner(cache, 1, 1).plan("sys.cpu{host=db1}", BASE, BASE + ScanPlanner.ROW_SPAN);
+		assertEquals(ScanPlanner.Strategy.ROW_FILTER, plan.getStrategy());
+	}
+
+	@Test
+	public void testAddIdEscapesQuoteTerminator() {
+		for(byte[] uid: new byte[][]{DB1, {'\\', '\\', 'E'}, {'E', '\\', 'E'}, {'\\', 'Q', '\\'}}) {
+			final StringBuilder b = new StringBuilder("(?s)^");
+			ScanPlanner.addId(b, uid);
+			assertTrue(b.toString(), Pattern.compile(b.append('$').toString()).matcher(new String(uid, ScanPlanner.CHARSET)).matches());
+		}
+		final ScanPlanner.ScanPlan plan = new ScanPlanner(cache, 100, 100).plan("sys.cpu{host=db1|web2,dc=*}", BASE, BASE);
+		assertEquals(ScanPlanner.Strategy.ROW_FILTER, plan.getStrategy());
+		assertTrue(matches(plan.getRegex(), WEST, DB1));
+		assertTrue(matches(plan.getRegex(), EAST, WEB2));
+		assertFalse(matches(plan.getRegex(), EAST, WEB1));
+		assertFalse(matches(plan.getRegex(), WEST, WEB1));
+	}
+}
@@ -0,0 +1,170 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.Arrays;
+
+/**
+ * <p>Title: SeriesActivity</p>
+ * <p>Description: Tracks the first-seen and last-seen times of each indexed series in paged primitive arrays indexed by series ordinal.
+ * A series is seen when it is indexed and whenever activity for it is reported from ingest or a scan. Each ordinal also records
+ * the hash of the tsuid it was assigned to, so callers holding a cached ordinal can detect that the series has since been
+ * removed or the ordinal reused. Updates are unsynchronized single-slot writes, a lost race only loses one observation.
+ * The slots are held in fixed-size pages which are never copied, so growing for new ordinals cannot lose concurrent updates.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.SeriesActivity</code></p>
+ */
+
+public class SeriesActivity {
+	/** The number of ordinals per page as a power of 2 */
+	static final int PAGE_BITS = 10;
+	/** The number of ordinals per page */
+	static final int PAGE_SIZE = 1 << PAGE_BITS;
+	/** The ordinal offset within a page mask */
+	static final int PAGE_MASK = PAGE_SIZE - 1;
+	/** The slot offset of the tsuid hash, 0 for unassigned ordinals */
+	private static final int HASH = 0;
+	/** The slot offset of the first-seen time in ms */
+	private static final int FIRST = 1;
+	/** The slot offset of the last-seen time in ms */
+	private static final int LAST = 2;
+	/** The number of slots per ordinal */
+	private static final int SLOTS = 3;
+
+	/** The pages of ordinal slots. Growth copies only this directory, never a page, so no slot write can land on a discarded copy. */
+	volatile long[][] pages = new long[][]{new long[PAGE_SIZE * SLOTS]};
+
+	/**
+	 * Starts tracking the series assigned the passed ordinal. No op if the ordinal is already tracking the same series.
+	 * @param ordinal The series ordinal
+	 * @param hash The tsuid hash of the series
+	 * @param time The index time in ms
+	 * @return true if the ordinal started tracking the series, false if it already was or the ordinal is invalid
+	 */
+	public boolean indexed(final int ordinal, final long hash, final long time) {
+		if(ordinal < 0) return false;
+		final long[] page = page(ordinal, true);
+		final int slot = (ordinal & PAGE_MASK) * SLOTS;
+		final long h = hash==0L ? 1L : hash;
+		if(page[slot + HASH]==h) return false;
+		page[slot + FIRST] = time;
+		page[slot + LAST] = time;
+		page[slot + HASH] = h;
+		return true;
+	}
+
+	/**
+	 * Stops tracking the series assigned the passed ordinal
+	 * @param ordinal The series ordinal
+	 */
+	public void removed(final int ordinal) {
+		final long[] page = page(ordinal, false);
+		if(page==null) return;
+		final int slot = (ordinal & PAGE_MASK) * SLOTS;
+		page[slot + HASH] = 0L;
+		page[slot + FIRST] = 0L;
+		page[slot + LAST] = 0L;
+	}
+
+	/**
+	 * Records activity of the series with the passed ordinal
+	 * @param ordinal The series ordinal
+	 * @param hash The tsuid hash of the series
+	 * @param time The activity time in ms
+	 * @return true if the activity was recorded, false if the ordinal is not tracking the series
+	 */
+	public boolean seen(final int ordinal, final long hash, final long time) {
+		final long[] page = page(ordinal, false);
+		if(page==null) return false;
+		final int slot = (ordinal & PAGE_MASK) * SLOTS;
+		if(page[slot + HASH]!=(hash==0L ? 1L : hash)) return false;
+		if(time <= 0L) return true;
+		if(time > page[slot + LAST]) page[slot + LAST] = time;
+		if(time < page[slot + FIRST]) page[slot + FIRST] = time;
+		return true;
+	}
+	
+	/**
+	 * Returns the first-seen time of the series with the passed ordinal
+	 * @param ordinal The series ordinal
+	 * @return the first-seen time in ms or 0 if the ordinal is not assigned
+	 */
+	public long getFirstSeen(final int ordinal) {
+		final long[] page = page(ordinal, false);
+		return page==null ? 0L : page[(ordinal & PAGE_MASK) * SLOTS + FIRST];
+	}
+
+	/**
+	 * Returns the last-seen time of the series with the passed ordinal
+	 * @param ordinal The series ordinal
+	 * @return the last-seen time in ms or 0 if the ordinal is not assigned
+	 */
+	public long getLastSeen(final int ordinal) {
+		final long[] page = page(ordinal, false);
+		return page==null ? 0L : page[(ordinal & PAGE_MASK) * SLOTS + LAST];
+	}
+
+	/**
+	 * Stops tracking all series
+	 */
+	public synchronized void clear() {
+		for(long[] page: pages) {
+			Arrays.fill(page, 0L);
+		}
+	}
+
+	/**
+	 * Returns the size of the tracking pages in bytes
+	 * @return the size in bytes
+	 */
+	public long getSizeBytes() {
+		return ((long)pages.length * PAGE_SIZE * SLOTS) << 3;
+	}
+
+	/**
+	 * Returns the page holding the passed ordinal's slots
+	 * @param ordinal The ordinal
+	 * @param create true to add pages up to the ordinal's if it is beyond the last page
+	 * @return the page, or null if the ordinal is negative or beyond the last page and create is false
+	 */
+	private long[] page(final int ordinal, final boolean create) {
+		if(ordinal < 0) return null;
+		final int index = ordinal >>> PAGE_BITS;
+		final long[][] p = pages;
+		if(index < p.length) return p[index];
+		return create ? grow(index) : null;
+	}
+
+	/**
+	 * Adds pages up to the passed page index, doubling the directory to amortize growth
+	 * @param index The page index
+	 * @return the page at the passed index
+	 */
+	private synchronized long[] grow(final int index) {
+		final long[][] p = pages;
+		if(index < p.length) return p[index];
+		final long[][] grown = Arrays.copyOf(p, Math.max(index + 1, p.length << 1));
+		for(int i = p.length; i < grown.length; i++) {
+			grown[i] = new long[PAGE_SIZE * SLOTS];
+		}
+		pages = grown;
+		return grown[index];
+	}
+}
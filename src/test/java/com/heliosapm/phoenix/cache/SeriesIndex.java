@@ -0,0 +1,494 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>Title: SeriesIndex</p>
+ * <p>Description: In-memory inverted index over the cached TSMetas. Each series is assigned a dense int ordinal
+ * and the postings for metric, <b><code>tagk=tagv</code></b> and tagk are held as compressed {@link PostingList}s over those ordinals,
+ * so boolean AND/OR/NOT of filters are chunk-wise merges and the many small tag pair postings cost about 2 bytes per series.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.SeriesIndex</code></p>
+ */
+
+public class SeriesIndex {
+	/** The separator between a tag key and value in a tag pair posting key */
+	public static final char TAG_SEPARATOR = '=';
+	/** The wildcard tag value which matches any value for a tag key */
+	public static final String WILDCARD = "*";
+	/** The initial ordinal table capacity */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/** The index read/write lock */
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	/** The tsuid hex to ordinal map */
+	private final Map<String, Integer> ordinals = new HashMap<String, Integer>(INITIAL_CAPACITY);
+	/** The ordinal to tsuid hex table */
+	private String[] tsuids = new String[INITIAL_CAPACITY];
+	/** The released ordinals available for reuse */
+	private int[] freeOrdinals = new int[16];
+	/** The number of released ordinals */
+	private int freeCount = 0;
+	/** The next never-assigned ordinal */
+	private int nextOrdinal = 0;
+	/** The ordinals of all live series */
+	private final PostingList live = new PostingList();
+	/** The metric name postings, sorted for prefix suggest */
+	private final NavigableMap<String, PostingList> metricPostings = new TreeMap<String, PostingList>();
+	/** The tag key postings, sorted for prefix suggest */
+	private final NavigableMap<String, PostingList> tagKeyPostings = new TreeMap<String, PostingList>();
+	/** The <b><code>tagk=tagv</code></b> postings, sorted so all values of a tag key are contiguous */
+	private final NavigableMap<String, PostingList> tagPairPostings = new TreeMap<String, PostingList>();
+
+	/**
+	 * Returns the posting key for the passed tag pair
+	 * @param tagKey The tag key
+	 * @param tagValue The tag value
+	 * @return the posting key
+	 */
+	public static String pairKey(final String tagKey, final String tagValue) {
+		return new StringBuilder(tagKey.length() + tagValue.length() + 1).append(tagKey).append(TAG_SEPARATOR).append(tagValue).toString();
+	}
+
+	/**
+	 * Indexes the passed TSMeta. If the series is already indexed, the existing ordinal is returned.
+	 * @param meta The TSMeta to index
+	 * @return the series ordinal
+	 */
+	public int add(final CachedTSMeta meta) {
+		if(meta==null) throw new IllegalArgumentException("The passed TSMeta was null");
+		lock.writeLock().lock();
+		try {
+			final Integer existing = ordinals.get(meta.tsuidHex);
+			if(existing!=null) return existing;
+			final int ordinal = freeCount > 0 ? freeOrdinals[--freeCount] : nextOrdinal++;
+			if(ordinal >= tsuids.length) {
+				tsuids = Arrays.copyOf(tsuids, Math.max(tsuids.length << 1, ordinal + 1));
+			}
+			tsuids[ordinal] = meta.tsuidHex;
+			ordinals.put(meta.tsuidHex, ordinal);
+			live.set(ordinal);
+			posting(metricPostings, meta.metric).set(ordinal);
+			for(final Map.Entry<String, String> tag: meta.tags.entrySet()) {
+				posting(tagKeyPostings, tag.getKey()).set(ordinal);
+				posting(tagPairPostings, pairKey(tag.getKey(), tag.getValue())).set(ordinal);
+			}
+			return ordinal;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the passed TSMeta from the index and releases its ordinal for reuse
+	 * @param meta The TSMeta to remove
+	 * @return true if the series was indexed, false otherwise
+	 */
+	public boolean remove(final CachedTSMeta meta) {
+		if(meta==null) return false;
+		lock.writeLock().lock();
+		try {
+			final Integer ordinal = ordinals.remove(meta.tsuidHex);
+			if(ordinal==null) return false;
+			tsuids[ordinal] = null;
+			live.clear(ordinal);
+			unpost(metricPostings, meta.metric, ordinal);
+			for(final Map.Entry<String, String> tag: meta.tags.entrySet()) {
+				unpost(tagKeyPostings, tag.getKey(), ordinal);
+				unpost(tagPairPostings, pairKey(tag.getKey(), tag.getValue()), ordinal);
+			}
+			if(freeCount==freeOrdinals.length) {
+				freeOrdinals = Arrays.copyOf(freeOrdinals, freeOrdinals.length << 1);
+			}
+			freeOrdinals[freeCount++] = ordinal;
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Clears the index
+	 */
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			ordinals.clear();
+			Arrays.fill(tsuids, null);
+			freeCount = 0;
+			nextOrdinal = 0;
+			live.clear();
+			metricPostings.clear();
+			tagKeyPostings.clear();
+			tagPairPostings.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the ordinal of the passed tsuid
+	 * @param tsuidHex The tsuid hex
+	 * @return the ordinal or -1 if the series is not indexed
+	 */
+	public int ordinal(final String tsuidHex) {
+		lock.readLock().lock();
+		try {
+			final Integer ordinal = ordinals.get(tsuidHex);
+			return ordinal==null ? -1 : ordinal;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the tsuid hex for the passed ordinal
+	 * @param ordinal The series ordinal
+	 * @return the tsuid hex or null if the ordinal is not assigned
+	 */
+	public String tsuid(final int ordinal) {
+		lock.readLock().lock();
+		try {
+			return ordinal < 0 || ordinal >= tsuids.length ? null : tsuids[ordinal];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of indexed series
+	 * @return the number of indexed series
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return ordinals.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the highest ordinal ever assigned plus one
+	 * @return the ordinal high water mark
+	 */
+	public int capacity() {
+		lock.readLock().lock();
+		try {
+			return nextOrdinal;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a copy of the ordinals of all indexed series
+	 * @return all series ordinals
+	 */
+	public PostingList all() {
+		lock.readLock().lock();
+		try {
+			return live.clone();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a copy of the postings for the passed metric
+	 * @param metric The metric name
+	 * @return the ordinals of the series for the metric
+	 */
+	public PostingList metric(final String metric) {
+		return copyOf(metricPostings, metric);
+	}
+
+	/**
+	 * Returns a copy of the postings for the passed tag key
+	 * @param tagKey The tag key
+	 * @return the ordinals of the series having the tag key
+	 */
+	public PostingList tagKey(final String tagKey) {
+		return copyOf(tagKeyPostings, tagKey);
+	}
+
+	/**
+	 * Returns a copy of the postings for the passed tag pair.
+	 * A tag value of {@link #WILDCARD} returns the postings for the tag key.
+	 * @param tagKey The tag key
+	 * @param tagValue The tag value
+	 * @return the ordinals of the series having the tag pair
+	 */
+	public PostingList tag(final String tagKey, final String tagValue) {
+		if(WILDCARD.equals(tagValue)) return tagKey(tagKey);
+		return copyOf(tagPairPostings, pairKey(tagKey, tagValue));
+	}
+
+	/**
+	 * Returns the ordinals of the series for the passed metric having all the passed tags.
+	 * Tag values may be {@link #WILDCARD} to match any value of the tag key.
+	 * @param metric The metric name, or null for any metric
+	 * @param tags The tags to match, or null for no tag filter
+	 * @return the matching ordinals
+	 */
+	public PostingList find(final String metric, final Map<String, String> tags) {
+		lock.readLock().lock();
+		try {
+			final PostingList result = metric==null ? live.clone() : copyOf(metricPostings, metric);
+			if(tags!=null) {
+				for(final Map.Entry<String, String> tag: tags.entrySet()) {
+					if(result.isEmpty()) break;
+					final PostingList p = WILDCARD.equals(tag.getValue()) ? tagKeyPostings.get(tag.getKey()) : tagPairPostings.get(pairKey(tag.getKey(), tag.getValue()));
+					if(p==null) {
+						result.clear();
+					} else {
+						result.and(p);
+					}
+				}
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the intersection of the passed ordinal sets
+	 * @param sets The ordinal sets
+	 * @return a new set containing the intersection
+	 */
+	public static PostingList and(final PostingList...sets) {
+		if(sets.length==0) return new PostingList();
+		final PostingList result = sets[0].clone();
+		for(int i = 1; i < sets.length; i++) result.and(sets[i]);
+		return result;
+	}
+
+	/**
+	 * Returns the union of the passed ordinal sets
+	 * @param sets The ordinal sets
+	 * @return a new set containing the union
+	 */
+	public static PostingList or(final PostingList...sets) {
+		final PostingList result = new PostingList();
+		for(PostingList b: sets) result.or(b);
+		return result;
+	}
+
+	/**
+	 * Returns the ordinals in the first set that are not in the second
+	 * @param include The ordinals to include
+	 * @param exclude The ordinals to exclude
+	 * @return a new set containing the difference
+	 */
+	public static PostingList not(final PostingList include, final PostingList exclude) {
+		final PostingList result = include.clone();
+		result.andNot(exclude);
+		return result;
+	}
+
+	/**
+	 * Resolves the passed ordinals to tsuid hex strings
+	 * @param ordinalSet The ordinals to resolve
+	 * @return the tsuids in ordinal order
+	 */
+	public Set<String> tsuids(final PostingList ordinalSet) {
+		final Set<String> result = new LinkedHashSet<String>(ordinalSet.cardinality());
+		lock.readLock().lock();
+		try {
+			for(int i = ordinalSet.nextSetBit(0); i >= 0 && i < tsuids.length; i = ordinalSet.nextSetBit(i+1)) {
+				final String tsuid = tsuids[i];
+				if(tsuid!=null) result.add(tsuid);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the names of the metrics starting with the passed prefix which have at least one series in the passed scope
+	 * @param prefix The metric name prefix
+	 * @param scope The series ordinals to limit the suggestions to, or null for all series
+	 * @param limit The maximum number of names to return
+	 * @return the sorted matching metric names
+	 */
+	public List<String> suggestMetrics(final String prefix, final PostingList scope, final int limit) {
+		lock.readLock().lock();
+		try {
+			return suggest(metricPostings, "", prefix, scope, limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the tag keys starting with the passed prefix which have at least one series in the passed scope
+	 * @param prefix The tag key prefix
+	 * @param scope The series ordinals to limit the suggestions to, or null for all series
+	 * @param limit The maximum number of names to return
+	 * @return the sorted matching tag keys
+	 */
+	public List<String> suggestTagKeys(final String prefix, final PostingList scope, final int limit) {
+		lock.readLock().lock();
+		try {
+			return suggest(tagKeyPostings, "", prefix, scope, limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the values of the passed tag key starting with the passed prefix which have at least one series in the passed scope
+	 * @param tagKey The tag key
+	 * @param prefix The tag value prefix
+	 * @param scope The series ordinals to limit the suggestions to, or null for all series
+	 * @param limit The maximum number of names to return
+	 * @return the sorted matching tag values
+	 */
+	public List<String> suggestTagValues(final String tagKey, final String prefix, final PostingList scope, final int limit) {
+		lock.readLock().lock();
+		try {
+			return suggest(tagPairPostings, tagKey + TAG_SEPARATOR, prefix, scope, limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Iterates the postings with keys starting with <b><code>keyPrefix + prefix</code></b> in key order and collects
+	 * the keys (less the key prefix) of postings intersecting the scope. Caller must hold the read lock.
+	 * @param postings The sorted postings
+	 * @param keyPrefix The fixed posting key prefix
+	 * @param prefix The name prefix
+	 * @param scope The scope ordinals or null for no scope
+	 * @param limit The maximum number of names to return
+	 * @return the matching names
+	 */
+	private static List<String> suggest(final NavigableMap<String, PostingList> postings, final String keyPrefix, final String prefix, final PostingList scope, final int limit) {
+		final List<String> result = new ArrayList<String>(Math.min(limit, 128));
+		if(limit < 1) return result;
+		final String from = keyPrefix + (prefix==null ? "" : prefix);
+		for(Map.Entry<String, PostingList> entry: postings.subMap(from, true, from + Character.MAX_VALUE, false).entrySet()) {
+			if(scope==null || scope.intersects(entry.getValue())) {
+				result.add(entry.getKey().substring(keyPrefix.length()));
+				if(result.size()==limit) break;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of indexed metrics, tag keys and tag pairs
+	 * @return an array of the metric, tag key and tag pair posting counts
+	 */
+	public int[] postingCounts() {
+		lock.readLock().lock();
+		try {
+			return new int[]{metricPostings.size(), tagKeyPostings.size(), tagPairPostings.size()};
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the estimated heap size of the index in bytes. The tsuid strings are counted once, under the ordinal table.
+	 * @return the estimated size in bytes
+	 */
+	public long getSizeBytes() {
+		lock.readLock().lock();
+		try {
+			long bytes = MemoryAccountant.HASH_ENTRY * (long)ordinals.size() + MemoryAccountant.REF * (long)tsuids.length + 4L * freeOrdinals.length + live.getSizeBytes();
+			for(String tsuid: tsuids) bytes += MemoryAccountant.stringBytes(tsuid);
+			bytes += postingBytes(metricPostings) + postingBytes(tagKeyPostings) + postingBytes(tagPairPostings);
+			return bytes;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the estimated heap size of the passed postings. Caller must hold the read lock.
+	 * @param postings The postings map
+	 * @return the estimated size in bytes
+	 */
+	private static long postingBytes(final Map<String, PostingList> postings) {
+		long bytes = 0;
+		for(Map.Entry<String, PostingList> entry: postings.entrySet()) {
+			bytes += MemoryAccountant.TREE_ENTRY + MemoryAccountant.stringBytes(entry.getKey()) + entry.getValue().getSizeBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns a copy of the named posting
+	 * @param postings The postings map
+	 * @param key The posting key
+	 * @return a copy of the posting, or an empty set if not found
+	 */
+	private PostingList copyOf(final Map<String, PostingList> postings, final String key) {
+		lock.readLock().lock();
+		try {
+			final PostingList b = postings.get(key);
+			return b==null ? new PostingList() : b.clone();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the named posting, creating it if it does not exist. Caller must hold the write lock.
+	 * @param postings The postings map
+	 * @param key The posting key
+	 * @return the posting
+	 */
+	private static PostingList posting(final Map<String, PostingList> postings, final String key) {
+		PostingList b = postings.get(key);
+		if(b==null) {
+			b = new PostingList();
+			postings.put(key, b);
+		}
+		return b;
+	}
+
+	/**
+	 * Clears the ordinal from the named posting, dropping the posting when it becomes empty. Caller must hold the write lock.
+	 * @param postings The postings map
+	 * @param key The posting key
+	 * @param ordinal The ordinal to clear
+	 */
+	private static void unpost(final Map<String, PostingList> postings, final String key, final int ordinal) {
+		final PostingList b = postings.get(key);
+		if(b==null) return;
+		b.clear(ordinal);
+		if(b.isEmpty()) postings.remove(key);
+	}
+}
@@ -0,0 +1,163 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Title: SeriesIndexTest</p>
+ * <p>Description: Tests for {@link SeriesIndex} indexing, lookups and posting set operations</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.SeriesIndexTest</code></p>
+ */
+
+public class SeriesIndexTest {
+	/** The index under test */
+	SeriesIndex index;
+	/** sys.cpu on host web1 in dc east */
+	final CachedTSMeta cpuWeb1 = meta(1, "sys.cpu", "host", "web1", "dc", "east");
+	/** sys.cpu on host web2 in dc east */
+	final CachedTSMeta cpuWeb2 = meta(2, "sys.cpu", "host", "web2", "dc", "east");
+	/** sys.cpu on host db1 in dc west */
+	final CachedTSMeta cpuDb1 = meta(3, "sys.cpu", "host", "db1", "dc", "west");
+	/** sys.mem on host web1 with no dc */
+	final CachedTSMeta memWeb1 = meta(4, "sys.mem", "host", "web1");
+
+	/**
+	 * Creates a TSMeta with a tsuid derived from the passed id
+	 * @param id The series id
+	 * @param metric The metric name
+	 * @param kvs The tag keys and values, alternating
+	 * @return the TSMeta
+	 */
+	static CachedTSMeta meta(final int id, final String metric, final String...kvs) {
+		final Map<String, String> tags = new TreeMap<String, String>();
+		for(int i = 0; i < kvs.length; i += 2) {
+			tags.put(kvs[i], kvs[i+1]);
+		}
+		return new CachedTSMeta(metric, tags, new byte[]{0, 0, 1, 0, 0, 1, (byte)(id >>> 16), (byte)(id >>> 8), (byte)id});
+	}
+
+	/**
+	 * Returns a tag map of the passed keys and values
+	 * @param kvs The tag keys and values, alternating
+	 * @return the tag map
+	 */
+	static Map<String, String> tags(final String...kvs) {
+		final Map<String, String> tags = new TreeMap<String, String>();
+		for(int i = 0; i < kvs.length; i += 2) {
+			tags.put(kvs[i], kvs[i+1]);
+		}
+		return tags;
+	}
+
+	/**
+	 * Indexes the test series
+	 */
+	@Before
+	public void setUp() {
+		index = new SeriesIndex();
+		for(CachedTSMeta meta: new CachedTSMeta[]{cpuWeb1, cpuWeb2, cpuDb1, memWeb1}) {
+			index.add(meta);
+		}
+	}
+
+	/**
+	 * Returns the tsuids of the passed TSMetas
+	 * @param metas The TSMetas
+	 * @return the tsuid hexes
+	 */
+	static HashSet<String> tsuids(final CachedTSMeta...metas) {
+		final HashSet<String> set = new HashSet<String>();
+		for(CachedTSMeta meta: metas) set.add(meta.getTsuidHex());
+		return set;
+	}
+
+	@Test
+	public void testAddIsIdempotent() {
+		assertEquals(4, index.size());
+		final int ordinal = index.ordinal(cpuWeb1.getTsuidHex());
+		assertEquals(ordinal, index.add(cpuWeb1));
+		assertEquals(4, index.size());
+		assertEquals(cpuWeb1.getTsuidHex(), index.tsuid(ordinal));
+	}
+
+	@Test
+	public void testFind() {
+		assertEquals(tsuids(cpuWeb1, cpuWeb2, cpuDb1), index.tsuids(index.find("sys.cpu", null)));
+		assertEquals(tsuids(cpuWeb1, cpuWeb2), index.tsuids(index.find("sys.cpu", tags("dc", "east"))));
+		assertEquals(tsuids(cpuWeb1), index.tsuids(index.find("sys.cpu", tags("dc", "east", "host", "web1"))));
+		assertEquals(tsuids(cpuWeb1, memWeb1), index.tsuids(index.find(null, tags("host", "web1"))));
+		assertEquals(tsuids(cpuWeb1, cpuWeb2, cpuDb1), index.tsuids(index.find(null, tags("dc", SeriesIndex.WILDCARD))));
+		assertTrue(index.find("sys.cpu", tags("host", "nohost")).isEmpty());
+		assertTrue(index.find("sys.cpu", tags("nokey", SeriesIndex.WILDCARD)).isEmpty());
+		assertTrue(index.find("sys.disk", null).isEmpty());
+	}
+
+	@Test
+	public void testRemove() {
+		final int ordinal = index.ordinal(cpuWeb2.getTsuidHex());
+		assertTrue(index.remove(cpuWeb2));
+		assertFalse(index.remove(cpuWeb2));
+		assertEquals(3, index.size());
+		assertEquals(-1, index.ordinal(cpuWeb2.getTsuidHex()));
+		assertEquals(tsuids(cpuWeb1), index.tsuids(index.find("sys.cpu", tags("dc", "east"))));
+		assertTrue(index.find(null, tags("host", "web2")).isEmpty());
+		// the released ordinal is reused
+		final CachedTSMeta cpuWeb3 = meta(5, "sys.cpu", "host", "web3", "dc", "east");
+		assertEquals(ordinal, index.add(cpuWeb3));
+		assertEquals(tsuids(cpuWeb1, cpuWeb3), index.tsuids(index.find("sys.cpu", tags("dc", "east"))));
+	}
+
+	@Test
+	public void testSetOperations() {
+		final PostingList cpu = index.metric("sys.cpu");
+		final PostingList web1 = index.tag("host", "web1");
+		final PostingList west = index.tag("dc", "west");
+		assertEquals(tsuids(cpuWeb1), index.tsuids(SeriesIndex.and(cpu, web1)));
+		assertEquals(tsuids(cpuWeb1, memWeb1, cpuDb1), index.tsuids(SeriesIndex.or(web1, west)));
+		assertEquals(tsuids(cpuWeb1, cpuWeb2), index.tsuids(SeriesIndex.not(cpu, west)));
+		assertEquals(tsuids(memWeb1), index.tsuids(SeriesIndex.not(index.all(), index.tagKey("dc"))));
+		assertTrue(SeriesIndex.and().isEmpty());
+		assertTrue(SeriesIndex.or().isEmpty());
+		// the operations return new sets, leaving their inputs alone
+		assertEquals(3, cpu.cardinality());
+		assertEquals(2, web1.cardinality());
+	}
+
+	@Test
+	public void testClear() {
+		index.clear();
+		assertEquals(0, index.size());
+		assertTrue(index.all().isEmpty());
+		assertTrue(index.find("sys.cpu", null).isEmpty());
+		assertTrue(index.tsuids(index.find(null, tags("host", SeriesIndex.WILDCARD))).isEmpty());
+		assertTrue(index.suggestMetrics("sys", null, 10).isEmpty());
+	}
+}
@@ -0,0 +1,108 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: SeriesPruner</p>
+ * <p>Description: Evicts series which have not been seen for a configured period, using the last-seen times of the cache's
+ * {@link SeriesActivity}. Each run scans the next window of ordinals (a clock hand), so a pass over millions of series is spread
+ * over many short runs on the cache scheduler. Evicted series release their tsmeta map entry, index postings and ordinal,
+ * and are cached again if they become active.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.SeriesPruner</code></p>
+ */
+
+public class SeriesPruner implements Runnable {
+	private static final Logger log = LoggerFactory .getLogger(SeriesPruner.class);
+	/** The default number of ordinals scanned per run */
+	public static final int DEFAULT_SCAN_SIZE = 4096;
+
+	/** The cache to prune */
+	final CacheImpl cache;
+	/** The inactive time in ms after which a series is stale */
+	final long staleAfterMs;
+	/** The number of ordinals scanned per run */
+	final int scanSize;
+	/** The clock hand ordinal */
+	int hand = 0;
+
+	/**
+	 * Creates a new SeriesPruner
+	 * @param cache The cache to prune
+	 * @param staleAfter The inactive time after which a series is stale
+	 * @param unit The unit of the inactive time
+	 * @param scanSize The number of ordinals scanned per run
+	 */
+	SeriesPruner(final CacheImpl cache, final long staleAfter, final TimeUnit unit, final int scanSize) {
+		if(staleAfter < 1) throw new IllegalArgumentException("Invalid stale period [" + staleAfter + "]");
+		if(scanSize < 1) throw new IllegalArgumentException("Invalid scan size [" + scanSize + "]");
+		this.cache = cache;
+		this.staleAfterMs = unit.toMillis(staleAfter);
+		this.scanSize = scanSize;
+	}
+
+	/**
+	 * Runs one incremental pruning pass over the next window of ordinals
+	 * {@inheritDoc}
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		try {
+			final SeriesIndex index = cache.seriesIndex;
+			final SeriesActivity activity = cache.activity;
+			final int capacity = index.capacity();
+			if(capacity==0) return;
+			if(hand >= capacity) hand = 0;
+			final int end = Math.min(capacity, hand + scanSize);
+			final long cutoff = System.currentTimeMillis() - staleAfterMs;
+			final List<String> stale = new ArrayList<String>();
+			for(int ordinal = hand; ordinal < end; ordinal++) {
+				final long lastSeen = activity.getLastSeen(ordinal);
+				if(lastSeen==0L || lastSeen >= cutoff) continue;
+				final String tsuid = index.tsuid(ordinal);
+				if(tsuid!=null) stale.add(tsuid);
+			}
+			hand = end;
+			if(!stale.isEmpty()) {
+				final int pruned = cache.evictTSMetas(stale);
+				cache.metrics.tsmetaPrunes.add(pruned);
+				log.debug("Pruned {} stale series", pruned);
+			}
+		} catch (Exception ex) {
+			log.warn("Stale series pruning pass failed", ex);
+		}
+	}
+
+	/**
+	 * Returns the inactive time in ms after which a series is stale
+	 * @return the stale period in ms
+	 */
+	public long getStaleAfterMs() {
+		return staleAfterMs;
+	}
+}
@@ -0,0 +1,143 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <p>Title: SeriesPrunerTest</p>
+ * <p>Description: Tests {@link SeriesActivity} first/last-seen tracking across re-puts and {@link SeriesPruner} eviction of stale series</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.SeriesPrunerTest</code></p>
+ */
+
+public class SeriesPrunerTest {
+	/** The temporary folder holding the cache file */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	/** The cache under test */
+	CacheImpl cache = null;
+
+	@BeforeClass
+	public static void generateCatalog() {
+		System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("SeriesPrunerTest", 10));
+	}
+
+	@Before
+	public void setUp() {
+		cache = CacheImpl.getInstance(new File(folder.getRoot(), "tsmeta.db").getAbsolutePath(), false);
+	}
+
+	@After
+	public void tearDown() {
+		cache.close();
+	}
+
+	/**
+	 * Creates a TSMeta
+	 * @param id The series id, making up the last bytes of the tsuid
+	 * @return the TSMeta
+	 */
+	static CachedTSMeta meta(final int id) {
+		final Map<String, String> tags = new TreeMap<String, String>();
+		tags.put("host", "pr" + id);
+		return new CachedTSMeta("sys.pr", tags, new byte[]{1, 1, 2, 0, 0, 1, (byte)(id >>> 16), (byte)(id >>> 8), (byte)id});
+	}
+
+	@Test
+	public void testRePutKeepsFirstSeen() {
+		final CachedTSMeta series = meta(1);
+		final long before = System.currentTimeMillis();
+		cache.putCachedTSMeta(series);
+		final String tsuid = series.getTsuidHex();
+		final long indexed = cache.getFirstSeen(tsuid);
+		assertTrue(indexed >= before);
+		assertEquals(indexed, cache.getLastSeen(tsuid));
+		// activity from a scan may predate the index time
+		assertTrue(cache.recordActivity(tsuid, indexed - 60000));
+		assertTrue(cache.recordActivity(tsuid, indexed + 60000));
+		assertEquals(indexed - 60000, cache.getFirstSeen(tsuid));
+		assertEquals(indexed + 60000, cache.getLastSeen(tsuid));
+		cache.putCachedTSMeta(meta(1));
+		assertEquals(indexed - 60000, cache.getFirstSeen(tsuid));
+		assertEquals(indexed + 60000, cache.getLastSeen(tsuid));
+		// an ordinal reused by a new series starts over
+		final int ordinal = cache.seriesIndex.ordinal(tsuid);
+		cache.evictTSMetas(Collections.singleton(tsuid));
+		assertEquals(0L, cache.getFirstSeen(tsuid));
+		assertTrue(!cache.recordActivity(tsuid, indexed));
+		cache.putCachedTSMeta(meta(2));
+		assertEquals(ordinal, cache.seriesIndex.ordinal(meta(2).getTsuidHex()));
+		assertTrue(cache.getFirstSeen(meta(2).getTsuidHex()) >= indexed);
+	}
+
+	@Test
+	public void testPrunesOnlyStaleSeries() throws InterruptedException {
+		for(int id = 0; id < 6; id++) {
+			cache.putCachedTSMeta(meta(id));
+		}
+		Thread.sleep(200);
+		// the odd series stay active
+		final long now = System.currentTimeMillis();
+		for(int id = 1; id < 6; id += 2) {
+			assertTrue(cache.recordActivity(meta(id).getTsuidHex(), now));
+		}
+		final SeriesPruner pruner = new SeriesPruner(cache, 100, TimeUnit.MILLISECONDS, 4);
+		final long prunes = cache.metrics.tsmetaPrunes.get();
+		// the first run covers the first window of ordinals only
+		pruner.run();
+		assertEquals(4, pruner.hand);
+		assertEquals(prunes + 2, cache.metrics.tsmetaPrunes.get());
+		assertNull(cache.getCachedTSMeta(meta(0).getTsuidHex()));
+		assertNull(cache.getCachedTSMeta(meta(2).getTsuidHex()));
+		assertNotNull(cache.getCachedTSMeta(meta(4).getTsuidHex()));
+		pruner.run();
+		assertEquals(prunes + 3, cache.metrics.tsmetaPrunes.get());
+		for(int id = 0; id < 6; id++) {
+			final String tsuid = meta(id).getTsuidHex();
+			if(id % 2==0) {
+				assertNull(cache.getCachedTSMeta(tsuid));
+				assertEquals(0L, cache.getLastSeen(tsuid));
+			} else {
+				assertNotNull(cache.getCachedTSMeta(tsuid));
+				assertEquals(now, cache.getLastSeen(tsuid));
+			}
+		}
+		// the hand wraps, and nothing left is stale
+		pruner.run();
+		assertEquals(prunes + 3, cache.metrics.tsmetaPrunes.get());
+	}
+}
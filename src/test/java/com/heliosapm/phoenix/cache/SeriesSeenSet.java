@@ -0,0 +1,199 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Title: SeriesSeenSet</p>
+ * <p>Description: A fixed capacity, lock-free set of 64 bit series hashes. Slots are claimed with a single CAS in an open addressed,
+ * linearly probed {@link AtomicLongArray}, so a lookup of an already seen series is one or two volatile reads and never blocks.
+ * Once the set holds its maximum number of entries, further unseen hashes are reported as new without being stored,
+ * so callers must treat a <b><code>true</code></b> from {@link #add(long)} as "possibly new".
+ * Each slot can also hold a hint of the series ordinal the caller resolved for the hash, which callers must validate,
+ * or a negative state of the caller's own.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.SeriesSeenSet</code></p>
+ */
+
+public class SeriesSeenSet {
+	/** The empty slot marker */
+	private static final long EMPTY = 0L;
+	/** The maximum fill ratio of the slots */
+	public static final double MAX_LOAD = 0.75;
+	
+	/** The hash slots */
+	private final AtomicLongArray slots;
+	/** The ordinal hints plus one indexed by slot, 0 when unknown */
+	private final AtomicIntegerArray ordinals;
+	/** The slot index mask */
+	private final int mask;
+	/** The maximum number of stored hashes */
+	private final int maxEntries;
+	/** The number of stored hashes */
+	private final AtomicInteger size = new AtomicInteger(0);
+	/** The number of unseen hashes reported while the set was full */
+	private final StripedCounter overflows = new StripedCounter();
+
+	/**
+	 * Creates a new SeriesSeenSet
+	 * @param expectedEntries The number of series to size the set for
+	 */
+	public SeriesSeenSet(final int expectedEntries) {
+		if(expectedEntries < 1 || expectedEntries > (1 << 29)) throw new IllegalArgumentException("Invalid expected entries [" + expectedEntries + "]");
+		int capacity = 16;
+		while(capacity * MAX_LOAD < expectedEntries) capacity <<= 1;
+		slots = new AtomicLongArray(capacity);
+		ordinals = new AtomicIntegerArray(capacity);
+		mask = capacity - 1;
+		maxEntries = (int)(capacity * MAX_LOAD);
+	}
+
+	/**
+	 * Adds the passed hash to the set
+	 * @param hash The series hash
+	 * @return true if the hash was not in the set, false if it had already been added
+	 */
+	public boolean add(final long hash) {
+		final long h = hash==EMPTY ? 1L : hash;
+		int index = (int)(h ^ (h >>> 32)) & mask;
+		while(true) {
+			final long current = slots.get(index);
+			if(current==h) return false;
+			if(current==EMPTY) {
+				if(size.get() >= maxEntries) {
+					overflows.increment();
+					return true;
+				}
+				if(slots.compareAndSet(index, EMPTY, h)) {
+					size.incrementAndGet();
+					return true;
+				}
+				// Lost the race for the slot: re-read it, it may now hold the same hash
+				continue;
+			}
+			index = (index + 1) & mask;
+		}
+	}
+
+	/**
+	 * Indicates if the passed hash is in the set
+	 * @param hash The series hash
+	 * @return true if the hash is in the set
+	 */
+	public boolean contains(final long hash) {
+		return indexOf(hash) >= 0;
+	}
+
+	/**
+	 * Returns the slot holding the passed hash
+	 * @param hash The series hash
+	 * @return the slot or -1 if the hash is not in the set
+	 */
+	public int indexOf(final long hash) {
+		final long h = hash==EMPTY ? 1L : hash;
+		int index = (int)(h ^ (h >>> 32)) & mask;
+		while(true) {
+			final long current = slots.get(index);
+			if(current==h) return index;
+			if(current==EMPTY) return -1;
+			index = (index + 1) & mask;
+		}
+	}
+
+	/**
+	 * Returns the ordinal hint of the passed slot
+	 * @param slot The slot
+	 * @return the ordinal hint or -1 if none has been set
+	 */
+	public int getOrdinal(final int slot) {
+		return ordinals.get(slot) - 1;
+	}
+
+	/**
+	 * Sets the ordinal hint of the passed slot
+	 * @param slot The slot
+	 * @param ordinal The series ordinal, or a negative state less than -1
+	 */
+	public void setOrdinal(final int slot, final int ordinal) {
+		ordinals.set(slot, ordinal + 1);
+	}
+
+	/**
+	 * Computes a 64 bit hash of the passed tsuid bytes (FNV-1a folded through a murmur3 finalizer)
+	 * @param tsuid The tsuid bytes
+	 * @return the hash
+	 */
+	public static long hash(final byte[] tsuid) {
+		long h = 0xcbf29ce484222325L;
+		for(int i = 0; i < tsuid.length; i++) {
+			h ^= tsuid[i] & 0xff;
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Returns the number of stored hashes
+	 * @return the number of stored hashes
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Returns the maximum number of stored hashes
+	 * @return the maximum number of stored hashes
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Indicates if the set is full, in which case unseen hashes are no longer stored
+	 * @return true if the set is full
+	 */
+	public boolean isSaturated() {
+		return size.get() >= maxEntries;
+	}
+
+	/**
+	 * Returns the number of unseen hashes reported while the set was full
+	 * @return the overflow count
+	 */
+	public long getOverflows() {
+		return overflows.get();
+	}
+
+	/**
+	 * Returns the size of the slot array in bytes
+	 * @return the size in bytes
+	 */
+	public long getSizeBytes() {
+		return ((long)slots.length() << 3) + ((long)ordinals.length() << 2);
+	}
+}
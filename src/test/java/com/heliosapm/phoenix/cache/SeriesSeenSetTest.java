@@ -0,0 +1,112 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: SeriesSeenSetTest</p>
+ * <p>Description: Tests {@link SeriesSeenSet} adds under contention, saturation and ordinal hints</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.SeriesSeenSetTest</code></p>
+ */
+
+public class SeriesSeenSetTest {
+
+	@Test
+	public void testConcurrentAddsReportEachHashOnce() throws Exception {
+		final int hashes = 20000, threads = 8;
+		final SeriesSeenSet set = new SeriesSeenSet(hashes);
+		final AtomicIntegerArray added = new AtomicIntegerArray(hashes);
+		final CyclicBarrier barrier = new CyclicBarrier(threads);
+		final Thread[] adders = new Thread[threads];
+		for(int t = 0; t < threads; t++) {
+			final int offset = t * 997;
+			adders[t] = new Thread("SeenSetAdder#" + t) {
+				@Override
+				public void run() {
+					try {
+						barrier.await(10, TimeUnit.SECONDS);
+					} catch (Exception ex) {
+						throw new RuntimeException(ex);
+					}
+					// every thread adds every hash, starting at a different one
+					for(int i = 0; i < hashes; i++) {
+						final int id = (i + offset) % hashes;
+						if(set.add(SeriesSeenSet.hash(new byte[]{1, 1, 1, 0, 0, 1, (byte)(id >>> 16), (byte)(id >>> 8), (byte)id}))) {
+							added.incrementAndGet(id);
+						}
+					}
+				}
+			};
+			adders[t].start();
+		}
+		for(Thread t: adders) t.join(30000);
+		for(int id = 0; id < hashes; id++) {
+			assertEquals("hash #" + id, 1, added.get(id));
+		}
+		assertEquals(hashes, set.size());
+		assertEquals(0, set.getOverflows());
+	}
+
+	@Test
+	public void testSaturation() {
+		final SeriesSeenSet set = new SeriesSeenSet(12);
+		assertEquals(12, set.getMaxEntries());
+		for(long h = 1; h <= 12; h++) {
+			assertTrue(set.add(h));
+		}
+		assertTrue(set.isSaturated());
+		assertFalse(set.add(5));
+		// unseen hashes are reported as possibly new every time, without being stored
+		assertTrue(set.add(100));
+		assertTrue(set.add(100));
+		assertFalse(set.contains(100));
+		assertEquals(12, set.size());
+		assertEquals(2, set.getOverflows());
+	}
+
+	@Test
+	public void testOrdinalHints() {
+		final SeriesSeenSet set = new SeriesSeenSet(100);
+		assertEquals(-1, set.indexOf(42));
+		set.add(42);
+		final int slot = set.indexOf(42);
+		assertTrue(slot >= 0);
+		assertEquals(-1, set.getOrdinal(slot));
+		set.setOrdinal(slot, 0);
+		assertEquals(0, set.getOrdinal(slot));
+		set.setOrdinal(slot, 1234);
+		assertEquals(1234, set.getOrdinal(slot));
+		set.setOrdinal(slot, -2);
+		assertEquals(-2, set.getOrdinal(slot));
+		// the zero hash is stored in place of the empty slot marker
+		assertTrue(set.add(0));
+		assertTrue(set.contains(0));
+	}
+}
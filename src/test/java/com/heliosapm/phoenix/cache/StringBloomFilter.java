@@ -0,0 +1,153 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Title: StringBloomFilter</p>
+ * <p>Description: A thread-safe Bloom filter over strings, used to reject lookups of keys which are definitely not cached
+ * without opening a transaction. Bits are set with CAS so concurrent adds never lose each other's bits.
+ * Bit positions are derived from one 64 bit hash of the string by double hashing.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.StringBloomFilter</code></p>
+ */
+
+public class StringBloomFilter {
+	/** The bit words */
+	private final AtomicLongArray words;
+	/** The number of bits */
+	private final long bits;
+	/** The number of bit positions per key */
+	private final int hashes;
+	/** The number of keys the filter was sized for */
+	private final long expectedInsertions;
+	/** The number of adds */
+	private final AtomicLong added = new AtomicLong(0);
+
+	/**
+	 * Creates a new StringBloomFilter
+	 * @param expectedInsertions The number of keys to size the filter for
+	 * @param fpp The target false positive probability at the expected number of keys
+	 */
+	public StringBloomFilter(final long expectedInsertions, final double fpp) {
+		if(expectedInsertions < 1) throw new IllegalArgumentException("Invalid expected insertions [" + expectedInsertions + "]");
+		if(fpp <= 0 || fpp >= 1) throw new IllegalArgumentException("Invalid false positive probability [" + fpp + "]");
+		this.expectedInsertions = expectedInsertions;
+		final long m = Math.max(64, (long)Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2))));
+		final int wordCount = (int)Math.min(Integer.MAX_VALUE - 8, (m + 63) >>> 6);
+		words = new AtomicLongArray(wordCount);
+		bits = (long)wordCount << 6;
+		hashes = Math.max(1, (int)Math.round((double)bits / expectedInsertions * Math.log(2)));
+	}
+
+	/**
+	 * Adds a key to the filter
+	 * @param key The key to add
+	 */
+	public void put(final CharSequence key) {
+		final long hash = hash(key);
+		final int h1 = (int)hash;
+		final int h2 = (int)(hash >>> 32);
+		for(int i = 1; i <= hashes; i++) {
+			int combined = h1 + i * h2;
+			if(combined < 0) combined = ~combined;
+			final long bit = combined % bits;
+			final int word = (int)(bit >>> 6);
+			final long mask = 1L << bit;
+			long current;
+			while(((current = words.get(word)) & mask)==0) {
+				if(words.compareAndSet(word, current, current | mask)) break;
+			}
+		}
+		added.incrementAndGet();
+	}
+
+	/**
+	 * Indicates if the passed key might have been added
+	 * @param key The key to test
+	 * @return false if the key was definitely never added, true if it probably was
+	 */
+	public boolean mightContain(final CharSequence key) {
+		final long hash = hash(key);
+		final int h1 = (int)hash;
+		final int h2 = (int)(hash >>> 32);
+		for(int i = 1; i <= hashes; i++) {
+			int combined = h1 + i * h2;
+			if(combined < 0) combined = ~combined;
+			final long bit = combined % bits;
+			if((words.get((int)(bit >>> 6)) & (1L << bit))==0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of adds since the filter was created
+	 * @return the number of adds
+	 */
+	public long getAdded() {
+		return added.get();
+	}
+
+	/**
+	 * Returns the number of keys the filter was sized for
+	 * @return the expected number of keys
+	 */
+	public long getExpectedInsertions() {
+		return expectedInsertions;
+	}
+
+	/**
+	 * Indicates if more keys have been added than the filter was sized for, so its false positive rate is climbing
+	 * @return true if the filter is saturated
+	 */
+	public boolean isSaturated() {
+		return added.get() > expectedInsertions;
+	}
+
+	/**
+	 * Returns the size of the filter in bytes
+	 * @return the size in bytes
+	 */
+	public long getSizeBytes() {
+		return bits >>> 3;
+	}
+
+	/**
+	 * Computes a 64 bit hash of the passed characters (FNV-1a folded through a murmur3 finalizer)
+	 * @param key The characters to hash
+	 * @return the hash
+	 */
+	static long hash(final CharSequence key) {
+		long h = 0xcbf29ce484222325L;
+		final int len = key.length();
+		for(int i = 0; i < len; i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,76 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: StringBloomFilterTest</p>
+ * <p>Description: Tests for {@link StringBloomFilter} membership, false positive rate and saturation</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.StringBloomFilterTest</code></p>
+ */
+
+public class StringBloomFilterTest {
+
+	@Test
+	public void testNoFalseNegatives() {
+		final StringBloomFilter filter = new StringBloomFilter(10000, 0.01);
+		for(int i = 0; i < 10000; i++) {
+			filter.put(String.format("%06X", i));
+		}
+		for(int i = 0; i < 10000; i++) {
+			assertTrue(filter.mightContain(String.format("%06X", i)));
+		}
+		assertEquals(10000, filter.getAdded());
+	}
+
+	@Test
+	public void testFalsePositiveRate() {
+		final double fpp = 0.01;
+		final StringBloomFilter filter = new StringBloomFilter(10000, fpp);
+		for(int i = 0; i < 10000; i++) {
+			filter.put(String.format("%06X", i));
+		}
+		int falsePositives = 0;
+		final int probes = 100000;
+		for(int i = 0; i < probes; i++) {
+			if(filter.mightContain(String.format("%06X", 0x100000 + i))) falsePositives++;
+		}
+		assertTrue("False positive rate [" + ((double)falsePositives / probes) + "]", falsePositives < probes * fpp * 2);
+	}
+
+	@Test
+	public void testSaturation() {
+		final StringBloomFilter filter = new StringBloomFilter(100, 0.01);
+		assertEquals(100, filter.getExpectedInsertions());
+		for(int i = 0; i < 100; i++) {
+			filter.put("key" + i);
+		}
+		assertFalse(filter.isSaturated());
+		filter.put("key100");
+		assertTrue(filter.isSaturated());
+		assertTrue(filter.getSizeBytes() > 0);
+	}
+}
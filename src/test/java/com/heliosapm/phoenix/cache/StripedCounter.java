@@ -0,0 +1,104 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Title: StripedCounter</p>
+ * <p>Description: A counter spread over cache-line padded cells selected by the calling thread's id,
+ * so concurrent incrementing threads rarely contend on the same cell. Reads sum all the cells.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.StripedCounter</code></p>
+ */
+
+public class StripedCounter {
+	/** The number of longs between cells so each cell sits on its own cache line */
+	private static final int PAD = 8;
+	/** The number of cells, a power of 2 */
+	private static final int STRIPES;
+	/** The cell index mask */
+	private static final int MASK;
+
+	static {
+		int s = 1;
+		final int target = Runtime.getRuntime().availableProcessors() * 2;
+		while(s < target) s <<= 1;
+		STRIPES = s;
+		MASK = s - 1;
+	}
+
+	/** The padded cells */
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+	/**
+	 * Returns the cell offset for the calling thread
+	 * @return the cell offset
+	 */
+	private static int cell() {
+		final long id = Thread.currentThread().getId();
+		return ((int)(id ^ (id >>> 16)) * 0x9E3779B9 >>> 16 & MASK) * PAD;
+	}
+
+	/**
+	 * Increments the counter by one
+	 */
+	public void increment() {
+		cells.incrementAndGet(cell());
+	}
+
+	/**
+	 * Adds the passed delta to the counter
+	 * @param delta The amount to add
+	 */
+	public void add(final long delta) {
+		cells.addAndGet(cell(), delta);
+	}
+
+	/**
+	 * Returns the current counter value
+	 * @return the sum of all cells
+	 */
+	public long get() {
+		long total = 0;
+		for(int i = 0; i < STRIPES; i++) {
+			total += cells.get(i * PAD);
+		}
+		return total;
+	}
+
+	/**
+	 * Resets the counter to zero. Increments concurrent with the reset may be lost.
+	 */
+	public void reset() {
+		for(int i = 0; i < STRIPES; i++) {
+			cells.set(i * PAD, 0L);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return Long.toString(get());
+	}
+}
@@ -0,0 +1,503 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: TSMetaBulkLoader</p>
+ * <p>Description: Bulk loads the <b><code>TSD_TSMETA</code></b> catalog into a {@link CacheImpl} through a four stage pipeline:
+ * <ol>
+ * 	<li><b>fetch</b>: one thread streams <b><code>FQN, TSUID</code></b> rows from the SQL catalog in batches</li>
+ * 	<li><b>parse</b>: parses the FQNs into {@link CachedTSMeta}s with a {@link FQNParser} per thread</li>
+ * 	<li><b>resolve</b>: makes sure every UID referenced by the batch's tsuids is cached, loading missing UIDs through the cache's {@link UIDLoader}.
+ * 	TSMetas referencing a UID which does not exist in the catalog are orphans: they are counted and skipped.</li>
+ * 	<li><b>write</b>: puts each batch of TSMetas into the cache in one transaction</li>
+ * </ol>
+ * Stages are connected by bounded queues of batches, so a slow stage blocks the stages feeding it instead of buffering the catalog in memory.
+ * Each stage has its own thread count and reports its throughput and the time its threads were busy.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.TSMetaBulkLoader</code></p>
+ */
+
+public class TSMetaBulkLoader {
+	private static final Logger log = LoggerFactory .getLogger(TSMetaBulkLoader.class);
+	/** The default number of rows per batch */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	/** The default number of batches each stage queue holds */
+	public static final int DEFAULT_QUEUE_DEPTH = 16;
+	/** The end of stream marker passed down the queues */
+	private static final List<Object> EOF = Collections.emptyList();
+	/** The catalog query */
+	public static final String TSMETA_SQL = "SELECT FQN, TSUID FROM TSD_TSMETA";
+
+	/** The cache to load into */
+	final CacheImpl cache;
+	/** The number of rows per batch */
+	final int batchSize;
+	/** The number of batches each stage queue holds */
+	final int queueDepth;
+	/** The pipeline stages in order */
+	final Map<String, Stage> stages = new LinkedHashMap<String, Stage>();
+	/** The uids known to be cached, keyed by UID type */
+	final Map<UniqueId.UniqueIdType, Set<String>> resolved = new EnumMap<UniqueId.UniqueIdType, Set<String>>(UniqueId.UniqueIdType.class);
+	/** The uids referenced by TSMetas which do not exist in the catalog, keyed by UID type */
+	final Map<UniqueId.UniqueIdType, Set<String>> absent = new EnumMap<UniqueId.UniqueIdType, Set<String>>(UniqueId.UniqueIdType.class);
+	/** The number of orphan TSMetas skipped because they reference a UID which does not exist */
+	final StripedCounter orphans = new StripedCounter();
+	/** The first failure in any stage */
+	final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+	/**
+	 * <p>Title: Stage</p>
+	 * <p>Description: One pipeline stage, its thread count and its counters</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.TSMetaBulkLoader.Stage</code></p>
+	 */
+	public static class Stage {
+		/** The stage name */
+		final String name;
+		/** The number of threads */
+		final int threads;
+		/** The number of items processed */
+		final StripedCounter items = new StripedCounter();
+		/** The nanos the stage threads spent working, excluding time blocked on the queues */
+		final StripedCounter busyNanos = new StripedCounter();
+		/** The number of stage threads still running */
+		final AtomicInteger running;
+		/** The elapsed nanos from the pipeline start to the last stage thread ending */
+		volatile long elapsedNanos = 0;
+
+		/**
+		 * Creates a new Stage
+		 * @param name The stage name
+		 * @param threads The number of threads
+		 */
+		Stage(final String name, final int threads) {
+			if(threads < 1) throw new IllegalArgumentException("Invalid thread count [" + threads + "] for stage [" + name + "]");
+			this.name = name;
+			this.threads = threads;
+			running = new AtomicInteger(threads);
+		}
+
+		/**
+		 * Returns the number of items processed
+		 * @return the number of items
+		 */
+		public long getItems() {
+			return items.get();
+		}
+
+		/**
+		 * Returns the stage throughput over its elapsed time
+		 * @return the items per second
+		 */
+		public long getItemsPerSecond() {
+			final long elapsed = elapsedNanos;
+			return elapsed==0 ? 0 : items.get() * TimeUnit.SECONDS.toNanos(1) / elapsed;
+		}
+
+		/**
+		 * Returns the fraction of the stage's thread time spent working rather than blocked on its queues
+		 * @return the utilization between 0 and 1
+		 */
+		public double getUtilization() {
+			final long elapsed = elapsedNanos;
+			return elapsed==0 ? 0D : (double)busyNanos.get() / elapsed / threads;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return new StringBuilder(name).append(" [threads=").append(threads)
+				.append(", items=").append(getItems())
+				.append(", items/s=").append(getItemsPerSecond())
+				.append(", utilization=").append(String.format("%.2f", getUtilization()))
+				.append("]").toString();
+		}
+	}
+
+	/**
+	 * Creates a new TSMetaBulkLoader
+	 * @param cache The cache to load into
+	 * @param parseThreads The number of parse threads
+	 * @param resolveThreads The number of UID resolve threads
+	 * @param writeThreads The number of cache write threads
+	 * @param batchSize The number of rows per batch
+	 * @param queueDepth The number of batches each stage queue holds
+	 */
+	public TSMetaBulkLoader(final CacheImpl cache, final int parseThreads, final int resolveThreads, final int writeThreads, final int batchSize, final int queueDepth) {
+		if(batchSize < 1) throw new IllegalArgumentException("Invalid batch size [" + batchSize + "]");
+		if(queueDepth < 1) throw new IllegalArgumentException("Invalid queue depth [" + queueDepth + "]");
+		this.cache = cache;
+		this.batchSize = batchSize;
+		this.queueDepth = queueDepth;
+		for(UniqueId.UniqueIdType type: UniqueId.UniqueIdType.values()) {
+			resolved.put(type, Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+			absent.put(type, Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+		}
+		stages.put("fetch", new Stage("fetch", 1));
+		stages.put("parse", new Stage("parse", parseThreads));
+		stages.put("resolve", new Stage("resolve", resolveThreads));
+		stages.put("write", new Stage("write", writeThreads));
+	}
+
+	/**
+	 * Loads the whole catalog
+	 * @return the number of TSMetas loaded
+	 */
+	public long load() {
+		return load(-1);
+	}
+
+	/**
+	 * Loads the catalog
+	 * @param max The maximum number of rows to load, or -1 for all
+	 * @return the number of TSMetas loaded
+	 */
+	public long load(final int max) {
+		final BlockingQueue<List<?>> rows = new ArrayBlockingQueue<List<?>>(queueDepth);
+		final BlockingQueue<List<?>> parsed = new ArrayBlockingQueue<List<?>>(queueDepth);
+		final BlockingQueue<List<?>> resolvedBatches = new ArrayBlockingQueue<List<?>>(queueDepth);
+		final long start = System.nanoTime();
+		int totalThreads = 0;
+		for(Stage stage: stages.values()) totalThreads += stage.threads;
+		final CountDownLatch done = new CountDownLatch(totalThreads);
+		final List<Thread> threads = new ArrayList<Thread>(totalThreads);
+		threads.add(stageThread(stages.get("fetch"), 0, start, done, null, rows, new BatchHandler() {
+			@Override
+			public List<?> handle(final List<?> in, final Stage stage) throws Exception {
+				fetch(max, rows, stage);
+				return null;
+			}
+		}));
+		for(int i = 0; i < stages.get("parse").threads; i++) {
+			final FQNParser parser = new FQNParser();
+			threads.add(stageThread(stages.get("parse"), i, start, done, rows, parsed, new BatchHandler() {
+				@Override
+				public List<?> handle(final List<?> in, final Stage stage) throws Exception {
+					return parse(parser, in);
+				}
+			}));
+		}
+		for(int i = 0; i < stages.get("resolve").threads; i++) {
+			threads.add(stageThread(stages.get("resolve"), i, start, done, parsed, resolvedBatches, new BatchHandler() {
+				@Override
+				@SuppressWarnings("unchecked")
+				public List<?> handle(final List<?> in, final Stage stage) throws Exception {
+					return resolve((List<CachedTSMeta>)in);
+				}
+			}));
+		}
+		for(int i = 0; i < stages.get("write").threads; i++) {
+			threads.add(stageThread(stages.get("write"), i, start, done, resolvedBatches, null, new BatchHandler() {
+				@Override
+				@SuppressWarnings("unchecked")
+				public List<?> handle(final List<?> in, final Stage stage) throws Exception {
+					cache.putCachedTSMetas((List<CachedTSMeta>)in);
+					return null;
+				}
+			}));
+		}
+		for(Thread t: threads) t.start();
+		try {
+			done.await();
+		} catch (InterruptedException iex) {
+			for(Thread t: threads) t.interrupt();
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while loading TSMetas", iex);
+		}
+		final Throwable t = failure.get();
+		if(t!=null) throw new RuntimeException("TSMeta bulk load failed", t);
+		final long loaded = stages.get("write").getItems();
+		log.info("Loaded [{}] TSMetas in [{}] ms, skipped [{}] orphans", loaded, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), orphans.get());
+		for(Stage stage: stages.values()) {
+			log.info("  {}", stage);
+		}
+		return loaded;
+	}
+
+	/**
+	 * <p>Title: BatchHandler</p>
+	 * <p>Description: The work a stage does on each batch</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.TSMetaBulkLoader.BatchHandler</code></p>
+	 */
+	interface BatchHandler {
+		/**
+		 * Processes a batch
+		 * @param in The input batch, null for the source stage
+		 * @param stage The stage
+		 * @return the output batch for the next stage, or null for none
+		 * @throws Exception thrown on any error, failing the load
+		 */
+		List<?> handle(List<?> in, Stage stage) throws Exception;
+	}
+
+	/**
+	 * Creates a stage thread which takes batches from its input queue, handles them and passes the results to its output queue.
+	 * The last thread of a stage to finish passes the end of stream marker on.
+	 * @param stage The stage
+	 * @param id The thread's index within the stage
+	 * @param start The pipeline start time
+	 * @param done The latch counted down when the thread ends
+	 * @param in The input queue, null for the source stage
+	 * @param out The output queue, null for the sink stage
+	 * @param handler The batch handler
+	 * @return the unstarted thread
+	 */
+	private Thread stageThread(final Stage stage, final int id, final long start, final CountDownLatch done, final BlockingQueue<List<?>> in, final BlockingQueue<List<?>> out, final BatchHandler handler) {
+		final Thread t = new Thread("TSMetaBulkLoader-" + stage.name + "#" + id) {
+			@Override
+			public void run() {
+				try {
+					if(in==null) {
+						handler.handle(null, stage);
+					} else {
+						while(failure.get()==null) {
+							final List<?> batch = in.take();
+							if(batch==EOF) {
+								offer(in, EOF);
+								break;
+							}
+							final long s = System.nanoTime();
+							final List<?> result = handler.handle(batch, stage);
+							stage.busyNanos.add(System.nanoTime() - s);
+							stage.items.add(batch.size());
+							if(out!=null && result!=null && !result.isEmpty()) offer(out, result);
+						}
+					}
+				} catch (Throwable ex) {
+					if(failure.compareAndSet(null, ex)) log.error("TSMeta bulk load stage [{}] failed", stage.name, ex);
+				} finally {
+					if(stage.running.decrementAndGet()==0) {
+						stage.elapsedNanos = System.nanoTime() - start;
+						if(out!=null) {
+							try {
+								offer(out, EOF);
+							} catch (InterruptedException iex) {
+								/* No Op */
+							}
+						}
+					}
+					done.countDown();
+				}
+			}
+		};
+		t.setDaemon(true);
+		return t;
+	}
+
+	/**
+	 * Puts a batch on the passed queue, blocking while it is full. Once the load has failed, batches are dropped
+	 * and the end of stream marker displaces whatever is queued so the downstream threads can exit.
+	 * @param queue The queue
+	 * @param batch The batch
+	 * @throws InterruptedException thrown if the thread is interrupted while waiting
+	 */
+	private void offer(final BlockingQueue<List<?>> queue, final List<?> batch) throws InterruptedException {
+		while(!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+			if(failure.get()!=null) {
+				if(batch!=EOF) return;
+				queue.clear();
+			}
+		}
+	}
+
+	/**
+	 * Streams the catalog rows into batches of <b><code>[fqn, tsuid]</code></b> string pairs.
+	 * Time spent blocked on a full parse queue is not counted as busy.
+	 * @param max The maximum number of rows, or -1 for all
+	 * @param out The queue to pass the batches to
+	 * @param stage The fetch stage
+	 * @throws Exception thrown on any JDBC error
+	 */
+	void fetch(final int max, final BlockingQueue<List<?>> out, final Stage stage) throws Exception {
+		Connection conn = null;
+		PreparedStatement ps = null;
+		ResultSet rset = null;
+		try {
+			conn = DriverManager.getConnection(CacheImpl.jdbcUrl(), "sa", "");
+			ps = conn.prepareStatement(max < 0 ? TSMETA_SQL : TSMETA_SQL + " LIMIT " + max);
+			ps.setFetchSize(batchSize * 10);
+			rset = ps.executeQuery();
+			List<String[]> batch = new ArrayList<String[]>(batchSize);
+			long s = System.nanoTime();
+			while(rset.next() && failure.get()==null) {
+				batch.add(new String[]{rset.getString(1), rset.getString(2)});
+				if(batch.size()==batchSize) {
+					stage.items.add(batch.size());
+					stage.busyNanos.add(System.nanoTime() - s);
+					offer(out, batch);
+					s = System.nanoTime();
+					batch = new ArrayList<String[]>(batchSize);
+				}
+			}
+			stage.busyNanos.add(System.nanoTime() - s);
+			if(!batch.isEmpty()) {
+				stage.items.add(batch.size());
+				offer(out, batch);
+			}
+		} finally {
+			if(rset!=null) try { rset.close(); } catch (Exception x) {/* No Op */}
+			if(ps!=null) try { ps.close(); } catch (Exception x) {/* No Op */}
+			if(conn!=null) try { conn.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Parses a batch of catalog rows
+	 * @param parser The calling thread's parser
+	 * @param rows The batch of <b><code>[fqn, tsuid]</code></b> pairs
+	 * @return the parsed TSMetas
+	 */
+	List<CachedTSMeta> parse(final FQNParser parser, final List<?> rows) {
+		final List<CachedTSMeta> metas = new ArrayList<CachedTSMeta>(rows.size());
+		for(Object o: rows) {
+			final String[] row = (String[])o;
+			metas.add(parser.parse(row[0], UniqueId.stringToUid(row[1])));
+		}
+		return metas;
+	}
+
+	/**
+	 * Makes sure every UID referenced by the passed TSMetas is cached, loading the missing ones in batches and waiting for them.
+	 * TSMetas referencing a UID which does not exist are counted as orphans and left out of the returned batch.
+	 * @param metas The TSMetas
+	 * @return the TSMetas whose UIDs are all cached
+	 * @throws Exception thrown if a UID load fails
+	 */
+	List<CachedTSMeta> resolve(final List<CachedTSMeta> metas) throws Exception {
+		final int w = CachedTSMeta.TS_UID_SIZE * 2;
+		final Map<UniqueId.UniqueIdType, Set<String>> uids = new EnumMap<UniqueId.UniqueIdType, Set<String>>(UniqueId.UniqueIdType.class);
+		for(UniqueId.UniqueIdType type: UniqueId.UniqueIdType.values()) {
+			uids.put(type, new HashSet<String>());
+		}
+		for(CachedTSMeta meta: metas) {
+			final String hex = meta.getTsuidHex();
+			for(int offset = 0, seq = 0; offset + w <= hex.length(); offset += w, seq++) {
+				final UniqueId.UniqueIdType type = seq==0 ? UniqueId.UniqueIdType.METRIC : (seq % 2==1 ? UniqueId.UniqueIdType.TAGK : UniqueId.UniqueIdType.TAGV);
+				final String uid = hex.substring(offset, offset + w);
+				if(!resolved.get(type).contains(uid) && !absent.get(type).contains(uid)) uids.get(type).add(uid);
+			}
+		}
+		final List<Deferred<CachedUIDMeta>> pending = new ArrayList<Deferred<CachedUIDMeta>>();
+		final List<UniqueId.UniqueIdType> pendingTypes = new ArrayList<UniqueId.UniqueIdType>();
+		final List<String> pendingUids = new ArrayList<String>();
+		for(Map.Entry<UniqueId.UniqueIdType, Set<String>> entry: uids.entrySet()) {
+			final UniqueId.UniqueIdType type = entry.getKey();
+			if(entry.getValue().isEmpty()) continue;
+			final Set<String> missing = cache.missingUIDKeys(type, entry.getValue());
+			for(String uid: entry.getValue()) {
+				if(missing.contains(uid)) {
+					pending.add(cache.getCachedUIDMetaAsync(type, uid));
+					pendingTypes.add(type);
+					pendingUids.add(uid);
+				} else {
+					resolved.get(type).add(uid);
+				}
+			}
+		}
+		for(int i = 0; i < pending.size(); i++) {
+			final CachedUIDMeta meta = pending.get(i).join(TimeUnit.MINUTES.toMillis(1));
+			if(meta==null) {
+				if(absent.get(pendingTypes.get(i)).add(pendingUids.get(i))) {
+					log.warn("UID [{}:{}] referenced by TSMetas does not exist. The TSMetas will be skipped.", pendingTypes.get(i), pendingUids.get(i));
+				}
+				continue;
+			}
+			resolved.get(meta.getType()).add(meta.getUidHex());
+		}
+		boolean anyAbsent = false;
+		for(Set<String> a: absent.values()) {
+			if(!a.isEmpty()) { anyAbsent = true; break; }
+		}
+		if(!anyAbsent) return metas;
+		final List<CachedTSMeta> linked = new ArrayList<CachedTSMeta>(metas.size());
+		for(CachedTSMeta meta: metas) {
+			if(isOrphan(meta.getTsuidHex(), w)) {
+				orphans.increment();
+			} else {
+				linked.add(meta);
+			}
+		}
+		return linked;
+	}
+
+	/**
+	 * Determines if the passed tsuid references a UID known not to exist
+	 * @param hex The tsuid hex
+	 * @param w The width of a UID in hex characters
+	 * @return true if any of the tsuid's UIDs does not exist
+	 */
+	private boolean isOrphan(final String hex, final int w) {
+		for(int offset = 0, seq = 0; offset + w <= hex.length(); offset += w, seq++) {
+			final UniqueId.UniqueIdType type = seq==0 ? UniqueId.UniqueIdType.METRIC : (seq % 2==1 ? UniqueId.UniqueIdType.TAGK : UniqueId.UniqueIdType.TAGV);
+			if(absent.get(type).contains(hex.substring(offset, offset + w))) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of orphan TSMetas skipped because they reference a UID which does not exist
+	 * @return the number of orphans
+	 */
+	public long getOrphans() {
+		return orphans.get();
+	}
+	
+	/**
+	 * Returns the pipeline stages in order
+	 * @return the stages keyed by name
+	 */
+	public Map<String, Stage> getStages() {
+		return Collections.unmodifiableMap(stages);
+	}
+}
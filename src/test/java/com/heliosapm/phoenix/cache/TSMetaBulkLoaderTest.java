@@ -0,0 +1,197 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <p>Title: TSMetaBulkLoaderTest</p>
+ * <p>Description: Tests {@link TSMetaBulkLoader} loads of a generated catalog, orphan skipping and stage failure propagation</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.TSMetaBulkLoaderTest</code></p>
+ */
+
+public class TSMetaBulkLoaderTest {
+	/** The temporary folder holding the cache file */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	/** The cache under test */
+	CacheImpl cache = null;
+	/** The metric uid of the orphan rows, which the catalog does not define */
+	static final String ORPHAN_METRIC = "FFFFFE";
+
+	@BeforeClass
+	public static void generateCatalog() {
+		System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("TSMetaBulkLoaderTest", 500));
+	}
+
+	@Before
+	public void setUp() {
+		cache = CacheImpl.getInstance(new File(folder.getRoot(), "tsmeta.db").getAbsolutePath(), false);
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		cache.close();
+		final Connection conn = DriverManager.getConnection(CacheImpl.jdbcUrl(), "sa", "");
+		try {
+			final Statement st = conn.createStatement();
+			st.executeUpdate("DELETE FROM TSD_TSMETA WHERE TSUID LIKE '" + ORPHAN_METRIC + "%'");
+			st.close();
+		} finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Returns the number of rows in the TSMeta catalog
+	 * @return the row count
+	 * @throws SQLException thrown on any JDBC error
+	 */
+	static long catalogSize() throws SQLException {
+		final Connection conn = DriverManager.getConnection(CacheImpl.jdbcUrl(), "sa", "");
+		try {
+			return MetaGenerator.count(conn, "TSD_TSMETA");
+		} finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Copies catalog rows under a metric uid which the catalog does not define
+	 * @param count The number of orphan rows to add
+	 * @throws SQLException thrown on any JDBC error
+	 */
+	static void addOrphans(final int count) throws SQLException {
+		final Connection conn = DriverManager.getConnection(CacheImpl.jdbcUrl(), "sa", "");
+		try {
+			final Statement st = conn.createStatement();
+			final ResultSet rset = st.executeQuery("SELECT TSUID, FQN FROM TSD_TSMETA LIMIT " + count);
+			final PreparedStatement ps = conn.prepareStatement("INSERT INTO TSD_TSMETA(TSUID, FQN) VALUES(?, ?)");
+			int added = 0;
+			while(rset.next()) {
+				ps.setString(1, ORPHAN_METRIC + rset.getString(1).substring(ORPHAN_METRIC.length()));
+				ps.setString(2, rset.getString(2));
+				added += ps.executeUpdate();
+			}
+			assertEquals(count, added);
+			ps.close();
+			rset.close();
+			st.close();
+		} finally {
+			conn.close();
+		}
+	}
+
+	@Test
+	public void testLoad() throws Exception {
+		final TSMetaBulkLoader loader = new TSMetaBulkLoader(cache, 2, 2, 2, 50, 2);
+		final long expected = catalogSize();
+		assertEquals(expected, loader.load());
+		assertEquals(0, loader.getOrphans());
+		assertEquals(expected, cache.getSeriesIndex().size());
+		assertEquals(expected, loader.getStages().get("fetch").getItems());
+	}
+
+	@Test
+	public void testOrphansSkipped() throws Exception {
+		final long expected = catalogSize();
+		addOrphans(7);
+		final TSMetaBulkLoader loader = new TSMetaBulkLoader(cache, 2, 2, 2, 50, 2);
+		assertEquals(expected, loader.load());
+		assertEquals(7, loader.getOrphans());
+		assertEquals(expected + 7, loader.getStages().get("fetch").getItems());
+		assertEquals(expected, cache.getSeriesIndex().size());
+		assertTrue(loader.absent.get(UniqueId.UniqueIdType.METRIC).contains(ORPHAN_METRIC));
+	}
+
+	/**
+	 * Asserts a load fails with the passed stage failure
+	 * @param loader The failing loader
+	 * @param cause The expected cause
+	 */
+	static void assertFails(final TSMetaBulkLoader loader, final Exception cause) {
+		try {
+			loader.load();
+			fail("The load should have failed");
+		} catch (RuntimeException expected) {
+			assertSame(cause, expected.getCause());
+		}
+	}
+
+	@Test(timeout=60000)
+	public void testParseFailure() {
+		final IllegalStateException cause = new IllegalStateException("parse failure");
+		final AtomicInteger batches = new AtomicInteger(0);
+		// small batches and queues, so the fetch thread is blocked on a full queue when the parser fails
+		assertFails(new TSMetaBulkLoader(cache, 2, 1, 1, 10, 1) {
+			@Override
+			List<CachedTSMeta> parse(final FQNParser parser, final List<?> rows) {
+				if(batches.incrementAndGet()==3) throw cause;
+				return super.parse(parser, rows);
+			}
+		}, cause);
+	}
+
+	@Test(timeout=60000)
+	public void testResolveFailure() {
+		final IllegalStateException cause = new IllegalStateException("resolve failure");
+		assertFails(new TSMetaBulkLoader(cache, 1, 2, 1, 10, 1) {
+			@Override
+			List<CachedTSMeta> resolve(final List<CachedTSMeta> metas) throws Exception {
+				throw cause;
+			}
+		}, cause);
+	}
+
+	@Test(timeout=60000)
+	public void testFetchFailure() {
+		final SQLException cause = new SQLException("fetch failure");
+		assertFails(new TSMetaBulkLoader(cache, 1, 1, 1, 10, 1) {
+			@Override
+			void fetch(final int max, final BlockingQueue<List<?>> out, final Stage stage) throws Exception {
+				throw cause;
+			}
+		}, cause);
+	}
+}
@@ -0,0 +1,319 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: TSMetaEvictor</p>
+ * <p>Description: Keeps the tsmeta map within a maximum entry count and/or estimated byte size, and expires series
+ * which have not been accessed for a configured period. Access frequency and time are tracked in paged primitive arrays
+ * indexed by series ordinal, whose pages are never copied so growth cannot lose concurrent accesses. Each run scans the next window of ordinals (a clock hand), expires idle series in the window and,
+ * while the map is over its bounds, evicts the least frequently used series in the window. Frequencies are halved each
+ * time the hand completes a cycle so that old popularity decays.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.TSMetaEvictor</code></p>
+ */
+
+public class TSMetaEvictor implements Runnable {
+	private static final Logger log = LoggerFactory .getLogger(TSMetaEvictor.class);
+	/** The default number of ordinals scanned per run */
+	public static final int DEFAULT_SCAN_SIZE = 4096;
+	/** The maximum access frequency */
+	public static final int MAX_FREQUENCY = 255;
+	/** The number of ordinals per page as a power of 2 */
+	static final int PAGE_BITS = 10;
+	/** The number of ordinals per page */
+	static final int PAGE_SIZE = 1 << PAGE_BITS;
+	/** The ordinal offset within a page mask */
+	static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	/** The cache to evict from */
+	final CacheImpl cache;
+	/** The maximum number of entries, or 0 for no entry bound */
+	final long maxEntries;
+	/** The maximum estimated size in bytes, or 0 for no byte bound */
+	final long maxBytes;
+	/** The idle time in ms after which a series expires, or 0 for no expiry */
+	final long expireAfterAccessMs;
+	/** The number of ordinals scanned per run */
+	final int scanSize;
+	/** The pages of access tracking. Growth copies only this directory, never a page. */
+	volatile Page[] pages = new Page[]{new Page()};
+	/** The clock hand ordinal */
+	volatile int hand = 0;
+
+	/**
+	 * <p>Title: Page</p>
+	 * <p>Description: The access tracking of one page of ordinals</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.TSMetaEvictor.Page</code></p>
+	 */
+	static class Page {
+		/** The access frequencies indexed by ordinal within the page */
+		final byte[] frequency = new byte[PAGE_SIZE];
+		/** The last access times indexed by ordinal within the page */
+		final long[] lastAccess = new long[PAGE_SIZE];
+	}
+
+	/**
+	 * Creates a new TSMetaEvictor
+	 * @param cache The cache to evict from
+	 * @param maxEntries The maximum number of entries, or 0 for no entry bound
+	 * @param maxBytes The maximum estimated size in bytes, or 0 for no byte bound
+	 * @param expireAfterAccess The idle time after which a series expires, or 0 for no expiry
+	 * @param unit The unit of the idle time
+	 * @param scanSize The number of ordinals scanned per run
+	 */
+	TSMetaEvictor(final CacheImpl cache, final long maxEntries, final long maxBytes, final long expireAfterAccess, final TimeUnit unit, final int scanSize) {
+		if(maxEntries < 0 || maxBytes < 0 || expireAfterAccess < 0) throw new IllegalArgumentException("Bounds cannot be negative");
+		if(scanSize < 1) throw new IllegalArgumentException("Invalid scan size [" + scanSize + "]");
+		this.cache = cache;
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.expireAfterAccessMs = unit.toMillis(expireAfterAccess);
+		this.scanSize = scanSize;
+	}
+
+	/**
+	 * Records an access to the series with the passed ordinal
+	 * @param ordinal The series ordinal
+	 */
+	public void touch(final int ordinal) {
+		if(ordinal < 0) return;
+		final Page page = page(ordinal);
+		final int i = ordinal & PAGE_MASK;
+		final int current = page.frequency[i] & 0xFF;
+		if(current < MAX_FREQUENCY) page.frequency[i] = (byte)(current + 1);
+		page.lastAccess[i] = System.currentTimeMillis();
+	}
+
+	/**
+	 * Resets the tracking for a newly assigned ordinal
+	 * @param ordinal The series ordinal
+	 */
+	public void added(final int ordinal) {
+		if(ordinal < 0) return;
+		final Page page = page(ordinal);
+		final int i = ordinal & PAGE_MASK;
+		page.frequency[i] = 1;
+		page.lastAccess[i] = System.currentTimeMillis();
+	}
+
+	/**
+	 * Discards all access tracking and restarts the clock hand, e.g. when the tsmeta map is cleared
+	 */
+	public synchronized void clear() {
+		pages = new Page[]{new Page()};
+		hand = 0;
+	}
+
+	/**
+	 * Returns the access frequency of the series with the passed ordinal
+	 * @param ordinal The series ordinal
+	 * @return the access frequency, or 0 if the ordinal is not tracked
+	 */
+	public int getFrequency(final int ordinal) {
+		return ordinal < 0 ? 0 : frequency(pages, ordinal);
+	}
+
+	/**
+	 * Returns the page tracking the passed ordinal, adding pages up to it if necessary
+	 * @param ordinal The ordinal
+	 * @return the page
+	 */
+	private Page page(final int ordinal) {
+		final int index = ordinal >>> PAGE_BITS;
+		final Page[] p = pages;
+		return index < p.length ? p[index] : grow(index);
+	}
+
+	/**
+	 * Adds pages up to the passed page index, doubling the directory to amortize growth
+	 * @param index The page index
+	 * @return the page at the passed index
+	 */
+	private synchronized Page grow(final int index) {
+		final Page[] p = pages;
+		if(index < p.length) return p[index];
+		final Page[] grown = Arrays.copyOf(p, Math.max(index + 1, p.length << 1));
+		for(int i = p.length; i < grown.length; i++) {
+			grown[i] = new Page();
+		}
+		pages = grown;
+		return grown[index];
+	}
+
+	/**
+	 * Returns the last access time of the passed ordinal in the passed pages
+	 * @param p The pages
+	 * @param ordinal The ordinal
+	 * @return the last access time in ms, or 0 if the ordinal is not tracked
+	 */
+	private static long lastAccess(final Page[] p, final int ordinal) {
+		final int index = ordinal >>> PAGE_BITS;
+		return index < p.length ? p[index].lastAccess[ordinal & PAGE_MASK] : 0L;
+	}
+
+	/**
+	 * Returns the access frequency of the passed ordinal in the passed pages
+	 * @param p The pages
+	 * @param ordinal The ordinal
+	 * @return the access frequency, or 0 if the ordinal is not tracked
+	 */
+	private static int frequency(final Page[] p, final int ordinal) {
+		final int index = ordinal >>> PAGE_BITS;
+		return index < p.length ? p[index].frequency[ordinal & PAGE_MASK] & 0xFF : 0;
+	}
+
+	/**
+	 * Returns true if the tsmeta map is over either of its bounds
+	 * @param size The current number of entries
+	 * @return true if over bounds
+	 */
+	boolean overBounds(final long size) {
+		if(maxEntries > 0 && size > maxEntries) return true;
+		if(maxBytes > 0 && size * cache.metrics.map(CacheImpl.TSMETA_NAME).getAverageValueBytes() > maxBytes) return true;
+		return false;
+	}
+
+	/**
+	 * Returns the number of entries to evict to get back within bounds
+	 * @param size The current number of entries
+	 * @return the number of entries over bounds
+	 */
+	long excess(final long size) {
+		long excess = 0;
+		if(maxEntries > 0) excess = Math.max(excess, size - maxEntries);
+		if(maxBytes > 0) {
+			final long avg = cache.metrics.map(CacheImpl.TSMETA_NAME).getAverageValueBytes();
+			if(avg > 0) excess = Math.max(excess, size - (maxBytes / avg));
+		}
+		return excess;
+	}
+
+	/**
+	 * Runs one incremental eviction pass over the next window of ordinals
+	 * {@inheritDoc}
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		try {
+			final SeriesIndex index = cache.seriesIndex;
+			final int capacity = index.capacity();
+			if(capacity==0) return;
+			if(hand >= capacity) {
+				hand = 0;
+				age();
+			}
+			final int end = Math.min(capacity, hand + scanSize);
+			final long now = System.currentTimeMillis();
+			final List<String> expired = new ArrayList<String>();
+			final List<int[]> candidates = new ArrayList<int[]>(end - hand);
+			final Page[] p = pages;
+			for(int ordinal = hand; ordinal < end; ordinal++) {
+				final String tsuid = index.tsuid(ordinal);
+				if(tsuid==null) continue;
+				final long accessed = lastAccess(p, ordinal);
+				if(expireAfterAccessMs > 0 && accessed > 0 && now - accessed > expireAfterAccessMs) {
+					expired.add(tsuid);
+				} else {
+					candidates.add(new int[]{ordinal, frequency(p, ordinal)});
+				}
+			}
+			hand = end;
+			if(!expired.isEmpty()) {
+				cache.evictTSMetas(expired);
+				cache.metrics.tsmetaExpirations.add(expired.size());
+			}
+			final long size = index.size();
+			if(!candidates.isEmpty() && overBounds(size)) {
+				final long excess = excess(size);
+				Collections.sort(candidates, new Comparator<int[]>() {
+					@Override
+					public int compare(final int[] a, final int[] b) {
+						if(a[1]!=b[1]) return a[1] < b[1] ? -1 : 1;
+						final long ta = lastAccess(p, a[0]);
+						final long tb = lastAccess(p, b[0]);
+						return ta < tb ? -1 : (ta==tb ? 0 : 1);
+					}
+				});
+				final int toEvict = (int)Math.min(excess, candidates.size());
+				final List<String> victims = new ArrayList<String>(toEvict);
+				for(int i = 0; i < toEvict; i++) {
+					final String tsuid = index.tsuid(candidates.get(i)[0]);
+					if(tsuid!=null) victims.add(tsuid);
+				}
+				if(!victims.isEmpty()) {
+					cache.evictTSMetas(victims);
+					cache.metrics.tsmetaEvictions.add(victims.size());
+				}
+			}
+		} catch (Exception ex) {
+			log.warn("TSMeta eviction pass failed", ex);
+		}
+	}
+
+	/**
+	 * Halves all access frequencies
+	 */
+	private void age() {
+		for(Page page: pages) {
+			final byte[] f = page.frequency;
+			for(int i = 0; i < f.length; i++) {
+				f[i] = (byte)((f[i] & 0xFF) >>> 1);
+			}
+		}
+	}
+
+	/**
+	 * Returns the maximum number of entries
+	 * @return the maximum number of entries, or 0 for no entry bound
+	 */
+	public long getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Returns the maximum estimated size in bytes
+	 * @return the maximum size, or 0 for no byte bound
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns the idle time in ms after which a series expires
+	 * @return the idle time, or 0 for no expiry
+	 */
+	public long getExpireAfterAccessMs() {
+		return expireAfterAccessMs;
+	}
+}
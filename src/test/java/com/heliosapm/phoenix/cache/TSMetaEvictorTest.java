@@ -0,0 +1,116 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <p>Title: TSMetaEvictorTest</p>
+ * <p>Description: Tests {@link TSMetaEvictor} access tracking across re-puts and clears</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.TSMetaEvictorTest</code></p>
+ */
+
+public class TSMetaEvictorTest {
+	/** The temporary folder holding the cache file */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	/** The cache under test */
+	CacheImpl cache = null;
+	/** The evictor under test, which never runs on its own */
+	TSMetaEvictor evictor = null;
+
+	@BeforeClass
+	public static void generateCatalog() {
+		System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("TSMetaEvictorTest", 10));
+	}
+
+	@Before
+	public void setUp() {
+		cache = CacheImpl.getInstance(new File(folder.getRoot(), "tsmeta.db").getAbsolutePath(), false);
+		evictor = cache.enableTSMetaEviction(0, 0, 0, TimeUnit.MILLISECONDS, TimeUnit.HOURS.toMillis(1), TSMetaEvictor.DEFAULT_SCAN_SIZE);
+	}
+
+	@After
+	public void tearDown() {
+		cache.close();
+	}
+
+	/**
+	 * Creates a TSMeta
+	 * @param id The series id, making up the last bytes of the tsuid
+	 * @return the TSMeta
+	 */
+	static CachedTSMeta meta(final int id) {
+		final Map<String, String> tags = new TreeMap<String, String>();
+		tags.put("host", "ev" + id);
+		return new CachedTSMeta("sys.ev", tags, new byte[]{1, 1, 1, 0, 0, 1, (byte)(id >>> 16), (byte)(id >>> 8), (byte)id});
+	}
+
+	@Test
+	public void testRePutKeepsFrequency() {
+		final CachedTSMeta hot = meta(1);
+		cache.putCachedTSMeta(hot);
+		cache.putCachedTSMeta(meta(2));
+		final int ordinal = cache.seriesIndex.ordinal(hot.getTsuidHex());
+		assertEquals(1, evictor.getFrequency(ordinal));
+		for(int i = 0; i < 10; i++) {
+			cache.getCachedTSMeta(hot.getTsuidHex());
+		}
+		assertEquals(11, evictor.getFrequency(ordinal));
+		cache.putCachedTSMeta(meta(1));
+		assertEquals(11, evictor.getFrequency(ordinal));
+		// an ordinal reused by a new series starts over
+		cache.evictTSMetas(Collections.singleton(hot.getTsuidHex()));
+		cache.putCachedTSMeta(meta(3));
+		assertEquals(ordinal, cache.seriesIndex.ordinal(meta(3).getTsuidHex()));
+		assertEquals(1, evictor.getFrequency(ordinal));
+	}
+
+	@Test
+	public void testClearResetsTracking() {
+		for(int i = 0; i < 5000; i++) {
+			cache.putCachedTSMeta(meta(i));
+		}
+		cache.getCachedTSMeta(meta(0).getTsuidHex());
+		evictor.run();
+		assertTrue(evictor.hand > 0);
+		cache.clearTSMetas();
+		assertEquals(0, evictor.hand);
+		assertEquals(1, evictor.pages.length);
+		assertEquals(0, evictor.getFrequency(0));
+		cache.putCachedTSMeta(meta(0));
+		assertEquals(1, evictor.getFrequency(cache.seriesIndex.ordinal(meta(0).getTsuidHex())));
+	}
+}
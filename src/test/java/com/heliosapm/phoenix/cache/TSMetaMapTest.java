@@ -0,0 +1,176 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
+
+/**
+ * <p>Title: TSMetaMapTest</p>
+ * <p>Description: Tests the sorted {@link CacheImpl} TSMeta map: migration from the old hash map and tsuid prefix range scans</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.TSMetaMapTest</code></p>
+ */
+
+public class TSMetaMapTest {
+	/** The temporary folder holding the cache file */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	/** The cache under test */
+	CacheImpl cache = null;
+
+	@BeforeClass
+	public static void generateCatalog() {
+		System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("TSMetaMapTest", 10));
+	}
+
+	@Before
+	public void setUp() {
+		cache = CacheImpl.getInstance(new File(folder.getRoot(), "tsmeta.db").getAbsolutePath(), false);
+	}
+
+	@After
+	public void tearDown() {
+		cache.close();
+	}
+
+	/**
+	 * Creates a TSMeta
+	 * @param metric The first byte of the metric uid
+	 * @param tagv The first byte of the tag value uid
+	 * @param id The series id, making up the last byte of the tag value uid
+	 * @return the TSMeta
+	 */
+	static CachedTSMeta meta(final int metric, final int tagv, final int id) {
+		final Map<String, String> tags = new TreeMap<String, String>();
+		tags.put("host", "map" + metric + "." + tagv + "." + id);
+		return new CachedTSMeta("sys.map" + metric, tags, new byte[]{(byte)metric, 0, 1, 0, 0, 1, (byte)tagv, 0, (byte)id});
+	}
+
+	/**
+	 * Returns the tsuid hexes of the passed TSMetas
+	 * @param metas The TSMetas
+	 * @return the tsuid hexes in order
+	 */
+	static List<String> tsuids(final List<CachedTSMeta> metas) {
+		final List<String> hexes = new ArrayList<String>(metas.size());
+		for(CachedTSMeta meta: metas) hexes.add(meta.getTsuidHex());
+		return hexes;
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testMigrateTSMetaMap() {
+		final File file = new File(folder.getRoot(), "old.db");
+		DB db = DBMaker.fileDB(file).transactionDisable().make();
+		// the hash map keyed by tsuid hex written by earlier versions
+		final HTreeMap<String, CachedTSMeta> old = db.hashMapCreate(CacheImpl.TSMETA_NAME)
+			.keySerializer(Serializer.STRING)
+			.valueSerializer(CacheImpl.valueSerializer(CacheImpl.TSMETA_NAME, null))
+			.make();
+		final List<String> expected = new ArrayList<String>();
+		for(int id = 20; id > 0; id--) {
+			final CachedTSMeta meta = meta(id % 3, 0, id);
+			old.put(meta.getTsuidHex(), meta);
+			expected.add(meta.getTsuidHex());
+		}
+		db.commit();
+		db.close();
+		db = DBMaker.fileDB(file).transactionDisable().make();
+		try {
+			CacheImpl.createMaps(db, null);
+			assertEquals("TreeMap", db.getCatalog().get(CacheImpl.TSMETA_NAME + ".type"));
+			assertTrue(!db.exists(CacheImpl.TSMETA_NAME + ".migrating"));
+			final BTreeMap<byte[], CachedTSMeta> map = CacheImpl.tsMetaMap(db);
+			assertEquals(20, map.size());
+			final List<String> migrated = new ArrayList<String>();
+			for(Map.Entry<byte[], CachedTSMeta> entry: map.entrySet()) {
+				assertTrue(Arrays.equals(entry.getKey(), entry.getValue().getTsuid()));
+				migrated.add(entry.getValue().getTsuidHex());
+			}
+			// keyed by raw tsuid, so in tsuid order
+			final List<String> sorted = new ArrayList<String>(expected);
+			Collections.sort(sorted);
+			assertEquals(sorted, migrated);
+			assertEquals(meta(2, 0, 5).getTags(), map.get(meta(2, 0, 5).getTsuid()).getTags());
+			db.commit();
+		} finally {
+			db.close();
+		}
+		// a migrated store is opened as is
+		db = DBMaker.fileDB(file).transactionDisable().make();
+		try {
+			CacheImpl.createMaps(db, null);
+			assertEquals(20, CacheImpl.tsMetaMap(db).size());
+		} finally {
+			db.close();
+		}
+	}
+
+	@Test
+	public void testPrefixScans() {
+		final List<CachedTSMeta> metas = new ArrayList<CachedTSMeta>();
+		for(int metric: new int[]{0x01, 0x7F, 0x80, 0x81}) {
+			for(int tagv: new int[]{0x00, 0x80}) {
+				for(int id = 1; id <= 3; id++) {
+					metas.add(meta(metric, tagv, id));
+				}
+			}
+		}
+		cache.putCachedTSMetas(metas);
+		final List<CachedTSMeta> cpu = cache.getCachedTSMetas(new byte[]{(byte)0x80, 0, 1}, 0);
+		assertEquals(6, cpu.size());
+		for(CachedTSMeta meta: cpu) {
+			assertEquals("sys.map128", meta.getMetric());
+		}
+		assertEquals(tsuids(cache.getCachedTSMetas(new byte[]{(byte)0x80}, 0)), tsuids(cpu));
+		assertEquals(tsuids(cpu.subList(0, 2)), tsuids(cache.getCachedTSMetas(new byte[]{(byte)0x80, 0, 1}, 2)));
+		// within a metric, the first tag pair is a contiguous range
+		final List<CachedTSMeta> tagged = cache.getCachedTSMetasForMetric("800001", "000001", "800002");
+		assertEquals(Arrays.asList(meta(0x80, 0x80, 2).getTsuidHex()), tsuids(tagged));
+		assertEquals(6, cache.getCachedTSMetasForMetric("7F0001", "000001", null).size());
+		assertEquals(6, cache.getCachedTSMetasForMetric("010001").size());
+		assertTrue(cache.getCachedTSMetasForMetric("020001").isEmpty());
+		assertTrue(cache.getCachedTSMetas(new byte[]{(byte)0x80, 0, 1, 0, 0, 2}, 0).isEmpty());
+		assertNotNull(cache.getCachedTSMeta(meta(0x81, 0x80, 3).getTsuidHex()));
+		assertEquals(metas.size(), cache.getCachedTSMetas(new byte[0], 0).size());
+	}
+}
@@ -0,0 +1,389 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: UIDLoader</p>
+ * <p>Description: Asynchronously loads UIDMetas missing from the {@link CacheImpl} from the SQL catalog.
+ * Concurrent misses on the same uid share one in-flight load (single flight), and misses arriving within
+ * <b><code>batchWindow</code></b> of each other are fetched together in one <b><code>IN</code></b> query of up to
+ * <b><code>maxBatch</code></b> uids. Loaded UIDMetas are put into the cache before the waiting deferreds are called back.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.UIDLoader</code></p>
+ */
+
+public class UIDLoader {
+	private static final Logger log = LoggerFactory .getLogger(UIDLoader.class);
+	/** Thread serial number factory */
+	private static final AtomicInteger serial = new AtomicInteger(0);
+	/** The default number of loader threads */
+	public static final int DEFAULT_THREADS = 2;
+	/** The default maximum number of uids fetched in one query */
+	public static final int DEFAULT_MAX_BATCH = 256;
+	/** The default time in ms a miss waits for other misses to batch with */
+	public static final long DEFAULT_BATCH_WINDOW_MS = 2;
+
+	/** The cache to load into */
+	final CacheImpl cache;
+	/** The maximum number of uids fetched in one query */
+	final int maxBatch;
+	/** The time in ms a miss waits for other misses to batch with */
+	final long batchWindowMs;
+	/** The executor running the source fetches */
+	final ExecutorService executor;
+	/** The timer holding misses for the batch window, null if there is no batch window */
+	final ScheduledExecutorService timer;
+	/** Indicates if the loader has been closed */
+	volatile boolean closed = false;
+	/** The in-flight loads keyed by uid hex within UID type */
+	final Map<UniqueId.UniqueIdType, ConcurrentHashMap<String, Flight>> inFlight = new EnumMap<UniqueId.UniqueIdType, ConcurrentHashMap<String, Flight>>(UniqueId.UniqueIdType.class);
+	/** The loads waiting to be batched, within UID type */
+	final Map<UniqueId.UniqueIdType, ConcurrentLinkedQueue<Flight>> queued = new EnumMap<UniqueId.UniqueIdType, ConcurrentLinkedQueue<Flight>>(UniqueId.UniqueIdType.class);
+	/** Indicates if a batch drain is scheduled, within UID type */
+	final Map<UniqueId.UniqueIdType, AtomicBoolean> drainScheduled = new EnumMap<UniqueId.UniqueIdType, AtomicBoolean>(UniqueId.UniqueIdType.class);
+	/** The number of lookups which joined an in-flight load */
+	final AtomicLong coalesced = new AtomicLong(0);
+	/** The number of source queries issued */
+	final AtomicLong queries = new AtomicLong(0);
+
+	/**
+	 * <p>Title: Flight</p>
+	 * <p>Description: One in-flight load of a uid and the deferreds waiting on it</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.UIDLoader.Flight</code></p>
+	 */
+	static class Flight {
+		/** The UID type */
+		final UniqueId.UniqueIdType type;
+		/** The uid hex */
+		final String uidHex;
+		/** The waiting deferreds */
+		final List<Deferred<CachedUIDMeta>> waiters = new ArrayList<Deferred<CachedUIDMeta>>(1);
+		/** Indicates if the load has completed */
+		boolean done = false;
+		/** The loaded UIDMeta, or the load failure */
+		Object result = null;
+
+		/**
+		 * Creates a new Flight
+		 * @param type The UID type
+		 * @param uidHex The uid hex
+		 */
+		Flight(final UniqueId.UniqueIdType type, final String uidHex) {
+			this.type = type;
+			this.uidHex = uidHex;
+		}
+
+		/**
+		 * Returns a deferred for the result of this load
+		 * @return a deferred for the loaded UIDMeta
+		 */
+		synchronized Deferred<CachedUIDMeta> join() {
+			if(done) return result instanceof Exception ? Deferred.<CachedUIDMeta>fromError((Exception)result) : Deferred.fromResult((CachedUIDMeta)result);
+			final Deferred<CachedUIDMeta> d = new Deferred<CachedUIDMeta>();
+			waiters.add(d);
+			return d;
+		}
+
+		/**
+		 * Completes this load and calls back the waiting deferreds. No op if the load has already completed.
+		 * @param result The loaded UIDMeta, null if the uid does not exist, or the load failure
+		 */
+		void complete(final Object result) {
+			final List<Deferred<CachedUIDMeta>> toCall;
+			synchronized(this) {
+				if(done) return;
+				this.result = result;
+				done = true;
+				toCall = new ArrayList<Deferred<CachedUIDMeta>>(waiters);
+				waiters.clear();
+			}
+			for(Deferred<CachedUIDMeta> d: toCall) {
+				try {
+					d.callback(result);
+				} catch (Exception ex) {
+					log.warn("Callback for uid [{}:{}] failed", type, uidHex, ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a new UIDLoader
+	 * @param cache The cache to load into
+	 * @param threads The number of loader threads
+	 * @param maxBatch The maximum number of uids fetched in one query
+	 * @param batchWindow The time a miss waits for other misses to batch with
+	 * @param unit The unit of the batch window
+	 */
+	UIDLoader(final CacheImpl cache, final int threads, final int maxBatch, final long batchWindow, final TimeUnit unit) {
+		if(threads < 1) throw new IllegalArgumentException("Invalid thread count [" + threads + "]");
+		if(maxBatch < 1) throw new IllegalArgumentException("Invalid max batch [" + maxBatch + "]");
+		if(batchWindow < 0) throw new IllegalArgumentException("Invalid batch window [" + batchWindow + "]");
+		this.cache = cache;
+		this.maxBatch = maxBatch;
+		this.batchWindowMs = unit.toMillis(batchWindow);
+		for(UniqueId.UniqueIdType type: UniqueId.UniqueIdType.values()) {
+			inFlight.put(type, new ConcurrentHashMap<String, Flight>());
+			queued.put(type, new ConcurrentLinkedQueue<Flight>());
+			drainScheduled.put(type, new AtomicBoolean(false));
+		}
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "CacheUIDLoader#" + serial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		timer = batchWindowMs==0 ? null : Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "CacheUIDLoaderTimer#" + serial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Returns the UIDMeta for the passed uid, loading it from the source if it is not cached
+	 * @param type The UID type
+	 * @param uidHex The uid hex
+	 * @return a deferred UIDMeta, called back with null if the uid does not exist in the source, 
+	 * or with an {@link IllegalStateException} if the loader is closed before the uid is loaded
+	 */
+	public Deferred<CachedUIDMeta> get(final UniqueId.UniqueIdType type, final String uidHex) {
+		if(closed) return Deferred.fromError(new IllegalStateException("The UID loader is closed"));
+		final CachedUIDMeta cached = cache.getCachedUIDMeta(type, uidHex);
+		if(cached!=null) return Deferred.fromResult(cached);
+		if(cache.isKnownAbsent(type, uidHex)) return Deferred.fromResult(null);
+		final ConcurrentHashMap<String, Flight> flights = inFlight.get(type);
+		Flight flight = flights.get(uidHex);
+		if(flight!=null) {
+			coalesced.incrementAndGet();
+			return flight.join();
+		}
+		final Flight newFlight = new Flight(type, uidHex);
+		flight = flights.putIfAbsent(uidHex, newFlight);
+		if(flight!=null) {
+			coalesced.incrementAndGet();
+			return flight.join();
+		}
+		final Deferred<CachedUIDMeta> d = newFlight.join();
+		try {
+			enqueue(newFlight);
+		} catch (RejectedExecutionException rex) {
+			/* Closed since the check above, failed below */
+		}
+		// a close which missed the new flight has left it to us 
+		if(closed) failInFlight();
+		return d;
+	}
+
+	/**
+	 * Returns the UIDMetas for the passed uids, loading those not cached from the source
+	 * @param type The UID type
+	 * @param uidHexes The uid hexes
+	 * @return a deferred list of UIDMetas in the order of the passed uids, with nulls for uids which do not exist in the source
+	 */
+	public Deferred<ArrayList<CachedUIDMeta>> get(final UniqueId.UniqueIdType type, final List<String> uidHexes) {
+		final List<Deferred<CachedUIDMeta>> ds = new ArrayList<Deferred<CachedUIDMeta>>(uidHexes.size());
+		for(String uidHex: uidHexes) {
+			ds.add(get(type, uidHex));
+		}
+		return Deferred.group(ds);
+	}
+
+	/**
+	 * Queues a new flight for the next batch of its UID type
+	 * @param flight The flight to queue
+	 */
+	private void enqueue(final Flight flight) {
+		final ConcurrentLinkedQueue<Flight> queue = queued.get(flight.type);
+		queue.offer(flight);
+		final AtomicBoolean scheduled = drainScheduled.get(flight.type);
+		if(scheduled.compareAndSet(false, true)) {
+			final Runnable drain = new Runnable() {
+				@Override
+				public void run() {
+					drain(flight.type);
+				}
+			};
+			if(batchWindowMs==0) {
+				executor.execute(drain);
+			} else {
+				timer.schedule(new Runnable() {
+					@Override
+					public void run() {
+						executor.execute(drain);
+					}
+				}, batchWindowMs, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Fetches all the queued flights of the passed UID type in batches of up to <b><code>maxBatch</code></b>
+	 * @param type The UID type
+	 */
+	void drain(final UniqueId.UniqueIdType type) {
+		drainScheduled.get(type).set(false);
+		final ConcurrentLinkedQueue<Flight> queue = queued.get(type);
+		final List<Flight> batch = new ArrayList<Flight>(maxBatch);
+		Flight flight = null;
+		while((flight = queue.poll())!=null) {
+			batch.add(flight);
+			if(batch.size()==maxBatch) {
+				fetch(type, batch);
+				batch.clear();
+			}
+		}
+		if(!batch.isEmpty()) fetch(type, batch);
+	}
+
+	/**
+	 * Fetches a batch of uids from the source in one query, caches the found UIDMetas and completes the flights
+	 * @param type The UID type
+	 * @param batch The flights to complete
+	 */
+	void fetch(final UniqueId.UniqueIdType type, final List<Flight> batch) {
+		final long start = System.nanoTime();
+		final Map<String, CachedUIDMeta> found = new HashMap<String, CachedUIDMeta>(batch.size());
+		Exception failure = null;
+		Connection conn = null;
+		PreparedStatement ps = null;
+		ResultSet rset = null;
+		try {
+			final StringBuilder sql = new StringBuilder("SELECT XUID, NAME FROM ").append(cache.uidTableNames.get(type)).append(" WHERE XUID IN (");
+			for(int i = 0; i < batch.size(); i++) {
+				if(i > 0) sql.append(',');
+				sql.append('?');
+			}
+			sql.append(')');
+			conn = DriverManager.getConnection(CacheImpl.jdbcUrl(), "sa", "");
+			ps = conn.prepareStatement(sql.toString());
+			for(int i = 0; i < batch.size(); i++) {
+				ps.setString(i+1, batch.get(i).uidHex);
+			}
+			rset = ps.executeQuery();
+			queries.incrementAndGet();
+			while(rset.next()) {
+				final String xuid = rset.getString(1);
+				found.put(xuid, new CachedUIDMeta(rset.getString(2), UniqueId.stringToUid(xuid), type));
+			}
+			cache.metrics.sourceLoadLatency.recordSince(start);
+			if(!found.isEmpty()) cache.putCachedUIDMetas(type, found.values());
+		} catch (Exception ex) {
+			log.error("Failed to load [{}] uids of type [{}]", batch.size(), type, ex);
+			failure = ex;
+		} finally {
+			if(rset!=null) try { rset.close(); } catch (Exception x) {/* No Op */}
+			if(ps!=null) try { ps.close(); } catch (Exception x) {/* No Op */}
+			if(conn!=null) try { conn.close(); } catch (Exception x) {/* No Op */}
+		}
+		final ConcurrentHashMap<String, Flight> flights = inFlight.get(type);
+		for(Flight f: batch) {
+			if(failure==null && !found.containsKey(f.uidHex)) cache.markAbsent(type, f.uidHex);
+			flights.remove(f.uidHex, f);
+			f.complete(failure!=null ? failure : found.get(f.uidHex));
+		}
+	}
+
+	/**
+	 * Returns the number of lookups which joined an in-flight load
+	 * @return the number of coalesced lookups
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	/**
+	 * Returns the number of source queries issued
+	 * @return the number of source queries
+	 */
+	public long getQueries() {
+		return queries.get();
+	}
+
+	/**
+	 * Returns the number of loads in flight
+	 * @return the number of loads in flight
+	 */
+	public int getInFlight() {
+		int total = 0;
+		for(ConcurrentHashMap<String, Flight> flights: inFlight.values()) {
+			total += flights.size();
+		}
+		return total;
+	}
+
+	/**
+	 * Stops the loader threads and fails the loads still in flight with an {@link IllegalStateException}
+	 */
+	public void close() {
+		closed = true;
+		if(timer!=null) timer.shutdownNow();
+		executor.shutdownNow();
+		failInFlight();
+	}
+
+	/**
+	 * Removes and fails every load in flight
+	 */
+	private void failInFlight() {
+		for(UniqueId.UniqueIdType type: UniqueId.UniqueIdType.values()) {
+			queued.get(type).clear();
+			final ConcurrentHashMap<String, Flight> flights = inFlight.get(type);
+			for(Flight f: flights.values()) {
+				if(flights.remove(f.uidHex, f)) f.complete(new IllegalStateException("The UID loader is closed"));
+			}
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.stumbleupon.async.Deferred;
+
+/**
+ * <p>Title: UIDLoaderTest</p>
+ * <p>Description: Tests {@link UIDLoader} single flight coalescing, batched source queries and failing pending loads on close</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.UIDLoaderTest</code></p>
+ */
+
+public class UIDLoaderTest {
+	/** The temporary folder holding the cache file */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	/** The tag value uids in the catalog */
+	static final List<String> TAGV_UIDS = new ArrayList<String>();
+	/** The cache, which is not preloaded so every uid is a miss */
+	CacheImpl cache = null;
+	/** The loader under test */
+	UIDLoader loader = null;
+
+	@BeforeClass
+	public static void generateCatalog() throws Exception {
+		System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("UIDLoaderTest", 10));
+		final Connection conn = DriverManager.getConnection(CacheImpl.jdbcUrl(), "sa", "");
+		try {
+			final ResultSet rset = conn.createStatement().executeQuery("SELECT XUID FROM TSD_TAGV ORDER BY XUID");
+			while(rset.next()) {
+				TAGV_UIDS.add(rset.getString(1));
+			}
+			rset.close();
+		} finally {
+			conn.close();
+		}
+	}
+
+	@Before
+	public void setUp() {
+		cache = CacheImpl.getInstance(new File(folder.getRoot(), "tsmeta.db").getAbsolutePath(), false);
+	}
+
+	@After
+	public void tearDown() {
+		if(loader!=null) loader.close();
+		cache.close();
+	}
+
+	@Test
+	public void testConcurrentMissesShareOneLoad() throws Exception {
+		// a long batch window keeps the first load in flight while the others arrive
+		loader = new UIDLoader(cache, 2, 256, 500, TimeUnit.MILLISECONDS);
+		final String uid = TAGV_UIDS.get(0);
+		final int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Deferred<CachedUIDMeta>> deferreds = new ArrayList<Deferred<CachedUIDMeta>>();
+		final List<Thread> getters = new ArrayList<Thread>();
+		for(int t = 0; t < threads; t++) {
+			final Thread getter = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException iex) {
+						return;
+					}
+					final Deferred<CachedUIDMeta> d = loader.get(UniqueId.UniqueIdType.TAGV, uid);
+					synchronized(deferreds) {
+						deferreds.add(d);
+					}
+				}
+			};
+			getter.start();
+			getters.add(getter);
+		}
+		start.countDown();
+		for(Thread getter: getters) {
+			getter.join();
+		}
+		assertEquals(threads, deferreds.size());
+		final CachedUIDMeta first = deferreds.get(0).join(5000);
+		assertNotNull(first);
+		assertEquals(uid, first.getUidHex());
+		for(Deferred<CachedUIDMeta> d: deferreds) {
+			assertSame(first, d.join(5000));
+		}
+		assertEquals(1, loader.getQueries());
+		assertEquals(threads - 1, loader.getCoalesced());
+		assertEquals(0, loader.getInFlight());
+		// now cached, so a further lookup does not query the source
+		assertSame(first.getName(), loader.get(UniqueId.UniqueIdType.TAGV, uid).join(5000).getName());
+		assertEquals(1, loader.getQueries());
+	}
+
+	@Test
+	public void testMissesWithinTheWindowAreBatched() throws Exception {
+		loader = new UIDLoader(cache, 2, 256, 200, TimeUnit.MILLISECONDS);
+		final List<String> uids = new ArrayList<String>(TAGV_UIDS.subList(0, 50));
+		uids.add("FFFFFF");
+		final List<CachedUIDMeta> metas = loader.get(UniqueId.UniqueIdType.TAGV, uids).join(5000);
+		assertEquals(uids.size(), metas.size());
+		for(int i = 0; i < 50; i++) {
+			assertEquals(uids.get(i), metas.get(i).getUidHex());
+		}
+		assertNull(metas.get(50));
+		assertEquals(1, loader.getQueries());
+	}
+
+	@Test
+	public void testMaxBatchSplitsQueries() throws Exception {
+		loader = new UIDLoader(cache, 2, 10, 200, TimeUnit.MILLISECONDS);
+		final List<CachedUIDMeta> metas = loader.get(UniqueId.UniqueIdType.TAGV, TAGV_UIDS.subList(0, 25)).join(5000);
+		assertEquals(25, metas.size());
+		assertEquals(3, loader.getQueries());
+	}
+
+	@Test
+	public void testCloseFailsPendingLoads() throws Exception {
+		// the batch window outlasts the test, so the loads are still pending at the close
+		loader = new UIDLoader(cache, 2, 256, 1, TimeUnit.HOURS);
+		final List<Deferred<CachedUIDMeta>> deferreds = new ArrayList<Deferred<CachedUIDMeta>>();
+		for(int i = 0; i < 5; i++) {
+			deferreds.add(loader.get(UniqueId.UniqueIdType.TAGV, TAGV_UIDS.get(i)));
+		}
+		assertEquals(5, loader.getInFlight());
+		loader.close();
+		for(Deferred<CachedUIDMeta> d: deferreds) {
+			try {
+				d.join(1000);
+				fail("A pending load should fail on close");
+			} catch (IllegalStateException expected) {
+				/* No Op */
+			}
+		}
+		assertEquals(0, loader.getQueries());
+		try {
+			loader.get(UniqueId.UniqueIdType.TAGV, TAGV_UIDS.get(0)).join(1000);
+			fail("A load after close should fail");
+		} catch (IllegalStateException expected) {
+			assertTrue(expected.getMessage().contains("closed"));
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <p>Title: UIDNameMapTest</p>
+ * <p>Description: Tests the {@link CacheImpl} name to uid maps stay consistent with the uid maps through puts and preloads</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.UIDNameMapTest</code></p>
+ */
+
+public class UIDNameMapTest {
+	/** The temporary folder holding the cache file */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	/** The cache under test */
+	CacheImpl cache = null;
+
+	@BeforeClass
+	public static void generateCatalog() {
+		System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("UIDNameMapTest", 10));
+	}
+
+	@Before
+	public void setUp() {
+		cache = CacheImpl.getInstance(new File(folder.getRoot(), "tsmeta.db").getAbsolutePath(), false);
+	}
+
+	@After
+	public void tearDown() {
+		cache.close();
+	}
+
+	/**
+	 * Creates a tag value UIDMeta
+	 * @param name The name
+	 * @param id The last uid byte
+	 * @return the UIDMeta
+	 */
+	static CachedUIDMeta tagv(final String name, final int id) {
+		return new CachedUIDMeta(name, new byte[]{0x7F, 0, (byte)id}, UniqueId.UniqueIdType.TAGV);
+	}
+
+	/**
+	 * Asserts the name and uid maps agree on the passed UIDMeta
+	 * @param meta The UIDMeta
+	 */
+	void assertMapped(final CachedUIDMeta meta) {
+		assertEquals(meta.getUidHex(), cache.getUid(meta.getType(), meta.getName()).getUidHex());
+		assertEquals(meta.getName(), cache.getCachedUIDMeta(meta.getType(), meta.getUidHex()).getName());
+	}
+
+	@Test
+	public void testPutMapsName() {
+		final CachedUIDMeta web = tagv("web01", 1);
+		cache.putCachedUIDMeta(UniqueId.UniqueIdType.TAGV, web);
+		assertMapped(web);
+		// a second name for a mapped uid is ignored by both maps
+		cache.putCachedUIDMeta(UniqueId.UniqueIdType.TAGV, tagv("web99", 1));
+		assertMapped(web);
+		assertNull(cache.getUid(UniqueId.UniqueIdType.TAGV, "web99"));
+		// names are per type
+		assertNull(cache.getUid(UniqueId.UniqueIdType.TAGK, "web01"));
+	}
+
+	@Test
+	public void testBulkGetUids() {
+		cache.putCachedUIDMetas(UniqueId.UniqueIdType.TAGV, Arrays.asList(tagv("east", 1), tagv("west", 2), tagv("north", 3)));
+		final Map<String, CachedUIDMeta> uids = cache.getUids(UniqueId.UniqueIdType.TAGV, Arrays.asList("west", "south", "east"));
+		assertEquals(Arrays.asList("west", "east"), new ArrayList<String>(uids.keySet()));
+		assertEquals(tagv("west", 2).getUidHex(), uids.get("west").getUidHex());
+		assertEquals(tagv("east", 1).getUidHex(), uids.get("east").getUidHex());
+		assertTrue(cache.getUids(UniqueId.UniqueIdType.TAGV, new ArrayList<String>()).isEmpty());
+	}
+
+	@Test
+	public void testPendingPutsMapNames() {
+		cache.enableWriteBehind(1000, 1, TimeUnit.HOURS);
+		final CachedUIDMeta web = tagv("web01", 1);
+		cache.putCachedUIDMeta(UniqueId.UniqueIdType.TAGV, web);
+		assertSame(web, cache.getUid(UniqueId.UniqueIdType.TAGV, "web01"));
+		cache.flush();
+		assertMapped(web);
+	}
+
+	@Test
+	public void testPreLoadMapsNames() throws SQLException {
+		final Connection conn = DriverManager.getConnection(CacheImpl.jdbcUrl(), "sa", "");
+		final Statement st = conn.createStatement();
+		String xuid = null, name = null;
+		try {
+			assertTrue(cache.preLoad(UniqueId.UniqueIdType.METRIC) > 0);
+			final ResultSet rset = st.executeQuery("SELECT XUID, NAME FROM TSD_METRIC");
+			while(rset.next()) {
+				if(xuid==null) {
+					xuid = rset.getString(1);
+					name = rset.getString(2);
+				}
+				assertMapped(new CachedUIDMeta(rset.getString(2), UniqueId.stringToUid(rset.getString(1)), UniqueId.UniqueIdType.METRIC));
+			}
+			rset.close();
+			// a uid renamed in the catalog loses its old name on the next preload
+			st.executeUpdate("UPDATE TSD_METRIC SET NAME = 'renamed.metric' WHERE XUID = '" + xuid + "'");
+			cache.preLoad(UniqueId.UniqueIdType.METRIC);
+			assertNull(cache.getUid(UniqueId.UniqueIdType.METRIC, name));
+			assertMapped(new CachedUIDMeta("renamed.metric", UniqueId.stringToUid(xuid), UniqueId.UniqueIdType.METRIC));
+		} finally {
+			if(xuid!=null) st.executeUpdate("UPDATE TSD_METRIC SET NAME = '" + name + "' WHERE XUID = '" + xuid + "'");
+			st.close();
+			conn.close();
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <p>Title: UIDSuggestTest</p>
+ * <p>Description: Tests {@link CacheImpl} prefix suggest from the name maps and scoped suggest from the series index</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.UIDSuggestTest</code></p>
+ */
+
+public class UIDSuggestTest {
+	/** The temporary folder holding the cache file */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	/** The cache under test */
+	CacheImpl cache = null;
+
+	@BeforeClass
+	public static void generateCatalog() {
+		System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("UIDSuggestTest", 10));
+	}
+
+	@Before
+	public void setUp() {
+		cache = CacheImpl.getInstance(new File(folder.getRoot(), "tsmeta.db").getAbsolutePath(), false);
+		int id = 0;
+		for(String name: new String[]{"webby", "web10", "db01", "web01", "web02"}) {
+			cache.putCachedUIDMeta(UniqueId.UniqueIdType.TAGV, new CachedUIDMeta(name, new byte[]{0x7F, 0, (byte)++id}, UniqueId.UniqueIdType.TAGV));
+		}
+	}
+
+	@After
+	public void tearDown() {
+		cache.close();
+	}
+
+	/**
+	 * Caches a series
+	 * @param id The series id, making up the last bytes of the tsuid
+	 * @param metric The metric name
+	 * @param kvs The tag keys and values, alternating
+	 */
+	void series(final int id, final String metric, final String...kvs) {
+		final Map<String, String> tags = new TreeMap<String, String>();
+		for(int i = 0; i < kvs.length; i += 2) {
+			tags.put(kvs[i], kvs[i+1]);
+		}
+		cache.putCachedTSMeta(new CachedTSMeta(metric, tags, new byte[]{0x7F, 0, 1, 0, 0, 1, (byte)(id >>> 16), (byte)(id >>> 8), (byte)id}));
+	}
+
+	@Test
+	public void testPrefixSuggest() {
+		assertEquals(Arrays.asList("web01", "web02", "web10", "webby"), cache.suggest(UniqueId.UniqueIdType.TAGV, "web", 10));
+		assertEquals(Arrays.asList("web01", "web02"), cache.suggest(UniqueId.UniqueIdType.TAGV, "web", 2));
+		assertEquals(Arrays.asList("web01", "web02"), cache.suggest(UniqueId.UniqueIdType.TAGV, "web0", 10));
+		assertEquals(Arrays.asList("db01", "web01", "web02", "web10", "webby"), cache.suggest(UniqueId.UniqueIdType.TAGV, "", 10));
+		assertEquals(Arrays.asList("db01", "web01"), cache.suggest(UniqueId.UniqueIdType.TAGV, null, 2));
+		assertTrue(cache.suggest(UniqueId.UniqueIdType.TAGV, "zz", 10).isEmpty());
+		assertTrue(cache.suggest(UniqueId.UniqueIdType.TAGV, "web", 0).isEmpty());
+		assertTrue(cache.suggest(UniqueId.UniqueIdType.TAGK, "web", 10).isEmpty());
+		// without indexed series, scoped suggest falls back to the name map
+		assertEquals(Arrays.asList("web01", "web02", "web10", "webby"), cache.suggest(UniqueId.UniqueIdType.TAGV, "web", 10, "sys.cpu", "host"));
+	}
+
+	@Test
+	public void testScopedSuggest() {
+		series(1, "sys.cpu", "host", "web01", "dc", "east");
+		series(2, "sys.cpu", "host", "db01", "dc", "west");
+		series(3, "sys.mem", "host", "web02");
+		series(4, "app.requests", "host", "web10", "app", "shop");
+		assertEquals(Arrays.asList("web01"), cache.suggest(UniqueId.UniqueIdType.TAGV, "web", 10, "sys.cpu", "host"));
+		assertEquals(Arrays.asList("web01", "web02", "web10"), cache.suggest(UniqueId.UniqueIdType.TAGV, "web", 10, null, "host"));
+		assertEquals(Arrays.asList("east", "west"), cache.suggest(UniqueId.UniqueIdType.TAGV, "", 10, "sys.cpu", "dc"));
+		assertEquals(Arrays.asList("dc", "host"), cache.suggest(UniqueId.UniqueIdType.TAGK, "", 10, "sys.cpu", null));
+		assertEquals(Arrays.asList("app", "dc", "host"), cache.suggest(UniqueId.UniqueIdType.TAGK, "", 10, null, null));
+		assertEquals(Arrays.asList("sys.cpu", "sys.mem"), cache.suggest(UniqueId.UniqueIdType.METRIC, "sys", 10, null, "host"));
+		assertEquals(Arrays.asList("sys.cpu"), cache.suggest(UniqueId.UniqueIdType.METRIC, "", 10, null, "dc"));
+		assertEquals(Arrays.asList("app.requests"), cache.suggest(UniqueId.UniqueIdType.METRIC, "", 1, null, null));
+		// unknown scopes match nothing
+		assertTrue(cache.suggest(UniqueId.UniqueIdType.TAGK, "", 10, "sys.nope", null).isEmpty());
+		assertTrue(cache.suggest(UniqueId.UniqueIdType.TAGV, "", 10, null, "rack").isEmpty());
+		try {
+			cache.suggest(UniqueId.UniqueIdType.TAGV, "web", 10, "sys.cpu", null);
+			fail("Scoped TAGV suggest should require a tag key");
+		} catch (IllegalArgumentException expected) {
+			/* No Op */
+		}
+	}
+}
@@ -0,0 +1,448 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: WriteBehindBuffer</p>
+ * <p>Description: Collects UIDMeta and TSMeta puts in a lock-free queue and applies them to the {@link CacheImpl}
+ * in group commits of up to <b><code>maxBatch</code></b> puts, or whatever has arrived within <b><code>maxLatency</code></b>.
+ * Pending puts are visible to the cache's point lookups until they are committed. The series index, and so
+ * {@link CacheImpl#findTSUIDs(String, Map)}, scoped suggestions and tsuid range scans, only see them once committed.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.WriteBehindBuffer</code></p>
+ */
+
+public class WriteBehindBuffer implements Runnable {
+	private static final Logger log = LoggerFactory .getLogger(WriteBehindBuffer.class);
+	/** Thread serial number factory */
+	private static final AtomicInteger serial = new AtomicInteger(0);
+	/** The number of times a failed group commit is attempted before its puts are discarded */
+	public static final int MAX_COMMIT_ATTEMPTS = 3;
+	/** The delay in ms before the first retry of a failed group commit, doubled for each further retry */
+	public static final long RETRY_DELAY_MS = 100;
+
+	/** The cache to write to */
+	final CacheImpl cache;
+	/** The maximum number of puts per commit */
+	final int maxBatch;
+	/** The maximum time in nanos a put waits for a commit */
+	final long maxLatencyNanos;
+	/** The queued puts */
+	final ConcurrentLinkedQueue<PendingWrite> queue = new ConcurrentLinkedQueue<PendingWrite>();
+	/** The pending UIDMetas keyed by uid hex within UID type */
+	final Map<UniqueId.UniqueIdType, ConcurrentHashMap<String, CachedUIDMeta>> pendingUids = new EnumMap<UniqueId.UniqueIdType, ConcurrentHashMap<String, CachedUIDMeta>>(UniqueId.UniqueIdType.class);
+	/** The pending UIDMetas keyed by name within UID type */
+	final Map<UniqueId.UniqueIdType, ConcurrentHashMap<String, CachedUIDMeta>> pendingNames = new EnumMap<UniqueId.UniqueIdType, ConcurrentHashMap<String, CachedUIDMeta>>(UniqueId.UniqueIdType.class);
+	/** The pending TSMetas keyed by tsuid hex */
+	final ConcurrentHashMap<String, CachedTSMeta> pendingTSMetas = new ConcurrentHashMap<String, CachedTSMeta>();
+	/** The number of puts ever enqueued */
+	final AtomicLong enqueued = new AtomicLong(0);
+	/** The number of puts ever committed or abandoned */
+	volatile long completed = 0;
+	/** The enqueued count a flush is waiting for, which the flusher commits through without waiting out the latency */
+	final AtomicLong flushTarget = new AtomicLong(0);
+	/** The number of group commits */
+	final AtomicLong commits = new AtomicLong(0);
+	/** The number of group commits retried after failing */
+	final AtomicLong retries = new AtomicLong(0);
+	/** The number of puts discarded after their group commit failed every attempt */
+	final AtomicLong discarded = new AtomicLong(0);
+	/** The exception which failed the last discarded group commit */
+	volatile Exception lastFailure = null;
+	/** The flusher thread */
+	final Thread flusher;
+	/** The puts in progress, which close waits out so no put accepted before the close is left unqueued */
+	final WriterPhaser putters = new WriterPhaser();
+	/** Indicates if the buffer has been closed */
+	volatile boolean closed = false;
+	/** Indicates every put accepted before the close has been queued, so the flusher stops once the queue is empty */
+	volatile boolean stopping = false;
+	/** The group commits in progress, which a discard waits out so a discarded put is not committed after it returns */
+	final WriterPhaser committers = new WriterPhaser();
+	/** The buffer this one replaced, drained before this one's first commit and consulted by lookups until then */
+	volatile WriteBehindBuffer prior;
+
+	/**
+	 * <p>Title: PendingWrite</p>
+	 * <p>Description: A queued put</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.cache.WriteBehindBuffer.PendingWrite</code></p>
+	 */
+	static class PendingWrite {
+		/** The UID type for a UIDMeta put, null for a TSMeta put */
+		final UniqueId.UniqueIdType type;
+		/** The UIDMeta to put */
+		final CachedUIDMeta uidMeta;
+		/** The TSMeta to put */
+		final CachedTSMeta tsMeta;
+		/** The time the put was enqueued in nanos */
+		final long enqueueTime = System.nanoTime();
+
+		/**
+		 * Creates a new UIDMeta PendingWrite
+		 * @param type The UID type
+		 * @param uidMeta The UIDMeta to put
+		 */
+		PendingWrite(final UniqueId.UniqueIdType type, final CachedUIDMeta uidMeta) {
+			this.type = type;
+			this.uidMeta = uidMeta;
+			this.tsMeta = null;
+		}
+
+		/**
+		 * Creates a new TSMeta PendingWrite
+		 * @param tsMeta The TSMeta to put
+		 */
+		PendingWrite(final CachedTSMeta tsMeta) {
+			this.type = null;
+			this.uidMeta = null;
+			this.tsMeta = tsMeta;
+		}
+	}
+
+	/**
+	 * Creates and starts a new WriteBehindBuffer
+	 * @param cache The cache to write to
+	 * @param maxBatch The maximum number of puts per commit
+	 * @param maxLatency The maximum time a put waits for a commit
+	 * @param unit The unit of the max latency
+	 */
+	WriteBehindBuffer(final CacheImpl cache, final int maxBatch, final long maxLatency, final TimeUnit unit) {
+		this(cache, maxBatch, maxLatency, unit, null);
+	}
+
+	/**
+	 * Creates and starts a new WriteBehindBuffer replacing the passed one. Lookups see the prior buffer's pending puts
+	 * until it is drained, and this buffer commits nothing until then, so a put to this buffer is never overwritten by
+	 * an older put of the same key still pending in the prior one.
+	 * @param cache The cache to write to
+	 * @param maxBatch The maximum number of puts per commit
+	 * @param maxLatency The maximum time a put waits for a commit
+	 * @param unit The unit of the max latency
+	 * @param prior The buffer being replaced, or null
+	 */
+	WriteBehindBuffer(final CacheImpl cache, final int maxBatch, final long maxLatency, final TimeUnit unit, final WriteBehindBuffer prior) {
+		if(maxBatch < 1) throw new IllegalArgumentException("Invalid max batch [" + maxBatch + "]");
+		if(maxLatency < 1) throw new IllegalArgumentException("Invalid max latency [" + maxLatency + "]");
+		this.cache = cache;
+		this.maxBatch = maxBatch;
+		this.maxLatencyNanos = unit.toNanos(maxLatency);
+		this.prior = prior;
+		for(UniqueId.UniqueIdType type: UniqueId.UniqueIdType.values()) {
+			pendingUids.put(type, new ConcurrentHashMap<String, CachedUIDMeta>());
+			pendingNames.put(type, new ConcurrentHashMap<String, CachedUIDMeta>());
+		}
+		flusher = new Thread(this, "CacheWriteBehind#" + serial.incrementAndGet());
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Enqueues a UIDMeta put
+	 * @param type The UID type
+	 * @param meta The UIDMeta to put
+	 */
+	public void put(final UniqueId.UniqueIdType type, final CachedUIDMeta meta) {
+		final int phase = putters.enter();
+		try {
+			if(closed) throw new IllegalStateException("The write behind buffer is closed");
+			if(pendingUids.get(type).putIfAbsent(meta.getUidHex(), meta)!=null) return;
+			pendingNames.get(type).put(meta.getName(), meta);
+			enqueue(new PendingWrite(type, meta));
+		} finally {
+			putters.exit(phase);
+		}
+	}
+
+	/**
+	 * Enqueues a TSMeta put
+	 * @param meta The TSMeta to put
+	 */
+	public void put(final CachedTSMeta meta) {
+		final int phase = putters.enter();
+		try {
+			if(closed) throw new IllegalStateException("The write behind buffer is closed");
+			pendingTSMetas.put(meta.getTsuidHex(), meta);
+			enqueue(new PendingWrite(meta));
+		} finally {
+			putters.exit(phase);
+		}
+	}
+
+	/**
+	 * Returns the pending UIDMeta for the passed uid
+	 * @param type The UID type
+	 * @param uidHex The uid hex
+	 * @return the pending UIDMeta or null if there is none
+	 */
+	public CachedUIDMeta getUid(final UniqueId.UniqueIdType type, final String uidHex) {
+		final CachedUIDMeta meta = pendingUids.get(type).get(uidHex);
+		if(meta!=null) return meta;
+		final WriteBehindBuffer p = prior;
+		return p==null ? null : p.getUid(type, uidHex);
+	}
+
+	/**
+	 * Returns the pending UIDMeta for the passed name
+	 * @param type The UID type
+	 * @param name The UID name
+	 * @return the pending UIDMeta or null if there is none
+	 */
+	public CachedUIDMeta getUidByName(final UniqueId.UniqueIdType type, final String name) {
+		final CachedUIDMeta meta = pendingNames.get(type).get(name);
+		if(meta!=null) return meta;
+		final WriteBehindBuffer p = prior;
+		return p==null ? null : p.getUidByName(type, name);
+	}
+
+	/**
+	 * Returns the pending TSMeta for the passed tsuid
+	 * @param tsuidHex The tsuid hex
+	 * @return the pending TSMeta or null if there is none
+	 */
+	public CachedTSMeta getTSMeta(final String tsuidHex) {
+		final CachedTSMeta meta = pendingTSMetas.get(tsuidHex);
+		if(meta!=null) return meta;
+		final WriteBehindBuffer p = prior;
+		return p==null ? null : p.getTSMeta(tsuidHex);
+	}
+
+	/**
+	 * Discards the pending puts of the passed TSMetas, e.g. before they are evicted from the cache.
+	 * A group commit already applying one of them completes before this call returns, so none is committed afterwards.
+	 * @param tsuidHexes The tsuid hexes of the TSMetas to discard
+	 */
+	public void discardTSMetas(final Collection<String> tsuidHexes) {
+		for(String tsuidHex: tsuidHexes) {
+			pendingTSMetas.remove(tsuidHex);
+		}
+		final WriteBehindBuffer p = prior;
+		if(p!=null) p.discardTSMetas(tsuidHexes);
+		committers.flip();
+	}
+
+	/**
+	 * Discards every pending TSMeta put, e.g. before the cache's TSMetas are cleared.
+	 * A group commit already applying one of them completes before this call returns, so none is committed afterwards.
+	 */
+	public void discardTSMetas() {
+		pendingTSMetas.clear();
+		final WriteBehindBuffer p = prior;
+		if(p!=null) p.discardTSMetas();
+		committers.flip();
+	}
+
+	/**
+	 * Returns the number of puts waiting to be committed
+	 * @return the number of pending puts
+	 */
+	public long getPending() {
+		return enqueued.get() - completed;
+	}
+
+	/**
+	 * Returns the number of group commits
+	 * @return the number of group commits
+	 */
+	public long getCommits() {
+		return commits.get();
+	}
+
+	/**
+	 * Returns the number of group commits retried after failing
+	 * @return the number of retries
+	 */
+	public long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * Returns the number of puts discarded after their group commit failed every attempt
+	 * @return the number of discarded puts
+	 */
+	public long getDiscarded() {
+		return discarded.get();
+	}
+
+	/**
+	 * Blocks until every put enqueued before this call has been committed
+	 * @throws IllegalStateException if puts were discarded by group commits failing while waiting
+	 */
+	public void flush() {
+		final long discardedAtStart = discarded.get();
+		final long target = enqueued.get();
+		long current;
+		while((current = flushTarget.get()) < target && !flushTarget.compareAndSet(current, target)) {
+			/* retry */
+		}
+		while(completed < target) {
+			if(!flusher.isAlive()) throw new IllegalStateException("The write behind flusher has stopped");
+			LockSupport.unpark(flusher);
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		checkDiscarded(discardedAtStart);
+	}
+
+	/**
+	 * Flushes pending puts and stops the flusher thread.
+	 * Every put accepted before the close is committed or discarded before this call returns.
+	 * @throws IllegalStateException if puts were discarded by group commits failing while closing
+	 */
+	public synchronized void close() {
+		if(closed) return;
+		final long discardedAtStart = discarded.get();
+		closed = true;
+		// puts which passed the closed check are still queueing, so the flusher must not stop on an empty queue yet 
+		putters.flip();
+		stopping = true;
+		LockSupport.unpark(flusher);
+		try {
+			flusher.join();
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+		}
+		checkDiscarded(discardedAtStart);
+	}
+
+	/**
+	 * Throws if puts have been discarded since the passed discard count was read
+	 * @param discardedAtStart The prior discard count
+	 */
+	private void checkDiscarded(final long discardedAtStart) {
+		final long lost = discarded.get() - discardedAtStart;
+		if(lost > 0) {
+			throw new IllegalStateException("[" + lost + "] write behind puts were discarded after failed commits", lastFailure);
+		}
+	}
+
+	/**
+	 * Queues the passed put and wakes the flusher if a full batch is waiting
+	 * @param pw The put to queue
+	 */
+	private void enqueue(final PendingWrite pw) {
+		queue.offer(pw);
+		if(enqueued.incrementAndGet() - completed >= maxBatch) {
+			LockSupport.unpark(flusher);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		final List<PendingWrite> batch = new ArrayList<PendingWrite>(maxBatch);
+		final List<PendingWrite> live = new ArrayList<PendingWrite>(maxBatch);
+		final WriteBehindBuffer p = prior;
+		if(p!=null) {
+			try {
+				p.close();
+			} catch (IllegalStateException isex) {
+				log.error("Replaced write behind buffer discarded puts", isex);
+			}
+			prior = null;
+		}
+		while(true) {
+			final PendingWrite head = queue.peek();
+			if(head==null) {
+				if(stopping) break;
+				LockSupport.parkNanos(this, maxLatencyNanos);
+				continue;
+			}
+			final long wait = maxLatencyNanos - (System.nanoTime() - head.enqueueTime);
+			if(!closed && wait > 0 && enqueued.get() - completed < maxBatch && completed >= flushTarget.get()) {
+				LockSupport.parkNanos(this, wait);
+				continue;
+			}
+			PendingWrite pw = null;
+			while(batch.size() < maxBatch && (pw = queue.poll())!=null) {
+				batch.add(pw);
+			}
+			final int phase = committers.enter();
+			try {
+				// puts discarded or superseded since they were queued are skipped
+				for(PendingWrite w: batch) {
+					if(w.tsMeta==null || pendingTSMetas.get(w.tsMeta.getTsuidHex())==w.tsMeta) live.add(w);
+				}
+				if(!live.isEmpty()) commit(live);
+				for(PendingWrite w: live) {
+					if(w.tsMeta!=null) {
+						pendingTSMetas.remove(w.tsMeta.getTsuidHex(), w.tsMeta);
+					} else {
+						pendingUids.get(w.type).remove(w.uidMeta.getUidHex(), w.uidMeta);
+						pendingNames.get(w.type).remove(w.uidMeta.getName(), w.uidMeta);
+					}
+				}
+			} finally {
+				committers.exit(phase);
+			}
+			completed += batch.size();
+			batch.clear();
+			live.clear();
+		}
+		log.info("Write behind flusher stopped after [{}] commits", commits.get());
+	}
+
+	/**
+	 * Applies the passed batch in one transaction, retrying with a doubling delay if the commit fails.
+	 * The batch is discarded and counted if every attempt fails.
+	 * @param batch The puts to commit
+	 */
+	private void commit(final List<PendingWrite> batch) {
+		long delay = RETRY_DELAY_MS;
+		for(int attempt = 1; ; attempt++) {
+			try {
+				cache.applyWrites(batch);
+				commits.incrementAndGet();
+				return;
+			} catch (Exception ex) {
+				if(attempt >= MAX_COMMIT_ATTEMPTS) {
+					lastFailure = ex;
+					discarded.addAndGet(batch.size());
+					log.error("Write behind commit of [{}] puts failed [{}] times. Puts will be discarded.", batch.size(), attempt, ex);
+					return;
+				}
+				retries.incrementAndGet();
+				log.warn("Write behind commit of [{}] puts failed. Retrying in [{}] ms.", batch.size(), delay, ex);
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(delay));
+				delay *= 2;
+			}
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <p>Title: WriteBehindBufferTest</p>
+ * <p>Description: Tests {@link WriteBehindBuffer} pending visibility, flush, close and failed commit reporting</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.WriteBehindBufferTest</code></p>
+ */
+
+public class WriteBehindBufferTest {
+	/** The temporary folder holding the cache file */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	/** The cache under test */
+	CacheImpl cache = null;
+
+	@BeforeClass
+	public static void generateCatalog() {
+		System.setProperty(CacheImpl.JDBC_URL_PROP, MetaGenerator.generateInMemory("WriteBehindBufferTest", 10));
+	}
+
+	@Before
+	public void setUp() {
+		cache = CacheImpl.getInstance(new File(folder.getRoot(), "tsmeta.db").getAbsolutePath(), false);
+	}
+
+	@After
+	public void tearDown() {
+		cache.close();
+	}
+
+	/**
+	 * Creates a TSMeta
+	 * @param id The series id, making up the last bytes of the tsuid
+	 * @return the TSMeta
+	 */
+	static CachedTSMeta meta(final int id) {
+		final Map<String, String> tags = new TreeMap<String, String>();
+		tags.put("host", "wb" + id);
+		return new CachedTSMeta("sys.wb", tags, new byte[]{1, 1, 1, 0, 0, 1, (byte)(id >>> 16), (byte)(id >>> 8), (byte)id});
+	}
+
+	@Test
+	public void testFlush() {
+		// a long latency and large batch so puts stay pending until flushed
+		cache.enableWriteBehind(1000, 1, TimeUnit.HOURS);
+		final WriteBehindBuffer wb = cache.getWriteBehind();
+		for(int i = 0; i < 100; i++) {
+			cache.putCachedTSMeta(meta(i));
+		}
+		assertEquals(100, wb.getPending());
+		final CachedTSMeta pending = meta(7);
+		assertSame(wb.getTSMeta(pending.getTsuidHex()), cache.getCachedTSMeta(pending.getTsuidHex()));
+		cache.flush();
+		assertEquals(0, wb.getPending());
+		assertTrue(wb.getCommits() > 0);
+		assertNull(wb.getTSMeta(pending.getTsuidHex()));
+		for(int i = 0; i < 100; i++) {
+			assertNotNull(cache.getCachedTSMeta(meta(i).getTsuidHex()));
+		}
+	}
+
+	@Test
+	public void testClose() {
+		final WriteBehindBuffer wb = new WriteBehindBuffer(cache, 1000, 1, TimeUnit.HOURS);
+		for(int i = 0; i < 100; i++) {
+			wb.put(meta(i));
+		}
+		wb.close();
+		assertEquals(0, wb.getPending());
+		assertEquals(0, wb.getDiscarded());
+		for(int i = 0; i < 100; i++) {
+			assertNotNull(cache.getCachedTSMeta(meta(i).getTsuidHex()));
+		}
+		try {
+			wb.put(meta(100));
+			fail("Put after close should throw");
+		} catch (IllegalStateException expected) {
+			/* No Op */
+		}
+		// closing again is a no op
+		wb.close();
+	}
+
+	@Test
+	public void testFailedCommitsAreReported() {
+		final WriteBehindBuffer wb = new WriteBehindBuffer(cache, 64, 5, TimeUnit.MILLISECONDS);
+		// every group commit now fails
+		cache.close();
+		wb.put(meta(1));
+		try {
+			wb.flush();
+			fail("Flush of a discarded put should throw");
+		} catch (IllegalStateException expected) {
+			/* No Op */
+		}
+		assertEquals(WriteBehindBuffer.MAX_COMMIT_ATTEMPTS - 1, wb.getRetries());
+		assertEquals(1, wb.getDiscarded());
+		assertEquals(0, wb.getPending());
+		// the discard was already reported by the flush
+		wb.close();
+	}
+
+	@Test
+	public void testEvictDiscardsPendingPuts() {
+		cache.putCachedTSMeta(meta(1));
+		cache.enableWriteBehind(1000, 1, TimeUnit.HOURS);
+		// a re-put of a cached series is pending when the series is evicted
+		cache.putCachedTSMeta(meta(1));
+		cache.putCachedTSMeta(meta(2));
+		assertEquals(1, cache.evictTSMetas(Collections.singleton(meta(1).getTsuidHex())));
+		assertNull(cache.getCachedTSMeta(meta(1).getTsuidHex()));
+		cache.flush();
+		assertNull(cache.getCachedTSMeta(meta(1).getTsuidHex()));
+		assertNotNull(cache.getCachedTSMeta(meta(2).getTsuidHex()));
+		assertEquals(0, cache.getWriteBehind().getPending());
+	}
+
+	@Test
+	public void testClearDiscardsPendingPuts() {
+		cache.enableWriteBehind(1000, 1, TimeUnit.HOURS);
+		for(int i = 0; i < 100; i++) {
+			cache.putCachedTSMeta(meta(i));
+		}
+		cache.clearTSMetas();
+		cache.flush();
+		for(int i = 0; i < 100; i++) {
+			assertNull(cache.getCachedTSMeta(meta(i).getTsuidHex()));
+		}
+		assertEquals(0, cache.getWriteBehind().getPending());
+	}
+
+	@Test
+	public void testPutsStayVisibleWhileBuffersAreSwapped() throws Exception {
+		final AtomicInteger published = new AtomicInteger(0);
+		final AtomicInteger misses = new AtomicInteger(0);
+		final AtomicBoolean done = new AtomicBoolean(false);
+		final Thread reader = new Thread("WriteBehindBufferTestReader") {
+			@Override
+			public void run() {
+				int i = 0;
+				while(!done.get()) {
+					final int n = published.get();
+					if(n==0) continue;
+					i = (i + 1) % n;
+					if(cache.getCachedTSMeta(meta(i).getTsuidHex())==null) misses.incrementAndGet();
+				}
+			}
+		};
+		reader.start();
+		try {
+			for(int round = 0; round < 20; round++) {
+				cache.enableWriteBehind(1000, 1, TimeUnit.HOURS);
+				for(int i = 0; i < 50; i++) {
+					cache.putCachedTSMeta(meta(round * 50 + i));
+					published.incrementAndGet();
+				}
+				// replaces the buffer on even rounds and drains it on odd ones
+				if(round % 2==0) cache.enableWriteBehind(1000, 1, TimeUnit.HOURS);
+				else cache.disableWriteBehind();
+			}
+		} finally {
+			done.set(true);
+			reader.join();
+		}
+		assertEquals(0, misses.get());
+	}
+}
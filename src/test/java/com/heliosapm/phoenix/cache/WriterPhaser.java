@@ -0,0 +1,73 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Title: WriterPhaser</p>
+ * <p>Description: Tracks in-flight writers in two alternating phases so a reader can publish a change and then
+ * wait out only the writers which may have missed it. Writers never block each other or the reader.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.cache.WriterPhaser</code></p>
+ */
+
+public class WriterPhaser {
+	/** The number of longs between the phase counters so each sits on its own cache line */
+	private static final int PAD = 8;
+	/** The in-flight writer counts for each phase */
+	private final AtomicLongArray inflight = new AtomicLongArray(2 * PAD);
+	/** The current phase, 0 or 1 */
+	private volatile int phase = 0;
+
+	/**
+	 * Registers a writer in the current phase. Anything published before a {@link #flip()} which
+	 * the writer does not wait on is visible to the writer after this call returns.
+	 * @return the phase to pass to {@link #exit(int)}
+	 */
+	public int enter() {
+		for(;;) {
+			final int p = phase;
+			inflight.incrementAndGet(p * PAD);
+			if(phase==p) return p;
+			inflight.decrementAndGet(p * PAD);
+		}
+	}
+
+	/**
+	 * Deregisters a writer
+	 * @param p The phase returned by {@link #enter()}
+	 */
+	public void exit(final int p) {
+		inflight.decrementAndGet(p * PAD);
+	}
+
+	/**
+	 * Switches writers to the other phase and waits until every writer which entered before the switch has exited
+	 */
+	public synchronized void flip() {
+		final int p = phase;
+		phase = p ^ 1;
+		while(inflight.get(p * PAD)!=0) {
+			LockSupport.parkNanos(10000L);
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.phoenix.meta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.opentsdb.uid.UniqueId;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Title: DecodedMetaMaintainerTest</p>
+ * <p>Description: Tests the {@link DecodedMetaMaintainer} TSMeta decoding and high water mark logic, without a Phoenix cluster</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.phoenix.meta.DecodedMetaMaintainerTest</code></p>
+ */
+
+public class DecodedMetaMaintainerTest {
+	/** The maintainer under test, never connected */
+	DecodedMetaMaintainer maintainer = null;
+	/** The recorded TSMeta upserts */
+	RecordingStatement metas = null;
+	/** The recorded tag pair upserts */
+	RecordingStatement tags = null;
+	/** The TSMeta cell timestamp */
+	static final Timestamp TS = new Timestamp(1500000000000L);
+
+	/**
+	 * <p>Title: RecordingStatement</p>
+	 * <p>Description: A prepared statement which records the parameters of each executed update</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.phoenix.meta.DecodedMetaMaintainerTest.RecordingStatement</code></p>
+	 */
+	static class RecordingStatement implements InvocationHandler {
+		/** The parameters of the next update */
+		final Map<Integer, Object> params = new TreeMap<Integer, Object>();
+		/** The parameters of each executed update */
+		final List<List<Object>> rows = new ArrayList<List<Object>>();
+		/** The statement proxy */
+		final PreparedStatement statement = (PreparedStatement)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class}, this);
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+		 */
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			if(method.getName().startsWith("set") && args.length==2) {
+				params.put((Integer)args[0], args[1]);
+				return null;
+			}
+			if("executeUpdate".equals(method.getName()) && args==null) {
+				rows.add(new ArrayList<Object>(params.values()));
+				return 1;
+			}
+			throw new UnsupportedOperationException(method.getName());
+		}
+	}
+
+	@Before
+	public void setUp() {
+		maintainer = new DecodedMetaMaintainer("jdbc:phoenix:localhost");
+		maintainer.names.get(UniqueId.UniqueIdType.METRIC).put("000001", "sys.cpu");
+		maintainer.names.get(UniqueId.UniqueIdType.TAGK).put("000001", "host");
+		maintainer.names.get(UniqueId.UniqueIdType.TAGK).put("000002", "dc");
+		maintainer.names.get(UniqueId.UniqueIdType.TAGV).put("000005", "web1");
+		maintainer.names.get(UniqueId.UniqueIdType.TAGV).put("00FF06", "east");
+		metas = new RecordingStatement();
+		tags = new RecordingStatement();
+	}
+
+	/**
+	 * Builds a list of values
+	 * @param values The values
+	 * @return the list
+	 */
+	static List<Object> row(final Object...values) {
+		final List<Object> row = new ArrayList<Object>(values.length);
+		for(Object v: values) row.add(v);
+		return row;
+	}
+
+	@Test
+	public void testUpsertDecodesTSMeta() throws Exception {
+		final byte[] tsuid = {0, 0, 1, 0, 0, 1, 0, 0, 5, 0, 0, 2, 0, (byte)0xFF, 6};
+		assertTrue(maintainer.upsert(metas.statement, tags.statement, tsuid, TS));
+		assertEquals(1, metas.rows.size());
+		assertEquals(row("00000100000100000500000200FF06", "000001", "sys.cpu", "sys.cpu:host=web1,dc=east", TS), metas.rows.get(0));
+		assertEquals(2, tags.rows.size());
+		assertEquals(row("00000100000100000500000200FF06", (short)0, "000001", "000005", "host", "web1"), tags.rows.get(0));
+		assertEquals(row("00000100000100000500000200FF06", (short)1, "000002", "00FF06", "dc", "east"), tags.rows.get(1));
+	}
+
+	@Test
+	public void testUpsertUnresolvedUid() throws Exception {
+		// tag value 000007 has not been decoded yet, so the TSMeta is left for a retry
+		assertFalse(maintainer.upsert(metas.statement, tags.statement, new byte[]{0, 0, 1, 0, 0, 1, 0, 0, 7}, TS));
+		assertFalse(maintainer.upsert(metas.statement, tags.statement, new byte[]{0, 0, 9, 0, 0, 1, 0, 0, 5}, TS));
+		assertTrue(metas.rows.isEmpty());
+		assertTrue(tags.rows.isEmpty());
+	}
+
+	@Test
+	public void testUpsertSkipsMalformedTsuid() throws Exception {
+		// skipped rather than retried, as no decode will ever succeed
+		assertTrue(maintainer.upsert(metas.statement, tags.statement, new byte[]{0, 0, 1, 0, 0, 1, 0}, TS));
+		assertTrue(maintainer.upsert(metas.statement, tags.statement, new byte[]{0, 0}, TS));
+		assertTrue(metas.rows.isEmpty());
+		assertTrue(tags.rows.isEmpty());
+	}
+
+	@Test
+	public void testNextHighWaterMark() {
+		// nothing newer than the overlap start: the mark stays
+		assertEquals(-1L, DecodedMetaMaintainer.nextHighWaterMark(1000L, 1000L, Long.MAX_VALUE));
+		assertEquals(5000L, DecodedMetaMaintainer.nextHighWaterMark(1000L, 5000L, Long.MAX_VALUE));
+		// held just below the earliest cell to retry
+		assertEquals(2999L, DecodedMetaMaintainer.nextHighWaterMark(1000L, 5000L, 3000L));
+		assertEquals(5000L, DecodedMetaMaintainer.nextHighWaterMark(1000L, 5000L, 8000L));
+		// a retry of the first cell read keeps the mark where it was
+		assertEquals(-1L, DecodedMetaMaintainer.nextHighWaterMark(1000L, 5000L, 1001L));
+	}
+}